@@ -0,0 +1,243 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Stands in for the elastic search server in tests, keeping the documents of
+ * one index and type in memory. Answers the requests the app makes: getting,
+ * putting, updating and deleting documents by id, bulk requests, and
+ * searches by ids with range filters, or an or of them (every other search
+ * matches everything).
+ * Partial updates are merged into the document the way the server does,
+ * merging objects field by field.
+ * The contents of media are kept apart from the stories, like a second type,
+ * so searches never find them.
+ *
+ * @author Stephanie Gil
+ */
+public class FakeElasticSearch implements StubHttpServer.Handler {
+	private LinkedHashMap<String, JsonObject> docs = 
+			new LinkedHashMap<String, JsonObject>();
+	private HashMap<String, JsonObject> blobs = 
+			new HashMap<String, JsonObject>();
+	private ArrayList<StubHttpServer.Request> requests = 
+			new ArrayList<StubHttpServer.Request>();
+	private JsonParser parser = new JsonParser();
+
+	public synchronized JsonObject getDocument(String id) {
+		return docs.get(id);
+	}
+
+	public synchronized void putDocument(String id, JsonObject doc) {
+		docs.put(id, doc);
+	}
+
+	public synchronized JsonObject getBlob(String hash) {
+		return blobs.get(hash);
+	}
+
+	/**
+	 * Returns every request answered so far.
+	 */
+	public synchronized ArrayList<StubHttpServer.Request> getRequests() {
+		return new ArrayList<StubHttpServer.Request>(requests);
+	}
+
+	@Override
+	public synchronized StubHttpServer.Response handle(
+			StubHttpServer.Request request) {
+		requests.add(request);
+		String path = request.path;
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		String name = path.substring(path.lastIndexOf('/') + 1);
+
+		if (path.contains("/blobs/")) {
+			return blob(request, name);
+		} else if (name.equals("_bulk")) {
+			return bulk(request.getBody());
+		} else if (name.equals("_search")) {
+			return search(request.getBody());
+		} else if (name.equals("_update")) {
+			String[] parts = path.split("/");
+			JsonObject doc = docs.get(parts[parts.length - 2]);
+			if (doc == null) {
+				return new StubHttpServer.Response(404, "{\"ok\":false}");
+			}
+			merge(doc, parser.parse(request.getBody()).getAsJsonObject()
+					.getAsJsonObject("doc"));
+			return new StubHttpServer.Response(200, "{\"ok\":true}");
+		} else if (request.method.equals("GET")) {
+			JsonObject doc = docs.get(name);
+			if (doc == null) {
+				return new StubHttpServer.Response(404, 
+						"{\"_id\":\"" + name + "\",\"exists\":false}");
+			}
+			return new StubHttpServer.Response(200, "{\"_id\":\"" + name 
+					+ "\",\"exists\":true,\"_source\":" + doc + "}");
+		} else if (request.method.equals("DELETE")) {
+			boolean found = docs.remove(name) != null;
+			return new StubHttpServer.Response(found ? 200 : 404, 
+					"{\"found\":" + found + "}");
+		} else {
+			docs.put(name, parser.parse(request.getBody()).getAsJsonObject());
+			return new StubHttpServer.Response(201, "{\"ok\":true}");
+		}
+	}
+
+	private StubHttpServer.Response blob(StubHttpServer.Request request,
+			String hash) {
+		if (request.method.equals("POST") || request.method.equals("PUT")) {
+			blobs.put(hash, parser.parse(request.getBody()).getAsJsonObject());
+			return new StubHttpServer.Response(201, "{\"ok\":true}");
+		}
+		JsonObject blob = blobs.get(hash);
+		if (blob == null) {
+			return new StubHttpServer.Response(404, 
+					"{\"_id\":\"" + hash + "\",\"exists\":false}");
+		}
+		return new StubHttpServer.Response(200, "{\"_id\":\"" + hash 
+				+ "\",\"exists\":true,\"_source\":" + blob + "}");
+	}
+
+	private StubHttpServer.Response bulk(String body) {
+		StringBuilder items = new StringBuilder();
+		String[] lines = body.split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			JsonObject action = parser.parse(lines[i]).getAsJsonObject();
+			Map.Entry<String, JsonElement> entry = action.entrySet()
+					.iterator().next();
+			String id = entry.getValue().getAsJsonObject().get("_id")
+					.getAsString();
+			int status = 200;
+			if (entry.getKey().equals("delete")) {
+				status = (docs.remove(id) != null) ? 200 : 404;
+			} else {
+				JsonObject source = parser.parse(lines[++i])
+						.getAsJsonObject();
+				if (entry.getKey().equals("index")) {
+					docs.put(id, source);
+					status = 201;
+				} else if (docs.containsKey(id)) {
+					merge(docs.get(id), source.getAsJsonObject("doc"));
+				} else {
+					status = 404;
+				}
+			}
+			if (items.length() > 0) {
+				items.append(",");
+			}
+			items.append("{\"" + entry.getKey() + "\":{\"_id\":\"" + id 
+					+ "\",\"status\":" + status);
+			if (status == 404) {
+				items.append(",\"error\":\"DocumentMissingException\"");
+			}
+			items.append("}}");
+		}
+		return new StubHttpServer.Response(200, "{\"items\":[" + items 
+				+ "]}");
+	}
+
+	private StubHttpServer.Response search(String body) {
+		JsonObject query = parser.parse(body).getAsJsonObject()
+				.getAsJsonObject("query");
+		ArrayList<String> ids = null;
+		// Field to the time it has to be after, for any of them
+		HashMap<String, Long> ranges = new HashMap<String, Long>();
+		if (query != null && query.has("filtered")) {
+			JsonObject filtered = query.getAsJsonObject("filtered");
+			ids = new ArrayList<String>();
+			JsonArray values = filtered.getAsJsonObject("query")
+					.getAsJsonObject("ids").getAsJsonArray("values");
+			for (JsonElement value : values) {
+				ids.add(value.getAsString());
+			}
+			JsonObject filter = filtered.getAsJsonObject("filter");
+			JsonArray filters = new JsonArray();
+			if (filter.has("or")) {
+				filters = filter.getAsJsonArray("or");
+			} else {
+				filters.add(filter);
+			}
+			for (JsonElement range : filters) {
+				for (Map.Entry<String, JsonElement> field : range
+						.getAsJsonObject().getAsJsonObject("range")
+						.entrySet()) {
+					ranges.put(field.getKey(), field.getValue()
+							.getAsJsonObject().get("gt").getAsLong());
+				}
+			}
+		}
+
+		StringBuilder hits = new StringBuilder();
+		int total = 0;
+		for (Map.Entry<String, JsonObject> doc : docs.entrySet()) {
+			if (ids != null && !ids.contains(doc.getKey())) {
+				continue;
+			}
+			if (!ranges.isEmpty() && !inRange(doc.getValue(), ranges)) {
+				continue;
+			}
+			if (total++ > 0) {
+				hits.append(",");
+			}
+			hits.append("{\"_id\":\"" + doc.getKey() + "\",\"_source\":" 
+					+ doc.getValue() + "}");
+		}
+		return new StubHttpServer.Response(200, "{\"hits\":{\"total\":" 
+				+ total + ",\"hits\":[" + hits + "]}}");
+	}
+
+	private static boolean inRange(JsonObject doc,
+			HashMap<String, Long> ranges) {
+		for (Map.Entry<String, Long> range : ranges.entrySet()) {
+			JsonElement value = doc.get(range.getKey());
+			if (value != null && value.getAsLong() > range.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Merges a partial document into a document, the way the server does.
+	 */
+	private static void merge(JsonObject doc, JsonObject partial) {
+		for (Map.Entry<String, JsonElement> field : partial.entrySet()) {
+			JsonElement old = doc.get(field.getKey());
+			if (old != null && old.isJsonObject() 
+					&& field.getValue().isJsonObject()) {
+				merge(old.getAsJsonObject(), 
+						field.getValue().getAsJsonObject());
+			} else {
+				doc.add(field.getKey(), field.getValue());
+			}
+		}
+	}
+}
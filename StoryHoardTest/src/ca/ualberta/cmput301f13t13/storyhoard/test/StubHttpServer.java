@@ -0,0 +1,375 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A small HTTP/1.1 server running inside the test process, so the
+ * ServerManager can be tested without the real server. Connections are kept
+ * alive between requests, and the server counts how many connections and
+ * requests it got so tests can check that connections are reused.
+ *
+ * Every request is given to a Handler, which decides what to answer.
+ * Gzipped request bodies are uncompressed before the handler sees them, and
+ * responses can be gzipped for clients that accept it. The server counts
+ * the bytes of the bodies that went over the wire both ways.
+ *
+ * @author Stephanie Gil
+ */
+public class StubHttpServer {
+	private ServerSocket serverSocket = null;
+	private volatile Handler handler = null;
+	private volatile boolean running = true;
+	private AtomicInteger connections = new AtomicInteger();
+	private AtomicInteger requests = new AtomicInteger();
+	private AtomicLong bytesReceived = new AtomicLong();
+	private AtomicLong bytesSent = new AtomicLong();
+	private volatile boolean compressResponses = false;
+
+	/**
+	 * A request received by the stub server.
+	 */
+	public static class Request {
+		public String method;
+		public String path;
+		public HashMap<String, String> headers = new HashMap<String, String>();
+		// Uncompressed
+		public byte[] body;
+		// Length of the body as it was sent
+		public int wireLength;
+
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase(Locale.US));
+		}
+
+		public String getBody() {
+			try {
+				return new String(body, "UTF-8");
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * The answer the stub server sends back for a request.
+	 */
+	public static class Response {
+		public int status = 200;
+		public HashMap<String, String> headers = new HashMap<String, String>();
+		public byte[] body;
+
+		public Response(int status, String body) {
+			this.status = status;
+			try {
+				this.body = body.getBytes("UTF-8");
+			} catch (IOException e) {
+				this.body = new byte[0];
+			}
+			headers.put("Content-Type", "application/json; charset=UTF-8");
+		}
+	}
+
+	/**
+	 * Decides what the stub server answers to a request.
+	 */
+	public interface Handler {
+		Response handle(Request request);
+	}
+
+	/**
+	 * Starts a stub server on a free local port that answers every request
+	 * with the given json.
+	 *
+	 * @param json
+	 */
+	public StubHttpServer(final String json) throws IOException {
+		this(new Handler() {
+			@Override
+			public Response handle(Request request) {
+				return new Response(200, json);
+			}
+		});
+	}
+
+	/**
+	 * Starts a stub server on a free local port.
+	 *
+	 * @param handler
+	 */
+	public StubHttpServer(Handler handler) throws IOException {
+		this.handler = handler;
+		serverSocket = new ServerSocket(0, 50,
+				InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "StubHttpServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Returns the url of the stub server, ending in a slash.
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+	}
+
+	public void setHandler(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns the number of connections opened to the server so far.
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Returns the number of requests answered by the server so far.
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the number of bytes of request bodies received so far, as
+	 * they were sent.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * Returns the number of bytes of response bodies sent so far, as they
+	 * were sent.
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Sets whether responses are gzipped for the clients that accept it.
+	 */
+	public void setCompressResponses(boolean compress) {
+		compressResponses = compress;
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connections.incrementAndGet();
+				Thread worker = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+				worker.setDaemon(true);
+				worker.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests coming through one connection until the client
+	 * closes it or asks for it to be closed.
+	 */
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			Request request;
+			while ((request = readRequest(in)) != null) {
+				Response response = handler.handle(request);
+				requests.incrementAndGet();
+				writeResponse(out, request, response);
+				if ("close".equalsIgnoreCase(request.getHeader("Connection"))) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	private Request readRequest(InputStream in) throws IOException {
+		String line = readLine(in);
+		if (line == null || line.length() == 0) {
+			return null;
+		}
+		Request request = new Request();
+		String[] parts = line.split(" ");
+		request.method = parts[0];
+		request.path = parts[1];
+
+		while ((line = readLine(in)) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			request.headers.put(line.substring(0, colon).trim()
+					.toLowerCase(Locale.US), line.substring(colon + 1).trim());
+		}
+
+		String length = request.getHeader("Content-Length");
+		if (length != null) {
+			request.body = readFully(in, Integer.parseInt(length));
+		} else if ("chunked".equalsIgnoreCase(
+				request.getHeader("Transfer-Encoding"))) {
+			request.body = readChunked(in);
+		} else {
+			request.body = new byte[0];
+		}
+		request.wireLength = request.body.length;
+		bytesReceived.addAndGet(request.wireLength);
+		if ("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+			request.body = gunzip(request.body);
+		}
+		return request;
+	}
+
+	private byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String size = readLine(in);
+			int semicolon = size.indexOf(';');
+			if (semicolon >= 0) {
+				size = size.substring(0, semicolon);
+			}
+			int length = Integer.parseInt(size.trim(), 16);
+			if (length == 0) {
+				// trailers end with an empty line
+				while ((size = readLine(in)) != null && size.length() > 0);
+				return body.toByteArray();
+			}
+			body.write(readFully(in, length));
+			readLine(in);
+		}
+	}
+
+	private byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(bytes, read, length - read);
+			if (n < 0) {
+				throw new IOException("Connection closed mid request");
+			}
+			read += n;
+		}
+		return bytes;
+	}
+
+	private String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int end = line.length();
+				if (end > 0 && line.charAt(end - 1) == '\r') {
+					line.setLength(end - 1);
+				}
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private byte[] gunzip(byte[] body) throws IOException {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private void writeResponse(OutputStream out, Request request,
+			Response response) throws IOException {
+		byte[] body = response.body;
+		String accepted = request.getHeader("Accept-Encoding");
+		boolean gzip = compressResponses && accepted != null
+				&& accepted.toLowerCase(Locale.US).contains("gzip");
+		if (gzip) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+			gzipOut.write(body);
+			gzipOut.close();
+			body = compressed.toByteArray();
+		}
+		bytesSent.addAndGet(body.length);
+
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(response.status).append(" Stub\r\n");
+		for (String name : response.headers.keySet()) {
+			head.append(name).append(": ").append(response.headers.get(name))
+					.append("\r\n");
+		}
+		if (gzip) {
+			head.append("Content-Encoding: gzip\r\n");
+		}
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		head.append("Connection: keep-alive\r\n\r\n");
+		out.write(head.toString().getBytes("US-ASCII"));
+		// The answer to a head request has the length of a body it doesn't have
+		if (!request.method.equals("HEAD")) {
+			out.write(body);
+		}
+		out.flush();
+	}
+}
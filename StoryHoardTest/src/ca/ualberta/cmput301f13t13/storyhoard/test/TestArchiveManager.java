@@ -0,0 +1,267 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.ArchiveManager;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.StoringManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryArchive;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Tests the ArchiveManager class, reading stories out of archive files.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ArchiveManager
+ */
+public class TestArchiveManager extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private BlobStore blobs = null;
+	private File file = null;
+	private Story story = null;
+	private Chapter first = null;
+	private Chapter second = null;
+	private byte[] picture = null;
+
+	public TestArchiveManager() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		blobs = BlobStore.getInstance(getActivity());
+		file = new File(getActivity().getCacheDir(), "test.shra");
+		picture = new byte[100 * 1000];
+		for (int i = 0; i < picture.length; i++) {
+			picture[i] = (byte) (i * 7);
+		}
+
+		story = new Story("The Cow", "Bob", "A story", "phone");
+		first = new Chapter(story.getId(), "Moo.");
+		second = new Chapter(story.getId(), "Moo?");
+		Chapter third = new Chapter(story.getId(), "The end.");
+		first.addChoice(new Choice(first.getId(), second.getId(), "Ask"));
+		first.addChoice(new Choice(first.getId(), third.getId(), "Leave"));
+		second.addChoice(new Choice(second.getId(), first.getId(), "Back"));
+		Media photo = new Media(second.getId(), null, Media.PHOTO);
+		photo.setBlobHash(blobs.put(new ByteArrayInputStream(picture)));
+		second.addPhoto(photo);
+		story.addChapter(first);
+		story.addChapter(second);
+		story.addChapter(third);
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Tests finding chapters by their id, with their choices and media.
+	 */
+	public void testGetChapter() throws IOException {
+		ArchiveManager manager = write(story);
+		assertEquals(manager.getStory().getTitle(), "The Cow");
+		assertEquals(manager.getStory().getFirstChapterId(), first.getId());
+		assertEquals(manager.getChapterCount(), 3);
+
+		Chapter read = manager.getChapter(second.getId());
+		assertEquals(read.getText(), "Moo?");
+		assertEquals(read.getStoryId(), story.getId());
+		assertEquals(read.getChoices().size(), 1);
+		assertEquals(read.getChoices().get(0).getNextChapter(),
+				first.getId());
+		assertEquals(read.getPhotos().get(0).getId(), second.getPhotos()
+				.get(0).getId());
+		assertTrue(read.getChanges().isEmpty());
+		assertEquals(manager.getChapter(first.getId()).getChoices().get(1)
+				.getText(), "Leave");
+		assertNull(manager.getChapter(UUID.randomUUID()));
+	}
+
+	/**
+	 * Tests retrieving each kind of object the way the other managers are
+	 * asked.
+	 */
+	public void testRetrieve() throws IOException {
+		ArchiveManager manager = write(story);
+		ArrayList<Object> found = manager.retrieve(new Chapter(null,
+				story.getId(), null));
+		assertEquals(found.size(), 3);
+		found = manager.retrieve(new Chapter(null, UUID.randomUUID(), null));
+		assertTrue(found.isEmpty());
+		found = manager.retrieve(new Story(story.getId(), null, null, null,
+				null));
+		assertEquals(((Story) found.get(0)).getAuthor(), "Bob");
+
+		found = manager.retrieve(new Choice(null, first.getId()));
+		assertEquals(found.size(), 2);
+		UUID back = second.getChoices().get(0).getId();
+		found = manager.retrieve(new Choice(back, null));
+		assertEquals(((Choice) found.get(0)).getText(), "Back");
+
+		found = manager.retrieve(new Media(null, null, null, Media.PHOTO));
+		assertEquals(found.size(), 1);
+		found = manager.retrieve(new Media(null, null, null,
+				Media.ILLUSTRATION));
+		assertTrue(found.isEmpty());
+	}
+
+	/**
+	 * Tests reading the contents of a media out of the archive.
+	 */
+	public void testOpenContent() throws IOException {
+		ArchiveManager manager = write(story);
+		Media photo = manager.getChapter(second.getId()).getPhotos().get(0);
+		InputStream in = manager.openContent(photo);
+		byte[] read = new byte[picture.length + 1];
+		int at = 0;
+		int n;
+		while ((n = in.read(read, at, read.length - at)) > 0) {
+			at += n;
+		}
+		in.close();
+		assertEquals(at, picture.length);
+		assertTrue(Arrays.equals(Arrays.copyOf(read, at), picture));
+
+		Media missing = new Media(first.getId(), null, Media.PHOTO);
+		missing.setBlobHash("0000");
+		assertNull(manager.openContent(missing));
+	}
+
+	/**
+	 * Tests that archives can't be changed, and files that aren't archives
+	 * aren't opened.
+	 */
+	public void testReadOnly() throws IOException {
+		ArchiveManager manager = write(story);
+		try {
+			manager.insert(new Chapter(story.getId(), "Moo!"));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+
+		OutputStream out = new FileOutputStream(file);
+		out.write("Not an archive, but long enough to be one".getBytes());
+		out.close();
+		try {
+			new ArchiveManager(file);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Tests reading a story through the controller once its archive is
+	 * opened, without importing it.
+	 */
+	public void testOpenThroughController() throws IOException {
+		write(story);
+		// The photo has to come out of the archive to be shown
+		String hash = second.getPhotos().get(0).getBlobHash();
+		blobs.getFile(hash).delete();
+
+		SHController gc = SHController.getInstance(getActivity());
+		StoringManager manager = gc.openArchive(file);
+		try {
+			Story read = gc.getStory(story.getId());
+			assertEquals(read.getTitle(), "The Cow");
+			assertEquals(read.getChapters().size(), 3);
+
+			Chapter chapter = gc.getCompleteChapter(second.getId());
+			assertEquals(chapter.getText(), "Moo?");
+			assertEquals(chapter.getChoices().size(), 1);
+			assertEquals(chapter.getPhotos().get(0).getBlobHash(), hash);
+			assertTrue(blobs.contains(hash));
+
+			try {
+				manager.update(chapter);
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// Expected
+			}
+		} finally {
+			gc.closeArchive(story.getId());
+		}
+		assertNull(gc.getCompleteChapter(second.getId()));
+	}
+
+	/**
+	 * Times opening a large story and reading chapters out of it.
+	 */
+	public void testLargeStory() throws IOException {
+		int size = 20000;
+		Story large = new Story("The Herd", "Bob", "A long story", "phone");
+		UUID[] ids = new UUID[size];
+		for (int i = 0; i < size; i++) {
+			Chapter chapter = new Chapter(large.getId(), "Moo " + i + ".");
+			ids[i] = chapter.getId();
+			if (i > 0) {
+				large.getChapter(ids[(i - 1) / 2]).addChoice(
+						new Choice(ids[(i - 1) / 2], ids[i], "Go " + i));
+			}
+			large.addChapter(chapter);
+		}
+		large.setFirstChapterId(ids[0]);
+
+		long start = System.nanoTime();
+		ArchiveManager manager = write(large);
+		long opened = System.nanoTime();
+		for (int i = 0; i < size; i += 97) {
+			Chapter chapter = manager.getChapter(ids[i]);
+			assertEquals(chapter.getText(), "Moo " + i + ".");
+			assertEquals(chapter.getChoices().size(),
+					Math.max(0, Math.min(2, size - 1 - 2 * i)));
+		}
+		long read = System.nanoTime();
+
+		System.out.println("Archive of " + size + " chapters written and "
+				+ "opened in " + (opened - start) / 1000000 + "ms, "
+				+ (size / 97 + 1) + " chapters read in "
+				+ (read - opened) / 1000000 + "ms");
+	}
+
+	private ArchiveManager write(Story story) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			StoryArchive.write(story, blobs, out);
+		} finally {
+			out.close();
+		}
+		return new ArchiveManager(file);
+	}
+}
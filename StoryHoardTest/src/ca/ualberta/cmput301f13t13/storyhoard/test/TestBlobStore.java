@@ -0,0 +1,198 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.MediaManager;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Class meant for the testing of the BlobStore class in the StoryHoard
+ * application.
+ *
+ * @author Ashley Brown
+ *
+ * @see BlobStore
+ */
+public class TestBlobStore extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private BlobStore blobs = null;
+
+	public TestBlobStore() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		blobs = BlobStore.getInstance(getActivity());
+	}
+
+	/**
+	 * Tests storing some bytes and reading them back.
+	 */
+	public void testPutOpen() throws IOException {
+		byte[] bytes = "not really a photo".getBytes();
+		String hash = blobs.put(new ByteArrayInputStream(bytes));
+
+		assertTrue(blobs.contains(hash));
+		assertEquals(blobs.getFile(hash).length(), bytes.length);
+
+		InputStream in = blobs.open(hash);
+		byte[] read = new byte[bytes.length];
+		assertEquals(in.read(read), bytes.length);
+		assertEquals(in.read(), -1);
+		in.close();
+		assertTrue(new String(read).equals("not really a photo"));
+	}
+
+	/**
+	 * Tests that the same contents are only stored once.
+	 */
+	public void testSameContents() throws IOException {
+		byte[] bytes = UUID.randomUUID().toString().getBytes();
+		String first = blobs.put(new ByteArrayInputStream(bytes));
+		String second = blobs.put(new ByteArrayInputStream(bytes));
+		String other = blobs.put(new ByteArrayInputStream("other".getBytes()));
+
+		assertTrue(first.equals(second));
+		assertFalse(first.equals(other));
+	}
+
+	/**
+	 * Tests storing contents much bigger than the buffer used to copy them.
+	 */
+	public void testLargeContents() throws IOException {
+		final int size = 5 * 1024 * 1024;
+		InputStream source = new InputStream() {
+			private int count = 0;
+
+			@Override
+			public int read() {
+				return (count < size) ? (count++ % 251) : -1;
+			}
+		};
+		String hash = blobs.put(source);
+		assertEquals(blobs.getFile(hash).length(), size);
+	}
+
+	/**
+	 * Tests that saving a media copies its file into the blob store, and that
+	 * the media loaded back only has the hash of it.
+	 */
+	public void testSaveMedia() throws IOException {
+		File file = File.createTempFile("photo", ".jpg");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("pretend jpeg".getBytes());
+		out.close();
+
+		MediaManager mm = MediaManager.getInstance(getActivity());
+		Media photo = new Media(UUID.randomUUID(), file.getPath(), Media.PHOTO);
+		mm.insert(photo);
+		file.delete();
+
+		Media criteria = new Media(photo.getId(), null, null, null);
+		Media loaded = (Media) mm.retrieve(criteria).get(0);
+		assertTrue(loaded.getBlobHash().equals(photo.getBlobHash()));
+
+		InputStream in = loaded.openContent(blobs);
+		byte[] read = new byte["pretend jpeg".length()];
+		assertEquals(in.read(read), read.length);
+		in.close();
+		assertTrue(new String(read).equals("pretend jpeg"));
+	}
+
+	/**
+	 * Tests that a media given a new file stores the new file when it is
+	 * saved, instead of keeping the old one.
+	 */
+	public void testChangePath() throws IOException {
+		MediaManager mm = MediaManager.getInstance(getActivity());
+		Media photo = new Media(UUID.randomUUID(), 
+				writeFile("old jpeg").getPath(), Media.PHOTO);
+		mm.insert(photo);
+		String oldHash = photo.getBlobHash();
+
+		photo.setPath(writeFile("new jpeg").getPath());
+		assertNull(photo.getBlobHash());
+		mm.update(photo);
+		assertFalse(photo.getBlobHash().equals(oldHash));
+
+		Media criteria = new Media(photo.getId(), null, null, null);
+		Media loaded = (Media) mm.retrieve(criteria).get(0);
+		InputStream in = loaded.openContent(blobs);
+		byte[] read = new byte["new jpeg".length()];
+		assertEquals(in.read(read), read.length);
+		in.close();
+		assertTrue(new String(read).equals("new jpeg"));
+	}
+
+	/**
+	 * Tests that a hash that isn't one can't be used to reach other files,
+	 * and is treated as nothing being stored.
+	 */
+	public void testBadHash() throws IOException {
+		String bad = "../databases/" + DBContract.DATABASE_NAME;
+		try {
+			blobs.getFile(bad);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertFalse(blobs.contains(bad));
+		try {
+			blobs.open(bad);
+			fail();
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+
+		// The media still has its file to fall back on
+		Media photo = new Media(UUID.randomUUID(), 
+				writeFile("pretend jpeg").getPath(), Media.PHOTO);
+		photo.setBlobHash(bad);
+		InputStream in = photo.openContent(blobs);
+		byte[] read = new byte["pretend jpeg".length()];
+		assertEquals(in.read(read), read.length);
+		in.close();
+		assertTrue(new String(read).equals("pretend jpeg"));
+	}
+
+	private File writeFile(String contents) throws IOException {
+		File file = File.createTempFile("photo", ".jpg");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(contents.getBytes());
+		out.close();
+		return file;
+	}
+}
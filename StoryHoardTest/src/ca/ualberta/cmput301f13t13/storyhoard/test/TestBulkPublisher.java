@@ -0,0 +1,270 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.BulkPublisher;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ServerManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests the BulkPublisher class against a stub of the server.
+ *
+ * @author Stephanie Gil
+ *
+ * @see BulkPublisher
+ */
+public class TestBulkPublisher extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private ArrayList<StubHttpServer.Request> requests = null;
+	private StubHttpServer stub = null;
+	private ServerManager server = null;
+
+	public TestBulkPublisher() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		requests = new ArrayList<StubHttpServer.Request>();
+		stub = new StubHttpServer(new BulkHandler(null));
+		server = new StubServerManager(stub.getUrl());
+	}
+
+	protected void tearDown() throws Exception {
+		stub.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Tests that operations are split into batches of at most the most
+	 * actions, and that each one is written as a line of json followed by
+	 * its source.
+	 */
+	public void testBatchByCount() throws Exception {
+		BulkPublisher publisher = new BulkPublisher(server, 2, 
+				BulkPublisher.MAX_BYTES);
+		Story first = newStory("The Cow");
+		Story second = newStory("The Pig");
+		UUID gone = UUID.randomUUID();
+		publisher.index(first);
+		publisher.index(second);
+		publisher.delete(gone);
+
+		ArrayList<BulkPublisher.Failure> failures = publisher.flush();
+		assertEquals(failures.size(), 0);
+		assertEquals(publisher.getPendingCount(), 0);
+		assertEquals(requests.size(), 2);
+
+		StubHttpServer.Request batch = requests.get(0);
+		assertEquals(batch.method, "POST");
+		assertEquals(batch.path, "/_bulk");
+		String[] lines = batch.getBody().split("\n");
+		assertEquals(lines.length, 4);
+		JsonParser parser = new JsonParser();
+		assertEquals(parser.parse(lines[0]).getAsJsonObject()
+				.getAsJsonObject("index").get("_id").getAsString(), 
+				first.getId().toString());
+		assertEquals(parser.parse(lines[1]).getAsJsonObject()
+				.get("title").getAsString(), "The Cow");
+
+		// A delete has no source line
+		lines = requests.get(1).getBody().split("\n");
+		assertEquals(lines.length, 1);
+		assertEquals(parser.parse(lines[0]).getAsJsonObject()
+				.getAsJsonObject("delete").get("_id").getAsString(), 
+				gone.toString());
+	}
+
+	/**
+	 * Tests that a batch stops growing once it is over the most bytes, but
+	 * always holds at least one operation.
+	 */
+	public void testBatchByBytes() throws Exception {
+		BulkPublisher publisher = new BulkPublisher(server, 
+				BulkPublisher.MAX_ACTIONS, 10);
+		for (int i = 0; i < 3; i++) {
+			publisher.index(newStory("Story " + i));
+		}
+		assertEquals(publisher.flush().size(), 0);
+		assertEquals(requests.size(), 3);
+		for (StubHttpServer.Request request : requests) {
+			assertEquals(request.getBody().split("\n").length, 2);
+		}
+	}
+
+	/**
+	 * Tests that operations the server turned down are reported, and that
+	 * the others are done with.
+	 */
+	public void testItemFailures() throws Exception {
+		Story good = newStory("The Cow");
+		Story bad = newStory("The Pig");
+		stub.setHandler(new BulkHandler(bad.getId().toString()));
+
+		good.setTitle("The Fat Cow");
+		bad.setTitle("The Fat Pig");
+		BulkPublisher publisher = new BulkPublisher(server);
+		publisher.update(good);
+		publisher.update(bad);
+		// Nothing changed, so nothing queued
+		publisher.update(newStory("The Hen"));
+		assertEquals(publisher.getPendingCount(), 2);
+
+		ArrayList<BulkPublisher.Failure> failures = publisher.flush();
+		assertEquals(requests.size(), 1);
+		assertEquals(failures.size(), 1);
+		BulkPublisher.Failure failure = failures.get(0);
+		assertEquals(failure.getStoryId(), bad.getId());
+		assertEquals(failure.getAction(), BulkPublisher.Action.UPDATE);
+		assertEquals(failure.getStatus(), 404);
+
+		String[] lines = requests.get(0).getBody().split("\n");
+		JsonObject doc = new JsonParser().parse(lines[1]).getAsJsonObject()
+				.getAsJsonObject("doc");
+		assertEquals(doc.get("title").getAsString(), "The Fat Cow");
+		assertFalse(doc.has("author"));
+
+		// Only the failed update still has changes to send
+		assertTrue(good.getChanges().isEmpty());
+		assertFalse(bad.getChanges().isEmpty());
+	}
+
+	/**
+	 * Tests that only the changes that were sent are cleared, and changes
+	 * made while the story was queued are kept for the next update.
+	 */
+	public void testChangedWhileQueued() throws Exception {
+		Story story = newStory("The Cow");
+		Chapter chapter = story.getChapters().values().iterator().next();
+		Chapter added = new Chapter(story.getId(), "the end");
+		story.addChapter(added);
+		story.setTitle("The Fat Cow");
+		story.setAuthor("Dr. Moo");
+		BulkPublisher publisher = new BulkPublisher(server);
+		publisher.update(story);
+
+		story.setTitle("The Thin Cow");
+		chapter.setText("once upon a moo");
+		added.setText("the real end");
+		assertTrue(publisher.flush().isEmpty());
+
+		HashMap<String, Object> changes = story.getChanges();
+		assertEquals(changes.get("title"), "The Thin Cow");
+		assertFalse(changes.containsKey("author"));
+		assertFalse(chapter.getChanges().isEmpty());
+		assertTrue(story.isAddedChapter(added.getId()));
+
+		publisher.update(story);
+		assertTrue(publisher.flush().isEmpty());
+		assertTrue(story.getChanges().isEmpty());
+		assertTrue(chapter.getChanges().isEmpty());
+		assertFalse(story.isAddedChapter(added.getId()));
+	}
+
+	/**
+	 * Tests that a batch the server turned down as a whole stays queued.
+	 */
+	public void testRequestFailure() throws Exception {
+		stub.setHandler(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				return new StubHttpServer.Response(500, "{}");
+			}
+		});
+		BulkPublisher publisher = new BulkPublisher(server);
+		publisher.index(newStory("The Cow"));
+		try {
+			publisher.flush();
+			fail();
+		} catch (IOException e) {
+			assertEquals(publisher.getPendingCount(), 1);
+		}
+	}
+
+	private Story newStory(String title) {
+		Story story = new Story(title, "Dr. Poe", "a farm animal", "432432");
+		story.addChapter(new Chapter(story.getId(), "once upon a time"));
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Answers bulk requests the way the server does, turning down every
+	 * operation on one story.
+	 */
+	private class BulkHandler implements StubHttpServer.Handler {
+		private String failId;
+
+		BulkHandler(String failId) {
+			this.failId = failId;
+		}
+
+		@Override
+		public StubHttpServer.Response handle(StubHttpServer.Request request) {
+			requests.add(request);
+			JsonParser parser = new JsonParser();
+			StringBuilder items = new StringBuilder();
+			for (String line : request.getBody().split("\n")) {
+				JsonObject json = parser.parse(line).getAsJsonObject();
+				String action = null;
+				for (String name : new String[] {"index", "update", 
+						"delete"}) {
+					if (json.has(name)) {
+						action = name;
+					}
+				}
+				if (action == null) {
+					// a source line
+					continue;
+				}
+				String id = json.getAsJsonObject(action).get("_id")
+						.getAsString();
+				if (items.length() > 0) {
+					items.append(",");
+				}
+				items.append("{\"" + action + "\":{\"_id\":\"" + id + "\",");
+				if (id.equals(failId)) {
+					items.append("\"status\":404,\"error\":"
+							+ "\"DocumentMissingException\"}}");
+				} else {
+					items.append("\"status\":200}}");
+				}
+			}
+			return new StubHttpServer.Response(200, "{\"took\":3,"
+					+ "\"errors\":" + (failId != null) + ",\"items\":["
+					+ items + "]}");
+		}
+	}
+
+	private static class StubServerManager extends ServerManager {
+		public StubServerManager(String server) {
+			super(server);
+		}
+	}
+}
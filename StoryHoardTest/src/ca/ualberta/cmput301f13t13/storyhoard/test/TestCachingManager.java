@@ -0,0 +1,176 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.CachingManager;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.ChoiceManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryManager;
+import ca.ualberta.cs.c301f13t13.backend.Utilities;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Class meant for the testing of the CachingManager class in the StoryHoard
+ * application.
+ *
+ * @author Stephanie Gil
+ *
+ * @see CachingManager
+ */
+public class TestCachingManager extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private CachingManager chapters = null;
+	private CachingManager stories = null;
+
+	public TestCachingManager() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		chapters = new CachingManager(ChapterManager.getInstance(getActivity()));
+		stories = new CachingManager(StoryManager.getInstance(getActivity()));
+	}
+
+	/**
+	 * Tests that loading the same chapter twice only goes to the database
+	 * once.
+	 */
+	public void testRepeatRetrieve() {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		chapters.insert(chap);
+
+		Chapter criteria = new Chapter(chap.getId(), null, null);
+		ArrayList<Object> first = chapters.retrieve(criteria);
+		ArrayList<Object> second = chapters.retrieve(criteria);
+
+		assertEquals(chapters.getMissCount(), 1);
+		assertEquals(chapters.getHitCount(), 1);
+		assertEquals(second.size(), 1);
+		assertTrue(((Chapter) second.get(0)).getText().equals(
+				((Chapter) first.get(0)).getText()));
+	}
+
+	/**
+	 * Tests that an updated chapter is not loaded from the cache in its old
+	 * state.
+	 */
+	public void testUpdateInvalidates() {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		chapters.insert(chap);
+
+		Chapter criteria = new Chapter(chap.getId(), null, null);
+		Chapter cached = (Chapter) chapters.retrieve(criteria).get(0);
+		cached.setText("bob came back");
+		chapters.update(cached);
+
+		Chapter loaded = (Chapter) chapters.retrieve(criteria).get(0);
+		assertTrue(loaded.getText().equals("bob came back"));
+
+		// all chapters of the story were searched after the update too
+		criteria = new Chapter(null, chap.getStoryId(), null);
+		chapters.retrieve(criteria);
+		assertEquals(chapters.getMissCount(), 3);
+	}
+
+	/**
+	 * Tests that changing a retrieved object doesn't change the cached one.
+	 */
+	public void testCopiesAreIndependent() {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		chapters.insert(chap);
+
+		Chapter criteria = new Chapter(chap.getId(), null, null);
+		Chapter first = (Chapter) chapters.retrieve(criteria).get(0);
+		first.setText("changed but not saved");
+
+		Chapter second = (Chapter) chapters.retrieve(criteria).get(0);
+		assertTrue(second.getText().equals("bob went away"));
+		assertEquals(chapters.getHitCount(), 1);
+	}
+
+	/**
+	 * Tests that writing through one cached manager drops searches cached by
+	 * another one, since adding a chapter can change which stories match.
+	 */
+	public void testWriteThroughOtherManager() {
+		String phoneId = Utilities.getPhoneId(getActivity());
+		Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", phoneId);
+		story.setFirstChapterId(UUID.randomUUID());
+		stories.insert(story);
+
+		Story criteria = new Story(null, "dragon", null, null, phoneId);
+		assertEquals(stories.retrieve(criteria).size(), 0);
+
+		chapters.insert(new Chapter(story.getId(), "then a dragon came"));
+		assertEquals(stories.retrieve(criteria).size(), 1);
+		assertEquals(stories.getHitCount(), 0);
+	}
+
+	/**
+	 * Tests that a chapter marked as changed by adding a choice to it is not
+	 * loaded from the cache with its old time.
+	 */
+	public void testChoiceTouchesChapter() throws InterruptedException {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		chapters.insert(chap);
+		Chapter criteria = new Chapter(chap.getId(), null, null);
+		long before = ((Chapter) chapters.retrieve(criteria).get(0))
+				.getUpdatedAt();
+
+		Thread.sleep(5);
+		CachingManager choices = new CachingManager(
+				ChoiceManager.getInstance(getActivity()));
+		choices.insert(new Choice(chap.getId(), UUID.randomUUID(), "go"));
+
+		Chapter loaded = (Chapter) chapters.retrieve(criteria).get(0);
+		assertTrue(loaded.getUpdatedAt() > before);
+		assertEquals(chapters.getHitCount(), 0);
+	}
+
+	/**
+	 * Tests that writing straight to the database and then invalidating the
+	 * cache is seen by the next retrieve.
+	 */
+	public void testInvalidateAll() {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		chapters.insert(chap);
+		Chapter criteria = new Chapter(chap.getId(), null, null);
+		chapters.retrieve(criteria);
+
+		chap.setText("bob came back");
+		ChapterManager.getInstance(getActivity()).update(chap);
+		CachingManager.invalidateAll();
+
+		Chapter loaded = (Chapter) chapters.retrieve(criteria).get(0);
+		assertTrue(loaded.getText().equals("bob came back"));
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterPrefetcher;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Tests the ChapterPrefetcher class, prefetching on the test's thread from
+ * chapters kept in memory.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ChapterPrefetcher
+ */
+public class TestChapterPrefetcher extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private HashMap<UUID, Chapter> chapters = null;
+	private ChapterPrefetcher prefetcher = null;
+	private UUID storyId = UUID.randomUUID();
+	// Run by the source while loading, if set
+	private Runnable onLoad = null;
+
+	public TestChapterPrefetcher() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		chapters = new HashMap<UUID, Chapter>();
+		prefetcher = new ChapterPrefetcher(
+				new ChapterPrefetcher.ChapterSource() {
+					@Override
+					public Chapter load(UUID chapterId) {
+						if (onLoad != null) {
+							onLoad.run();
+						}
+						return chapters.get(chapterId);
+					}
+				}, new Executor() {
+					@Override
+					public void execute(Runnable command) {
+						command.run();
+					}
+				});
+	}
+
+	/**
+	 * Tests that only the chapters at most depth choices away are loaded.
+	 */
+	public void testDepth() {
+		ArrayList<Chapter> chain = newChain(4, "Moo.");
+		prefetcher.setDepth(2);
+		prefetcher.prefetch(chain.get(0));
+
+		assertEquals(prefetcher.getLoadCount(), 2);
+		assertNotNull(prefetcher.get(chain.get(1).getId()));
+		assertNotNull(prefetcher.get(chain.get(2).getId()));
+		assertNull(prefetcher.get(chain.get(3).getId()));
+
+		// Taken chapters are no longer kept
+		assertNull(prefetcher.get(chain.get(1).getId()));
+
+		prefetcher.setDepth(0);
+		prefetcher.prefetch(chain.get(1));
+		assertEquals(prefetcher.getLoadCount(), 2);
+	}
+
+	/**
+	 * Tests that chapters leading back to ones already seen are not loaded
+	 * twice.
+	 */
+	public void testCycle() {
+		ArrayList<Chapter> chain = newChain(2, "Moo.");
+		link(chain.get(1), chain.get(0));
+		prefetcher.setDepth(5);
+		prefetcher.prefetch(chain.get(0));
+		assertEquals(prefetcher.getLoadCount(), 1);
+	}
+
+	/**
+	 * Tests that a round stops once it loaded its budget, and that the
+	 * thumbnails it got ready count against the budget.
+	 */
+	public void testBudget() {
+		String text = new String(new char[1000]).replace('\0', 'm');
+		Chapter start = newChapter("Start.");
+		for (int i = 0; i < 10; i++) {
+			link(start, newChapter(text));
+		}
+		int size = 2 * text.length() + 1000;
+		prefetcher.setBudget(3 * size);
+		prefetcher.prefetch(start);
+		int loaded = prefetcher.getLoadCount();
+		assertTrue(loaded > 1);
+		assertTrue(loaded < 10);
+
+		for (Chapter chapter : chapters.values()) {
+			chapter.addPhoto(new Media(chapter.getId(), "/sdcard/cow.jpg",
+					Media.PHOTO));
+		}
+		final ArrayList<Media> warmed = new ArrayList<Media>();
+		prefetcher.setMediaWarmer(new ChapterPrefetcher.MediaWarmer() {
+			@Override
+			public long warm(Media media) {
+				warmed.add(media);
+				return 200 * 1000;
+			}
+		});
+		prefetcher.clear();
+		prefetcher.prefetch(start);
+		assertEquals(prefetcher.getLoadCount(), loaded + 1);
+		assertEquals(warmed.size(), 1);
+	}
+
+	/**
+	 * Tests that writes drop the prefetched chapters.
+	 */
+	public void testInvalidate() {
+		Chapter start = newChapter("Start.");
+		Chapter left = newChapter("Left.");
+		Chapter right = newChapter("Right.");
+		link(start, left);
+		link(start, right);
+		prefetcher.prefetch(start);
+
+		prefetcher.invalidate(left.getId());
+		assertNull(prefetcher.get(left.getId()));
+		prefetcher.clear();
+		assertNull(prefetcher.get(right.getId()));
+
+		// A chapter loaded while something was written isn't kept
+		onLoad = new Runnable() {
+			@Override
+			public void run() {
+				prefetcher.invalidate(null);
+			}
+		};
+		prefetcher.prefetch(start);
+		assertNull(prefetcher.get(left.getId()));
+		assertNull(prefetcher.get(right.getId()));
+	}
+
+	/**
+	 * Makes a chain of chapters, each with a choice leading to the next.
+	 */
+	private ArrayList<Chapter> newChain(int length, String text) {
+		ArrayList<Chapter> chain = new ArrayList<Chapter>();
+		for (int i = 0; i < length; i++) {
+			chain.add(newChapter(text));
+			if (i > 0) {
+				link(chain.get(i - 1), chain.get(i));
+			}
+		}
+		return chain;
+	}
+
+	private Chapter newChapter(String text) {
+		Chapter chapter = new Chapter(storyId, text);
+		chapters.put(chapter.getId(), chapter);
+		return chapter;
+	}
+
+	private void link(Chapter from, Chapter to) {
+		from.addChoice(new Choice(from.getId(), to.getId(), "Go on"));
+	}
+}
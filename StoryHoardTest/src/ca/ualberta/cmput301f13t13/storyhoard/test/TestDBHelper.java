@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Class meant for the testing of the DBHelper class in the StoryHoard
+ * application, mostly the migrations between database versions.
+ *
+ * @author Ashley Brown
+ *
+ * @see DBHelper
+ */
+public class TestDBHelper extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+
+	public TestDBHelper() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+	}
+
+	/**
+	 * Makes a database the way version 1 of the app created it, holding one
+	 * chapter.
+	 */
+	private void makeVersionOneDatabase(Chapter chap) {
+		SQLiteDatabase db = getActivity().openOrCreateDatabase(
+				DBContract.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		db.execSQL("CREATE TABLE story_table (_id INTEGER,story_id TEXT "
+				+ "PRIMARY KEY,title TEXT, author TEXT, description TEXT, "
+				+ "first_chapter TEXT, phone_id TEXT)");
+		db.execSQL("CREATE TABLE chapter_table (_id INTEGER, chapter_id TEXT "
+				+ "PRIMARY KEY, story_id TEXT, text TEXT)");
+		db.execSQL("CREATE TABLE choice_table (_id INTEGER,choice_id TEXT "
+				+ "PRIMARY KEY, text TEXT, curr_chapter TEXT, "
+				+ "next_chapter TEXT)");
+		db.execSQL("CREATE TABLE media_table (_id INTEGER,media_id TEXT "
+				+ "PRIMARY KEY,chapter_id TEXT, uri TEXT,type TEXT)");
+		db.execSQL("INSERT INTO chapter_table (chapter_id, story_id, text) "
+				+ "VALUES (?, ?, ?)", new Object[] { chap.getId().toString(),
+				chap.getStoryId().toString(), chap.getText() });
+		db.setVersion(1);
+		db.close();
+	}
+
+	/**
+	 * Tests that upgrading from the first version of the database keeps the
+	 * data that was already saved.
+	 */
+	public void testUpgradeKeepsData() {
+		Chapter chap = new Chapter(UUID.randomUUID(), "bob went away");
+		makeVersionOneDatabase(chap);
+
+		ChapterManager cm = ChapterManager.getInstance(getActivity());
+		ArrayList<Object> chapters = cm.retrieve(chap);
+		assertEquals(chapters.size(), 1);
+		assertTrue(((Chapter) chapters.get(0)).getText().equals(
+				chap.getText()));
+	}
+
+	/**
+	 * Tests that upgrading from the first version of the database adds the
+	 * indexes on the foreign keys.
+	 */
+	public void testUpgradeAddsIndexes() {
+		makeVersionOneDatabase(new Chapter(UUID.randomUUID(), "text"));
+
+		SQLiteDatabase db = DBHelper.getInstance(getActivity())
+				.getReadableDatabase();
+		assertEquals(db.getVersion(), DBContract.DATABASE_VERSION);
+		Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE "
+				+ "type = 'index' AND name IN ('chapter_story_index', "
+				+ "'choice_curr_chapter_index', 'choice_next_chapter_index', "
+				+ "'media_chapter_index')", null);
+		assertEquals(cursor.getCount(), 4);
+		cursor.close();
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader;
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader.HitHandler;
+import ca.ualberta.cs.c301f13t13.backend.SimpleESResponse;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Class meant for the testing of the ESResponseReader class in the StoryHoard
+ * application.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ESResponseReader
+ */
+public class TestESResponseReader extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private Gson gson = new Gson();
+	private ESResponseReader<Story> reader = null;
+
+	public TestESResponseReader() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Type hitType = new TypeToken<SimpleESResponse<Story>>(){}.getType();
+		reader = new ESResponseReader<Story>(gson, hitType);
+	}
+
+	/**
+	 * Makes a search response like the server's, with one hit per line.
+	 * Every story has one chapter with the given amount of text.
+	 */
+	private byte[] makeSearchResponse(int numHits, int textLength)
+			throws IOException {
+		StringBuilder text = new StringBuilder();
+		while (text.length() < textLength) {
+			text.append("once upon a time ");
+		}
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"took\":3,\"timed_out\":false,\n\"_shards\":{\"total\""
+				+ ":5,\"successful\":5,\"failed\":0},\n\"hits\":{\"total\":"
+				+ numHits + ",\"max_score\":1.0,\"hits\":[\n");
+		for (int i = 0; i < numHits; i++) {
+			Story story = new Story("title " + i, "author", "des", "phone");
+			Chapter chap = new Chapter(story.getId(), text.toString());
+			story.addChapter(chap);
+			story.setFirstChapterId(chap.getId());
+			json.append((i == 0) ? "" : ",\n");
+			json.append("{\"_index\":\"cmput301f13t13\",\"_type\":\"stories\","
+					+ "\"_id\":\"" + story.getId() + "\",\"_score\":1.0,"
+					+ "\"_source\":" + gson.toJson(story) + "}");
+		}
+		json.append("\n]}}");
+		return json.toString().getBytes("UTF-8");
+	}
+
+	private Reader open(byte[] response) throws IOException {
+		return new InputStreamReader(new ByteArrayInputStream(response),
+				"UTF-8");
+	}
+
+	/**
+	 * Tests that every hit of a search response is read in order.
+	 */
+	public void testReadHits() throws IOException {
+		final ArrayList<Story> stories = new ArrayList<Story>();
+		int count = reader.readHits(open(makeSearchResponse(5, 10)),
+				new HitHandler<Story>() {
+					@Override
+					public void onHit(Story story) {
+						stories.add(story);
+					}
+				});
+		assertEquals(count, 5);
+		assertEquals(stories.size(), 5);
+		for (int i = 0; i < 5; i++) {
+			Story story = stories.get(i);
+			assertTrue(story.getTitle().equals("title " + i));
+			assertEquals(story.getChapters().size(), 1);
+		}
+	}
+
+	/**
+	 * Tests reading a get response, and one for a missing document.
+	 */
+	public void testReadDocument() throws IOException {
+		Story story = new Story("My Cow", "Dr. Poe", "my chubby cow", "phone");
+		String json = "{\"_index\":\"cmput301f13t13\",\"_type\":\"stories\","
+				+ "\"_id\":\"" + story.getId() + "\",\"exists\":true,"
+				+ "\"_source\":" + gson.toJson(story) + "}";
+		Story read = reader.readDocument(open(json.getBytes("UTF-8")));
+		assertEquals(read.getId(), story.getId());
+
+		json = "{\"_index\":\"cmput301f13t13\",\"_type\":\"stories\","
+				+ "\"_id\":\"" + story.getId() + "\",\"exists\":false}";
+		assertTrue(reader.readDocument(open(json.getBytes("UTF-8"))) == null);
+	}
+
+	/**
+	 * Tests that a response which isn't json gives an IOException.
+	 */
+	public void testBadResponse() {
+		try {
+			reader.readHits(open("<html>502</html>".getBytes()),
+					new HitHandler<Story>() {
+						@Override
+						public void onHit(Story story) {
+						}
+					});
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests that a big search response is read a hit at a time: when each
+	 * hit is handed over, no more than a small window past it has been read,
+	 * so the response never has to fit in memory.
+	 */
+	public void testStreamingMemory() throws IOException {
+		final int numHits = 1500;
+		byte[] response = makeSearchResponse(numHits, 2000);
+		final long perHit = response.length / numHits;
+		final long window = 64 * 1024;
+		final long[] read = { 0 };
+		final int[] seen = { 0 };
+		Reader counting = new FilterReader(open(response)) {
+			@Override
+			public int read(char[] buffer, int offset, int count)
+					throws IOException {
+				int n = super.read(buffer, offset, count);
+				read[0] += Math.max(n, 0);
+				return n;
+			}
+		};
+
+		int count = reader.readHits(counting, new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				seen[0]++;
+				assertTrue(read[0] <= seen[0] * perHit + window);
+			}
+		});
+		assertEquals(count, numHits);
+		assertEquals(seen[0], numHits);
+	}
+}
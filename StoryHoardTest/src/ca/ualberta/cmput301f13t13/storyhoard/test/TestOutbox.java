@@ -0,0 +1,326 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.Outbox;
+import ca.ualberta.cs.c301f13t13.backend.OutboxWorker;
+import ca.ualberta.cs.c301f13t13.backend.ServerManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Tests the Outbox and the OutboxWorker sending it to a stub of the server.
+ *
+ * @author Stephanie Gil
+ *
+ * @see Outbox
+ * @see OutboxWorker
+ */
+public class TestOutbox extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private Outbox outbox = null;
+	private BlobStore blobs = null;
+
+	public TestOutbox() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		outbox = Outbox.getInstance(getActivity());
+		blobs = BlobStore.getInstance(getActivity());
+	}
+
+	/**
+	 * Tests that publishing the same story again only keeps the newest
+	 * version.
+	 */
+	public void testCoalescePublishes() throws IOException {
+		Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", "432432");
+		outbox.addPublish(story);
+		story.setTitle("My Fat Cow");
+		outbox.addPublish(story);
+
+		assertEquals(outbox.size(), 1);
+		Outbox.Entry entry = outbox.next(System.currentTimeMillis());
+		assertTrue(entry.getPayload().contains("My Fat Cow"));
+		assertEquals(entry.getRevision(), 1);
+	}
+
+	/**
+	 * Tests that the entries of a story are sent in order, and that waiting
+	 * entries of one story don't hold back other stories.
+	 */
+	public void testOrderPerStory() throws IOException {
+		Story first = new Story("My Cow", "Dr. Poe", "a chubby cow", "432432");
+		Story second = new Story("My Pig", "Dr. Poe", "a pink pig", "432432");
+		outbox.addPublish(first);
+		outbox.addDelete(first.getId());
+		outbox.addPublish(first);
+		outbox.addPublish(second);
+		assertEquals(outbox.size(), 4);
+
+		long now = System.currentTimeMillis();
+		Outbox.Entry entry = outbox.next(now);
+		assertEquals(entry.getStoryId(), first.getId());
+		assertEquals(entry.getAction(), Outbox.PUBLISH);
+
+		// While the first story waits, the second one goes ahead
+		outbox.retryLater(entry, now + 60000);
+		entry = outbox.next(now);
+		assertEquals(entry.getStoryId(), second.getId());
+		assertTrue(outbox.remove(entry));
+		assertNull(outbox.next(now));
+		assertEquals(outbox.getNextAttempt(), now + 60000);
+	}
+
+	/**
+	 * Tests that an entry replaced while it was being sent is kept.
+	 */
+	public void testReplacedWhileSending() throws IOException {
+		Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", "432432");
+		outbox.addPublish(story);
+		Outbox.Entry sending = outbox.next(System.currentTimeMillis());
+		story.setTitle("My Fat Cow");
+		outbox.addPublish(story);
+
+		assertFalse(outbox.remove(sending));
+		assertEquals(outbox.size(), 1);
+	}
+
+	/**
+	 * Tests that the json of a story bigger than a cursor can hold in a row
+	 * is kept, and is gone once the entry is.
+	 */
+	public void testLargePayload() throws IOException {
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 3 * 1024 * 1024) {
+			text.append("once upon a time ");
+		}
+		Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", "432432");
+		Chapter chapter = new Chapter(story.getId(), text.toString());
+		story.addChapter(chapter);
+		story.setFirstChapterId(chapter.getId());
+		outbox.addPublish(story);
+
+		Outbox.Entry entry = outbox.next(System.currentTimeMillis());
+		assertTrue(entry.getPayload().length() > text.length());
+		assertTrue(outbox.remove(entry));
+		assertEquals(outbox.size(), 0);
+	}
+
+	/**
+	 * Tests that the worker sends every entry in order and empties the
+	 * outbox.
+	 */
+	public void testDrain() throws Exception {
+		final ArrayList<StubHttpServer.Request> requests = 
+				new ArrayList<StubHttpServer.Request>();
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				requests.add(request);
+				return new StubHttpServer.Response(200, "{\"ok\":true}");
+			}
+		});
+		try {
+			OutboxWorker worker = new StubOutboxWorker(outbox, 
+					new StubServerManager(stub.getUrl()));
+			Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", 
+					"432432");
+			outbox.addPublish(story);
+			outbox.addDelete(story.getId());
+
+			assertEquals(worker.drain(), 2);
+			assertEquals(outbox.size(), 0);
+			assertEquals(requests.get(0).method, "POST");
+			assertEquals(requests.get(1).method, "DELETE");
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that an entry the server failed to take is put off, and that the
+	 * wait grows with every attempt.
+	 */
+	public void testBackoff() throws Exception {
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				return new StubHttpServer.Response(503, "{}");
+			}
+		});
+		try {
+			OutboxWorker worker = new StubOutboxWorker(outbox, 
+					new StubServerManager(stub.getUrl()));
+			outbox.addPublish(new Story("My Cow", "Dr. Poe", "a chubby cow", 
+					"432432"));
+
+			long before = System.currentTimeMillis();
+			assertEquals(worker.drain(), 0);
+			assertEquals(outbox.size(), 1);
+			assertNull(outbox.next(System.currentTimeMillis()));
+			assertTrue(outbox.getNextAttempt() 
+					>= before + OutboxWorker.BASE_DELAY);
+
+			assertEquals(OutboxWorker.getDelay(1), 
+					2 * OutboxWorker.BASE_DELAY);
+			assertEquals(OutboxWorker.getDelay(100), OutboxWorker.MAX_DELAY);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a drain that fails part way doesn't throw, and that the
+	 * entries are sent by the next one.
+	 */
+	public void testDrainFails() throws Exception {
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				return new StubHttpServer.Response(200, "{\"ok\":true}");
+			}
+		});
+		try {
+			FailingOutbox failing = new FailingOutbox();
+			OutboxWorker worker = new StubOutboxWorker(failing,
+					new StubServerManager(stub.getUrl()));
+			failing.addPublish(new Story("My Cow", "Dr. Poe", "a chubby cow",
+					"432432"));
+
+			assertEquals(worker.drain(), 0);
+			assertEquals(failing.size(), 1);
+			assertEquals(worker.drain(), 1);
+			assertEquals(failing.size(), 0);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that publishing a story sends the contents of its media, that a
+	 * phone which downloads the story can get them back and decode them,
+	 * and that contents the server has aren't sent again.
+	 */
+	public void testPublishMedia() throws Exception {
+		FakeElasticSearch server = new FakeElasticSearch();
+		StubHttpServer stub = new StubHttpServer(server);
+		try {
+			ServerManager manager = new StubServerManager(stub.getUrl());
+			OutboxWorker worker = new StubOutboxWorker(outbox, manager);
+
+			Bitmap picture = Bitmap.createBitmap(8, 8, 
+					Bitmap.Config.ARGB_8888);
+			picture.eraseColor(0xff336699);
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			picture.compress(Bitmap.CompressFormat.PNG, 100, png);
+			String hash = blobs.put(new ByteArrayInputStream(
+					png.toByteArray()));
+
+			Story story = new Story("My Cow", "Dr. Poe", "a chubby cow", 
+					"432432");
+			Chapter chapter = new Chapter(story.getId(), "Moo.");
+			Media illustration = new Media(chapter.getId(), null, 
+					Media.ILLUSTRATION);
+			illustration.setBlobHash(hash);
+			chapter.addIllustration(illustration);
+			story.addChapter(chapter);
+			outbox.addPublish(story);
+			assertEquals(worker.drain(), 1);
+			assertNotNull(server.getBlob(hash));
+
+			// Another phone downloads the story without the contents
+			assertTrue(blobs.getFile(hash).delete());
+			Story downloaded = manager.searchById(story.getId().toString());
+			Media media = downloaded.getChapter(chapter.getId())
+					.getIllustrations().get(0);
+			assertEquals(media.getBlobHash(), hash);
+			assertFalse(blobs.contains(hash));
+			assertTrue(manager.fetchBlob(hash, blobs));
+			Bitmap decoded = media.getBitmap(blobs);
+			assertNotNull(decoded);
+			assertEquals(decoded.getWidth(), 8);
+			assertEquals(decoded.getPixel(3, 3), 0xff336699);
+
+			int sent = server.getRequests().size();
+			story.setTitle("My Fat Cow");
+			outbox.addPublish(story);
+			assertEquals(worker.drain(), 1);
+			for (StubHttpServer.Request request : server.getRequests()
+					.subList(sent, server.getRequests().size())) {
+				assertFalse(request.method.equals("POST") 
+						&& request.path.contains(hash));
+			}
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Outbox that can't be read the first time.
+	 */
+	private class FailingOutbox extends Outbox {
+		private boolean failed = false;
+
+		public FailingOutbox() {
+			super(getActivity());
+		}
+
+		@Override
+		public synchronized Entry next(long now) {
+			if (!failed) {
+				failed = true;
+				throw new IllegalStateException("Can't read the outbox");
+			}
+			return super.next(now);
+		}
+	}
+
+	private class StubOutboxWorker extends OutboxWorker {
+		public StubOutboxWorker(Outbox outbox, ServerManager server) {
+			super(outbox, server, blobs);
+		}
+	}
+
+	private static class StubServerManager extends ServerManager {
+		public StubServerManager(String server) {
+			super(server);
+		}
+	}
+}
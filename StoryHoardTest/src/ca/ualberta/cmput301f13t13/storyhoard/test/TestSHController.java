@@ -20,6 +20,9 @@ package ca.ualberta.cmput301f13t13.storyhoard.test;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Intent;
 import android.net.Uri;
@@ -32,6 +35,7 @@ import ca.ualberta.cs.c301f13t13.backend.Media;
 import ca.ualberta.cs.c301f13t13.backend.MediaManager;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 import ca.ualberta.cs.c301f13t13.backend.Utilities;
 import ca.ualberta.cs.c301f13t13.gui.EditChapterActivity;
@@ -520,6 +524,35 @@ public class TestSHController extends
 
 	}
 
+	/**
+	 * Tests getting a story without its chapters, which are then loaded
+	 * when asked for.
+	 */
+	public void testGetStory() {
+		Story s1 = new Story("T: Lily the cow", "A: me", "D: none",
+				Utilities.getPhoneId(getActivity()));
+		Chapter chap1 = new Chapter(s1.getId(), "chapter text rawr");
+		Chapter chap2 = new Chapter(s1.getId(), "then this happens");
+		Choice c1 = new Choice(chap1.getId(), chap2.getId(), "choice texters");
+		chap1.addChoice(c1);
+		s1.addChapter(chap1);
+		s1.addChapter(chap2);
+		gc.saveCompleteStory(s1);
+
+		Story myStory = gc.getStory(s1.getId());
+		assertTrue(myStory.hasChapterLoader());
+		assertEquals(myStory.getTitle(), s1.getTitle());
+		assertEquals(myStory.getFirstChapterId(), chap1.getId());
+		assertTrue(myStory.getChanges().isEmpty());
+
+		Chapter first = myStory.getChapter(chap1.getId());
+		assertEquals(first.getText(), chap1.getText());
+		assertEquals(first.getChoices().get(0).getId(), c1.getId());
+		assertSame(myStory.getChapter(chap1.getId()), first);
+		assertEquals(myStory.getChapters().size(), 2);
+		assertNull(myStory.getChapter(UUID.randomUUID()));
+	}
+
 	/**
 	 * Tests getting a complete chapter, contains choices and media.
 	 */
@@ -575,4 +608,93 @@ public class TestSHController extends
 			fail("error in retrieving chapter choices: getCompleteChapter");
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Tests that getting a story asynchronously gives the complete story to
+	 * the callback.
+	 */
+	public void testGetCompleteStoryAsync() throws Exception {
+		Story story = new Story("title", "author", "des",
+				Utilities.getPhoneId(getActivity()));
+		Chapter chap = new Chapter(story.getId(), "text");
+		story.setFirstChapterId(chap.getId());
+		gc.addObject(story, ObjectType.CREATED_STORY);
+		gc.addObject(chap, ObjectType.CHAPTER);
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final ArrayList<Story> results = new ArrayList<Story>();
+		Future<Story> future = gc.getCompleteStoryAsync(story.getId(),
+				new Callback<Story>() {
+					@Override
+					public void onResult(Story result) {
+						results.add(result);
+						done.countDown();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						done.countDown();
+					}
+				});
+
+		assertEquals(future.get(5, TimeUnit.SECONDS).getId(), story.getId());
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(results.size(), 1);
+		assertEquals(results.get(0).getChapters().size(), 1);
+	}
+
+	/**
+	 * Tests that media added in the background have their image stored by
+	 * the time the callback is given them.
+	 */
+	public void testAddMediaAsync() throws Exception {
+		Chapter chap = new Chapter(UUID.randomUUID(), "text");
+		gc.addObject(chap, ObjectType.CHAPTER);
+		activity.takePhoto();
+		Media photo = new Media(chap.getId(), 
+				activity.getImageFileUri().getPath(), Media.PHOTO);
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final ArrayList<Object> results = new ArrayList<Object>();
+		gc.addObjectAsync(photo, ObjectType.MEDIA, new Callback<Object>() {
+			@Override
+			public void onResult(Object result) {
+				results.add(result);
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Exception e) {
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(results.size(), 1);
+		assertNotNull(((Media) results.get(0)).getBlobHash());
+		assertEquals(gc.getAllPhotos(chap.getId()).size(), 1);
+	}
+
+	/**
+	 * Tests that an asynchronous call that was cancelled never calls back.
+	 */
+	public void testCancelAsync() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		Future<ArrayList<Story>> future = gc.getAllStoriesAsync(
+				ObjectType.CREATED_STORY, new Callback<ArrayList<Story>>() {
+					@Override
+					public void onResult(ArrayList<Story> result) {
+						done.countDown();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						done.countDown();
+					}
+				});
+		future.cancel(true);
+
+		assertTrue(future.isCancelled());
+		assertFalse(done.await(1, TimeUnit.SECONDS));
+	}
+}
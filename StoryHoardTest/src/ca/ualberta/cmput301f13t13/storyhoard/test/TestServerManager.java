@@ -19,6 +19,7 @@ package ca.ualberta.cmput301f13t13.storyhoard.test;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.net.Uri;
 import android.test.ActivityInstrumentationTestCase2;
@@ -27,9 +28,14 @@ import ca.ualberta.cs.c301f13t13.backend.Choice;
 import ca.ualberta.cs.c301f13t13.backend.Media;
 import ca.ualberta.cs.c301f13t13.backend.ServerManager;
 import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryPage;
 import ca.ualberta.cs.c301f13t13.backend.Utilities;
 import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * Tests the methods of the ServerManager class.
  * 
@@ -179,4 +185,453 @@ public class TestServerManager
 		ArrayList<Object> pubStories = sm.retrieve(mockStory);
 		assertEquals(pubStories.size(), 1);
 	}
+	
+	/**
+	 * ServerManager talking to a stub server instead of the real one.
+	 */
+	private static class StubServerManager extends ServerManager {
+		public StubServerManager(String server) {
+			super(server);
+		}
+	}
+	
+	/**
+	 * Makes the json the server sends back when getting a story.
+	 */
+	private String getResponse(Story story) {
+		return "{\"_index\":\"cmput301f13t13\",\"_type\":\"stories\"," 
+				+ "\"_id\":\"" + story.getId() + "\",\"exists\":true,"
+				+ "\"_source\":" + new Gson().toJson(story) + "}";
+	}
+	
+	/**
+	 * Tests that requests made one after the other all go through the same
+	 * connection.
+	 */
+	public void testConnectionReuse() throws Exception {
+		Story story = new Story("My Cow", "Dr. Poe", "my chubby cow",
+				Utilities.getPhoneId(getActivity()));
+		StubHttpServer stub = new StubHttpServer(getResponse(story));
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			for (int i = 0; i < 20; i++) {
+				Story result = server.searchById(story.getId().toString());
+				assertEquals(result.getId(), story.getId());
+			}
+			server.insert(story);
+			assertEquals(stub.getRequestCount(), 21);
+			assertEquals(stub.getConnectionCount(), 1);
+		} finally {
+			stub.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that requests made from several threads at once share a bounded
+	 * number of connections.
+	 */
+	public void testConcurrentRequestsShareConnections() throws Exception {
+		final Story story = new Story("My Cow", "Dr. Poe", "my chubby cow",
+				Utilities.getPhoneId(getActivity()));
+		StubHttpServer stub = new StubHttpServer(getResponse(story));
+		final ServerManager server = new StubServerManager(stub.getUrl());
+		final AtomicInteger failures = new AtomicInteger();
+		
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 25; j++) {
+						Story result = server.searchById(
+								story.getId().toString());
+						if (result == null) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(failures.get(), 0);
+			assertEquals(stub.getRequestCount(), 200);
+			assertTrue(stub.getConnectionCount() 
+					<= ServerManager.MAX_CONNECTIONS_PER_ROUTE);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests getting all the published stories a page at a time from a stub
+	 * server holding 25 stories.
+	 */
+	public void testRetrievePage() throws Exception {
+		final ArrayList<Story> published = new ArrayList<Story>();
+		for (int i = 0; i < 25; i++) {
+			published.add(new Story("story " + i, "me", "des", "432432"));
+		}
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				JsonObject query = new JsonParser().parse(request.getBody())
+						.getAsJsonObject();
+				int from = query.get("from").getAsInt();
+				int size = query.get("size").getAsInt();
+				
+				StringBuilder hits = new StringBuilder();
+				for (int i = from; i < Math.min(from + size, 
+						published.size()); i++) {
+					if (i > from) {
+						hits.append(",");
+					}
+					hits.append("{\"_source\":" 
+							+ new Gson().toJson(published.get(i)) + "}");
+				}
+				return new StubHttpServer.Response(200, "{\"hits\":{"
+						+ "\"total\":" + published.size() + ",\"hits\":[" 
+						+ hits + "]}}");
+			}
+		});
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			StoryPage page = server.retrievePage(null, 10);
+			assertEquals(page.getStories().size(), 10);
+			assertTrue(page.hasMore());
+			
+			page = server.retrievePage(page, 10);
+			assertEquals(page.getStories().get(0).getId(), 
+					published.get(10).getId());
+			assertTrue(page.hasMore());
+			
+			page = server.retrievePage(page, 10);
+			assertEquals(page.getStories().size(), 5);
+			assertFalse(page.hasMore());
+			assertEquals(page.getEnd(), 25);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Answers a scan and scroll search over the given stories, like the
+	 * server would, a batch of 10 stories at a time.
+	 */
+	private static class ScrollHandler implements StubHttpServer.Handler {
+		private ArrayList<Story> published;
+		private int scrolled = 0;
+		private String firstQuery = null;
+		private String deletedPath = null;
+
+		public ScrollHandler(ArrayList<Story> published) {
+			this.published = published;
+		}
+
+		@Override
+		public StubHttpServer.Response handle(StubHttpServer.Request request) {
+			if (request.method.equals("DELETE")) {
+				deletedPath = request.path;
+				return new StubHttpServer.Response(200, "{\"ok\":true}");
+			}
+			if (request.path.contains("search_type=scan")) {
+				firstQuery = request.getBody();
+				return new StubHttpServer.Response(200, "{\"_scroll_id\":"
+						+ "\"scroll0\",\"hits\":{\"total\":" 
+						+ published.size() + ",\"hits\":[]}}");
+			}
+			assertTrue(request.path.startsWith("/_search/scroll"));
+			assertEquals(request.getBody(), "scroll" + scrolled);
+
+			StringBuilder hits = new StringBuilder();
+			int end = Math.min(scrolled * 10 + 10, published.size());
+			for (int i = scrolled * 10; i < end; i++) {
+				if (hits.length() > 0) {
+					hits.append(",");
+				}
+				Story story = published.get(i);
+				hits.append("{\"_source\":{\"id\":\"" + story.getId()
+						+ "\",\"title\":\"" + story.getTitle() + "\"}}");
+			}
+			scrolled++;
+			return new StubHttpServer.Response(200, "{\"_scroll_id\":"
+					+ "\"scroll" + scrolled + "\",\"hits\":{\"total\":"
+					+ published.size() + ",\"hits\":[" + hits + "]}}");
+		}
+	}
+
+	/**
+	 * Tests going through all the published stories with a scroll, only
+	 * asking for the summary fields of the stories.
+	 */
+	public void testScrollAllStories() throws Exception {
+		ArrayList<Story> published = new ArrayList<Story>();
+		for (int i = 0; i < 45; i++) {
+			published.add(new Story("story " + i, "me", "des", "432432"));
+		}
+		ScrollHandler handler = new ScrollHandler(published);
+		StubHttpServer stub = new StubHttpServer(handler);
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			final ArrayList<Integer> batchSizes = new ArrayList<Integer>();
+			final ArrayList<Story> scrolled = new ArrayList<Story>();
+			server.scrollAllStories(new ServerManager.BatchHandler<Story>() {
+				@Override
+				public boolean onBatch(ArrayList<Story> batch) {
+					batchSizes.add(batch.size());
+					scrolled.addAll(batch);
+					return true;
+				}
+			});
+			
+			assertEquals(scrolled.size(), 45);
+			assertEquals(scrolled.get(44).getId(), published.get(44).getId());
+			assertEquals(scrolled.get(0).getChapters().size(), 0);
+			assertEquals(batchSizes.size(), 5);
+			assertTrue(handler.firstQuery.contains("\"_source\""));
+			assertFalse(handler.firstQuery.contains("chapters"));
+			// scan, 5 batches, then an empty one
+			assertEquals(stub.getRequestCount(), 7);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that stopping a scroll early tells the server to let go of it,
+	 * and that getting all published stories goes through the scroll.
+	 */
+	public void testStopScroll() throws Exception {
+		ArrayList<Story> published = new ArrayList<Story>();
+		for (int i = 0; i < 45; i++) {
+			published.add(new Story("story " + i, "me", "des", "432432"));
+		}
+		ScrollHandler handler = new ScrollHandler(published);
+		StubHttpServer stub = new StubHttpServer(handler);
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			server.scrollAllStories(new ServerManager.BatchHandler<Story>() {
+				@Override
+				public boolean onBatch(ArrayList<Story> batch) {
+					return false;
+				}
+			});
+			assertEquals(handler.deletedPath, "/_search/scroll/scroll1");
+			
+			stub.setHandler(new ScrollHandler(published));
+			Story all = new Story(null, null, null, null, null);
+			assertEquals(server.retrieve(all).size(), 45);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that getting all published stories stops at the most it holds,
+	 * and lets go of the scroll.
+	 */
+	public void testRetrieveAllCapped() throws Exception {
+		ArrayList<Story> published = new ArrayList<Story>();
+		for (int i = 0; i < ServerManager.MAX_RETRIEVED + 15; i++) {
+			published.add(new Story("story " + i, "me", "des", "432432"));
+		}
+		ScrollHandler handler = new ScrollHandler(published);
+		StubHttpServer stub = new StubHttpServer(handler);
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			Story all = new Story(null, null, null, null, null);
+			ArrayList<Object> stories = server.retrieve(all);
+			assertEquals(stories.size(), ServerManager.MAX_RETRIEVED);
+			assertEquals(((Story) stories.get(stories.size() - 1)).getId(),
+					published.get(ServerManager.MAX_RETRIEVED - 1).getId());
+			assertNotNull(handler.deletedPath);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that keyword searches only ask for the summary fields of the
+	 * stories, while getting a story by its id gets all of it.
+	 */
+	public void testSearchSummaries() throws Exception {
+		final Story story = new Story("My Cow", "Dr. Poe", "my chubby cow",
+				"432432");
+		story.addChapter(new Chapter(story.getId(), "a very long chapter"));
+		final ArrayList<String> searches = new ArrayList<String>();
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				if (request.path.contains("_search")) {
+					searches.add(request.getBody());
+					return new StubHttpServer.Response(200, "{\"hits\":{"
+							+ "\"total\":1,\"hits\":[{\"_source\":{"
+							+ "\"id\":\"" + story.getId() + "\","
+							+ "\"title\":\"My Cow\"}}]}}");
+				}
+				return new StubHttpServer.Response(200, getResponse(story));
+			}
+		});
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			Story criteria = new Story(null, "chubby \"cow\"", null, null, 
+					null);
+			ArrayList<Object> found = server.searchByKeywords(criteria);
+			assertEquals(found.size(), 1);
+			Story summary = (Story) found.get(0);
+			assertEquals(summary.getTitle(), "My Cow");
+			assertEquals(summary.getChapters().size(), 0);
+			
+			JsonObject search = new JsonParser().parse(searches.get(0))
+					.getAsJsonObject();
+			assertTrue(search.getAsJsonObject("_source").toString()
+					.contains("title"));
+			assertFalse(search.getAsJsonObject("_source").toString()
+					.contains("chapters"));
+			assertEquals(search.getAsJsonObject("query")
+					.getAsJsonObject("query_string").get("query")
+					.getAsString(), "chubby AND \"cow\"");
+			
+			Story whole = server.searchById(story.getId().toString());
+			assertEquals(whole.getChapters().size(), 1);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that updating a published story only sends what was changed.
+	 */
+	public void testPartialUpdate() throws Exception {
+		Story story = new Story("My Cow", "Dr. Poe", "my chubby cow",
+				"432432");
+		Chapter first = new Chapter(story.getId(), "a very long chapter");
+		Chapter second = new Chapter(story.getId(), "another long chapter");
+		story.addChapter(first);
+		story.addChapter(second);
+		
+		final ArrayList<StubHttpServer.Request> requests = 
+				new ArrayList<StubHttpServer.Request>();
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				requests.add(request);
+				return new StubHttpServer.Response(200, "{\"ok\":true}");
+			}
+		});
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			server.insert(story);
+			
+			story.setTitle("My Fat Cow");
+			first.setText("a short chapter");
+			first.addChoice(new Choice(first.getId(), second.getId(), "next"));
+			Chapter third = new Chapter(story.getId(), "the end");
+			story.addChapter(third);
+			server.update(story);
+			
+			StubHttpServer.Request update = requests.get(1);
+			assertEquals(update.method, "POST");
+			assertEquals(update.path, "/" + story.getId() + "/_update");
+			JsonObject doc = new JsonParser().parse(update.getBody())
+					.getAsJsonObject().getAsJsonObject("doc");
+			assertEquals(doc.get("title").getAsString(), "My Fat Cow");
+			assertFalse(doc.has("author"));
+			
+			JsonObject chapters = doc.getAsJsonObject("chapters");
+			assertEquals(chapters.entrySet().size(), 2);
+			JsonObject firstDoc = chapters.getAsJsonObject(
+					first.getId().toString());
+			assertEquals(firstDoc.get("text").getAsString(), 
+					"a short chapter");
+			assertEquals(firstDoc.getAsJsonArray("choices").size(), 1);
+			assertFalse(firstDoc.has("photos"));
+			assertEquals(chapters.getAsJsonObject(third.getId().toString())
+					.get("text").getAsString(), "the end");
+			
+			// Nothing left to send
+			server.update(story);
+			assertEquals(requests.size(), 2);
+		} finally {
+			stub.shutdown();
+		}
+	}
+
+	/**
+	 * Measures the bytes a large story takes on the wire when published and
+	 * fetched, with and without compression, and checks that compressing
+	 * shrinks them without changing the story.
+	 */
+	public void testCompressedTransport() throws Exception {
+		final Story story = new Story("My Cow", "Dr. Poe", "my chubby cow",
+				"432432");
+		for (int i = 0; i < 50; i++) {
+			Chapter chapter = new Chapter(story.getId(), "Chapter " + i 
+					+ ". The cow walked to the barn, and then walked back "
+					+ "to the field, where the grass was greener.");
+			for (int j = 0; j < 4; j++) {
+				chapter.addPhoto(new Media(chapter.getId(), 
+						"/sdcard/StoryHoard/photo" + i + "_" + j + ".jpg", 
+						Media.PHOTO));
+			}
+			story.addChapter(chapter);
+		}
+		final String json = new Gson().toJson(story);
+		final ArrayList<String> published = new ArrayList<String>();
+		StubHttpServer stub = new StubHttpServer(new StubHttpServer.Handler() {
+			@Override
+			public StubHttpServer.Response handle(
+					StubHttpServer.Request request) {
+				if (request.method.equals("GET")) {
+					return new StubHttpServer.Response(200, "{\"_id\":\"" 
+							+ story.getId() + "\",\"exists\":true,"
+							+ "\"_source\":" + json + "}");
+				}
+				published.add(request.getBody());
+				return new StubHttpServer.Response(201, "{\"ok\":true}");
+			}
+		});
+		ServerManager server = new StubServerManager(stub.getUrl());
+		
+		try {
+			server.setCompressRequests(false);
+			server.insert(story);
+			long plainUp = stub.getBytesReceived();
+			server.setCompressRequests(true);
+			server.insert(story);
+			long gzipUp = stub.getBytesReceived() - plainUp;
+			assertEquals(published.get(0), published.get(1));
+			
+			Story plain = server.searchById(story.getId().toString());
+			long plainDown = stub.getBytesSent();
+			stub.setCompressResponses(true);
+			Story gzipped = server.searchById(story.getId().toString());
+			long gzipDown = stub.getBytesSent() - plainDown;
+			assertEquals(new Gson().toJson(plain), new Gson().toJson(gzipped));
+			assertEquals(gzipped.getChapters().size(), 50);
+			
+			System.out.println("Publishing: " + plainUp + " bytes, " 
+					+ gzipUp + " gzipped");
+			System.out.println("Fetching: " + plainDown + " bytes, " 
+					+ gzipDown + " gzipped");
+			assertTrue(gzipUp * 2 < plainUp);
+			assertTrue(gzipDown * 2 < plainDown);
+		} finally {
+			stub.shutdown();
+		}
+	}
 }
@@ -16,6 +16,11 @@
 
 package ca.ualberta.cmput301f13t13.storyhoard.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -81,6 +86,138 @@ public class TestStory extends
 		assertSame(result, chapter1);
 	}
 
+	/**
+	 * Tests a story loading its chapters when they are asked for, and only
+	 * keeping the ones used most recently.
+	 */
+	public void testLoadChapters() {
+		final Story saved = new Story("7 bugs", "Shamalan", "scary story",
+				Utilities.getPhoneId(this.getActivity()));
+		int size = Story.MAX_LOADED_CHAPTERS + 4;
+		for (int i = 0; i < size; i++) {
+			saved.addChapter(new Chapter(saved.getId(), "Night " + i + "."));
+		}
+		final int[] loads = new int[1];
+		Story story = new Story(saved.getId(), saved.getTitle(),
+				saved.getAuthor(), saved.getDescription(), saved.getPhoneId());
+		story.setFirstChapterId(saved.getFirstChapterId());
+		story.clearChanges();
+		story.setChapterLoader(new Story.ChapterLoader() {
+			@Override
+			public Chapter loadChapter(UUID chapterId) {
+				loads[0]++;
+				return copy(saved.getChapter(chapterId));
+			}
+
+			@Override
+			public HashMap<UUID, Chapter> loadChapters(UUID storyId) {
+				loads[0] += saved.getChapters().size();
+				HashMap<UUID, Chapter> all = new HashMap<UUID, Chapter>();
+				for (Chapter chapter : saved.getChapters().values()) {
+					all.put(chapter.getId(), copy(chapter));
+				}
+				return all;
+			}
+		});
+		assertEquals(loads[0], 0);
+
+		Chapter first = story.getChapter(story.getFirstChapterId());
+		assertEquals(first.getText(), "Night 0.");
+		assertSame(story.getChapter(first.getId()), first);
+		assertEquals(loads[0], 1);
+		assertNull(story.getChapter(UUID.randomUUID()));
+
+		// Changed chapters are kept however many are loaded
+		first.setText("Day 0.");
+		for (UUID id : saved.getChapters().keySet()) {
+			if (!id.equals(first.getId())) {
+				story.getChapter(id);
+			}
+		}
+		loads[0] = 0;
+		assertSame(story.getChapter(first.getId()), first);
+		assertEquals(loads[0], 0);
+
+		// Once saved, it is pushed out by using the others
+		story.clearChanges();
+		for (UUID id : saved.getChapters().keySet()) {
+			if (!id.equals(first.getId())) {
+				story.getChapter(id);
+			}
+		}
+		loads[0] = 0;
+		assertNotSame(story.getChapter(first.getId()), first);
+		assertEquals(loads[0], 1);
+		first = story.getChapter(first.getId());
+		first.setText("Day 0.");
+
+		// Added chapters are always kept
+		Chapter added = new Chapter(story.getId(), "The end.");
+		story.addChapter(added);
+		assertEquals(story.getFirstChapterId(), first.getId());
+		assertSame(story.getChapter(added.getId()), added);
+
+		// Asking for all of them loads them once, and keeps them all
+		loads[0] = 0;
+		HashMap<UUID, Chapter> all = story.getChapters();
+		assertEquals(all.size(), size + 1);
+		assertSame(all.get(first.getId()), first);
+		assertSame(all.get(added.getId()), added);
+		assertFalse(story.hasChapterLoader());
+		assertSame(story.getChapters(), all);
+		assertEquals(loads[0], size);
+		for (UUID id : saved.getChapters().keySet()) {
+			assertSame(story.getChapter(id), all.get(id));
+		}
+		assertEquals(loads[0], size);
+
+		story.setChapters(new HashMap<UUID, Chapter>());
+		assertFalse(story.hasChapterLoader());
+		assertTrue(story.getChapters().isEmpty());
+	}
+
+	/**
+	 * Tests that a story loading its chapters is serialized with all of
+	 * them.
+	 */
+	public void testSerializeLoadingStory() throws Exception {
+		final Chapter chapter = new Chapter(UUID.randomUUID(), "Night.");
+		Story story = new Story(chapter.getStoryId(), "7 bugs", "Shamalan",
+				"scary story", null);
+		story.setChapterLoader(new Story.ChapterLoader() {
+			@Override
+			public Chapter loadChapter(UUID chapterId) {
+				return chapter;
+			}
+
+			@Override
+			public HashMap<UUID, Chapter> loadChapters(UUID storyId) {
+				HashMap<UUID, Chapter> all = new HashMap<UUID, Chapter>();
+				all.put(chapter.getId(), chapter);
+				return all;
+			}
+		});
+		Story read = copy(story);
+		assertFalse(read.hasChapterLoader());
+		assertEquals(read.getChapter(chapter.getId()).getText(), "Night.");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T copy(T object) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(object);
+			out.close();
+			return (T) new ObjectInputStream(new ByteArrayInputStream(
+					bytes.toByteArray())).readObject();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Tests retrieving the search information places within the story, i.e. the
 	 * id, title, author, description, and whether or not it was created by the
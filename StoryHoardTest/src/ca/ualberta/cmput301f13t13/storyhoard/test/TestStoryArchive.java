@@ -0,0 +1,246 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryArchive;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Tests the StoryArchive class, and exporting and importing stories through
+ * the SHController.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryArchive
+ */
+public class TestStoryArchive extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private BlobStore blobs = null;
+	private Story story = null;
+	private Chapter first = null;
+	private Chapter second = null;
+	private byte[] picture = null;
+	private String pictureHash = null;
+
+	public TestStoryArchive() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		blobs = BlobStore.getInstance(getActivity());
+		picture = new byte[300 * 1000];
+		for (int i = 0; i < picture.length; i++) {
+			picture[i] = (byte) (i * 31);
+		}
+		pictureHash = blobs.put(new ByteArrayInputStream(picture));
+
+		story = new Story("The Cow", "Bob", "A story", "phone");
+		story.setUpdatedAt(1385000000000L);
+		first = new Chapter(story.getId(), "Moo.");
+		second = new Chapter(story.getId(), "Moo?");
+		Chapter third = new Chapter(story.getId(), "The end.");
+		first.addChoice(new Choice(first.getId(), second.getId(), "Ask"));
+		first.addChoice(new Choice(first.getId(), third.getId(), "Leave"));
+		second.addChoice(new Choice(second.getId(), first.getId(), "Back"));
+		// The same picture twice
+		Media photo = new Media(first.getId(), null, Media.PHOTO);
+		photo.setBlobHash(pictureHash);
+		first.addPhoto(photo);
+		Media illustration = new Media(second.getId(), null,
+				Media.ILLUSTRATION);
+		illustration.setBlobHash(pictureHash);
+		second.addIllustration(illustration);
+		story.addChapter(first);
+		story.addChapter(second);
+		story.addChapter(third);
+	}
+
+	/**
+	 * Tests that a story read back has everything it was written with, and
+	 * that media used twice are stored once.
+	 */
+	public void testRoundTrip() throws IOException {
+		byte[] archive = write(story);
+		assertTrue(archive.length > picture.length);
+		assertTrue(archive.length < picture.length + 2000);
+
+		Story read = StoryArchive.read(new ByteArrayInputStream(archive),
+				blobs);
+		assertEquals(read.getId(), story.getId());
+		assertEquals(read.getTitle(), "The Cow");
+		assertEquals(read.getDescription(), "A story");
+		assertEquals(read.getFirstChapterId(), first.getId());
+		assertEquals(read.getUpdatedAt(), 1385000000000L);
+		assertEquals(read.getChapters().size(), 3);
+		assertTrue(read.getChanges().isEmpty());
+
+		Chapter readFirst = read.getChapter(first.getId());
+		assertEquals(readFirst.getText(), "Moo.");
+		assertEquals(readFirst.getStoryId(), story.getId());
+		assertEquals(readFirst.getChoices().size(), 2);
+		assertEquals(readFirst.getChoices().get(1).getText(), "Leave");
+		assertEquals(readFirst.getPhotos().get(0).getBlobHash(), pictureHash);
+		Chapter readSecond = read.getChapter(second.getId());
+		assertEquals(readSecond.getChoices().get(0).getNextChapter(),
+				first.getId());
+		assertEquals(readSecond.getIllustrations().get(0).getId(), second
+				.getIllustrations().get(0).getId());
+	}
+
+	/**
+	 * Tests that media missing on the phone are put in the blob store.
+	 */
+	public void testMediaRestored() throws IOException {
+		byte[] archive = write(story);
+		assertTrue(blobs.getFile(pictureHash).delete());
+
+		StoryArchive.read(new ByteArrayInputStream(archive), blobs);
+		assertTrue(blobs.contains(pictureHash));
+		InputStream in = blobs.open(pictureHash);
+		byte[] read = new byte[picture.length];
+		int at = 0;
+		int n;
+		while ((n = in.read(read, at, read.length - at)) > 0) {
+			at += n;
+		}
+		in.close();
+		assertTrue(Arrays.equals(read, picture));
+	}
+
+	/**
+	 * Tests that chunks a later version could add are skipped.
+	 */
+	public void testUnknownChunk() throws IOException {
+		byte[] archive = write(story);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(archive, 0, 8);
+		out.write(new byte[] { 'N', 'O', 'T', 'E', 0, 0, 0, 0, 0, 0, 0, 3,
+				'M', 'o', 'o' });
+		out.write(archive, 8, archive.length - 8);
+
+		Story read = StoryArchive.read(
+				new ByteArrayInputStream(out.toByteArray()), blobs);
+		assertEquals(read.getChapters().size(), 3);
+	}
+
+	/**
+	 * Tests that archives that are damaged, cut short or not archives at all
+	 * aren't read.
+	 */
+	public void testBadArchives() throws IOException {
+		byte[] archive = write(story);
+		assertFalse(canRead(Arrays.copyOf(archive, archive.length / 2)));
+		assertFalse(canRead("Not an archive".getBytes()));
+
+		// A byte of the picture changed
+		assertTrue(blobs.getFile(pictureHash).delete());
+		archive[archive.length - 1000] ^= 1;
+		assertFalse(canRead(archive));
+		assertFalse(blobs.contains(pictureHash));
+	}
+
+	/**
+	 * Tests that a damaged string length makes the archive unreadable rather
+	 * than running the phone out of memory.
+	 */
+	public void testDamagedLength() throws IOException {
+		byte[] archive = write(story);
+
+		// The title's length, after the header, the META chunk's type and
+		// length, and the story id
+		int at = 8 + 12 + 16;
+		archive[at] = 0x7f;
+		archive[at + 1] = (byte) 0xff;
+		archive[at + 2] = (byte) 0xff;
+		archive[at + 3] = (byte) 0xff;
+		assertFalse(canRead(archive));
+	}
+
+	/**
+	 * Tests exporting a story saved on the phone, and importing it again.
+	 */
+	public void testExportImport() throws IOException {
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		SHController controller = SHController.getInstance(getActivity());
+		controller.saveCompleteStory(story);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(controller.exportStory(story.getId(), out));
+
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+		assertTrue(blobs.getFile(pictureHash).delete());
+
+		Story imported = controller.importStory(new ByteArrayInputStream(
+				out.toByteArray()));
+		Story loaded = controller.getCompleteStory(story.getId());
+		assertEquals(loaded.getChapters().size(), 3);
+		assertEquals(loaded.getTitle(), imported.getTitle());
+		assertEquals(loaded.getChapter(first.getId()).getChoices().size(), 2);
+		assertTrue(blobs.contains(pictureHash));
+	}
+
+	/**
+	 * Tests that exporting a story that isn't on the phone doesn't leave an
+	 * empty file behind.
+	 */
+	public void testExportMissingStory() throws Exception {
+		File file = new File(getActivity().getCacheDir(), "missing.story");
+		file.delete();
+
+		SHController controller = SHController.getInstance(getActivity());
+		assertFalse(controller.exportStoryAsync(UUID.randomUUID(), file, null)
+				.get(5, TimeUnit.SECONDS));
+		assertFalse(file.exists());
+	}
+
+	private byte[] write(Story story) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StoryArchive.write(story, blobs, out);
+		return out.toByteArray();
+	}
+
+	private boolean canRead(byte[] archive) {
+		try {
+			StoryArchive.read(new ByteArrayInputStream(archive), blobs);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
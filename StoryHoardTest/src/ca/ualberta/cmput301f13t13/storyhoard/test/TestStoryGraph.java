@@ -0,0 +1,211 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.ChoiceManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraph;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphIndex;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphWriter;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Tests the StoryGraph and StoryGraphIndex classes.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraph
+ * @see StoryGraphIndex
+ */
+public class TestStoryGraph extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private UUID[] ids = null;
+
+	public TestStoryGraph() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ids = new UUID[6];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = UUID.randomUUID();
+		}
+	}
+
+	/**
+	 * Tests reachability, dead ends and orphans of a small story:
+	 * 0 -> 1 -> 3, 0 -> 2 -> 3, 3 -> 0, and 4 -> 5 off on its own.
+	 */
+	public void testStructure() {
+		StoryGraph graph = newGraph();
+
+		assertEquals(graph.getChapterCount(), 6);
+		assertEquals(graph.getChoiceCount(), 6);
+		ArrayList<UUID> reachable = graph.getReachable();
+		assertEquals(reachable.size(), 4);
+		assertEquals(reachable.get(0), ids[0]);
+		assertTrue(graph.isReachable(ids[3]));
+		assertFalse(graph.isReachable(ids[5]));
+
+		assertEquals(graph.getDeadEnds(), Arrays.asList(ids[5]));
+		ArrayList<UUID> orphans = graph.getOrphans();
+		assertEquals(orphans.size(), 2);
+		assertTrue(orphans.contains(ids[4]));
+		assertTrue(orphans.contains(ids[5]));
+		assertEquals(graph.getNextChapters(ids[0]),
+				Arrays.asList(ids[1], ids[2]));
+	}
+
+	/**
+	 * Tests that the shortest way to a chapter is found.
+	 */
+	public void testPath() {
+		StoryGraph graph = newGraph();
+		assertEquals(graph.getPath(ids[3]),
+				Arrays.asList(ids[0], ids[1], ids[3]));
+		assertEquals(graph.getPath(ids[0]), Arrays.asList(ids[0]));
+		assertNull(graph.getPath(ids[4]));
+
+		// A shortcut between chapters already reached
+		graph.putChoice(UUID.randomUUID(), ids[0], ids[3]);
+		assertEquals(graph.getPath(ids[3]), Arrays.asList(ids[0], ids[3]));
+	}
+
+	/**
+	 * Tests that adding, moving and removing choices keeps what can be
+	 * reached up to date.
+	 */
+	public void testIncrementalUpdates() {
+		StoryGraph graph = newGraph();
+		assertEquals(graph.getOrphans().size(), 2);
+
+		// Reaches 4, and 5 through it
+		UUID bridge = UUID.randomUUID();
+		graph.putChoice(bridge, ids[3], ids[4]);
+		assertTrue(graph.getOrphans().isEmpty());
+		assertEquals(graph.getPath(ids[5]),
+				Arrays.asList(ids[0], ids[1], ids[3], ids[4], ids[5]));
+
+		// Moved away, then removed
+		graph.putChoice(bridge, ids[5], ids[4]);
+		assertEquals(graph.getOrphans().size(), 2);
+		graph.putChoice(bridge, ids[2], ids[4]);
+		assertTrue(graph.isReachable(ids[5]));
+		graph.removeChoice(bridge);
+		assertFalse(graph.isReachable(ids[4]));
+		assertEquals(graph.getChoiceCount(), 6);
+
+		graph.setFirstChapterId(ids[4]);
+		assertEquals(graph.getReachable().size(), 2);
+	}
+
+	/**
+	 * Times analysing a large branching story: every chapter has three
+	 * choices, to the chapters after it in a complete ternary tree.
+	 */
+	public void testLargeStory() {
+		int size = 30000;
+		UUID[] chapters = new UUID[size];
+		for (int i = 0; i < size; i++) {
+			chapters[i] = UUID.randomUUID();
+		}
+		long start = System.nanoTime();
+		StoryGraph graph = new StoryGraph(chapters[0]);
+		for (int i = 0; i < size; i++) {
+			graph.addChapter(chapters[i]);
+			for (int j = 1; j <= 3; j++) {
+				if (3 * i + j < size) {
+					graph.putChoice(UUID.randomUUID(), chapters[i],
+							chapters[3 * i + j]);
+				}
+			}
+		}
+		long built = System.nanoTime();
+		assertEquals(graph.getReachable().size(), size);
+		assertTrue(graph.getOrphans().isEmpty());
+		// Every chapter past the ones with choices is a dead end
+		int withChoices = (size - 2) / 3 + 1;
+		assertEquals(graph.getDeadEnds().size(), size - withChoices);
+		assertEquals(graph.getPath(chapters[size - 1]).size(), 11);
+		long analysed = System.nanoTime();
+
+		System.out.println("Story of " + size + " chapters built in "
+				+ (built - start) / 1000000 + "ms, analysed in "
+				+ (analysed - built) / 1000000 + "ms");
+	}
+
+	/**
+	 * Tests that the index builds a story's graph from the database once,
+	 * and then follows choices and chapters as they are saved.
+	 */
+	public void testIndexFollowsSaves() {
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		Story story = new Story("The Cow", "Bob", "A story", "phone");
+		Chapter first = new Chapter(story.getId(), "Moo.");
+		Chapter second = new Chapter(story.getId(), "Moo?");
+		first.addChoice(new Choice(first.getId(), second.getId(), "Ask"));
+		story.addChapter(first);
+		story.addChapter(second);
+		StoryGraphWriter.getInstance(getActivity()).saveStory(story);
+
+		StoryGraphIndex index = StoryGraphIndex.getInstance(getActivity());
+		StoryGraph graph = index.getGraph(story.getId());
+		int builds = index.getBuildCount();
+		assertEquals(graph.getChapterCount(), 2);
+		assertEquals(graph.getPath(second.getId()).size(), 2);
+		assertEquals(graph.getDeadEnds(), Arrays.asList(second.getId()));
+
+		Chapter third = new Chapter(story.getId(), "The end.");
+		ChapterManager.getInstance(getActivity()).insert(third);
+		assertEquals(graph.getOrphans(), Arrays.asList(third.getId()));
+		ChoiceManager.getInstance(getActivity()).insert(
+				new Choice(second.getId(), third.getId(), "End"));
+		assertTrue(graph.getOrphans().isEmpty());
+		assertSame(index.getGraph(story.getId()), graph);
+		assertEquals(index.getBuildCount(), builds);
+
+		assertNull(index.getGraph(UUID.randomUUID()));
+	}
+
+	private StoryGraph newGraph() {
+		StoryGraph graph = new StoryGraph(ids[0]);
+		for (UUID id : ids) {
+			graph.addChapter(id);
+		}
+		graph.putChoice(UUID.randomUUID(), ids[0], ids[1]);
+		graph.putChoice(UUID.randomUUID(), ids[0], ids[2]);
+		graph.putChoice(UUID.randomUUID(), ids[1], ids[3]);
+		graph.putChoice(UUID.randomUUID(), ids[2], ids[3]);
+		graph.putChoice(UUID.randomUUID(), ids[3], ids[0]);
+		graph.putChoice(UUID.randomUUID(), ids[4], ids[5]);
+		return graph;
+	}
+}
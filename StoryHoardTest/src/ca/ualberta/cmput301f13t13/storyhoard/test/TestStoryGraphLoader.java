@@ -0,0 +1,210 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.UUID;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.ChoiceManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.MediaManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphLoader;
+import ca.ualberta.cs.c301f13t13.backend.StoryManager;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Class meant for the testing of the StoryGraphLoader class in the StoryHoard
+ * application.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraphLoader
+ */
+public class TestStoryGraphLoader extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private StoryGraphLoader loader = null;
+
+	public TestStoryGraphLoader() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+		loader = StoryGraphLoader.getInstance(getActivity());
+	}
+
+	/**
+	 * Inserts a story with the given number of chapters into the database.
+	 * Every chapter gets one choice leading to the next chapter and one
+	 * photo.
+	 */
+	public Story insertMockStory(int numChapters) {
+		Story story = new Story("title", "author", "des", "432432");
+		StoryManager sm = StoryManager.getInstance(getActivity());
+		ChapterManager cm = ChapterManager.getInstance(getActivity());
+		ChoiceManager chm = ChoiceManager.getInstance(getActivity());
+		MediaManager mm = MediaManager.getInstance(getActivity());
+
+		Chapter prev = null;
+		for (int i = 0; i < numChapters; i++) {
+			Chapter chap = new Chapter(story.getId(), "chapter " + i);
+			story.addChapter(chap);
+			cm.insert(chap);
+			mm.insert(new Media(chap.getId(), null, Media.PHOTO));
+			if (prev != null) {
+				chm.insert(new Choice(prev.getId(), chap.getId(), "go on"));
+			}
+			prev = chap;
+		}
+		sm.insert(story);
+		return story;
+	}
+
+	/**
+	 * Tests that a loaded story has all its chapters, choices and media.
+	 */
+	public void testLoadStory() {
+		Story story = insertMockStory(3);
+		Story other = insertMockStory(2);
+
+		Story loaded = loader.loadStory(story.getId());
+		assertTrue(loaded != null);
+		assertEquals(loaded.getId(), story.getId());
+		assertEquals(loaded.getFirstChapterId(), story.getFirstChapterId());
+		assertEquals(loaded.getChapters().size(), 3);
+		assertFalse(loaded.getChapters().containsKey(
+				other.getFirstChapterId()));
+
+		int numChoices = 0;
+		for (Chapter chap : loaded.getChapters().values()) {
+			assertEquals(chap.getPhotos().size(), 1);
+			assertEquals(chap.getIllustrations().size(), 0);
+			numChoices += chap.getChoices().size();
+		}
+		assertEquals(numChoices, 2);
+	}
+
+	/**
+	 * Tests that loading a story returns null if the story doesn't exist.
+	 */
+	public void testLoadMissingStory() {
+		assertTrue(loader.loadStory(UUID.randomUUID()) == null);
+	}
+
+	/**
+	 * Tests that every chapter of a big story is loaded with its own choice
+	 * and photo.
+	 */
+	public void testLoadBigStory() {
+		Story big = insertMockStory(200);
+		insertMockStory(2);
+
+		Story loaded = loader.loadStory(big.getId());
+		assertEquals(loaded.getChapters().size(), 200);
+		for (Chapter chap : big.getChapters().values()) {
+			Chapter loadedChap = loaded.getChapter(chap.getId());
+			assertTrue(loadedChap.getText().equals(chap.getText()));
+			assertEquals(loadedChap.getPhotos().size(), 1);
+			assertEquals(loadedChap.getPhotos().get(0).getChapterId(),
+					chap.getId());
+		}
+
+		// The choices lead from each chapter to the next one
+		Chapter chap = loaded.getChapter(loaded.getFirstChapterId());
+		for (int i = 0; i < 199; i++) {
+			assertTrue(chap.getText().equals("chapter " + i));
+			assertEquals(chap.getChoices().size(), 1);
+			chap = loaded.getChapter(chap.getChoices().get(0)
+					.getNextChapter());
+		}
+		assertTrue(chap.getText().equals("chapter 199"));
+		assertEquals(chap.getChoices().size(), 0);
+	}
+
+	/**
+	 * Tests that loading a story of 200 chapters runs as many queries as
+	 * loading one of 10, by counting the cursors the database makes.
+	 */
+	public void testQueryCountDoesNotGrow() {
+		Story small = insertMockStory(10);
+		Story big = insertMockStory(200);
+
+		CountingFactory factory = new CountingFactory();
+		CountingHelper helper = new CountingHelper(getActivity(), factory);
+		try {
+			StoryGraphLoader counted = new CountingLoader(helper);
+			int before = factory.count;
+			Story loadedSmall = counted.loadStory(small.getId());
+			int smallQueries = factory.count - before;
+
+			before = factory.count;
+			Story loadedBig = counted.loadStory(big.getId());
+			int bigQueries = factory.count - before;
+
+			assertEquals(loadedSmall.getChapters().size(), 10);
+			assertEquals(loadedBig.getChapters().size(), 200);
+			assertEquals(smallQueries, 4);
+			assertEquals(bigQueries, smallQueries);
+		} finally {
+			helper.close();
+		}
+	}
+
+	/**
+	 * Counts the cursors made, one for every query.
+	 */
+	private static class CountingFactory implements
+			SQLiteDatabase.CursorFactory {
+		private int count = 0;
+
+		@Override
+		public Cursor newCursor(SQLiteDatabase db,
+				SQLiteCursorDriver masterQuery, String editTable,
+				SQLiteQuery query) {
+			count++;
+			return new SQLiteCursor(masterQuery, editTable, query);
+		}
+	}
+
+	private static class CountingHelper extends DBHelper {
+		public CountingHelper(Context context, CountingFactory factory) {
+			super(context, factory);
+		}
+	}
+
+	private static class CountingLoader extends StoryGraphLoader {
+		public CountingLoader(DBHelper helper) {
+			super(helper);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.ChoiceManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.MediaManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphLoader;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphWriter;
+import ca.ualberta.cs.c301f13t13.backend.StoryManager;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+/**
+ * Class meant for the testing of the StoryGraphWriter class in the StoryHoard
+ * application.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraphWriter
+ */
+public class TestStoryGraphWriter extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private StoryGraphWriter writer = null;
+	private StoryGraphLoader loader = null;
+
+	public TestStoryGraphWriter() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+		writer = StoryGraphWriter.getInstance(getActivity());
+		loader = StoryGraphLoader.getInstance(getActivity());
+	}
+
+	/**
+	 * Makes a story with the given number of chapters, without saving it.
+	 * Every chapter gets one choice leading to the next chapter and one
+	 * photo.
+	 */
+	public Story makeMockStory(int numChapters) {
+		Story story = new Story("title", "author", "des", "432432");
+
+		Chapter prev = null;
+		for (int i = 0; i < numChapters; i++) {
+			Chapter chap = new Chapter(story.getId(), "chapter " + i);
+			chap.addPhoto(new Media(chap.getId(), null, Media.PHOTO));
+			if (prev != null) {
+				prev.addChoice(new Choice(prev.getId(), chap.getId(), "go on"));
+			}
+			story.addChapter(chap);
+			prev = chap;
+		}
+		return story;
+	}
+
+	/**
+	 * Tests that a saved story can be loaded back whole.
+	 */
+	public void testSaveStory() {
+		Story story = makeMockStory(3);
+		writer.saveStory(story);
+
+		Story loaded = loader.loadStory(story.getId());
+		assertTrue(loaded != null);
+		assertEquals(loaded.getTitle(), "title");
+		assertEquals(loaded.getFirstChapterId(), story.getFirstChapterId());
+		assertEquals(loaded.getChapters().size(), 3);
+
+		int numChoices = 0;
+		for (Chapter chap : loaded.getChapters().values()) {
+			assertEquals(chap.getPhotos().size(), 1);
+			numChoices += chap.getChoices().size();
+		}
+		assertEquals(numChoices, 2);
+	}
+
+	/**
+	 * Tests that saving a story again updates it instead of adding it twice.
+	 */
+	public void testSaveAgain() {
+		Story story = makeMockStory(2);
+		writer.saveStory(story);
+
+		story.setTitle("new title");
+		Chapter first = story.getChapter(story.getFirstChapterId());
+		first.setText("changed");
+		writer.saveStory(story);
+
+		Story loaded = loader.loadStory(story.getId());
+		assertEquals(loaded.getTitle(), "new title");
+		assertEquals(loaded.getChapters().size(), 2);
+		assertEquals(loaded.getChapter(first.getId()).getText(), "changed");
+		assertEquals(loaded.getChapter(first.getId()).getChoices().size(), 1);
+
+		Story criteria = new Story(story.getId(), null, null, null, null);
+		StoryManager sm = StoryManager.getInstance(getActivity());
+		assertEquals(sm.retrieve(criteria).size(), 1);
+	}
+
+	/**
+	 * Tests that chapters, choices and media taken out of a story are
+	 * deleted when it is saved again.
+	 */
+	public void testSaveRemoved() {
+		Story story = makeMockStory(3);
+		writer.saveStory(story);
+
+		Chapter first = story.getChapter(story.getFirstChapterId());
+		Chapter second = story.getChapter(first.getChoices().get(0)
+				.getNextChapter());
+		Chapter third = story.getChapter(second.getChoices().get(0)
+				.getNextChapter());
+		story.getChapters().remove(third.getId());
+		second.setChoices(new ArrayList<Choice>());
+		first.setPhotos(new ArrayList<Media>());
+		writer.saveStory(story);
+
+		Story loaded = loader.loadStory(story.getId());
+		assertEquals(loaded.getChapters().size(), 2);
+		assertNull(loaded.getChapter(third.getId()));
+		assertEquals(loaded.getChapter(first.getId()).getPhotos().size(), 0);
+		assertEquals(loaded.getChapter(first.getId()).getChoices().size(), 1);
+		assertEquals(loaded.getChapter(second.getId()).getChoices().size(), 0);
+		assertEquals(loaded.getChapter(second.getId()).getPhotos().size(), 1);
+
+		// Nothing of the chapter taken out is left behind
+		ChoiceManager choices = ChoiceManager.getInstance(getActivity());
+		assertEquals(choices.retrieve(new Choice(null, second.getId()))
+				.size(), 0);
+		MediaManager media = MediaManager.getInstance(getActivity());
+		assertEquals(media.retrieve(new Media(null, third.getId(), null, null))
+				.size(), 0);
+		assertEquals(media.retrieve(new Media(null, first.getId(), null, null))
+				.size(), 0);
+	}
+
+	/**
+	 * Tests that a story which fails part way through is not saved at all.
+	 */
+	public void testAllOrNothing() {
+		Story story = makeMockStory(5);
+		// A chapter without an id can't be saved
+		story.addChapter(new Chapter(null, story.getId(), "broken"));
+
+		try {
+			writer.saveStory(story);
+			fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		assertTrue(loader.loadStory(story.getId()) == null);
+		Chapter criteria = new Chapter(null, story.getId(), null);
+		ChapterManager cm = ChapterManager.getInstance(getActivity());
+		ArrayList<Object> chapters = cm.retrieve(criteria);
+		assertEquals(chapters.size(), 0);
+	}
+
+	/**
+	 * Tests that a saved story can be found with a keyword from one of its
+	 * chapters.
+	 */
+	public void testSearchChapterText() {
+		Story story = makeMockStory(3);
+		story.getChapter(story.getFirstChapterId()).setText("a red dragon");
+		writer.saveStory(story);
+
+		Story criteria = new Story(null, "dragon", null, null, "432432");
+		StoryManager sm = StoryManager.getInstance(getActivity());
+		assertEquals(sm.retrieve(criteria).size(), 1);
+		assertEquals(((Story) sm.retrieve(criteria).get(0)).getId(),
+				story.getId());
+	}
+
+	/**
+	 * Tests that a story is found when the keywords are in different
+	 * chapters, and no longer found by a chapter's old text once the
+	 * chapter changes.
+	 */
+	public void testSearchAcrossChapters() {
+		Story story = makeMockStory(3);
+		Chapter first = story.getChapter(story.getFirstChapterId());
+		Chapter second = story.getChapter(first.getChoices().get(0)
+				.getNextChapter());
+		first.setText("a red dragon");
+		second.setText("a brave knight");
+		writer.saveStory(story);
+
+		StoryManager sm = StoryManager.getInstance(getActivity());
+		Story criteria = new Story(null, "dragon knight", null, null, "432432");
+		assertEquals(sm.retrieve(criteria).size(), 1);
+
+		second.setText("a sleepy cow");
+		writer.saveStory(story);
+		assertEquals(sm.retrieve(criteria).size(), 0);
+		criteria = new Story(null, "dragon cow", null, null, "432432");
+		assertEquals(sm.retrieve(criteria).size(), 1);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import java.util.UUID;
+
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGson;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests the StoryGson class.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGson
+ */
+public class TestStoryGson extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private Story story = null;
+	private Chapter first = null;
+	private Chapter second = null;
+
+	public TestStoryGson() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		story = new Story("The Cow", "Bob", "A story", "phone");
+		story.setUpdatedAt(1385000000000L);
+		first = new Chapter(story.getId(), "Moo.");
+		second = new Chapter(story.getId(), "Moo?");
+		first.addChoice(new Choice(first.getId(), second.getId(), "Ask"));
+		Media photo = new Media(first.getId(), "/sdcard/cow.jpg", Media.PHOTO);
+		photo.setBlobHash("a94a8fe5ccb19ba61c4c0873d391e987982fbbd3");
+		first.addPhoto(photo);
+		second.addIllustration(new Media(second.getId(), null,
+				Media.ILLUSTRATION));
+		second.setUpdatedAt(1385000001000L);
+		story.addChapter(first);
+		story.addChapter(second);
+	}
+
+	/**
+	 * Tests that a story read back has everything it was written with, and
+	 * nothing to save.
+	 */
+	public void testRoundTrip() {
+		Gson gson = StoryGson.getInstance();
+		Story read = gson.fromJson(gson.toJson(story), Story.class);
+
+		assertEquals(read.getId(), story.getId());
+		assertEquals(read.getTitle(), "The Cow");
+		assertEquals(read.getFirstChapterId(), first.getId());
+		assertEquals(read.getUpdatedAt(), 1385000000000L);
+		assertEquals(read.getChapters().size(), 2);
+		assertTrue(read.getChanges().isEmpty());
+
+		Chapter readFirst = read.getChapter(first.getId());
+		assertEquals(readFirst.getText(), "Moo.");
+		assertEquals(readFirst.getStoryId(), story.getId());
+		assertTrue(readFirst.getChanges().isEmpty());
+		Choice choice = readFirst.getChoices().get(0);
+		assertEquals(choice.getId(), first.getChoices().get(0).getId());
+		assertEquals(choice.getNextChapter(), second.getId());
+		Media photo = readFirst.getPhotos().get(0);
+		assertEquals(photo.getPath(), "/sdcard/cow.jpg");
+		assertEquals(photo.getBlobHash(),
+				"a94a8fe5ccb19ba61c4c0873d391e987982fbbd3");
+
+		Chapter readSecond = read.getChapter(second.getId());
+		assertEquals(readSecond.getUpdatedAt(), 1385000001000L);
+		assertTrue(readSecond.getChoices().isEmpty());
+		Media illustration = readSecond.getIllustrations().get(0);
+		assertEquals(illustration.getPath(), "");
+		assertNull(illustration.getBlobHash());
+	}
+
+	/**
+	 * Tests that stories written by reflection (like the ones already on the
+	 * server) are read the same, and that the JSON only differs by leaving
+	 * out empty media paths.
+	 */
+	public void testSameAsReflection() {
+		Gson reflective = new Gson();
+		Gson gson = StoryGson.getInstance();
+		String reflected = reflective.toJson(story);
+
+		Story read = gson.fromJson(reflected, Story.class);
+		assertEquals(parse(gson.toJson(read)), parse(gson.toJson(story)));
+
+		JsonObject written = parse(gson.toJson(story));
+		JsonObject expected = parse(reflected);
+		expected.getAsJsonObject("chapters")
+				.getAsJsonObject(second.getId().toString())
+				.getAsJsonArray("illustrations").get(0).getAsJsonObject()
+				.remove("path");
+		assertEquals(written, expected);
+	}
+
+	/**
+	 * Tests that chapters in an array, unknown fields and nulls are read.
+	 */
+	public void testLenientReading() {
+		UUID chapterId = UUID.randomUUID();
+		String json = "{\"id\":\"" + story.getId() + "\",\"title\":null,"
+				+ "\"rating\":{\"stars\":5},\"chapters\":[{\"id\":\""
+				+ chapterId + "\",\"text\":\"Moo.\",\"choices\":null}]}";
+		Gson gson = StoryGson.getInstance();
+		Story read = gson.fromJson(json, Story.class);
+
+		assertNull(read.getTitle());
+		assertEquals(read.getChapters().size(), 1);
+		Chapter chapter = read.getChapter(chapterId);
+		assertEquals(chapter.getText(), "Moo.");
+		assertTrue(chapter.getChoices().isEmpty());
+		assertTrue(chapter.getPhotos().isEmpty());
+
+		assertNull(gson.fromJson("null", Story.class));
+		assertEquals(gson.toJson(null, Story.class), "null");
+	}
+
+	private static JsonObject parse(String json) {
+		return new JsonParser().parse(json).getAsJsonObject();
+	}
+}
@@ -17,6 +17,8 @@
 package ca.ualberta.cmput301f13t13.storyhoard.test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.UUID;
 
 import ca.ualberta.cs.c301f13t13.backend.*;
 import ca.ualberta.cs.c301f13t13.gui.*;
@@ -93,6 +95,25 @@ public class TestStoryManager extends
 		assertEquals(mockStories.size(), 1);
 	}
 
+	/**
+	 * Tests that stories loaded from the database have no changes to save,
+	 * and that changing their phone id is one.
+	 */
+	public void testLoadedStoryUnchanged() {
+		Story mockStory = newMockStory("My Cow", "Dr. Poe", "my chubby cow",
+				Utilities.getPhoneId(this.getActivity()));
+		sm.insert(mockStory);
+
+		Story loaded = (Story) sm.retrieve(mockStory).get(0);
+		assertTrue(loaded.getChanges().isEmpty());
+		loaded = sm.retrievePage(new Story(null, null, null, null, null),
+				null, 10).getStories().get(0);
+		assertTrue(loaded.getChanges().isEmpty());
+
+		loaded.setPhoneId("another phone");
+		assertEquals(loaded.getChanges().get("phoneId"), "another phone");
+	}
+
 	/**
 	 * Tests loading all created stories, and makes sure the results don't
 	 * include any stories not created by author.
@@ -162,4 +183,134 @@ public class TestStoryManager extends
 		mockStories = sm.retrieve(mockStory);
 		assertTrue(mockStories.size() == 0);
 	}
+
+	/**
+	 * Tests searching with several keywords, which should only find stories
+	 * that have all of them.
+	 */
+	public void testMultiKeywordSearch() {
+		String phoneId = Utilities.getPhoneId(this.getActivity());
+		sm.insert(newMockStory("Bob the hen", "me", "none", phoneId));
+		sm.insert(newMockStory("Bob the cow", "me", "none", phoneId));
+		sm.insert(newMockStory("Lily the hen", "me", "none", phoneId));
+
+		Story criteria = new Story(null, "Bob hen", null, null, phoneId);
+		mockStories = sm.retrieve(criteria);
+		assertEquals(mockStories.size(), 1);
+		assertTrue(((Story) mockStories.get(0)).getTitle().equals(
+				"Bob the hen"));
+
+		// keywords also match the start of words
+		criteria = new Story(null, "he", null, null, phoneId);
+		mockStories = sm.retrieve(criteria);
+		assertEquals(mockStories.size(), 2);
+	}
+
+	/**
+	 * Tests that searching looks at the author, description and chapter text
+	 * of stories, including chapters added after the story.
+	 */
+	public void testSearchAllFields() {
+		String phoneId = Utilities.getPhoneId(this.getActivity());
+		Story story = newMockStory("My Cow", "Dr. Poe", "a chubby cow",
+				phoneId);
+		sm.insert(story);
+
+		Story criteria = new Story(null, "poe", null, null, phoneId);
+		assertEquals(sm.retrieve(criteria).size(), 1);
+
+		criteria = new Story(null, "chubby", null, null, phoneId);
+		assertEquals(sm.retrieve(criteria).size(), 1);
+
+		criteria = new Story(null, "dragon", null, null, phoneId);
+		assertEquals(sm.retrieve(criteria).size(), 0);
+
+		ChapterManager cm = ChapterManager.getInstance(getActivity());
+		cm.insert(new Chapter(story.getId(), "then a dragon came"));
+		assertEquals(sm.retrieve(criteria).size(), 1);
+	}
+
+	/**
+	 * Tests that stories matching the keywords in their title come before
+	 * the ones only matching them in their description.
+	 */
+	public void testRankedSearch() {
+		String phoneId = Utilities.getPhoneId(this.getActivity());
+		Story inDescription = newMockStory("My Frog", "me",
+				"the frog meets a wizard", phoneId);
+		sm.insert(inDescription);
+		Story inTitle = newMockStory("The Wizard", "me", "none", phoneId);
+		sm.insert(inTitle);
+
+		Story criteria = new Story(null, "wizard", null, null, phoneId);
+		mockStories = sm.retrieve(criteria);
+		assertEquals(mockStories.size(), 2);
+		assertEquals(((Story) mockStories.get(0)).getId(), inTitle.getId());
+		assertEquals(((Story) mockStories.get(1)).getId(),
+				inDescription.getId());
+	}
+
+	/**
+	 * Tests browsing the author's stories a page at a time, in title order.
+	 */
+	public void testRetrievePage() {
+		String phoneId = Utilities.getPhoneId(this.getActivity());
+		for (int i = 0; i < 25; i++) {
+			// Inserted out of order, some with the same title
+			sm.insert(newMockStory("story " + (char) ('a' + (i * 7) % 13),
+					"me", "des", phoneId));
+		}
+		sm.insert(newMockStory("someone else's", "you", "des", "other"));
+
+		Story criteria = new Story(null, null, null, null, phoneId);
+		ArrayList<Story> browsed = new ArrayList<Story>();
+		StoryPage page = null;
+		do {
+			page = sm.retrievePage(criteria, page, 10);
+			browsed.addAll(page.getStories());
+		} while (page.hasMore());
+
+		assertEquals(browsed.size(), 25);
+		assertEquals(page.getEnd(), 25);
+		for (int i = 1; i < browsed.size(); i++) {
+			Story prev = browsed.get(i - 1);
+			Story story = browsed.get(i);
+			int order = prev.getTitle().compareTo(story.getTitle());
+			assertTrue(order < 0 || (order == 0 
+					&& prev.getId().toString().compareTo(
+							story.getId().toString()) < 0));
+		}
+	}
+
+	/**
+	 * Tests that paging goes through stories without a title and with an
+	 * empty one, each exactly once.
+	 */
+	public void testRetrievePageNoTitle() {
+		String phoneId = Utilities.getPhoneId(this.getActivity());
+		HashSet<UUID> inserted = new HashSet<UUID>();
+		for (int i = 0; i < 9; i++) {
+			String title = (i % 3 == 0) ? null : (i % 3 == 1) ? "" : "a";
+			Story story = newMockStory(title, "me", "des", phoneId);
+			sm.insert(story);
+			inserted.add(story.getId());
+		}
+
+		Story criteria = new Story(null, null, null, null, phoneId);
+		ArrayList<Story> browsed = new ArrayList<Story>();
+		StoryPage page = null;
+		do {
+			page = sm.retrievePage(criteria, page, 2);
+			browsed.addAll(page.getStories());
+		} while (page.hasMore());
+
+		assertEquals(browsed.size(), 9);
+		HashSet<UUID> ids = new HashSet<UUID>();
+		for (Story story : browsed) {
+			ids.add(story.getId());
+		}
+		assertEquals(ids, inserted);
+		assertNull(browsed.get(2).getTitle());
+		assertTrue(browsed.get(3).getTitle().equals(""));
+	}
 }
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cmput301f13t13.storyhoard.test;
+
+import android.content.Context;
+import android.test.ActivityInstrumentationTestCase2;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.DBContract;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.ServerManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphLoader;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphWriter;
+import ca.ualberta.cs.c301f13t13.backend.StoryGson;
+import ca.ualberta.cs.c301f13t13.backend.SyncEngine;
+import ca.ualberta.cs.c301f13t13.gui.ViewBrowseStories;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests the SyncEngine class against a fake of the server.
+ *
+ * @author Stephanie Gil
+ *
+ * @see SyncEngine
+ */
+public class TestSyncEngine extends
+		ActivityInstrumentationTestCase2<ViewBrowseStories> {
+	private FakeElasticSearch elastic = null;
+	private StubHttpServer stub = null;
+	private SyncEngine engine = null;
+	private StoryGraphWriter writer = null;
+	private StoryGraphLoader loader = null;
+	private Gson gson = new Gson();
+
+	public TestSyncEngine() {
+		super(ViewBrowseStories.class);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Clearing database
+		DBHelper helper = DBHelper.getInstance(this.getActivity());
+		helper.close();
+		this.getActivity().deleteDatabase(DBContract.DATABASE_NAME);
+
+		elastic = new FakeElasticSearch();
+		stub = new StubHttpServer(elastic);
+		engine = new StubSyncEngine(getActivity(),
+				new StubServerManager(stub.getUrl()));
+		writer = StoryGraphWriter.getInstance(getActivity());
+		loader = StoryGraphLoader.getInstance(getActivity());
+	}
+
+	protected void tearDown() throws Exception {
+		stub.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Tests that a story changed on the server is pulled, and only once.
+	 */
+	public void testPull() throws Exception {
+		Story story = newStory("The Cow", 1000);
+		settle(story);
+
+		Story remote = gson.fromJson(elastic.getDocument(
+				story.getId().toString()), Story.class);
+		remote.setTitle("The Fat Cow");
+		remote.setUpdatedAt(2000);
+		elastic.putDocument(story.getId().toString(),
+				gson.toJsonTree(remote).getAsJsonObject());
+
+		SyncEngine.Result result = engine.sync();
+		assertEquals(result.getPulled(), 1);
+		assertEquals(result.getConflicts(), 0);
+		assertEquals(result.getPushed(), 0);
+		assertEquals(loader.loadStory(story.getId()).getTitle(),
+				"The Fat Cow");
+
+		// Nothing changed since
+		result = engine.sync();
+		assertEquals(result.getPulled(), 0);
+		assertEquals(result.getPushed(), 0);
+	}
+
+	/**
+	 * Tests that only the chapters changed on the phone are pushed, and
+	 * that they are merged into the server's copy.
+	 */
+	public void testPushChangedChapters() throws Exception {
+		Story story = newStory("The Cow", 1000);
+		Chapter changed = story.getChapters().values().iterator().next();
+		Chapter other = new Chapter(story.getId(), "The end.");
+		other.setUpdatedAt(1000);
+		story.addChapter(other);
+		settle(story);
+
+		changed.setText("Moo. Moo.");
+		ChapterManager.getInstance(getActivity()).update(changed);
+		int before = elastic.getRequests().size();
+
+		SyncEngine.Result result = engine.sync();
+		assertEquals(result.getPushed(), 1);
+		assertEquals(result.getPulled(), 0);
+		assertTrue(result.getFailures().isEmpty());
+
+		StubHttpServer.Request bulk = null;
+		for (StubHttpServer.Request request : elastic.getRequests()
+				.subList(before, elastic.getRequests().size())) {
+			if (request.path.endsWith("_bulk")) {
+				bulk = request;
+			}
+		}
+		assertNotNull(bulk);
+		JsonObject doc = new JsonParser().parse(bulk.getBody().split("\n")[1])
+				.getAsJsonObject().getAsJsonObject("doc");
+		JsonObject chapters = doc.getAsJsonObject("chapters");
+		assertEquals(chapters.entrySet().size(), 1);
+		assertEquals(doc.get(StoryGson.CHANGED_AT).getAsLong(),
+				changed.getUpdatedAt());
+		assertTrue(chapters.has(changed.getId().toString()));
+
+		JsonObject published = elastic.getDocument(story.getId().toString())
+				.getAsJsonObject("chapters");
+		assertEquals(published.getAsJsonObject(changed.getId().toString())
+				.get("text").getAsString(), "Moo. Moo.");
+		assertEquals(published.getAsJsonObject(other.getId().toString())
+				.get("text").getAsString(), "The end.");
+	}
+
+	/**
+	 * Tests that a story another phone only changed a chapter of is pulled,
+	 * even though the story's own time didn't change.
+	 */
+	public void testPullChangedChapter() throws Exception {
+		Story story = newStory("The Cow", 1000);
+		Chapter chapter = story.getChapters().values().iterator().next();
+		settle(story);
+
+		// The other phone's copy, changed and sent the way it sends them
+		Gson documents = StoryGson.getDocumentInstance();
+		Story other = documents.fromJson(elastic.getDocument(
+				story.getId().toString()), Story.class);
+		Chapter otherChapter = other.getChapter(chapter.getId());
+		otherChapter.setText("Moo! Moo!");
+		otherChapter.setUpdatedAt(System.currentTimeMillis());
+		new StubServerManager(stub.getUrl()).update(other);
+		assertEquals(elastic.getDocument(story.getId().toString())
+				.get("updatedAt").getAsLong(), 1000);
+
+		SyncEngine.Result result = engine.sync();
+		assertEquals(result.getPulled(), 1);
+		assertEquals(result.getConflicts(), 0);
+		assertEquals(loader.loadStory(story.getId()).getChapter(
+				chapter.getId()).getText(), "Moo! Moo!");
+	}
+
+	/**
+	 * Tests that when a story was changed on both sides, the phone's later
+	 * change wins and is pushed.
+	 */
+	public void testConflictLatestWins() throws Exception {
+		Story story = newStory("The Cow", 1000);
+		settle(story);
+
+		JsonObject remote = elastic.getDocument(story.getId().toString());
+		remote.addProperty("title", "The Pig");
+		remote.addProperty("updatedAt", 2000);
+
+		Chapter chapter = story.getChapters().values().iterator().next();
+		chapter.setText("Oink?");
+		ChapterManager.getInstance(getActivity()).update(chapter);
+
+		SyncEngine.Result result = engine.sync();
+		assertEquals(result.getConflicts(), 1);
+		assertEquals(result.getPulled(), 0);
+		assertEquals(result.getPushed(), 1);
+		assertEquals(loader.loadStory(story.getId()).getTitle(), "The Cow");
+		assertEquals(elastic.getDocument(story.getId().toString())
+				.get("title").getAsString(), "The Cow");
+	}
+
+	/**
+	 * Tests that stories that were never published are not pushed.
+	 */
+	public void testUnpublishedNotPushed() throws Exception {
+		Story story = newStory("The Cow", 1000);
+		writer.saveStory(story);
+
+		SyncEngine.Result result = engine.sync();
+		assertEquals(result.getPushed(), 0);
+		assertEquals(result.getPulled(), 0);
+		assertNull(elastic.getDocument(story.getId().toString()));
+	}
+
+	/**
+	 * Tests how conflicts are decided.
+	 */
+	public void testRemoteWins() {
+		assertTrue(SyncEngine.remoteWins(1000, 2000));
+		assertFalse(SyncEngine.remoteWins(2000, 1000));
+		// The server wins a tie
+		assertTrue(SyncEngine.remoteWins(1000, 1000));
+
+		Story story = newStory("The Cow", 1000);
+		Chapter chapter = new Chapter(story.getId(), "Moo.");
+		chapter.setUpdatedAt(3000);
+		story.addChapter(chapter);
+		assertEquals(SyncEngine.getLatestChange(story), 3000);
+	}
+
+	/**
+	 * Saves the story on the phone and publishes it, then syncs so both
+	 * sides start out the same.
+	 */
+	private void settle(Story story) throws Exception {
+		writer.saveStory(story);
+		elastic.putDocument(story.getId().toString(),
+				gson.toJsonTree(story).getAsJsonObject());
+		engine.sync();
+	}
+
+	private Story newStory(String title, long updatedAt) {
+		Story story = new Story(title, "Bob", "A story", "phone");
+		story.setUpdatedAt(updatedAt);
+		Chapter chapter = new Chapter(story.getId(), "Moo.");
+		chapter.setUpdatedAt(updatedAt);
+		story.addChapter(chapter);
+		return story;
+	}
+
+	private static class StubSyncEngine extends SyncEngine {
+		public StubSyncEngine(Context context, ServerManager server) {
+			super(context, server);
+		}
+	}
+
+	private static class StubServerManager extends ServerManager {
+		public StubServerManager(String server) {
+			super(server);
+		}
+	}
+}
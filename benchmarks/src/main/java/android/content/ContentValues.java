@@ -0,0 +1,108 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Role: Stands in for android's ContentValues when the backend is run on a
+ * desktop JVM. Holds the values of a row, by column name.
+ *
+ * @author Stephanie Gil
+ */
+public final class ContentValues {
+	private LinkedHashMap<String, Object> values =
+			new LinkedHashMap<String, Object>();
+
+	public ContentValues() {
+	}
+
+	public void put(String key, String value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Byte value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Short value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Integer value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Long value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Float value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Double value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Boolean value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, byte[] value) {
+		values.put(key, value);
+	}
+
+	public void putNull(String key) {
+		values.put(key, null);
+	}
+
+	public Object get(String key) {
+		return values.get(key);
+	}
+
+	public String getAsString(String key) {
+		Object value = values.get(key);
+		return (value == null) ? null : value.toString();
+	}
+
+	public boolean containsKey(String key) {
+		return values.containsKey(key);
+	}
+
+	public void remove(String key) {
+		values.remove(key);
+	}
+
+	public void clear() {
+		values.clear();
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public Set<String> keySet() {
+		return values.keySet();
+	}
+
+	public Set<Map.Entry<String, Object>> valueSet() {
+		return values.entrySet();
+	}
+}
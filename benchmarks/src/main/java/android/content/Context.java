@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content;
+
+import java.io.File;
+
+/**
+ * Role: Stands in for android's Context when the backend is run on a desktop
+ * JVM. The app's files and databases are kept in the folder it is made with.
+ *
+ * @author Stephanie Gil
+ */
+public class Context {
+	private File folder;
+
+	/**
+	 * Initializes a Context keeping everything under the folder.
+	 *
+	 * @param folder
+	 */
+	public Context(File folder) {
+		this.folder = folder;
+	}
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	public File getFilesDir() {
+		return makeDir("files");
+	}
+
+	public File getCacheDir() {
+		return makeDir("cache");
+	}
+
+	public File getDatabasePath(String name) {
+		return new File(makeDir("databases"), name);
+	}
+
+	public boolean deleteDatabase(String name) {
+		File database = getDatabasePath(name);
+		new File(database.getPath() + "-journal").delete();
+		return database.delete();
+	}
+
+	/**
+	 * There are no content providers off the phone.
+	 */
+	public ContentResolver getContentResolver() {
+		throw new UnsupportedOperationException(
+				"No content resolver off android");
+	}
+
+	private File makeDir(String name) {
+		File dir = new File(folder, name);
+		dir.mkdirs();
+		return dir;
+	}
+}
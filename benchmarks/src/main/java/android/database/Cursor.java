@@ -0,0 +1,90 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * Role: Stands in for android's Cursor when the backend is run on a desktop
+ * JVM. Only the reading and moving around the backend does are here.
+ *
+ * @author Stephanie Gil
+ */
+public interface Cursor extends Closeable {
+	public static final int FIELD_TYPE_NULL = 0;
+	public static final int FIELD_TYPE_INTEGER = 1;
+	public static final int FIELD_TYPE_FLOAT = 2;
+	public static final int FIELD_TYPE_STRING = 3;
+	public static final int FIELD_TYPE_BLOB = 4;
+
+	int getCount();
+
+	int getPosition();
+
+	boolean move(int offset);
+
+	boolean moveToPosition(int position);
+
+	boolean moveToFirst();
+
+	boolean moveToLast();
+
+	boolean moveToNext();
+
+	boolean moveToPrevious();
+
+	boolean isFirst();
+
+	boolean isLast();
+
+	boolean isBeforeFirst();
+
+	boolean isAfterLast();
+
+	int getColumnIndex(String columnName);
+
+	int getColumnIndexOrThrow(String columnName)
+			throws IllegalArgumentException;
+
+	String getColumnName(int columnIndex);
+
+	String[] getColumnNames();
+
+	int getColumnCount();
+
+	byte[] getBlob(int columnIndex);
+
+	String getString(int columnIndex);
+
+	short getShort(int columnIndex);
+
+	int getInt(int columnIndex);
+
+	long getLong(int columnIndex);
+
+	float getFloat(int columnIndex);
+
+	double getDouble(int columnIndex);
+
+	int getType(int columnIndex);
+
+	boolean isNull(int columnIndex);
+
+	void close();
+
+	boolean isClosed();
+}
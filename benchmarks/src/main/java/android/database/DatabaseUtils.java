@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Role: Stands in for android's DatabaseUtils when the backend is run on a
+ * desktop JVM.
+ *
+ * @author Stephanie Gil
+ */
+public class DatabaseUtils {
+
+	public static long queryNumEntries(SQLiteDatabase db, String table) {
+		return queryNumEntries(db, table, null, null);
+	}
+
+	public static long queryNumEntries(SQLiteDatabase db, String table,
+			String selection) {
+		return queryNumEntries(db, table, selection, null);
+	}
+
+	public static long queryNumEntries(SQLiteDatabase db, String table,
+			String selection, String[] selectionArgs) {
+		String where = (selection == null || selection.length() == 0) ? ""
+				: " WHERE " + selection;
+		return longForQuery(db, "SELECT COUNT(*) FROM " + table + where,
+				selectionArgs);
+	}
+
+	public static long longForQuery(SQLiteDatabase db, String query,
+			String[] selectionArgs) {
+		Cursor cursor = db.rawQuery(query, selectionArgs);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import android.database.Cursor;
+
+/**
+ * Role: Stands in for android's SQLiteCursor when the backend is run on a
+ * desktop JVM. Every row of the result is read when the cursor is made, the
+ * way android fills a cursor window, so nothing is left open on the
+ * connection. Values are converted between types the way SQLite converts
+ * them.
+ *
+ * @author Stephanie Gil
+ */
+public class SQLiteCursor implements Cursor {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private String[] columns;
+	private ArrayList<Object[]> rows = new ArrayList<Object[]>();
+	private int position = -1;
+	private boolean closed = false;
+
+	/**
+	 * Reads every row of the result set, which is left open.
+	 *
+	 * @param results
+	 */
+	SQLiteCursor(ResultSet results) throws SQLException {
+		ResultSetMetaData meta = results.getMetaData();
+		columns = new String[meta.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = meta.getColumnLabel(i + 1);
+		}
+		while (results.next()) {
+			Object[] row = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				row[i] = results.getObject(i + 1);
+			}
+			rows.add(row);
+		}
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public boolean move(int offset) {
+		return moveToPosition(position + offset);
+	}
+
+	@Override
+	public boolean moveToPosition(int position) {
+		if (position >= rows.size()) {
+			this.position = rows.size();
+			return false;
+		}
+		if (position < 0) {
+			this.position = -1;
+			return false;
+		}
+		this.position = position;
+		return true;
+	}
+
+	@Override
+	public boolean moveToFirst() {
+		return moveToPosition(0);
+	}
+
+	@Override
+	public boolean moveToLast() {
+		return moveToPosition(rows.size() - 1);
+	}
+
+	@Override
+	public boolean moveToNext() {
+		return moveToPosition(position + 1);
+	}
+
+	@Override
+	public boolean moveToPrevious() {
+		return moveToPosition(position - 1);
+	}
+
+	@Override
+	public boolean isFirst() {
+		return position == 0 && !rows.isEmpty();
+	}
+
+	@Override
+	public boolean isLast() {
+		return position == rows.size() - 1 && !rows.isEmpty();
+	}
+
+	@Override
+	public boolean isBeforeFirst() {
+		return rows.isEmpty() || position == -1;
+	}
+
+	@Override
+	public boolean isAfterLast() {
+		return rows.isEmpty() || position == rows.size();
+	}
+
+	@Override
+	public int getColumnIndex(String columnName) {
+		// Qualified names are looked up by their last part
+		int dot = columnName.lastIndexOf('.');
+		if (dot != -1) {
+			columnName = columnName.substring(dot + 1);
+		}
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(columnName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getColumnIndexOrThrow(String columnName) {
+		int index = getColumnIndex(columnName);
+		if (index < 0) {
+			throw new IllegalArgumentException("column '" + columnName
+					+ "' does not exist");
+		}
+		return index;
+	}
+
+	@Override
+	public String getColumnName(int columnIndex) {
+		return columns[columnIndex];
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columns.clone();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	@Override
+	public byte[] getBlob(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value == null || value instanceof byte[]) {
+			return (byte[]) value;
+		}
+		return value.toString().getBytes(UTF_8);
+	}
+
+	@Override
+	public String getString(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		if (value instanceof byte[]) {
+			return new String((byte[]) value, UTF_8);
+		}
+		return value.toString();
+	}
+
+	@Override
+	public short getShort(int columnIndex) {
+		return (short) getLong(columnIndex);
+	}
+
+	@Override
+	public int getInt(int columnIndex) {
+		return (int) getLong(columnIndex);
+	}
+
+	@Override
+	public long getLong(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong(((String) value).trim());
+			} catch (NumberFormatException e) {
+				// Not a whole number
+			}
+		}
+		return (long) parse(value);
+	}
+
+	@Override
+	public float getFloat(int columnIndex) {
+		return (float) getDouble(columnIndex);
+	}
+
+	@Override
+	public double getDouble(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return parse(value);
+	}
+
+	@Override
+	public int getType(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value == null) {
+			return FIELD_TYPE_NULL;
+		} else if (value instanceof byte[]) {
+			return FIELD_TYPE_BLOB;
+		} else if (value instanceof Double || value instanceof Float) {
+			return FIELD_TYPE_FLOAT;
+		} else if (value instanceof Number) {
+			return FIELD_TYPE_INTEGER;
+		}
+		return FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(int columnIndex) {
+		return get(columnIndex) == null;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		rows = new ArrayList<Object[]>();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private Object get(int columnIndex) {
+		if (closed) {
+			throw new IllegalStateException("Cursor is closed");
+		}
+		if (position < 0 || position >= rows.size()) {
+			throw new IllegalStateException("Index " + position
+					+ " requested, with a size of " + rows.size());
+		}
+		return rows.get(position)[columnIndex];
+	}
+
+	/**
+	 * Reads the number text starts with, or 0 if it doesn't start with one,
+	 * like SQLite does.
+	 */
+	private static double parse(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		String text = (value instanceof byte[]) ? new String((byte[]) value,
+				UTF_8) : value.toString();
+		text = text.trim();
+		for (int end = text.length(); end > 0; end--) {
+			try {
+				return Double.parseDouble(text.substring(0, end));
+			} catch (NumberFormatException e) {
+				// Try a shorter prefix
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Role: Stands in for android's SQLiteDatabase when the backend is run on a
+ * desktop JVM, keeping the database in SQLite through a JDBC connection.
+ *
+ * Like on android, there is one connection, statements are prepared once and
+ * kept (the most recently used ones), and a transaction has the connection to
+ * itself until it ends, so other threads wait for it. Transactions can be
+ * nested, and are only committed if every one of them was marked
+ * successful.
+ *
+ * @author Stephanie Gil
+ */
+public class SQLiteDatabase {
+	public static final int CONFLICT_NONE = 0;
+	public static final int CONFLICT_ROLLBACK = 1;
+	public static final int CONFLICT_ABORT = 2;
+	public static final int CONFLICT_FAIL = 3;
+	public static final int CONFLICT_IGNORE = 4;
+	public static final int CONFLICT_REPLACE = 5;
+
+	private static final String[] CONFLICT_VALUES = { "", " OR ROLLBACK",
+			" OR ABORT", " OR FAIL", " OR IGNORE", " OR REPLACE" };
+
+	/**
+	 * Most prepared statements kept, the same as android keeps.
+	 */
+	private static final int MAX_STATEMENTS = 25;
+
+	private Connection connection;
+	private String path;
+	private final ReentrantLock lock = new ReentrantLock();
+	private LinkedHashMap<String, PreparedStatement> statements =
+			new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > MAX_STATEMENTS) {
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+	// Whether each open transaction was marked successful, innermost last
+	private ArrayList<Boolean> transactions = new ArrayList<Boolean>();
+	private boolean transactionFailed = false;
+
+	/**
+	 * Makes cursors. Not used off android.
+	 */
+	public interface CursorFactory {
+	}
+
+	/**
+	 * Opens the database in the file, making it if needed.
+	 *
+	 * @param path
+	 */
+	SQLiteDatabase(String path) {
+		this.path = path;
+		try {
+			connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		}
+	}
+
+	public static SQLiteDatabase openOrCreateDatabase(String path,
+			CursorFactory factory) {
+		return new SQLiteDatabase(path);
+	}
+
+	public final String getPath() {
+		return path;
+	}
+
+	public boolean isOpen() {
+		return connection != null;
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			for (PreparedStatement statement : statements.values()) {
+				closeQuietly(statement);
+			}
+			statements.clear();
+			if (connection != null) {
+				connection.close();
+				connection = null;
+			}
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getVersion() {
+		Cursor cursor = rawQuery("PRAGMA user_version", null);
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void setVersion(int version) {
+		execSQL("PRAGMA user_version = " + version);
+	}
+
+	public void beginTransaction() {
+		lock.lock();
+		boolean began = false;
+		try {
+			if (transactions.isEmpty()) {
+				execute("BEGIN EXCLUSIVE");
+				transactionFailed = false;
+			}
+			transactions.add(false);
+			began = true;
+		} finally {
+			if (!began) {
+				lock.unlock();
+			}
+		}
+	}
+
+	public void setTransactionSuccessful() {
+		lock.lock();
+		try {
+			if (transactions.isEmpty()) {
+				throw new IllegalStateException("No transaction");
+			}
+			transactions.set(transactions.size() - 1, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void endTransaction() {
+		if (!lock.isHeldByCurrentThread() || transactions.isEmpty()) {
+			throw new IllegalStateException("No transaction");
+		}
+		try {
+			if (!transactions.remove(transactions.size() - 1)) {
+				transactionFailed = true;
+			}
+			if (transactions.isEmpty()) {
+				execute(transactionFailed ? "ROLLBACK" : "COMMIT");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean inTransaction() {
+		lock.lock();
+		try {
+			return !transactions.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void execSQL(String sql) {
+		execute(sql);
+	}
+
+	public void execSQL(String sql, Object[] bindArgs) {
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql, bindArgs);
+			statement.execute();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Cursor rawQuery(String sql, String[] selectionArgs) {
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql, selectionArgs);
+			ResultSet results = statement.executeQuery();
+			try {
+				return new SQLiteCursor(results);
+			} finally {
+				results.close();
+			}
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage() + ", while compiling: "
+					+ sql, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Cursor query(String table, String[] columns, String selection,
+			String[] selectionArgs, String groupBy, String having,
+			String orderBy) {
+		return query(false, table, columns, selection, selectionArgs,
+				groupBy, having, orderBy, null);
+	}
+
+	public Cursor query(String table, String[] columns, String selection,
+			String[] selectionArgs, String groupBy, String having,
+			String orderBy, String limit) {
+		return query(false, table, columns, selection, selectionArgs,
+				groupBy, having, orderBy, limit);
+	}
+
+	public Cursor query(boolean distinct, String table, String[] columns,
+			String selection, String[] selectionArgs, String groupBy,
+			String having, String orderBy, String limit) {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		if (distinct) {
+			sql.append("DISTINCT ");
+		}
+		if (columns == null || columns.length == 0) {
+			sql.append("*");
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					sql.append(", ");
+				}
+				sql.append(columns[i]);
+			}
+		}
+		sql.append(" FROM ").append(table);
+		appendClause(sql, " WHERE ", selection);
+		appendClause(sql, " GROUP BY ", groupBy);
+		appendClause(sql, " HAVING ", having);
+		appendClause(sql, " ORDER BY ", orderBy);
+		appendClause(sql, " LIMIT ", limit);
+		return rawQuery(sql.toString(), selectionArgs);
+	}
+
+	/**
+	 * Inserts a row, returning its row id, or -1 if it couldn't be inserted.
+	 */
+	public long insert(String table, String nullColumnHack,
+			ContentValues values) {
+		try {
+			return insertWithOnConflict(table, nullColumnHack, values,
+					CONFLICT_NONE);
+		} catch (SQLiteException e) {
+			System.err.println("Error inserting " + values.keySet() + ": "
+					+ e.getMessage());
+			return -1;
+		}
+	}
+
+	public long insertWithOnConflict(String table, String nullColumnHack,
+			ContentValues values, int conflictAlgorithm) {
+		StringBuilder sql = new StringBuilder("INSERT");
+		sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+		sql.append(" INTO ").append(table).append(" (");
+		Object[] args;
+		if (values == null || values.size() == 0) {
+			sql.append(nullColumnHack).append(") VALUES (NULL)");
+			args = null;
+		} else {
+			args = new Object[values.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> value : values.valueSet()) {
+				sql.append((i > 0) ? ", " : "").append(value.getKey());
+				args[i++] = value.getValue();
+			}
+			sql.append(") VALUES (");
+			for (i = 0; i < args.length; i++) {
+				sql.append((i > 0) ? ", ?" : "?");
+			}
+			sql.append(")");
+		}
+
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql.toString(), args);
+			return (statement.executeUpdate() > 0) ? lastInsertRowId() : -1;
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int update(String table, ContentValues values, String whereClause,
+			String[] whereArgs) {
+		if (values == null || values.size() == 0) {
+			throw new IllegalArgumentException("Empty values");
+		}
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(table).append(" SET ");
+		int argCount = values.size()
+				+ ((whereArgs == null) ? 0 : whereArgs.length);
+		Object[] args = new Object[argCount];
+		int i = 0;
+		for (Map.Entry<String, Object> value : values.valueSet()) {
+			sql.append((i > 0) ? ", " : "").append(value.getKey())
+					.append(" = ?");
+			args[i++] = value.getValue();
+		}
+		if (whereArgs != null) {
+			for (String arg : whereArgs) {
+				args[i++] = arg;
+			}
+		}
+		appendClause(sql, " WHERE ", whereClause);
+		return executeUpdateDelete(sql.toString(), args);
+	}
+
+	public int delete(String table, String whereClause, String[] whereArgs) {
+		StringBuilder sql = new StringBuilder("DELETE FROM ");
+		sql.append(table);
+		appendClause(sql, " WHERE ", whereClause);
+		return executeUpdateDelete(sql.toString(), whereArgs);
+	}
+
+	public SQLiteStatement compileStatement(String sql) {
+		lock.lock();
+		try {
+			return new SQLiteStatement(this, connection.prepareStatement(sql));
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage() + ", while compiling: "
+					+ sql, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	ReentrantLock getLock() {
+		return lock;
+	}
+
+	long lastInsertRowId() throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet results = statement
+					.executeQuery("SELECT last_insert_rowid()");
+			try {
+				return results.next() ? results.getLong(1) : -1;
+			} finally {
+				results.close();
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Binds a value the way android binds it: true and false as 1 and 0,
+	 * whole numbers as integers.
+	 */
+	static void bind(PreparedStatement statement, int index, Object value)
+			throws SQLException {
+		if (value == null) {
+			statement.setNull(index, java.sql.Types.NULL);
+		} else if (value instanceof String) {
+			statement.setString(index, (String) value);
+		} else if (value instanceof byte[]) {
+			statement.setBytes(index, (byte[]) value);
+		} else if (value instanceof Boolean) {
+			statement.setLong(index, ((Boolean) value) ? 1 : 0);
+		} else if (value instanceof Double || value instanceof Float) {
+			statement.setDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			statement.setLong(index, ((Number) value).longValue());
+		} else {
+			statement.setString(index, value.toString());
+		}
+	}
+
+	private int executeUpdateDelete(String sql, Object[] args) {
+		lock.lock();
+		try {
+			return prepare(sql, args).executeUpdate();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void execute(String sql) {
+		lock.lock();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.execute(sql);
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the kept statement for the sql, preparing it if needed, with
+	 * the arguments bound. Has to be called holding the lock.
+	 */
+	private PreparedStatement prepare(String sql, Object[] args)
+			throws SQLException {
+		if (connection == null) {
+			throw new IllegalStateException("Database " + path
+					+ " is closed");
+		}
+		PreparedStatement statement = statements.get(sql);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql);
+			statements.put(sql, statement);
+		} else {
+			statement.clearParameters();
+		}
+		if (args != null) {
+			for (int i = 0; i < args.length; i++) {
+				bind(statement, i + 1, args[i]);
+			}
+		}
+		return statement;
+	}
+
+	private static void appendClause(StringBuilder sql, String name,
+			String clause) {
+		if (clause != null && clause.length() > 0) {
+			sql.append(name).append(clause);
+		}
+	}
+
+	private static void closeQuietly(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// Closing anyway
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import java.io.File;
+
+import android.content.Context;
+
+/**
+ * Role: Stands in for android's SQLiteOpenHelper when the backend is run on a
+ * desktop JVM. Opens the database the first time it is asked for, making it
+ * or bringing it up to the current version in one transaction.
+ *
+ * @author Stephanie Gil
+ */
+public abstract class SQLiteOpenHelper {
+	private Context context;
+	private String name;
+	private int version;
+	private SQLiteDatabase database = null;
+
+	public SQLiteOpenHelper(Context context, String name,
+			SQLiteDatabase.CursorFactory factory, int version) {
+		if (version < 1) {
+			throw new IllegalArgumentException("Version must be >= 1, was "
+					+ version);
+		}
+		this.context = context;
+		this.name = name;
+		this.version = version;
+	}
+
+	public String getDatabaseName() {
+		return name;
+	}
+
+	public synchronized SQLiteDatabase getWritableDatabase() {
+		if (database == null || !database.isOpen()) {
+			database = open();
+		}
+		return database;
+	}
+
+	/**
+	 * The same database as getWritableDatabase, like on android when the
+	 * disk isn't full.
+	 */
+	public synchronized SQLiteDatabase getReadableDatabase() {
+		return getWritableDatabase();
+	}
+
+	public synchronized void close() {
+		if (database != null && database.isOpen()) {
+			database.close();
+		}
+		database = null;
+	}
+
+	public void onConfigure(SQLiteDatabase db) {
+	}
+
+	public abstract void onCreate(SQLiteDatabase db);
+
+	public abstract void onUpgrade(SQLiteDatabase db, int oldVersion,
+			int newVersion);
+
+	public void onDowngrade(SQLiteDatabase db, int oldVersion,
+			int newVersion) {
+		throw new SQLiteException("Can't downgrade database from version "
+				+ oldVersion + " to " + newVersion);
+	}
+
+	public void onOpen(SQLiteDatabase db) {
+	}
+
+	private SQLiteDatabase open() {
+		String path = ":memory:";
+		if (name != null) {
+			File file = context.getDatabasePath(name);
+			file.getParentFile().mkdirs();
+			path = file.getPath();
+		}
+		SQLiteDatabase db = new SQLiteDatabase(path);
+		onConfigure(db);
+
+		int current = db.getVersion();
+		if (current != version) {
+			db.beginTransaction();
+			try {
+				if (current == 0) {
+					onCreate(db);
+				} else if (current > version) {
+					onDowngrade(db, current, version);
+				} else {
+					onUpgrade(db, current, version);
+				}
+				db.setVersion(version);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		onOpen(db);
+		return db;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.database.sqlite;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Role: Stands in for android's SQLiteStatement when the backend is run on a
+ * desktop JVM. A statement prepared once, and run again with whatever is
+ * bound to it.
+ *
+ * @author Stephanie Gil
+ */
+public final class SQLiteStatement implements Closeable {
+	private SQLiteDatabase db;
+	private PreparedStatement statement;
+
+	SQLiteStatement(SQLiteDatabase db, PreparedStatement statement) {
+		this.db = db;
+		this.statement = statement;
+	}
+
+	public void bindNull(int index) {
+		bind(index, null);
+	}
+
+	public void bindLong(int index, long value) {
+		bind(index, value);
+	}
+
+	public void bindDouble(int index, double value) {
+		bind(index, value);
+	}
+
+	public void bindString(int index, String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("the bind value at index "
+					+ index + " is null");
+		}
+		bind(index, value);
+	}
+
+	public void bindBlob(int index, byte[] value) {
+		if (value == null) {
+			throw new IllegalArgumentException("the bind value at index "
+					+ index + " is null");
+		}
+		bind(index, value);
+	}
+
+	public void clearBindings() {
+		try {
+			statement.clearParameters();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		}
+	}
+
+	public void execute() {
+		db.getLock().lock();
+		try {
+			statement.execute();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number of rows changed.
+	 */
+	public int executeUpdateDelete() {
+		db.getLock().lock();
+		try {
+			return statement.executeUpdate();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Row id of the row inserted, or -1 if none was.
+	 */
+	public long executeInsert() {
+		db.getLock().lock();
+		try {
+			return (statement.executeUpdate() > 0) ? db.lastInsertRowId() : -1;
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	public long simpleQueryForLong() {
+		db.getLock().lock();
+		try {
+			ResultSet results = statement.executeQuery();
+			try {
+				if (!results.next()) {
+					throw new SQLiteException("query returned no rows");
+				}
+				return results.getLong(1);
+			} finally {
+				results.close();
+			}
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		}
+	}
+
+	private void bind(int index, Object value) {
+		try {
+			SQLiteDatabase.bind(statement, index, value);
+		} catch (SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.os;
+
+/**
+ * Role: Stands in for android's Handler when the backend is run on a desktop
+ * JVM.
+ *
+ * @author Stephanie Gil
+ */
+public class Handler {
+	private Looper looper;
+
+	public Handler() {
+		this(Looper.getMainLooper());
+	}
+
+	public Handler(Looper looper) {
+		this.looper = looper;
+	}
+
+	public final Looper getLooper() {
+		return looper;
+	}
+
+	public final boolean post(Runnable r) {
+		looper.post(r);
+		return true;
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Role: Stands in for android's Looper when the backend is run on a desktop
+ * JVM. The main looper runs what is posted to it, in order, on a thread of
+ * its own.
+ *
+ * @author Stephanie Gil
+ */
+public class Looper {
+	private static Looper mainLooper = null;
+	private ExecutorService queue;
+
+	private Looper(final String name) {
+		queue = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public static synchronized Looper getMainLooper() {
+		if (mainLooper == null) {
+			mainLooper = new Looper("main");
+		}
+		return mainLooper;
+	}
+
+	void post(Runnable r) {
+		queue.execute(r);
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.util;
+
+/**
+ * Role: Stands in for android's Base64 when the backend is run on a desktop
+ * JVM. Uses the JDK's encoder and decoder.
+ *
+ * @author Stephanie Gil
+ */
+public final class Base64 {
+	public static final int DEFAULT = 0;
+	public static final int NO_WRAP = 2;
+
+	private Base64() {
+	}
+
+	public static byte[] encode(byte[] input, int offset, int len, int flags) {
+		byte[] part = new byte[len];
+		System.arraycopy(input, offset, part, 0, len);
+		return java.util.Base64.getEncoder().encode(part);
+	}
+
+	public static String encodeToString(byte[] input, int flags) {
+		return java.util.Base64.getEncoder().encodeToString(input);
+	}
+
+	public static byte[] decode(String str, int flags) {
+		return java.util.Base64.getMimeDecoder().decode(str);
+	}
+}
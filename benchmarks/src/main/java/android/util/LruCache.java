@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Role: Stands in for android's LruCache when the backend is run on a
+ * desktop JVM. Holds at most maxSize of values, as measured by sizeOf,
+ * dropping the least recently used ones.
+ *
+ * @author Stephanie Gil
+ */
+public class LruCache<K, V> {
+	private final LinkedHashMap<K, V> map;
+	private int size;
+	private int maxSize;
+
+	public LruCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		this.maxSize = maxSize;
+		map = new LinkedHashMap<K, V>(0, 0.75f, true);
+	}
+
+	public final V get(K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		synchronized (this) {
+			V value = map.get(key);
+			if (value != null) {
+				return value;
+			}
+		}
+
+		V created = create(key);
+		if (created == null) {
+			return null;
+		}
+		synchronized (this) {
+			V value = map.put(key, created);
+			if (value != null) {
+				// Someone else put a value while it was created
+				map.put(key, value);
+				return value;
+			}
+			size += safeSizeOf(key, created);
+		}
+		trimToSize(maxSize);
+		return created;
+	}
+
+	public final V put(K key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("key == null || value == null");
+		}
+		V previous;
+		synchronized (this) {
+			size += safeSizeOf(key, value);
+			previous = map.put(key, value);
+			if (previous != null) {
+				size -= safeSizeOf(key, previous);
+			}
+		}
+		if (previous != null) {
+			entryRemoved(false, key, previous, value);
+		}
+		trimToSize(maxSize);
+		return previous;
+	}
+
+	public final V remove(K key) {
+		if (key == null) {
+			throw new NullPointerException("key == null");
+		}
+		V previous;
+		synchronized (this) {
+			previous = map.remove(key);
+			if (previous != null) {
+				size -= safeSizeOf(key, previous);
+			}
+		}
+		if (previous != null) {
+			entryRemoved(false, key, previous, null);
+		}
+		return previous;
+	}
+
+	public void trimToSize(int maxSize) {
+		while (true) {
+			K key;
+			V value;
+			synchronized (this) {
+				if (size <= maxSize || map.isEmpty()) {
+					break;
+				}
+				Iterator<Map.Entry<K, V>> eldest = map.entrySet().iterator();
+				Map.Entry<K, V> entry = eldest.next();
+				key = entry.getKey();
+				value = entry.getValue();
+				eldest.remove();
+				size -= safeSizeOf(key, value);
+			}
+			entryRemoved(true, key, value, null);
+		}
+	}
+
+	public final void evictAll() {
+		trimToSize(-1);
+	}
+
+	public synchronized final int size() {
+		return size;
+	}
+
+	public synchronized final int maxSize() {
+		return maxSize;
+	}
+
+	public synchronized final Map<K, V> snapshot() {
+		return new LinkedHashMap<K, V>(map);
+	}
+
+	protected void entryRemoved(boolean evicted, K key, V oldValue,
+			V newValue) {
+	}
+
+	protected V create(K key) {
+		return null;
+	}
+
+	protected int sizeOf(K key, V value) {
+		return 1;
+	}
+
+	private int safeSizeOf(K key, V value) {
+		int result = sizeOf(key, value);
+		if (result < 0) {
+			throw new IllegalStateException("Negative size: " + key + "="
+					+ value);
+		}
+		return result;
+	}
+}
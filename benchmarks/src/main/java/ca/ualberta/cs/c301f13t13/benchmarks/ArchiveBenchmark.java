@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import ca.ualberta.cs.c301f13t13.backend.ArchiveManager;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryArchive;
+
+/**
+ * Role: Times reading one chapter of a story archive, by opening it with
+ * an ArchiveManager and finding the chapter, against reading the whole
+ * story out of it.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ArchiveManager
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveBenchmark {
+	/**
+	 * Chapters in the story.
+	 */
+	@Param({ "100", "1000", "10000" })
+	public int chapters;
+
+	private Context context;
+	private BlobStore blobs;
+	private File file;
+	private UUID[] ids;
+	private Random random = new Random(301);
+
+	@Setup
+	public void setUp() throws IOException {
+		context = BenchmarkStories.newContext();
+		blobs = BlobStore.getInstance(context);
+		Story story = BenchmarkStories.newStory(new Random(301), chapters);
+		ids = new ArrayList<UUID>(story.getChapters().keySet())
+				.toArray(new UUID[chapters]);
+		file = new File(context.getCacheDir(), "story.shra");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			StoryArchive.write(story, blobs, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkStories.deleteContext(context);
+	}
+
+	@Benchmark
+	public Chapter openAndGetChapter() throws IOException {
+		return new ArchiveManager(file).getChapter(randomId());
+	}
+
+	@Benchmark
+	public Chapter readAndGetChapter() throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return StoryArchive.read(in, blobs).getChapter(randomId());
+		} finally {
+			in.close();
+		}
+	}
+
+	private UUID randomId() {
+		return ids[random.nextInt(ids.length)];
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.content.Context;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.Choice;
+import ca.ualberta.cs.c301f13t13.backend.DBHelper;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGraphWriter;
+
+/**
+ * Role: Makes the stories the benchmarks are run on, in a database of their
+ * own. Every chapter has two choices, leading on to the chapters after it
+ * like a binary tree, and one illustration, and its text is made of words
+ * picked from a small list so keyword searches find something. The same
+ * seed always makes the same stories.
+ *
+ * @author Stephanie Gil
+ */
+public class BenchmarkStories {
+	static final String[] WORDS = { "cow", "barn", "farmer", "moon",
+			"field", "river", "dragon", "castle", "forest", "night", "door",
+			"key", "storm", "ship", "island", "map", "treasure", "wolf",
+			"tower", "king", "queen", "road", "village", "bridge", "cave",
+			"lantern", "secret", "letter", "garden", "mountain" };
+
+	private static final int WORDS_PER_TITLE = 3;
+	private static final int WORDS_PER_CHAPTER = 80;
+	private static final long SEED = 301;
+
+	/**
+	 * Returns a Context keeping the database and files in a new temporary
+	 * folder.
+	 */
+	public static Context newContext() throws IOException {
+		File folder = File.createTempFile("storyhoard", "");
+		folder.delete();
+		folder.mkdirs();
+		return new Context(folder);
+	}
+
+	/**
+	 * Closes the database and deletes everything the context kept.
+	 *
+	 * @param context
+	 */
+	public static void deleteContext(Context context) {
+		DBHelper.getInstance(context).close();
+		delete(context.getFilesDir().getParentFile());
+	}
+
+	/**
+	 * Saves stories to the database, each in one transaction.
+	 *
+	 * @param context
+	 * @param stories
+	 *            Number of stories.
+	 * @param chapters
+	 *            Number of chapters in each story.
+	 *
+	 * @return The stories saved.
+	 */
+	public static ArrayList<Story> save(Context context, int stories,
+			int chapters) {
+		Random random = new Random(SEED);
+		StoryGraphWriter writer = StoryGraphWriter.getInstance(context);
+		ArrayList<Story> saved = new ArrayList<Story>();
+		for (int i = 0; i < stories; i++) {
+			Story story = newStory(random, chapters);
+			writer.saveStory(story);
+			saved.add(story);
+		}
+		return saved;
+	}
+
+	/**
+	 * Makes a complete story.
+	 *
+	 * @param random
+	 * @param size
+	 *            Number of chapters.
+	 */
+	public static Story newStory(Random random, int size) {
+		Story story = new Story(words(random, WORDS_PER_TITLE), "Bob",
+				words(random, WORDS_PER_CHAPTER / 4), "phone");
+		Chapter[] chapters = new Chapter[size];
+		for (int i = 0; i < size; i++) {
+			chapters[i] = newChapter(random, story);
+		}
+		for (int i = 0; i < size; i++) {
+			for (int next = 2 * i + 1; next <= 2 * i + 2 && next < size;
+					next++) {
+				chapters[i].addChoice(new Choice(chapters[i].getId(),
+						chapters[next].getId(), words(random, 4)));
+			}
+			story.addChapter(chapters[i]);
+		}
+		if (size > 0) {
+			story.setFirstChapterId(chapters[0].getId());
+		}
+		return story;
+	}
+
+	/**
+	 * Makes a chapter of a story, with an illustration, without adding it to
+	 * the story.
+	 *
+	 * @param random
+	 * @param story
+	 */
+	public static Chapter newChapter(Random random, Story story) {
+		Chapter chapter = new Chapter(story.getId(), words(random,
+				WORDS_PER_CHAPTER));
+		chapter.addIllustration(new Media(chapter.getId(), null,
+				Media.ILLUSTRATION));
+		return chapter;
+	}
+
+	/**
+	 * Returns some words picked from the list, separated by spaces.
+	 */
+	static String words(Random random, int count) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return text.toString();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+
+/**
+ * Role: Times loading a complete story (its chapters, and their choices and
+ * media) through the SHController, the way a story is opened for reading.
+ *
+ * The database holds StoringManagerBenchmark.STORIES stories of the given
+ * number of chapters, and the first one is loaded.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoringManagerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompleteStoryBenchmark {
+	/**
+	 * Chapters in each story.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int chapters;
+
+	private Context context;
+	private SHController controller;
+	private Story story;
+
+	@Setup
+	public void setUp() throws IOException {
+		context = BenchmarkStories.newContext();
+		story = BenchmarkStories.save(context,
+				StoringManagerBenchmark.STORIES, chapters).get(0);
+		controller = SHController.getInstance(context);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkStories.deleteContext(context);
+	}
+
+	@Benchmark
+	public Story getCompleteStory() {
+		return controller.getCompleteStory(story.getId());
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader;
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader.HitHandler;
+import ca.ualberta.cs.c301f13t13.backend.ElasticSearchResponse;
+import ca.ualberta.cs.c301f13t13.backend.SimpleESResponse;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGson;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Role: Times reading a search response from the server two ways: streaming
+ * the hits one at a time with the ESResponseReader, and adding every line to
+ * a string before decoding the whole string, the way the ServerManager used
+ * to.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ESResponseReader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchResponseBenchmark {
+	/**
+	 * Stories in the response.
+	 */
+	@Param({ "100", "1500" })
+	public int hits;
+
+	private Gson gson = StoryGson.getDocumentInstance();
+	private ESResponseReader<Story> reader;
+	private byte[] response;
+
+	@Setup
+	public void setUp() throws IOException {
+		Type hitType = new TypeToken<SimpleESResponse<Story>>(){}.getType();
+		reader = new ESResponseReader<Story>(gson, hitType);
+
+		Random random = new Random(301);
+		StringBuilder json = new StringBuilder();
+		json.append("{\"took\":3,\"timed_out\":false,\n\"_shards\":{\"total\""
+				+ ":5,\"successful\":5,\"failed\":0},\n\"hits\":{\"total\":"
+				+ hits + ",\"max_score\":1.0,\"hits\":[\n");
+		for (int i = 0; i < hits; i++) {
+			Story story = BenchmarkStories.newStory(random, 3);
+			json.append((i == 0) ? "" : ",\n");
+			json.append("{\"_index\":\"cmput301f13t13\",\"_type\":\"stories\","
+					+ "\"_id\":\"" + story.getId() + "\",\"_score\":1.0,"
+					+ "\"_source\":" + gson.toJson(story) + "}");
+		}
+		json.append("\n]}}");
+		response = json.toString().getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public int streaming() throws IOException {
+		return reader.readHits(open(), new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+			}
+		});
+	}
+
+	@Benchmark
+	public int concatenating() throws IOException {
+		BufferedReader br = new BufferedReader(open());
+		String output;
+		String json = "";
+		while ((output = br.readLine()) != null) {
+			json += output;
+		}
+		Type type = new TypeToken<ElasticSearchResponse<Story>>(){}.getType();
+		ElasticSearchResponse<Story> esResponse = gson.fromJson(json, type);
+		return esResponse.getSources().size();
+	}
+
+	private Reader open() throws IOException {
+		return new InputStreamReader(new ByteArrayInputStream(response),
+				"UTF-8");
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryGson;
+
+import com.google.gson.Gson;
+
+/**
+ * Role: Times turning a complete story into bytes and back three ways: with
+ * the StoryGson adapters, with Gson finding the fields by reflection, and
+ * with java serialization.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+	/**
+	 * Chapters in the story.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int chapters;
+
+	private Story story;
+	private Gson storyGson = StoryGson.getInstance();
+	private Gson reflective = new Gson();
+	private String storyGsonJson;
+	private String reflectiveJson;
+	private byte[] serialized;
+
+	@Setup
+	public void setUp() throws IOException {
+		story = BenchmarkStories.newStory(new Random(301), chapters);
+		storyGsonJson = storyGson.toJson(story);
+		reflectiveJson = reflective.toJson(story);
+		serialized = serialize(story);
+	}
+
+	@Benchmark
+	public String writeStoryGson() {
+		return storyGson.toJson(story);
+	}
+
+	@Benchmark
+	public Story readStoryGson() {
+		return storyGson.fromJson(storyGsonJson, Story.class);
+	}
+
+	@Benchmark
+	public String writeReflective() {
+		return reflective.toJson(story);
+	}
+
+	@Benchmark
+	public Story readReflective() {
+		return reflective.fromJson(reflectiveJson, Story.class);
+	}
+
+	@Benchmark
+	public byte[] writeSerializable() throws IOException {
+		return serialize(story);
+	}
+
+	@Benchmark
+	public Story readSerializable() throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(serialized));
+		try {
+			return (Story) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] serialize(Story story) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(story);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import ca.ualberta.cs.c301f13t13.backend.Chapter;
+import ca.ualberta.cs.c301f13t13.backend.ChapterManager;
+import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryManager;
+
+/**
+ * Role: Times the StoringManager operations the app spends the most time in:
+ * inserting, retrieving by id, retrieving the chapters of a story, and
+ * searching stories by keyword. They are timed on the managers themselves,
+ * not through the CachingManager, so every call goes to the database.
+ *
+ * The database holds STORIES stories of the given number of chapters. Every
+ * combination of benchmark and parameters is run in a JVM of its own, since
+ * the managers are singletons holding on to the first database they opened.
+ *
+ * @author Stephanie Gil
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoringManagerBenchmark {
+	static final int STORIES = 10;
+
+	/**
+	 * Chapters in each story.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int chapters;
+
+	private Context context;
+	private StoryManager storyManager;
+	private ChapterManager chapterManager;
+	private Random random = new Random();
+	private Story story;
+	private Story scratch;
+	private UUID chapterId;
+
+	@Setup
+	public void setUp() throws IOException {
+		context = BenchmarkStories.newContext();
+		ArrayList<Story> stories = BenchmarkStories.save(context, STORIES,
+				chapters);
+		story = stories.get(0);
+		chapterId = new ArrayList<UUID>(story.getChapters().keySet())
+				.get(chapters / 2);
+		// Chapters inserted go to a story of their own, so the stories
+		// being read don't grow
+		scratch = new Story("Scratch", "Bob", "", "phone");
+
+		storyManager = StoryManager.getInstance(context);
+		chapterManager = ChapterManager.getInstance(context);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkStories.deleteContext(context);
+	}
+
+	@Benchmark
+	public Story insertStory() {
+		Story inserted = new Story(BenchmarkStories.words(random, 3), "Bob",
+				"A story", "phone");
+		storyManager.insert(inserted);
+		return inserted;
+	}
+
+	@Benchmark
+	public Chapter insertChapter() {
+		Chapter inserted = BenchmarkStories.newChapter(random, scratch);
+		chapterManager.insert(inserted);
+		return inserted;
+	}
+
+	@Benchmark
+	public ArrayList<Object> retrieveStoryById() {
+		return storyManager.retrieve(new Story(story.getId(), null, null,
+				null, null));
+	}
+
+	@Benchmark
+	public ArrayList<Object> retrieveChapterById() {
+		return chapterManager.retrieve(new Chapter(chapterId, null, null));
+	}
+
+	@Benchmark
+	public ArrayList<Object> retrieveChaptersByStory() {
+		return chapterManager.retrieve(new Chapter(null, story.getId(), null));
+	}
+
+	@Benchmark
+	public ArrayList<Object> searchByKeyword() {
+		return storyManager.retrieve(new Story(null, "cow", null, null, null));
+	}
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Role: Reads a story straight out of a story archive file, without
+ * importing it. The file is memory mapped, and only the end of it is read
+ * when it is opened, to find the table of where each chapter is. A chapter
+ * asked for is found in the table with a binary search, and only its own
+ * text, choices and media are decoded, so the memory used stays in
+ * proportion to what is read however big the story is.
+ *
+ * Retrieves take a Story, Chapter, Choice or Media as the criteria, the way
+ * the managers on the database each take their own kind. Chapters come back
+ * complete, with their choices and media. The archive can't be changed, so
+ * inserts and updates aren't supported. Archives are opened through
+ * SHController.openArchive, which then reads the story's chapters from it.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryArchive
+ * @see StoringManager
+ * @see SHController#openArchive(File)
+ */
+public class ArchiveManager implements StoringManager {
+	private File file;
+	private ByteBuffer buffer;
+	private Story story;
+	// Where the TABL chunk and its first entry start, and how many there are
+	private int tableOffset;
+	private int tableStart;
+	private int chapterCount;
+	// Blob hash to where its contents start and end, found when first needed
+	private HashMap<String, int[]> blobs = null;
+
+	/**
+	 * Opens a story archive.
+	 *
+	 * @param file
+	 *
+	 * @throws IOException
+	 *             If the file isn't a story archive this version can read.
+	 */
+	public ArchiveManager(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = raf.length();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Story archive is too big to open");
+			}
+			if (size < 8 + StoryArchive.TRAILER) {
+				throw new IOException("Not a story archive");
+			}
+			// The mapping stays valid once the file is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					size);
+		} finally {
+			raf.close();
+		}
+		StoryArchive.readHeader(open(0, 8));
+
+		int end = buffer.capacity() - StoryArchive.TRAILER;
+		if (buffer.getInt(end) != StoryArchive.END
+				|| buffer.getLong(end + 4) != 8) {
+			throw new IOException("Story archive ends early");
+		}
+		tableOffset = checkedOffset(buffer.getLong(end
+				+ StoryArchive.CHUNK_HEADER));
+		if (buffer.getInt(tableOffset) != StoryArchive.TABL) {
+			throw new IOException("Story archive has no table");
+		}
+		chapterCount = buffer.getInt(tableOffset + StoryArchive.CHUNK_HEADER);
+		tableStart = tableOffset + StoryArchive.CHUNK_HEADER + 4;
+		if (chapterCount < 0 || buffer.getLong(tableOffset + 4) != 4
+				+ (long) chapterCount * StoryArchive.TABLE_ENTRY) {
+			throw new IOException("Story archive table is damaged");
+		}
+
+		int meta = findChunk(StoryArchive.META);
+		if (meta < 0) {
+			throw new IOException("Story archive has no story");
+		}
+		story = StoryArchive.readStory(openChunk(meta));
+	}
+
+	/**
+	 * Returns the file the story is read from.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the story in the archive, without its chapters.
+	 */
+	public Story getStory() {
+		return story;
+	}
+
+	/**
+	 * Returns the number of chapters in the story.
+	 */
+	public int getChapterCount() {
+		return chapterCount;
+	}
+
+	/**
+	 * Returns a chapter of the story with its choices and media, decoding
+	 * only that chapter.
+	 *
+	 * @param chapterId
+	 *
+	 * @return The chapter, or null if it isn't in the story.
+	 *
+	 * @throws IOException
+	 *             If the archive is damaged.
+	 */
+	public Chapter getChapter(UUID chapterId) throws IOException {
+		int entry = findEntry(chapterId);
+		return (entry < 0) ? null : readEntry(entry);
+	}
+
+	/**
+	 * Opens the contents of a media in the story, as they are in the
+	 * archive. The first time, every chunk's header is read to find where
+	 * the contents of the media are; the contents themselves are only read
+	 * as the stream is.
+	 *
+	 * @param media
+	 *
+	 * @return The contents, or null if they aren't in the archive.
+	 *
+	 * @throws IOException
+	 *             If the archive is damaged.
+	 */
+	public InputStream openContent(Media media) throws IOException {
+		if (media.getBlobHash() == null) {
+			return null;
+		}
+		int[] span;
+		synchronized (this) {
+			if (blobs == null) {
+				blobs = findBlobs();
+			}
+			span = blobs.get(media.getBlobHash());
+		}
+		return (span == null) ? null : open(span[0], span[1]);
+	}
+
+	/**
+	 * Not supported, story archives are only read.
+	 */
+	@Override
+	public void insert(Object object) {
+		throw new UnsupportedOperationException("Story archives are read only");
+	}
+
+	/**
+	 * Retrieves the objects in the archive matching the criteria. A story is
+	 * matched by its id, chapters by their id or else their story, choices by
+	 * their id or else the chapter they are in, and media by their id or
+	 * else their chapter, and then their type. Criteria with none of those
+	 * set match everything of their kind.
+	 *
+	 * @param criteria
+	 *            Story, Chapter, Choice or Media.
+	 */
+	@Override
+	public ArrayList<Object> retrieve(Object criteria) {
+		ArrayList<Object> results = new ArrayList<Object>();
+		try {
+			if (criteria instanceof Story) {
+				UUID id = ((Story) criteria).getId();
+				if (id == null || id.equals(story.getId())) {
+					results.add(story);
+				}
+			} else if (criteria instanceof Chapter) {
+				Chapter crit = (Chapter) criteria;
+				if (crit.getId() != null) {
+					addNotNull(results, getChapter(crit.getId()));
+				} else if (matchesStory(crit.getStoryId())) {
+					for (int i = 0; i < chapterCount; i++) {
+						results.add(readEntry(i));
+					}
+				}
+			} else if (criteria instanceof Choice) {
+				retrieveChoices((Choice) criteria, results);
+			} else if (criteria instanceof Media) {
+				retrieveMedia((Media) criteria, results);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return results;
+	}
+
+	/**
+	 * Not supported, story archives are only read.
+	 */
+	@Override
+	public void update(Object newObject) {
+		throw new UnsupportedOperationException("Story archives are read only");
+	}
+
+	/**
+	 * Not applicable, story archives aren't queried with SQL.
+	 */
+	@Override
+	public String setSearchCriteria(Object object, ArrayList<String> sArgs) {
+		return null;
+	}
+
+	private void retrieveChoices(Choice crit, ArrayList<Object> results)
+			throws IOException {
+		if (crit.getCurrentChapter() != null) {
+			int entry = findEntry(crit.getCurrentChapter());
+			if (entry >= 0) {
+				for (Choice choice : readChoices(entry)) {
+					if (crit.getId() == null
+							|| crit.getId().equals(choice.getId())) {
+						results.add(choice);
+					}
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < chapterCount; i++) {
+			for (Choice choice : readChoices(i)) {
+				if (crit.getId() == null
+						|| crit.getId().equals(choice.getId())) {
+					results.add(choice);
+				}
+			}
+		}
+	}
+
+	private void retrieveMedia(Media crit, ArrayList<Object> results)
+			throws IOException {
+		ArrayList<Chapter> chapters = new ArrayList<Chapter>();
+		if (crit.getChapterId() != null) {
+			addNotNull(chapters, getChapter(crit.getChapterId()));
+		} else {
+			for (int i = 0; i < chapterCount; i++) {
+				chapters.add(readChapter(i));
+			}
+		}
+		for (Chapter chapter : chapters) {
+			ArrayList<Media> media = new ArrayList<Media>(chapter.getPhotos());
+			media.addAll(chapter.getIllustrations());
+			for (Media item : media) {
+				if ((crit.getId() == null || crit.getId().equals(item.getId()))
+						&& (crit.getType() == null
+						|| crit.getType().equals(item.getType()))) {
+					results.add(item);
+				}
+			}
+		}
+	}
+
+	private boolean matchesStory(UUID storyId) {
+		return storyId == null || storyId.equals(story.getId());
+	}
+
+	private static <T> void addNotNull(ArrayList<? super T> list, T item) {
+		if (item != null) {
+			list.add(item);
+		}
+	}
+
+	/**
+	 * Binary searches the table for a chapter.
+	 *
+	 * @return The index of its entry, or -1 if it isn't there.
+	 */
+	private int findEntry(UUID chapterId) {
+		long most = chapterId.getMostSignificantBits();
+		long least = chapterId.getLeastSignificantBits();
+		int low = 0;
+		int high = chapterCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int at = tableStart + middle * StoryArchive.TABLE_ENTRY;
+			int order = StoryArchive.compareIds(buffer.getLong(at),
+					buffer.getLong(at + 8), most, least);
+			if (order < 0) {
+				low = middle + 1;
+			} else if (order > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private Chapter readEntry(int entry) throws IOException {
+		Chapter chapter = readChapter(entry);
+		chapter.getChoices().addAll(readChoices(entry));
+		chapter.clearChanges();
+		return chapter;
+	}
+
+	private Chapter readChapter(int entry) throws IOException {
+		int at = tableStart + entry * StoryArchive.TABLE_ENTRY;
+		int chunk = checkedOffset(buffer.getLong(at + 16));
+		if (buffer.getInt(chunk) != StoryArchive.CHAP) {
+			throw new IOException("Story archive table is damaged");
+		}
+		return StoryArchive.readChapter(openChunk(chunk), story.getId());
+	}
+
+	private ArrayList<Choice> readChoices(int entry) throws IOException {
+		int at = tableStart + entry * StoryArchive.TABLE_ENTRY;
+		int start = checkedOffset(buffer.getLong(at + 24));
+		int count = buffer.getInt(at + 32);
+		ArrayList<Choice> choices = new ArrayList<Choice>();
+		DataInputStream in = open(start, buffer.capacity());
+		for (int i = 0; i < count; i++) {
+			choices.add(StoryArchive.readChoice(in));
+		}
+		return choices;
+	}
+
+	/**
+	 * Walks the chunk headers from the start of the archive.
+	 *
+	 * @return Where the first chunk of the type starts, or -1.
+	 */
+	private int findChunk(int type) throws IOException {
+		int at = 8;
+		while (at < tableOffset) {
+			if (buffer.getInt(at) == type) {
+				return at;
+			}
+			at = nextChunk(at);
+		}
+		return -1;
+	}
+
+	private HashMap<String, int[]> findBlobs() throws IOException {
+		HashMap<String, int[]> found = new HashMap<String, int[]>();
+		int at = 8;
+		while (at < tableOffset) {
+			int next = nextChunk(at);
+			if (buffer.getInt(at) == StoryArchive.BLOB) {
+				DataInputStream in = openChunk(at);
+				String hash = StoryArchive.readString(in);
+				int start = next - in.available();
+				found.put(hash, new int[] { start, next });
+			}
+			at = next;
+		}
+		return found;
+	}
+
+	private int nextChunk(int at) throws IOException {
+		long length = buffer.getLong(at + 4);
+		if (length < 0) {
+			throw new IOException("Story archive is damaged");
+		}
+		return checkedOffset(at + StoryArchive.CHUNK_HEADER + length);
+	}
+
+	private int checkedOffset(long offset) throws IOException {
+		if (offset < 8 || offset > buffer.capacity() - StoryArchive.TRAILER) {
+			throw new IOException("Story archive is damaged");
+		}
+		return (int) offset;
+	}
+
+	private DataInputStream openChunk(int at) throws IOException {
+		return open(at + StoryArchive.CHUNK_HEADER, nextChunk(at));
+	}
+
+	/**
+	 * Opens a stream over part of the archive. Each stream has its own
+	 * position, so chapters can be read from more than one thread.
+	 */
+	private DataInputStream open(int start, int end) {
+		ByteBuffer part = buffer.duplicate();
+		part.limit(end);
+		part.position(start);
+		return new DataInputStream(new BufferInputStream(part));
+	}
+
+	/**
+	 * Reads what is left of a buffer.
+	 */
+	private static class BufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
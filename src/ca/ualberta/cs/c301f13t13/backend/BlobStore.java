@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.content.Context;
+
+/**
+ * Role: Stores the contents of media (the bytes of images) as files in the
+ * app's private storage, each one named after the SHA-256 hash of its
+ * contents. Media objects only keep the hash, and the bytes are read from the
+ * file when they are needed. Since the name comes from the contents, storing
+ * the same image twice only keeps one copy.
+ *
+ * Contents are always streamed to and from the files, so a whole image never
+ * has to be held in memory.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Ashley Brown
+ *
+ * @see Media
+ * @see MediaManager
+ */
+public class BlobStore {
+	private static BlobStore self = null;
+	private static final int BUFFER_SIZE = 8192;
+	private File folder = null;
+
+	/**
+	 * Initializes a new BlobStore keeping its files in the given folder.
+	 *
+	 * @param folder
+	 */
+	protected BlobStore(File folder) {
+		this.folder = folder;
+		folder.mkdirs();
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return BlobStore
+	 */
+	public static synchronized BlobStore getInstance(Context context) {
+		if (self == null) {
+			self = new BlobStore(new File(context.getFilesDir(), "blobs"));
+		}
+		return self;
+	}
+
+	/**
+	 * Stores everything read from the stream, and returns the hash it can be
+	 * opened again with. The stream is not closed.
+	 *
+	 * @param in
+	 *
+	 * @return Hash of the contents.
+	 */
+	public String put(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		File temp = File.createTempFile("blob", ".tmp", folder);
+		OutputStream out = new FileOutputStream(temp);
+
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			out = null;
+
+			String hash = toHex(digest.digest());
+			File file = getFile(hash);
+			if (!file.exists() && !temp.renameTo(file)) {
+				throw new IOException("Could not store blob " + hash);
+			}
+			return hash;
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Stores the contents of a file, and returns the hash it can be opened
+	 * again with.
+	 *
+	 * @param path
+	 *            Path of the file.
+	 *
+	 * @return Hash of the contents.
+	 */
+	public String put(String path) throws IOException {
+		InputStream in = new FileInputStream(path);
+		try {
+			return put(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens the contents stored under the hash for reading. The caller has to
+	 * close the stream. A hash that isn't one is never found.
+	 *
+	 * @param hash
+	 *
+	 * @return Stream of the contents.
+	 */
+	public InputStream open(String hash) throws FileNotFoundException {
+		if (!isHash(hash)) {
+			throw new FileNotFoundException("Not a blob hash: " + hash);
+		}
+		return new FileInputStream(getFile(hash));
+	}
+
+	/**
+	 * Returns whether there is something stored under the hash. Hashes read
+	 * from the server or an archive aren't checked, so one that isn't a hash
+	 * is simply not there.
+	 *
+	 * @param hash
+	 */
+	public boolean contains(String hash) {
+		return isHash(hash) && getFile(hash).exists();
+	}
+
+	/**
+	 * Returns the file the contents with the hash are kept in.
+	 *
+	 * @param hash
+	 *
+	 * @return file
+	 */
+	public File getFile(String hash) {
+		if (!isHash(hash)) {
+			throw new IllegalArgumentException("Not a blob hash: " + hash);
+		}
+		return new File(folder, hash);
+	}
+
+	private static boolean isHash(String hash) {
+		return hash != null && hash.matches("[0-9a-f]{64}");
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Android device has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,496 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.protocol.HTTP;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Role: Publishes many stories to the server with few requests, by putting
+ * the index (publish), update and delete operations queued on it into the
+ * server's _bulk requests.
+ *
+ * When flushed, the queued operations are sent in batches of at most
+ * maxActions operations and about maxBytes bytes. The body of a batch is
+ * written straight to the connection, one operation at a time, while it is
+ * being sent (gzipped along the way, unless the ServerManager doesn't
+ * compress requests), so it is never built in memory. A batch ends once it
+ * holds maxActions operations or has grown past maxBytes uncompressed, so a
+ * batch can go over maxBytes by at most one operation.
+ *
+ * The server answers a bulk request with the result of every operation in
+ * it. Operations the server turned down are handed back from flush as
+ * Failures, and the others are done with. The changes an operation sent are
+ * cleared from its story, but a story can still be changed while it is
+ * queued, and those later changes are kept for the next time it is sent.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ServerManager
+ */
+public class BulkPublisher {
+	public static final int MAX_ACTIONS = 100;
+	public static final int MAX_BYTES = 1024 * 1024;
+
+	private ServerManager server = null;
+	private Gson gson = null;
+	private int maxActions;
+	private int maxBytes;
+	private ArrayList<Operation> pending = new ArrayList<Operation>();
+
+	/**
+	 * What an operation does to a story on the server.
+	 */
+	public enum Action {
+		INDEX, UPDATE, DELETE
+	}
+
+	/**
+	 * An operation the server did not do, and why.
+	 */
+	public static class Failure {
+		private Action action;
+		private UUID storyId;
+		private int status;
+		private String reason;
+
+		Failure(Action action, UUID storyId, int status, String reason) {
+			this.action = action;
+			this.storyId = storyId;
+			this.status = status;
+			this.reason = reason;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+
+		public UUID getStoryId() {
+			return storyId;
+		}
+
+		/**
+		 * Returns the http status the server gave the operation, or 0 if it
+		 * didn't give one.
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+	}
+
+	/**
+	 * A queued operation.
+	 */
+	private static class Operation {
+		final Action action;
+		final UUID storyId;
+		// Whole story to index, or story whose changes are sent
+		final Story story;
+		// Partial document of an update
+		final JsonObject doc;
+		// The story's changes when it was queued
+		final JsonObject sent;
+
+		Operation(Action action, UUID storyId, Story story, JsonObject doc,
+				JsonObject sent) {
+			this.action = action;
+			this.storyId = storyId;
+			this.story = story;
+			this.doc = doc;
+			this.sent = sent;
+		}
+	}
+
+	/**
+	 * Initializes a new BulkPublisher sending batches of the default size.
+	 *
+	 * @param server
+	 *            Server the operations are sent to.
+	 */
+	public BulkPublisher(ServerManager server) {
+		this(server, MAX_ACTIONS, MAX_BYTES);
+	}
+
+	/**
+	 * Initializes a new BulkPublisher.
+	 *
+	 * @param server
+	 *            Server the operations are sent to.
+	 * @param maxActions
+	 *            Most operations in one request.
+	 * @param maxBytes
+	 *            Size in bytes past which no more operations are added to a
+	 *            request.
+	 */
+	public BulkPublisher(ServerManager server, int maxActions, int maxBytes) {
+		if (maxActions < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Batches must hold something");
+		}
+		this.server = server;
+		this.gson = server.getGson();
+		this.maxActions = maxActions;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Queues publishing the whole story, replacing whatever the server has
+	 * for it.
+	 *
+	 * @param story
+	 */
+	public void index(Story story) {
+		pending.add(new Operation(Action.INDEX, story.getId(), story, null,
+				server.getChangesDocument(story)));
+	}
+
+	/**
+	 * Queues sending the changes made to a published story since it was last
+	 * sent. Nothing is queued if it wasn't changed. The changes are taken
+	 * now, so later changes are left for the next update.
+	 *
+	 * @param story
+	 */
+	public void update(Story story) {
+		JsonObject doc = server.getChangesDocument(story);
+		if (doc.entrySet().isEmpty()) {
+			return;
+		}
+		pending.add(new Operation(Action.UPDATE, story.getId(), story, doc,
+				doc));
+	}
+
+	/**
+	 * Queues merging the given partial document into a published story.
+	 * The changes in the document are cleared from the story once the update
+	 * went through.
+	 *
+	 * @param story
+	 * @param doc
+	 *            Fields to merge in, keyed the way the story is stored.
+	 */
+	void update(Story story, JsonObject doc) {
+		pending.add(new Operation(Action.UPDATE, story.getId(), story, doc,
+				doc));
+	}
+
+	/**
+	 * Queues removing a story from the server.
+	 *
+	 * @param storyId
+	 */
+	public void delete(UUID storyId) {
+		pending.add(new Operation(Action.DELETE, storyId, null, null, null));
+	}
+
+	/**
+	 * Returns the number of operations waiting to be sent.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Sends all the queued operations. Stories whose index or update went
+	 * through have the changes that were sent cleared.
+	 *
+	 * If a request fails as a whole, the exception is thrown and the
+	 * operations of that request and the ones after it stay queued, so
+	 * flushing again picks up where this left off.
+	 *
+	 * @return The operations the server turned down. They are not queued
+	 *         again.
+	 */
+	public ArrayList<Failure> flush() throws IOException {
+		ArrayList<Failure> failures = new ArrayList<Failure>();
+		while (!pending.isEmpty()) {
+			int sent = sendBatch(failures);
+			pending.subList(0, sent).clear();
+		}
+		return failures;
+	}
+
+	/**
+	 * Sends one request holding as many of the queued operations as fit in
+	 * a batch, and returns how many were sent.
+	 */
+	private int sendBatch(ArrayList<Failure> failures) throws IOException {
+		BulkEntity entity = new BulkEntity();
+		HttpPost bulkRequest = new HttpPost(server.getServerUrl() + "_bulk");
+		bulkRequest.setHeader("Accept", "application/json");
+		bulkRequest.setEntity(server.compress(entity));
+
+		HttpResponse response = null;
+		try {
+			response = server.getHttpClient().execute(bulkRequest);
+			int status = response.getStatusLine().getStatusCode();
+			if (status >= 300) {
+				throw new IOException("Bulk request failed: "
+						+ response.getStatusLine());
+			}
+			readItems(response, entity.written, failures);
+		} finally {
+			server.release(bulkRequest, response);
+		}
+		return entity.written;
+	}
+
+	/**
+	 * Reads the result of every operation of a batch from the response
+	 * ({"items" : [{"index" : {"_id" : .., "status" : .., "error" : ..}},
+	 * ..]}). Older servers have "ok" instead of a status.
+	 */
+	private void readItems(HttpResponse response, int count,
+			ArrayList<Failure> failures) throws IOException {
+		JsonReader reader = new JsonReader(server.getEntityReader(response));
+		int item = 0;
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("items")) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (item >= count) {
+						throw new IOException("More results than operations");
+					}
+					readItem(reader, pending.get(item++), failures);
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		} catch (JsonParseException e) {
+			throw new IOException("Bad response from server: "
+					+ e.getMessage());
+		} catch (IllegalStateException e) {
+			throw new IOException("Bad response from server: "
+					+ e.getMessage());
+		}
+
+		// Operations the server said nothing about can't be known to be done
+		while (item < count) {
+			Operation op = pending.get(item++);
+			failures.add(new Failure(op.action, op.storyId, 0,
+					"No result from server"));
+		}
+	}
+
+	private void readItem(JsonReader reader, Operation op,
+			ArrayList<Failure> failures) throws IOException {
+		int status = 0;
+		String error = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			// The name is the action, which is known already
+			reader.nextName();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("status")) {
+					status = reader.nextInt();
+				} else if (name.equals("error")
+						&& reader.peek() != JsonToken.NULL) {
+					// A string on older servers, an object on newer ones
+					JsonElement value = gson.fromJson(reader,
+							JsonElement.class);
+					error = value.isJsonPrimitive() ? value.getAsString()
+							: value.toString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+
+		if (error != null || status >= 300) {
+			failures.add(new Failure(op.action, op.storyId, status,
+					(error != null) ? error : "Status " + status));
+		} else if (op.story != null) {
+			clearSent(op.story, op.sent);
+		}
+	}
+
+	/**
+	 * Forgets the changes to the story that were sent. A change is only
+	 * forgotten if it is still what was sent, so changes made after the
+	 * story was queued are kept.
+	 */
+	private void clearSent(Story story, JsonObject sent) {
+		JsonObject now = server.getChangesDocument(story);
+		boolean allChapters = story.getChanges().containsKey("chapters");
+		for (Map.Entry<String, JsonElement> field : sent.entrySet()) {
+			String name = field.getKey();
+			JsonElement current = now.get(name);
+			if (name.equals("chapters") && !allChapters) {
+				if (current != null) {
+					clearSentChapters(story, field.getValue()
+							.getAsJsonObject(), current.getAsJsonObject());
+				}
+			} else if (field.getValue().equals(current)) {
+				story.clearChange(name);
+				if (name.equals("chapters")) {
+					for (Chapter chapter : story.getChapters().values()) {
+						chapter.clearChanges();
+					}
+				}
+			}
+		}
+	}
+
+	private void clearSentChapters(Story story, JsonObject sent,
+			JsonObject now) {
+		for (Map.Entry<String, JsonElement> entry : sent.entrySet()) {
+			UUID id = UUID.fromString(entry.getKey());
+			JsonElement current = now.get(entry.getKey());
+			Chapter chapter = story.getChapter(id);
+			if (current == null || chapter == null) {
+				continue;
+			}
+			if (story.isAddedChapter(id)) {
+				if (entry.getValue().equals(current)) {
+					story.clearAddedChapter(id);
+				}
+				continue;
+			}
+			JsonObject fields = current.getAsJsonObject();
+			for (Map.Entry<String, JsonElement> field : entry.getValue()
+					.getAsJsonObject().entrySet()) {
+				if (field.getValue().equals(fields.get(field.getKey()))) {
+					chapter.clearChange(field.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued operations into the body of a bulk request as
+	 * newline delimited json, one action line followed by its source line
+	 * (deletes have none), while the request is being sent. Remembers how
+	 * many operations it wrote.
+	 */
+	private class BulkEntity extends AbstractHttpEntity {
+		int written = 0;
+
+		BulkEntity() {
+			setContentType("application/x-ndjson; charset=UTF-8");
+			setChunked(true);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			CountingOutputStream counter = new CountingOutputStream(out);
+			Writer writer = new OutputStreamWriter(counter, HTTP.UTF_8);
+			written = 0;
+
+			while (written < pending.size() && written < maxActions
+					&& (written == 0 || counter.count < maxBytes)) {
+				writeOperation(writer, pending.get(written));
+				writer.flush();
+				written++;
+			}
+		}
+
+		private void writeOperation(Writer writer, Operation op)
+				throws IOException {
+			writer.write("{\"");
+			writer.write(op.action.name().toLowerCase(Locale.US));
+			writer.write("\" : {\"_id\" : \"");
+			writer.write(op.storyId.toString());
+			writer.write("\"}}\n");
+
+			if (op.action == Action.INDEX) {
+				gson.toJson(op.story, Story.class, writer);
+				writer.write('\n');
+			} else if (op.action == Action.UPDATE) {
+				writer.write("{\"doc\" : ");
+				gson.toJson(op.doc, writer);
+				writer.write("}\n");
+			}
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public InputStream getContent() {
+			throw new UnsupportedOperationException(
+					"The body is only ever written");
+		}
+	}
+
+	/**
+	 * Counts the bytes written through it.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import android.util.LruCache;
+
+/**
+ * Role: Sits in front of one of the database StoringManagers and keeps the
+ * results of recent retrieves in memory, so loading the same rows again (for
+ * example going back to a chapter that was just read) does not have to query
+ * the database.
+ *
+ * Results are kept under the search criteria they were retrieved with. When
+ * an object is inserted or updated, the result of looking it up by its id is
+ * dropped, along with the results of every other search, since any of them
+ * could now be different (adding a chapter can change which stories a
+ * keyword search finds). The cache is shared by all the CachingManagers, so a
+ * write through any of them is seen by all of them.
+ *
+ * Callers get their own copies of the cached objects, so changing an object
+ * that was retrieved does not change what is in the cache.
+ *
+ * Design Pattern: Decorator
+ *
+ * @author Stephanie Gil
+ *
+ * @see ManagerFactory
+ * @see StoringManager
+ */
+public class CachingManager implements StoringManager {
+	/**
+	 * Most objects (rows) kept in the cache, over all the managers.
+	 */
+	public static final int MAX_CACHED_OBJECTS = 1000;
+
+	private static final Object lock = new Object();
+	private static final HashSet<String> queryKeys = new HashSet<String>();
+	private static long generation = 0;
+	private static final LruCache<String, ArrayList<Object>> cache =
+			new LruCache<String, ArrayList<Object>>(MAX_CACHED_OBJECTS) {
+		@Override
+		protected int sizeOf(String key, ArrayList<Object> value) {
+			return value.size() + 1;
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, String key,
+				ArrayList<Object> oldValue, ArrayList<Object> newValue) {
+			if (newValue == null) {
+				queryKeys.remove(key);
+			}
+		}
+	};
+
+	private StoringManager manager = null;
+	private int hitCount = 0;
+	private int missCount = 0;
+
+	/**
+	 * Initializes a new CachingManager in front of the given manager.
+	 *
+	 * @param manager
+	 *            One of StoryManager, ChapterManager, ChoiceManager or
+	 *            MediaManager.
+	 */
+	public CachingManager(StoringManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Inserts the object, then drops the cached results it could change.
+	 */
+	@Override
+	public void insert(Object object) {
+		manager.insert(object);
+		invalidate(object);
+	}
+
+	/**
+	 * Returns the objects matching the criteria, from the cache if they were
+	 * retrieved before and nothing was written since.
+	 */
+	@Override
+	public ArrayList<Object> retrieve(Object criteria) {
+		String key = getKey(criteria);
+		long startGeneration;
+
+		synchronized (lock) {
+			ArrayList<Object> cached = cache.get(key);
+			if (cached != null) {
+				hitCount++;
+				return copyAll(cached);
+			}
+			missCount++;
+			startGeneration = generation;
+		}
+
+		ArrayList<Object> objects = manager.retrieve(criteria);
+
+		synchronized (lock) {
+			// Only keep the result if nothing was written while querying
+			if (generation == startGeneration) {
+				if (!key.equals(getIdKey(criteria))) {
+					queryKeys.add(key);
+				}
+				cache.put(key, copyAll(objects));
+			}
+		}
+		return objects;
+	}
+
+	/**
+	 * Updates the object, then drops the cached results it could change.
+	 */
+	@Override
+	public void update(Object object) {
+		manager.update(object);
+		invalidate(object);
+	}
+
+	@Override
+	public String setSearchCriteria(Object object, ArrayList<String> sArgs) {
+		return manager.setSearchCriteria(object, sArgs);
+	}
+
+	/**
+	 * Returns the number of retrieves answered from the cache.
+	 *
+	 * @return hitCount
+	 */
+	public int getHitCount() {
+		synchronized (lock) {
+			return hitCount;
+		}
+	}
+
+	/**
+	 * Returns the number of retrieves that had to go to the database.
+	 *
+	 * @return missCount
+	 */
+	public int getMissCount() {
+		synchronized (lock) {
+			return missCount;
+		}
+	}
+
+	/**
+	 * Empties the cache. Has to be called by anything writing to the
+	 * database without going through a CachingManager.
+	 */
+	public static void invalidateAll() {
+		synchronized (lock) {
+			generation++;
+			cache.evictAll();
+			queryKeys.clear();
+		}
+	}
+
+	/**
+	 * Drops the cached lookup of the object by its id, and all the cached
+	 * searches. Has to be called by anything writing one object to the
+	 * database without going through a CachingManager.
+	 */
+	static void invalidate(Object object) {
+		synchronized (lock) {
+			generation++;
+			String idKey = getIdKey(object);
+			if (idKey != null) {
+				cache.remove(idKey);
+			}
+			for (String key : new ArrayList<String>(queryKeys)) {
+				cache.remove(key);
+			}
+			queryKeys.clear();
+		}
+	}
+
+	/**
+	 * Makes the cache key of a search, made of the type of object searched
+	 * for and its search criteria in a fixed order.
+	 */
+	private static String getKey(Object criteria) {
+		HashMap<String, String> info;
+
+		if (criteria instanceof Story) {
+			info = ((Story) criteria).getSearchCriteria();
+		} else if (criteria instanceof Chapter) {
+			info = ((Chapter) criteria).getSearchCriteria();
+		} else if (criteria instanceof Choice) {
+			info = ((Choice) criteria).getSearchCriteria();
+		} else if (criteria instanceof Media) {
+			info = ((Media) criteria).getSearchCriteria();
+		} else {
+			throw new IllegalArgumentException("Can't cache "
+					+ criteria.getClass().getName());
+		}
+		return criteria.getClass().getSimpleName() + ":"
+				+ new TreeMap<String, String>(info).toString();
+	}
+
+	/**
+	 * Makes the cache key of looking up the object by its id alone. Returns
+	 * null if the object has no id.
+	 */
+	private static String getIdKey(Object object) {
+		if (object instanceof Story) {
+			Story story = (Story) object;
+			return (story.getId() == null) ? null : getKey(new Story(
+					story.getId(), null, null, null, null));
+		} else if (object instanceof Chapter) {
+			Chapter chapter = (Chapter) object;
+			return (chapter.getId() == null) ? null : getKey(new Chapter(
+					chapter.getId(), null, null));
+		} else if (object instanceof Choice) {
+			Choice choice = (Choice) object;
+			return (choice.getId() == null) ? null : getKey(new Choice(
+					choice.getId(), null));
+		} else {
+			Media media = (Media) object;
+			return (media.getId() == null) ? null : getKey(new Media(
+					media.getId(), null, null, null));
+		}
+	}
+
+	private static ArrayList<Object> copyAll(ArrayList<Object> objects) {
+		ArrayList<Object> copies = new ArrayList<Object>(objects.size());
+		for (Object object : objects) {
+			copies.add(copy(object));
+		}
+		return copies;
+	}
+
+	/**
+	 * Copies an object the way it was read from its row in the database.
+	 */
+	private static Object copy(Object object) {
+		if (object instanceof Story) {
+			Story story = (Story) object;
+			Story copy = new Story(story.getId(), story.getTitle(),
+					story.getAuthor(), story.getDescription(),
+					story.getPhoneId());
+			copy.setFirstChapterId(story.getFirstChapterId());
+			copy.setUpdatedAt(story.getUpdatedAt());
+			copy.clearChanges();
+			return copy;
+		} else if (object instanceof Chapter) {
+			Chapter chapter = (Chapter) object;
+			Chapter copy = new Chapter(chapter.getId(), chapter.getStoryId(),
+					chapter.getText());
+			copy.setUpdatedAt(chapter.getUpdatedAt());
+			return copy;
+		} else if (object instanceof Choice) {
+			Choice choice = (Choice) object;
+			return new Choice(choice.getId(), choice.getCurrentChapter(),
+					choice.getNextChapter(), choice.getText());
+		} else {
+			Media media = (Media) object;
+			Media copy = new Media(media.getId(), media.getChapterId(),
+					media.getPath(), media.getType());
+			copy.setBlobHash(media.getBlobHash());
+			return copy;
+		}
+	}
+}
@@ -19,6 +19,7 @@ package ca.ualberta.cs.c301f13t13.backend;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.UUID;
 
 import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
@@ -27,6 +28,9 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
  * Role: A container to hold chapter information. This includes id, story id,
  * text, choices illustrations and photos
  * 
+ * The chapter remembers which of its fields were changed since it was last
+ * saved, so saving it to the server only has to send those.
+ * 
  * @author Ashley Brown
  * @author Stephanie Gil
  * 
@@ -38,6 +42,11 @@ public class Chapter implements Serializable {
 	private ArrayList<Choice> choices;
 	private ArrayList<Media> illustrations;
 	private ArrayList<Media> photos;
+	private long updatedAt;
+
+	// Names of the fields changed since the chapter was last saved. Made 
+	// when first needed, and never saved.
+	private transient HashSet<String> changedFields;
 
 	/**
 	 * Initializes a new chapter object with no id.
@@ -72,6 +81,7 @@ public class Chapter implements Serializable {
 		this.id = id;
 		this.text = text;
 		this.storyId = storyId;
+		choices = new ArrayList<Choice>();
 		illustrations = new ArrayList<Media>();
 		photos = new ArrayList<Media>();
 	}
@@ -133,6 +143,17 @@ public class Chapter implements Serializable {
 		return this.illustrations;
 	}
 
+	/**
+	 * Returns the time (in milliseconds) the chapter, its choices or its
+	 * media were last changed on a phone, or 0 if they never were since
+	 * this was kept.
+	 * 
+	 * @return updatedAt
+	 */
+	public long getUpdatedAt() {
+		return this.updatedAt;
+	}
+
 	// SETTERS
 
 	/**
@@ -153,6 +174,7 @@ public class Chapter implements Serializable {
 	 */
 	public void setStoryId(UUID id) {
 		this.storyId = id;
+		markChanged("storyId");
 	}
 
 	/**
@@ -163,6 +185,7 @@ public class Chapter implements Serializable {
 	 */
 	public void setText(String text) {
 		this.text = text;
+		markChanged("text");
 	}
 
 	/**
@@ -173,6 +196,7 @@ public class Chapter implements Serializable {
 	 */
 	public void setChoices(ArrayList<Choice> choices) {
 		this.choices = choices;
+		markChanged("choices");
 	}
 
 	/**
@@ -182,6 +206,7 @@ public class Chapter implements Serializable {
 	 */
 	public void setPhotos(ArrayList<Media> photos) {
 		this.photos = photos;
+		markChanged("photos");
 	}
 
 	/**
@@ -191,6 +216,16 @@ public class Chapter implements Serializable {
 	 */
 	public void setIllustrations(ArrayList<Media> illustrations) {
 		this.illustrations = illustrations;
+		markChanged("illustrations");
+	}
+
+	/**
+	 * Sets the time (in milliseconds) the chapter was last changed.
+	 * 
+	 * @param updatedAt
+	 */
+	public void setUpdatedAt(long updatedAt) {
+		this.updatedAt = updatedAt;
 	}
 
 	// OTHER METHODS
@@ -202,6 +237,7 @@ public class Chapter implements Serializable {
 	 */
 	public void addChoice(Choice choice) {
 		choices.add(choice);
+		markChanged("choices");
 	}
 
 	/**
@@ -211,6 +247,7 @@ public class Chapter implements Serializable {
 	 */
 	public void addPhoto(Media photo) {
 		photos.add(photo);
+		markChanged("photos");
 	}
 
 	/**
@@ -220,6 +257,63 @@ public class Chapter implements Serializable {
 	 */
 	public void addIllustration(Media i) {
 		illustrations.add(i);
+		markChanged("illustrations");
+	}
+
+	/**
+	 * Returns the fields of the chapter changed since it was last saved, as
+	 * a HashMap from the name of each field to its new value. The time the
+	 * chapter was changed goes along with any change.
+	 * 
+	 * @return HashMap
+	 */
+	public HashMap<String, Object> getChanges() {
+		HashMap<String, Object> changes = new HashMap<String, Object>();
+		if (changedFields == null) {
+			return changes;
+		}
+		changes.put("updatedAt", updatedAt);
+		for (String field : changedFields) {
+			if (field.equals("storyId")) {
+				changes.put(field, storyId);
+			} else if (field.equals("text")) {
+				changes.put(field, text);
+			} else if (field.equals("choices")) {
+				changes.put(field, choices);
+			} else if (field.equals("photos")) {
+				changes.put(field, photos);
+			} else if (field.equals("illustrations")) {
+				changes.put(field, illustrations);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Forgets the changes made to the chapter, once they have been saved.
+	 */
+	public void clearChanges() {
+		changedFields = null;
+	}
+
+	/**
+	 * Forgets the change made to one field of the chapter, once it has been
+	 * saved.
+	 * 
+	 * @param field
+	 */
+	void clearChange(String field) {
+		if (changedFields != null && changedFields.remove(field)
+				&& changedFields.isEmpty()) {
+			changedFields = null;
+		}
+	}
+
+	private void markChanged(String field) {
+		if (changedFields == null) {
+			changedFields = new HashSet<String>();
+		}
+		changedFields.add(field);
 	}
 
 	/**
@@ -42,6 +42,7 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
 public class ChapterManager implements StoringManager {
 	private static DBHelper helper = null;
 	private static ChapterManager self = null;
+	private static StoryGraphIndex index = null;
 
 	/**
 	 * Initializes a new ChapterManager object.
@@ -50,6 +51,7 @@ public class ChapterManager implements StoringManager {
 	 */
 	protected ChapterManager(Context context) {
 		helper = DBHelper.getInstance(context);
+		index = StoryGraphIndex.getInstance(context);
 	}
 
 	/**
@@ -59,7 +61,7 @@ public class ChapterManager implements StoringManager {
 	 * @param context
 	 * @return ChapterManager
 	 */
-	public static ChapterManager getInstance(Context context) {
+	public static synchronized ChapterManager getInstance(Context context) {
 		if (self == null) {
 			self = new ChapterManager(context);
 		}
@@ -87,8 +89,11 @@ public class ChapterManager implements StoringManager {
 		if (chapter.getText() != null) {
 			values.put(ChapterTable.COLUMN_NAME_TEXT, chapter.getText());
 		}
+		chapter.setUpdatedAt(System.currentTimeMillis());
+		values.put(ChapterTable.COLUMN_NAME_UPDATED_AT, chapter.getUpdatedAt());
 
 		db.insert(ChapterTable.TABLE_NAME, null, values);
+		index.onChapterSaved(chapter);
 	}
 
 	/**
@@ -111,7 +116,8 @@ public class ChapterManager implements StoringManager {
 
 		String[] projection = { ChapterTable.COLUMN_NAME_CHAPTER_ID,
 				ChapterTable.COLUMN_NAME_STORY_ID,
-				ChapterTable.COLUMN_NAME_TEXT };
+				ChapterTable.COLUMN_NAME_TEXT,
+				ChapterTable.COLUMN_NAME_UPDATED_AT };
 
 		// Setting search criteria
 		String selection = setSearchCriteria(criteria, selectionArgs);
@@ -137,6 +143,7 @@ public class ChapterManager implements StoringManager {
 					UUID.fromString(storyId), // story id
 					cursor.getString(2) // text
 			);
+			newChapter.setUpdatedAt(cursor.getLong(3));
 			results.add(newChapter);
 			cursor.moveToNext();
 		}
@@ -161,11 +168,28 @@ public class ChapterManager implements StoringManager {
 		values.put(ChapterTable.COLUMN_NAME_STORY_ID, 
 				newC.getStoryId().toString());
 		values.put(ChapterTable.COLUMN_NAME_TEXT, newC.getText());
+		newC.setUpdatedAt(System.currentTimeMillis());
+		values.put(ChapterTable.COLUMN_NAME_UPDATED_AT, newC.getUpdatedAt());
 
-		String selection = ChapterTable.COLUMN_NAME_CHAPTER_ID + " LIKE ?";
+		String selection = ChapterTable.COLUMN_NAME_CHAPTER_ID + " = ?";
 		String[] sArgs = { newC.getId().toString() };
 
 		db.update(ChapterTable.TABLE_NAME, values, selection, sArgs);
+		index.onChapterSaved(newC);
+	}
+
+	/**
+	 * Marks a chapter as changed now, for when one of its choices or media
+	 * was changed. The chapter is dropped from the cache, since it is
+	 * written without going through a CachingManager.
+	 * 
+	 * @param db
+	 * @param chapterId
+	 */
+	static void touch(SQLiteDatabase db, UUID chapterId) {
+		db.execSQL(ChapterTable.SQL_TOUCH, new Object[] {
+				System.currentTimeMillis(), chapterId.toString() });
+		CachingManager.invalidate(new Chapter(chapterId, null, null));
 	}
 
 	/**
@@ -192,7 +216,7 @@ public class ChapterManager implements StoringManager {
 		int counter = 0;
 		for (String key : chapCrit.keySet()) {
 			String value = chapCrit.get(key);
-			selection += key + " LIKE ? ";
+			selection += key + " = ? ";
 			sArgs.add(value);
 
 			counter++;
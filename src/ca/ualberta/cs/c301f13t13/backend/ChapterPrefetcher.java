@@ -0,0 +1,378 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Process;
+import android.util.LruCache;
+
+/**
+ * Role: Reads ahead while a chapter is being read. The chapters reachable
+ * through the choices of the chapter shown are loaded complete (with their
+ * choices and media) in the background, along with the thumbnails of their
+ * media, so following a choice can show the next chapter right away.
+ *
+ * Chapters are loaded breadth first, nearest first, up to depth choices
+ * away. A round of prefetching stops once it has loaded about budget bytes
+ * of chapters and thumbnails, and the cache holds at most budget bytes of
+ * chapters, dropping the least recently used ones. Starting a new round
+ * stops the one before it, since the reader has moved on.
+ *
+ * When a chapter, its choices or its media are written, its prefetched copy
+ * is dropped. Chapters that were being loaded while anything was written
+ * are not kept, the same way the CachingManager does it.
+ *
+ * @author Stephanie Gil
+ *
+ * @see SHController
+ * @see CachingManager
+ */
+public class ChapterPrefetcher {
+	public static final int DEFAULT_DEPTH = 2;
+	public static final int DEFAULT_BUDGET = 512 * 1024;	// bytes
+
+	/**
+	 * Rough size of a chapter in memory, besides its text, and of each of
+	 * its choices and media.
+	 */
+	static final int CHAPTER_OVERHEAD = 200;
+	static final int PART_OVERHEAD = 150;
+
+	private final Object lock = new Object();
+	private LruCache<UUID, Chapter> cache;
+	private ChapterSource source;
+	private MediaWarmer warmer = null;
+	private Executor executor;
+	private volatile int depth = DEFAULT_DEPTH;
+	private volatile int budget = DEFAULT_BUDGET;
+	// Moved on by every new round and every write
+	private long round = 0;
+	private long generation = 0;
+	private int loadCount = 0;
+
+	/**
+	 * Loads a complete chapter.
+	 */
+	public interface ChapterSource {
+		/**
+		 * @return The chapter with its choices and media, or null if there
+		 *         is no such chapter.
+		 */
+		Chapter load(UUID chapterId);
+	}
+
+	/**
+	 * Gets the thumbnail of a media ready, so it can be shown right away.
+	 */
+	public interface MediaWarmer {
+		/**
+		 * Called on the prefetching thread.
+		 *
+		 * @return Bytes of memory the thumbnail now takes, or 0 if it was
+		 *         ready already.
+		 */
+		long warm(Media media);
+	}
+
+	/**
+	 * Initializes a ChapterPrefetcher loading on its own background thread.
+	 *
+	 * @param source
+	 *            Where the chapters are loaded from.
+	 */
+	public ChapterPrefetcher(ChapterSource source) {
+		this(source, newExecutor());
+	}
+
+	/**
+	 * Initializes a ChapterPrefetcher loading through the given executor.
+	 *
+	 * @param source
+	 *            Where the chapters are loaded from.
+	 * @param executor
+	 *            Runs the rounds of prefetching, one at a time.
+	 */
+	public ChapterPrefetcher(ChapterSource source, Executor executor) {
+		this.source = source;
+		this.executor = executor;
+		cache = newCache(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Sets how many choices away from the chapter shown chapters are
+	 * loaded. 0 turns prefetching off.
+	 *
+	 * @param depth
+	 */
+	public void setDepth(int depth) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("Depth can't be negative");
+		}
+		this.depth = depth;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Sets about how many bytes of memory prefetched chapters and
+	 * thumbnails can take. Chapters already prefetched are dropped.
+	 *
+	 * @param budget
+	 */
+	public void setBudget(int budget) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("Budget must hold something");
+		}
+		synchronized (lock) {
+			this.budget = budget;
+			cache = newCache(budget);
+			generation++;
+		}
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets what gets the thumbnails of prefetched chapters ready.
+	 *
+	 * @param warmer
+	 *            May be null to not prefetch thumbnails.
+	 */
+	public void setMediaWarmer(MediaWarmer warmer) {
+		this.warmer = warmer;
+	}
+
+	/**
+	 * Starts loading the chapters reachable from the chapter, in the
+	 * background. Whatever was being prefetched before is stopped.
+	 *
+	 * @param chapter
+	 *            The chapter being shown, with its choices.
+	 */
+	public void prefetch(Chapter chapter) {
+		final long myRound;
+		synchronized (lock) {
+			myRound = ++round;
+		}
+		final int maxDepth = depth;
+		final ArrayList<UUID> next = getNextChapters(chapter);
+		if (maxDepth == 0 || next.isEmpty()) {
+			return;
+		}
+		final UUID shown = chapter.getId();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				readAhead(shown, next, maxDepth, myRound);
+			}
+		});
+	}
+
+	/**
+	 * Returns the prefetched copy of the chapter, or null if it isn't
+	 * prefetched. The copy is the caller's, and is no longer kept.
+	 *
+	 * @param chapterId
+	 */
+	public Chapter get(UUID chapterId) {
+		synchronized (lock) {
+			return cache.remove(chapterId);
+		}
+	}
+
+	/**
+	 * Drops the prefetched copy of a chapter, for when it, its choices or
+	 * its media were written.
+	 *
+	 * @param chapterId
+	 */
+	public void invalidate(UUID chapterId) {
+		synchronized (lock) {
+			generation++;
+			if (chapterId != null) {
+				cache.remove(chapterId);
+			}
+		}
+	}
+
+	/**
+	 * Drops every prefetched chapter, for when whole stories were written.
+	 */
+	public void clear() {
+		synchronized (lock) {
+			generation++;
+			cache.evictAll();
+		}
+	}
+
+	/**
+	 * Returns the number of chapters loaded by prefetching so far.
+	 */
+	public int getLoadCount() {
+		synchronized (lock) {
+			return loadCount;
+		}
+	}
+
+	/**
+	 * Loads the chapters breadth first from the given ones, until the round
+	 * is over, depth or budget run out, or there is nothing left.
+	 */
+	private void readAhead(UUID shown, ArrayList<UUID> first, int maxDepth,
+			long myRound) {
+		HashSet<UUID> seen = new HashSet<UUID>();
+		seen.add(shown);
+		LinkedList<UUID> queue = new LinkedList<UUID>();
+		LinkedList<Integer> depths = new LinkedList<Integer>();
+		for (UUID id : first) {
+			if (seen.add(id)) {
+				queue.add(id);
+				depths.add(1);
+			}
+		}
+
+		long spent = 0;
+		while (!queue.isEmpty() && spent < budget) {
+			UUID id = queue.removeFirst();
+			int level = depths.removeFirst();
+
+			Chapter chapter;
+			long startGeneration;
+			synchronized (lock) {
+				if (round != myRound) {
+					return;
+				}
+				chapter = cache.get(id);
+				startGeneration = generation;
+			}
+
+			if (chapter == null) {
+				chapter = source.load(id);
+				if (chapter == null) {
+					continue;
+				}
+				int size = sizeOf(chapter);
+				spent += size;
+				synchronized (lock) {
+					loadCount++;
+					// Only keep it if nothing was written while loading
+					if (generation == startGeneration) {
+						cache.put(id, chapter);
+					}
+				}
+				spent += warmMedia(chapter);
+			}
+
+			if (level < maxDepth) {
+				for (UUID nextId : getNextChapters(chapter)) {
+					if (seen.add(nextId)) {
+						queue.add(nextId);
+						depths.add(level + 1);
+					}
+				}
+			}
+		}
+	}
+
+	private long warmMedia(Chapter chapter) {
+		MediaWarmer mediaWarmer = warmer;
+		if (mediaWarmer == null) {
+			return 0;
+		}
+		long bytes = 0;
+		for (Media media : chapter.getIllustrations()) {
+			bytes += mediaWarmer.warm(media);
+		}
+		for (Media media : chapter.getPhotos()) {
+			bytes += mediaWarmer.warm(media);
+		}
+		return bytes;
+	}
+
+	private static ArrayList<UUID> getNextChapters(Chapter chapter) {
+		ArrayList<UUID> next = new ArrayList<UUID>();
+		if (chapter.getChoices() == null) {
+			return next;
+		}
+		for (Choice choice : chapter.getChoices()) {
+			if (choice.getNextChapter() != null) {
+				next.add(choice.getNextChapter());
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Returns a rough size of the chapter in memory, in bytes.
+	 */
+	static int sizeOf(Chapter chapter) {
+		int size = CHAPTER_OVERHEAD;
+		if (chapter.getText() != null) {
+			size += chapter.getText().length() * 2;
+		}
+		if (chapter.getChoices() != null) {
+			for (Choice choice : chapter.getChoices()) {
+				size += PART_OVERHEAD;
+				if (choice.getText() != null) {
+					size += choice.getText().length() * 2;
+				}
+			}
+		}
+		size += PART_OVERHEAD * (chapter.getPhotos().size()
+				+ chapter.getIllustrations().size());
+		return size;
+	}
+
+	private static LruCache<UUID, Chapter> newCache(int budget) {
+		return new LruCache<UUID, Chapter>(budget) {
+			@Override
+			protected int sizeOf(UUID key, Chapter value) {
+				return ChapterPrefetcher.sizeOf(value);
+			}
+		};
+	}
+
+	private static ExecutorService newExecutor() {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "ChapterPrefetcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -44,12 +44,14 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.ChoiceTable;
 public class ChoiceManager implements StoringManager {
 	private static DBHelper helper = null;
 	private static ChoiceManager self = null;
+	private static StoryGraphIndex index = null;
 
 	/**
 	 * Initializes a new ChoiceManager object.
 	 */
 	protected ChoiceManager(Context context) {
 		helper = DBHelper.getInstance(context);
+		index = StoryGraphIndex.getInstance(context);
 	}
 
 	/**
@@ -59,7 +61,7 @@ public class ChoiceManager implements StoringManager {
 	 * @param context
 	 * @return ChoiceManager
 	 */
-	public static ChoiceManager getInstance(Context context) {
+	public static synchronized ChoiceManager getInstance(Context context) {
 		if (self == null) {
 			self = new ChoiceManager(context);
 		} 
@@ -79,7 +81,9 @@ public class ChoiceManager implements StoringManager {
 		values.put(ChoiceTable.COLUMN_NAME_CURR_CHAPTER, choice.getCurrentChapter().toString());
 		values.put(ChoiceTable.COLUMN_NAME_NEXT_CHAPTER, choice.getNextChapter().toString());
 		values.put(ChoiceTable.COLUMN_NAME_TEXT, choice.getText());
-		db.insert(ChoiceTable.TABLE_NAME, null, values);		
+		db.insert(ChoiceTable.TABLE_NAME, null, values);
+		ChapterManager.touch(db, choice.getCurrentChapter());
+		index.onChoiceSaved(choice);
 	}
 
 	/**
@@ -103,10 +107,12 @@ public class ChoiceManager implements StoringManager {
 		values.put(ChoiceTable.COLUMN_NAME_TEXT, newC.getText());
 
 		// Setting search criteria
-		String selection = ChoiceTable.COLUMN_NAME_CHOICE_ID + " LIKE ?";
+		String selection = ChoiceTable.COLUMN_NAME_CHOICE_ID + " = ?";
 		String[] sArgs = { newC.getId().toString()};	
 
-		db.update(ChoiceTable.TABLE_NAME, values, selection, sArgs);	
+		db.update(ChoiceTable.TABLE_NAME, values, selection, sArgs);
+		ChapterManager.touch(db, newC.getCurrentChapter());
+		index.onChoiceSaved(newC);
 	}
 
 	/**
@@ -185,7 +191,7 @@ public class ChoiceManager implements StoringManager {
 
 		for (String key: choiceCrit.keySet()) {
 			String value = choiceCrit.get(key);
-			selection += key + " LIKE ?";
+			selection += key + " = ?";
 			sArgs.add(value);
 
 			counter++;
@@ -37,7 +37,7 @@ import android.provider.BaseColumns;
  */
 public final class DBContract {
 
-	public static final int DATABASE_VERSION = 1;
+	public static final int DATABASE_VERSION = 8;
 	public static final String DATABASE_NAME = "StoryHoard.Db";
 
 	public DBContract() {
@@ -59,6 +59,7 @@ public final class DBContract {
 		public static final String COLUMN_NAME_DESCRIPTION = "description";
 		public static final String COLUMN_NAME_FIRST_CHAPTER = "first_chapter";
 		public static final String COLUMN_NAME_PHONE_ID = "phone_id";
+		public static final String COLUMN_NAME_UPDATED_AT = "updated_at";
 
 		// TO DO: Add column with phone id
 		public static final String SQL_CREATE_TABLE = "CREATE TABLE "
@@ -72,11 +73,27 @@ public final class DBContract {
 
 		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
 				+ StoryTable.TABLE_NAME;
+
+		/**
+		 * Order the stories are browsed in, one page at a time.
+		 */
+		public static final String SQL_BROWSE_ORDER = 
+				StoryTable.COLUMN_NAME_TITLE + " COLLATE NOCASE, "
+				+ StoryTable.COLUMN_NAME_STORY_ID;
+
+		public static final String SQL_CREATE_TITLE_INDEX = "CREATE INDEX "
+				+ "IF NOT EXISTS story_title_index ON "
+				+ StoryTable.TABLE_NAME + " (" + SQL_BROWSE_ORDER + ")";
+
+		public static final String SQL_ADD_UPDATED_AT_COLUMN = "ALTER TABLE "
+				+ StoryTable.TABLE_NAME + " ADD COLUMN "
+				+ StoryTable.COLUMN_NAME_UPDATED_AT + " INTEGER DEFAULT 0";
 	}
 
 	/**
 	 * Sets up column names and then create and delete SQL statements for the
-	 * table containing the chapters
+	 * table containing the chapters, as well as the index on the story a
+	 * chapter belongs to.
 	 */
 	protected static abstract class ChapterTable implements BaseColumns {
 
@@ -87,6 +104,7 @@ public final class DBContract {
 		public static final String COLUMN_NAME_CHAPTER_ID = "chapter_id";
 		public static final String COLUMN_NAME_STORY_ID = "story_id";
 		public static final String COLUMN_NAME_TEXT = "text";
+		public static final String COLUMN_NAME_UPDATED_AT = "updated_at";
 
 		public static final String SQL_CREATE_TABLE = "CREATE TABLE "
 				+ ChapterTable.TABLE_NAME + " (" + ChapterTable._ID
@@ -96,11 +114,29 @@ public final class DBContract {
 
 		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
 				+ ChapterTable.TABLE_NAME;
+
+		public static final String SQL_CREATE_STORY_INDEX = "CREATE INDEX "
+				+ "IF NOT EXISTS chapter_story_index ON "
+				+ ChapterTable.TABLE_NAME + " ("
+				+ ChapterTable.COLUMN_NAME_STORY_ID + ")";
+
+		public static final String SQL_ADD_UPDATED_AT_COLUMN = "ALTER TABLE "
+				+ ChapterTable.TABLE_NAME + " ADD COLUMN "
+				+ ChapterTable.COLUMN_NAME_UPDATED_AT + " INTEGER DEFAULT 0";
+
+		/**
+		 * Marks a chapter (by its id) as changed at the given time.
+		 */
+		public static final String SQL_TOUCH = "UPDATE "
+				+ ChapterTable.TABLE_NAME + " SET "
+				+ ChapterTable.COLUMN_NAME_UPDATED_AT + " = ? WHERE "
+				+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " = ?";
 	}
 
 	/**
 	 * Sets up column names and then create and delete SQL statements for the
-	 * table containing the choices
+	 * table containing the choices, as well as the indexes on the chapters a
+	 * choice links.
 	 */
 	protected static abstract class ChoiceTable implements BaseColumns {
 
@@ -122,11 +158,22 @@ public final class DBContract {
 
 		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
 				+ ChoiceTable.TABLE_NAME;
+
+		public static final String SQL_CREATE_CURR_CHAPTER_INDEX = "CREATE "
+				+ "INDEX IF NOT EXISTS choice_curr_chapter_index ON "
+				+ ChoiceTable.TABLE_NAME + " ("
+				+ ChoiceTable.COLUMN_NAME_CURR_CHAPTER + ")";
+
+		public static final String SQL_CREATE_NEXT_CHAPTER_INDEX = "CREATE "
+				+ "INDEX IF NOT EXISTS choice_next_chapter_index ON "
+				+ ChoiceTable.TABLE_NAME + " ("
+				+ ChoiceTable.COLUMN_NAME_NEXT_CHAPTER + ")";
 	}
 
 	/**
 	 * Sets up column names and then create and delete SQL statements for the
-	 * table containing media (photos/illustrations/audio/video)
+	 * table containing media (photos/illustrations/audio/video), as well as
+	 * the index on the chapter a media belongs to.
 	 */
 	protected static abstract class MediaTable implements BaseColumns {
 
@@ -138,6 +185,7 @@ public final class DBContract {
 		public static final String COLUMN_NAME_CHAPTER_ID = "chapter_id";
 		public static final String COLUMN_NAME_MEDIA_URI = "uri";
 		public static final String COLUMN_NAME_TYPE = "type"; 
+		public static final String COLUMN_NAME_BLOB = "blob_hash";
 
 		public static final String SQL_CREATE_TABLE = "CREATE TABLE "
 				+ MediaTable.TABLE_NAME + " (" + MediaTable._ID + " INTEGER,"
@@ -148,5 +196,216 @@ public final class DBContract {
 
 		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
 				+ MediaTable.TABLE_NAME;
+
+		public static final String SQL_CREATE_CHAPTER_INDEX = "CREATE INDEX "
+				+ "IF NOT EXISTS media_chapter_index ON "
+				+ MediaTable.TABLE_NAME + " ("
+				+ MediaTable.COLUMN_NAME_CHAPTER_ID + ")";
+
+		public static final String SQL_ADD_BLOB_COLUMN = "ALTER TABLE "
+				+ MediaTable.TABLE_NAME + " ADD COLUMN "
+				+ MediaTable.COLUMN_NAME_BLOB + " TEXT";
+	}
+
+	/**
+	 * Sets up column names and then create and delete SQL statements for the
+	 * outbox, which holds the publishes and deletes waiting to be sent to the
+	 * server. Rows are sent in the order of their _id for each story.
+	 */
+	protected static abstract class OutboxTable implements BaseColumns {
+
+		private OutboxTable() {
+		}
+
+		public static final String TABLE_NAME = "outbox_table";
+		public static final String COLUMN_NAME_STORY_ID = "story_id";
+		public static final String COLUMN_NAME_ACTION = "action";
+		// No longer written, the Outbox keeps the json in files instead
+		public static final String COLUMN_NAME_PAYLOAD = "payload";
+		public static final String COLUMN_NAME_REVISION = "revision";
+		public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+		public static final String COLUMN_NAME_NEXT_ATTEMPT = "next_attempt";
+
+		public static final String SQL_CREATE_TABLE = "CREATE TABLE "
+				+ "IF NOT EXISTS " + OutboxTable.TABLE_NAME + " ("
+				+ OutboxTable._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+				+ OutboxTable.COLUMN_NAME_STORY_ID + " TEXT NOT NULL, "
+				+ OutboxTable.COLUMN_NAME_ACTION + " TEXT NOT NULL, "
+				+ OutboxTable.COLUMN_NAME_PAYLOAD + " TEXT, "
+				+ OutboxTable.COLUMN_NAME_REVISION + " INTEGER DEFAULT 0, "
+				+ OutboxTable.COLUMN_NAME_ATTEMPTS + " INTEGER DEFAULT 0, "
+				+ OutboxTable.COLUMN_NAME_NEXT_ATTEMPT + " INTEGER DEFAULT 0)";
+
+		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
+				+ OutboxTable.TABLE_NAME;
+
+		public static final String SQL_CREATE_STORY_INDEX = "CREATE INDEX "
+				+ "IF NOT EXISTS outbox_story_index ON "
+				+ OutboxTable.TABLE_NAME + " ("
+				+ OutboxTable.COLUMN_NAME_STORY_ID + ", " + OutboxTable._ID
+				+ ")";
+	}
+
+	/**
+	 * Sets up column names and then create and delete SQL statements for the
+	 * table keeping how far syncing with the server got, as named values.
+	 */
+	protected static abstract class SyncTable {
+
+		private SyncTable() {
+		}
+
+		public static final String TABLE_NAME = "sync_table";
+		public static final String COLUMN_NAME_NAME = "name";
+		public static final String COLUMN_NAME_VALUE = "value";
+
+		public static final String SQL_CREATE_TABLE = "CREATE TABLE "
+				+ "IF NOT EXISTS " + SyncTable.TABLE_NAME + " ("
+				+ SyncTable.COLUMN_NAME_NAME + " TEXT PRIMARY KEY, "
+				+ SyncTable.COLUMN_NAME_VALUE + " INTEGER)";
+
+		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
+				+ SyncTable.TABLE_NAME;
+	}
+
+	/**
+	 * Sets up column names and then create and delete SQL statements for the
+	 * full text index over the stories. Each row of the index belongs to the
+	 * story whose rowid is its docid, and holds the story's title, author
+	 * and description. Triggers on the story table keep it in sync, so the
+	 * managers never write to it. The text of the chapters is indexed
+	 * separately, in the ChapterFtsTable.
+	 */
+	protected static abstract class StoryFtsTable {
+
+		private StoryFtsTable() {
+		}
+
+		public static final String TABLE_NAME = "story_fts";
+		public static final String COLUMN_NAME_TITLE = "title";
+		public static final String COLUMN_NAME_AUTHOR = "author";
+		public static final String COLUMN_NAME_DESCRIPTION = "description";
+
+		/**
+		 * Weight of a keyword hit in each column, in column order, used when
+		 * ranking search results.
+		 */
+		public static final double[] COLUMN_WEIGHTS = { 4.0, 2.0, 1.0 };
+
+		public static final String SQL_CREATE_TABLE = "CREATE VIRTUAL TABLE "
+				+ StoryFtsTable.TABLE_NAME + " USING fts4("
+				+ StoryFtsTable.COLUMN_NAME_TITLE + ", "
+				+ StoryFtsTable.COLUMN_NAME_AUTHOR + ", "
+				+ StoryFtsTable.COLUMN_NAME_DESCRIPTION + ")";
+
+		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
+				+ StoryFtsTable.TABLE_NAME;
+
+		public static final String SQL_REBUILD = "INSERT INTO "
+				+ StoryFtsTable.TABLE_NAME + " (docid, "
+				+ StoryFtsTable.COLUMN_NAME_TITLE + ", "
+				+ StoryFtsTable.COLUMN_NAME_AUTHOR + ", "
+				+ StoryFtsTable.COLUMN_NAME_DESCRIPTION + ") SELECT rowid, "
+				+ StoryTable.COLUMN_NAME_TITLE + ", "
+				+ StoryTable.COLUMN_NAME_AUTHOR + ", "
+				+ StoryTable.COLUMN_NAME_DESCRIPTION + " FROM "
+				+ StoryTable.TABLE_NAME;
+
+		public static final String[] SQL_CREATE_TRIGGERS = {
+				"CREATE TRIGGER story_fts_insert AFTER INSERT ON "
+						+ StoryTable.TABLE_NAME + " BEGIN INSERT INTO "
+						+ StoryFtsTable.TABLE_NAME + " (docid, "
+						+ StoryFtsTable.COLUMN_NAME_TITLE + ", "
+						+ StoryFtsTable.COLUMN_NAME_AUTHOR + ", "
+						+ StoryFtsTable.COLUMN_NAME_DESCRIPTION
+						+ ") VALUES (new.rowid, new."
+						+ StoryTable.COLUMN_NAME_TITLE + ", new."
+						+ StoryTable.COLUMN_NAME_AUTHOR + ", new."
+						+ StoryTable.COLUMN_NAME_DESCRIPTION + "); END",
+				"CREATE TRIGGER story_fts_update AFTER UPDATE ON "
+						+ StoryTable.TABLE_NAME + " BEGIN UPDATE "
+						+ StoryFtsTable.TABLE_NAME + " SET "
+						+ StoryFtsTable.COLUMN_NAME_TITLE + " = new."
+						+ StoryTable.COLUMN_NAME_TITLE + ", "
+						+ StoryFtsTable.COLUMN_NAME_AUTHOR + " = new."
+						+ StoryTable.COLUMN_NAME_AUTHOR + ", "
+						+ StoryFtsTable.COLUMN_NAME_DESCRIPTION + " = new."
+						+ StoryTable.COLUMN_NAME_DESCRIPTION
+						+ " WHERE docid = new.rowid; END",
+				"CREATE TRIGGER story_fts_delete AFTER DELETE ON "
+						+ StoryTable.TABLE_NAME + " BEGIN DELETE FROM "
+						+ StoryFtsTable.TABLE_NAME
+						+ " WHERE docid = old.rowid; END" };
+
+		/**
+		 * Drops the triggers, including the ones of version 7, which
+		 * collected the text of all of a story's chapters into its row
+		 * whenever one chapter changed.
+		 */
+		public static final String[] SQL_DROP_TRIGGERS = {
+				"DROP TRIGGER IF EXISTS story_fts_insert",
+				"DROP TRIGGER IF EXISTS story_fts_update",
+				"DROP TRIGGER IF EXISTS story_fts_delete",
+				"DROP TRIGGER IF EXISTS chapter_fts_insert",
+				"DROP TRIGGER IF EXISTS chapter_fts_update",
+				"DROP TRIGGER IF EXISTS chapter_fts_delete" };
+	}
+
+	/**
+	 * Sets up column names and then create and delete SQL statements for the
+	 * full text index over the text of the chapters. Each row of the index
+	 * belongs to the chapter whose rowid is its docid, and is joined back to
+	 * the chapter's story when searching. Triggers on the chapter table keep
+	 * it in sync, so changing a chapter only changes its own row.
+	 */
+	protected static abstract class ChapterFtsTable {
+
+		private ChapterFtsTable() {
+		}
+
+		public static final String TABLE_NAME = "chapter_fts";
+		public static final String COLUMN_NAME_TEXT = "text";
+
+		/**
+		 * Weight of a keyword hit in the text, used when ranking search
+		 * results.
+		 */
+		public static final double[] COLUMN_WEIGHTS = { 0.5 };
+
+		public static final String SQL_CREATE_TABLE = "CREATE VIRTUAL TABLE "
+				+ ChapterFtsTable.TABLE_NAME + " USING fts4("
+				+ ChapterFtsTable.COLUMN_NAME_TEXT + ")";
+
+		public static final String SQL_DELETE_TABLE = "DROP TABLE IF EXISTS "
+				+ ChapterFtsTable.TABLE_NAME;
+
+		public static final String SQL_REBUILD = "INSERT INTO "
+				+ ChapterFtsTable.TABLE_NAME + " (docid, "
+				+ ChapterFtsTable.COLUMN_NAME_TEXT + ") SELECT rowid, "
+				+ ChapterTable.COLUMN_NAME_TEXT + " FROM "
+				+ ChapterTable.TABLE_NAME;
+
+		/**
+		 * Only changes to the text of a chapter change the index, so marking
+		 * a chapter as changed doesn't refresh it.
+		 */
+		public static final String[] SQL_CREATE_TRIGGERS = {
+				"CREATE TRIGGER chapter_fts_insert AFTER INSERT ON "
+						+ ChapterTable.TABLE_NAME + " BEGIN INSERT INTO "
+						+ ChapterFtsTable.TABLE_NAME + " (docid, "
+						+ ChapterFtsTable.COLUMN_NAME_TEXT
+						+ ") VALUES (new.rowid, new."
+						+ ChapterTable.COLUMN_NAME_TEXT + "); END",
+				"CREATE TRIGGER chapter_fts_update AFTER UPDATE OF "
+						+ ChapterTable.COLUMN_NAME_TEXT + " ON "
+						+ ChapterTable.TABLE_NAME + " BEGIN UPDATE "
+						+ ChapterFtsTable.TABLE_NAME + " SET "
+						+ ChapterFtsTable.COLUMN_NAME_TEXT + " = new."
+						+ ChapterTable.COLUMN_NAME_TEXT
+						+ " WHERE docid = new.rowid; END",
+				"CREATE TRIGGER chapter_fts_delete AFTER DELETE ON "
+						+ ChapterTable.TABLE_NAME + " BEGIN DELETE FROM "
+						+ ChapterFtsTable.TABLE_NAME
+						+ " WHERE docid = old.rowid; END" };
 	}
 }
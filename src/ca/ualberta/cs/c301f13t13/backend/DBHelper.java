@@ -51,7 +51,7 @@ public class DBHelper extends SQLiteOpenHelper {
 	 *         License: Creative Commons Attribution 2.5
 	 */
 
-	public static DBHelper getInstance(Context context) {
+	public static synchronized DBHelper getInstance(Context context) {
 		if (dbObject == null) {
 			dbObject = new DBHelper(context);
 		}
@@ -65,12 +65,23 @@ public class DBHelper extends SQLiteOpenHelper {
 	 * @param context
 	 */
 	protected DBHelper(Context context) {
-		super(context, DBContract.DATABASE_NAME, null,
+		this(context, null);
+	}
+
+	/**
+	 * Instantiates a new DbHelper object whose queries make their cursors
+	 * with the given factory.
+	 * 
+	 * @param context
+	 * @param factory
+	 */
+	protected DBHelper(Context context, SQLiteDatabase.CursorFactory factory) {
+		super(context, DBContract.DATABASE_NAME, factory,
 				DBContract.DATABASE_VERSION);
 	}
 
 	/**
-	 * Sets up the tables.
+	 * Sets up the tables, then brings them up to the current version.
 	 */
 	@Override
 	public void onCreate(SQLiteDatabase db) {
@@ -78,17 +89,70 @@ public class DBHelper extends SQLiteOpenHelper {
 		db.execSQL(DBContract.ChapterTable.SQL_CREATE_TABLE);
 		db.execSQL(DBContract.ChoiceTable.SQL_CREATE_TABLE);
 		db.execSQL(DBContract.MediaTable.SQL_CREATE_TABLE);
+		onUpgrade(db, 1, DBContract.DATABASE_VERSION);
 	}
 
 	/**
-	 * Deletes the tables and recreates them for an update.
+	 * Migrates the tables one version at a time, keeping the data already in
+	 * them. Every version step builds on the schema of the one before it.
 	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		db.execSQL(DBContract.StoryTable.SQL_DELETE_TABLE);
-		db.execSQL(DBContract.ChapterTable.SQL_DELETE_TABLE);
-		db.execSQL(DBContract.ChoiceTable.SQL_DELETE_TABLE);
-		db.execSQL(DBContract.MediaTable.SQL_DELETE_TABLE);
-		onCreate(db);
+		if (oldVersion < 2) {
+			// Indexes on the foreign keys
+			db.execSQL(DBContract.ChapterTable.SQL_CREATE_STORY_INDEX);
+			db.execSQL(DBContract.ChoiceTable.SQL_CREATE_CURR_CHAPTER_INDEX);
+			db.execSQL(DBContract.ChoiceTable.SQL_CREATE_NEXT_CHAPTER_INDEX);
+			db.execSQL(DBContract.MediaTable.SQL_CREATE_CHAPTER_INDEX);
+		}
+		// Version 3 added the full text index, which version 8 remakes
+		if (oldVersion < 4) {
+			// Hash of the media contents in the blob store
+			db.execSQL(DBContract.MediaTable.SQL_ADD_BLOB_COLUMN);
+		}
+		if (oldVersion < 5) {
+			// Index the stories are browsed a page at a time with
+			db.execSQL(DBContract.StoryTable.SQL_CREATE_TITLE_INDEX);
+		}
+		if (oldVersion < 6) {
+			// Publishes and deletes waiting to be sent to the server
+			db.execSQL(DBContract.OutboxTable.SQL_CREATE_TABLE);
+			db.execSQL(DBContract.OutboxTable.SQL_CREATE_STORY_INDEX);
+		}
+		if (oldVersion < 7) {
+			// When stories and chapters were changed, and how far syncing
+			// with the server got
+			db.execSQL(DBContract.StoryTable.SQL_ADD_UPDATED_AT_COLUMN);
+			db.execSQL(DBContract.ChapterTable.SQL_ADD_UPDATED_AT_COLUMN);
+			db.execSQL(DBContract.SyncTable.SQL_CREATE_TABLE);
+		}
+		if (oldVersion < 8) {
+			// Full text index over the stories, with the chapters indexed
+			// one row each instead of all in their story's row
+			for (String trigger : DBContract.StoryFtsTable.SQL_DROP_TRIGGERS) {
+				db.execSQL(trigger);
+			}
+			db.execSQL(DBContract.StoryFtsTable.SQL_DELETE_TABLE);
+			db.execSQL(DBContract.StoryFtsTable.SQL_CREATE_TABLE);
+			for (String trigger : DBContract.StoryFtsTable.SQL_CREATE_TRIGGERS) {
+				db.execSQL(trigger);
+			}
+			db.execSQL(DBContract.StoryFtsTable.SQL_REBUILD);
+			db.execSQL(DBContract.ChapterFtsTable.SQL_CREATE_TABLE);
+			for (String trigger : DBContract.ChapterFtsTable.SQL_CREATE_TRIGGERS) {
+				db.execSQL(trigger);
+			}
+			db.execSQL(DBContract.ChapterFtsTable.SQL_REBUILD);
+		}
+	}
+
+	/**
+	 * Closes the database. Since it could be deleted or changed before it is
+	 * opened again, anything cached from it is dropped as well.
+	 */
+	@Override
+	public synchronized void close() {
+		super.close();
+		CachingManager.invalidateAll();
 	}
 }
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Role: Reads the responses of the elastic search server straight from the
+ * response stream, without first copying them into a string. A get response
+ * is decoded into a SimpleESResponse, and every hit of a search response is
+ * decoded and handed to a HitHandler as soon as it has been read, so only one
+ * hit at a time has to be kept in memory.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ServerManager
+ * @see SimpleESResponse
+ * @see ElasticSearchResponse
+ */
+public class ESResponseReader<T> {
+	private Gson gson = null;
+	private Type hitType = null;
+
+	/**
+	 * Gets told about every hit of a search response, in order.
+	 */
+	public interface HitHandler<T> {
+		void onHit(T source);
+	}
+
+	/**
+	 * Initializes a new ESResponseReader.
+	 *
+	 * @param gson
+	 *            Used to decode the hits.
+	 * @param hitType
+	 *            Type of a single hit, i.e. SimpleESResponse of T.
+	 */
+	public ESResponseReader(Gson gson, Type hitType) {
+		this.gson = gson;
+		this.hitType = hitType;
+	}
+
+	/**
+	 * Reads the response of a get request and returns the document in it, or
+	 * null if the server didn't have the document.
+	 *
+	 * @param in
+	 *            The response body.
+	 *
+	 * @return The document.
+	 */
+	public T readDocument(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		try {
+			SimpleESResponse<T> response = gson.fromJson(reader, hitType);
+			return (response == null) ? null : response.getSource();
+		} catch (JsonParseException e) {
+			throw new IOException("Bad response from server: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the response of a search request, handing the document of every
+	 * hit to the handler as soon as it has been decoded.
+	 *
+	 * @param in
+	 *            The response body.
+	 * @param handler
+	 *            Told about every hit.
+	 *
+	 * @return The number of hits read.
+	 */
+	public int readHits(Reader in, HitHandler<T> handler) throws IOException {
+		return readSearch(in, handler, null);
+	}
+
+	/**
+	 * Reads one batch of a scrolled search, handing the document of every
+	 * hit to the handler as soon as it has been decoded.
+	 *
+	 * @param in
+	 *            The response body.
+	 * @param handler
+	 *            Told about every hit.
+	 *
+	 * @return The scroll id to get the next batch with, or null if the
+	 *         response didn't have one.
+	 */
+	public String readScroll(Reader in, HitHandler<T> handler)
+			throws IOException {
+		String[] scrollId = new String[1];
+		readSearch(in, handler, scrollId);
+		return scrollId[0];
+	}
+
+	/**
+	 * Reads a search response, keeping its scroll id in scrollId[0] if
+	 * scrollId isn't null.
+	 */
+	private int readSearch(Reader in, HitHandler<T> handler, String[] scrollId)
+			throws IOException {
+		JsonReader reader = new JsonReader(in);
+		int count = 0;
+
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("hits")) {
+					count += readHitsObject(reader, handler);
+				} else if (name.equals("_scroll_id") && scrollId != null) {
+					scrollId[0] = reader.nextString();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (JsonParseException e) {
+			throw new IOException("Bad response from server: "
+					+ e.getMessage());
+		} catch (IllegalStateException e) {
+			throw new IOException("Bad response from server: "
+					+ e.getMessage());
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the outer hits object ({"total": .., "hits": [..]}).
+	 */
+	private int readHitsObject(JsonReader reader, HitHandler<T> handler)
+			throws IOException {
+		int count = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("hits")) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					SimpleESResponse<T> hit = gson.fromJson(reader, hitType);
+					handler.onHit(hit.getSource());
+					count++;
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return count;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Role: Gzips the body of a request while it is being sent. The body is
+ * compressed as it is written to the connection, so neither it nor its
+ * compressed form is ever held in memory as a whole. Since its compressed
+ * length isn't known until it has been sent, it is sent chunked.
+ *
+ * @author Stephanie Gil
+ *
+ * @see ServerManager
+ */
+public class GzipEntity extends HttpEntityWrapper {
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Initializes a GzipEntity sending the given body compressed.
+	 *
+	 * @param entity
+	 *            Body to compress.
+	 */
+	public GzipEntity(HttpEntity entity) {
+		super(entity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader("Content-Encoding", "gzip");
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	@Override
+	public InputStream getContent() {
+		throw new UnsupportedOperationException(
+				"The body is only ever written");
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(new UnclosableStream(
+				out), BUFFER_SIZE);
+		wrappedEntity.writeTo(gzip);
+		// Writes the end of the compressed body, but leaves the connection
+		// open
+		gzip.close();
+	}
+
+	/**
+	 * Keeps the connection open when the compressed stream is closed.
+	 */
+	private static class UnclosableStream extends OutputStream {
+		private OutputStream out;
+
+		UnclosableStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -19,7 +19,8 @@ import android.content.Context;
 
 /**
  * Role: Creates the correct object from the classes that implement the
- * StoringManager interface.
+ * StoringManager interface. The managers working on the database are handed
+ * out behind a CachingManager, so repeated retrieves come from memory. 
  * 
  * Design Pattern: Factory Class
  * 
@@ -28,6 +29,10 @@ import android.content.Context;
  */
 public class ManagerFactory {
 	private Context context;
+	private CachingManager storyCache = null;
+	private CachingManager chapterCache = null;
+	private CachingManager choiceCache = null;
+	private CachingManager mediaCache = null;
 
 	protected ManagerFactory(Context context) {
 		this.context = context;
@@ -35,23 +40,40 @@ public class ManagerFactory {
 
 	/**
 	 * Depending on the type of StoringManager needed, returns the correct
-	 * singleton object.
+	 * singleton object. Published stories come straight from the server,
+	 * everything else goes through a cache in front of the database.
 	 * 
 	 * @param type
 	 * @return StoringManager
 	 */
-	public StoringManager getStoringManager(ObjectType type) {
+	public synchronized StoringManager getStoringManager(ObjectType type) {
 		switch (type) {
 		case PUBLISHED_STORY:
 			return ServerManager.getInstance();
 		case CHAPTER:
-			return ChapterManager.getInstance(context);
+			if (chapterCache == null) {
+				chapterCache = new CachingManager(
+						ChapterManager.getInstance(context));
+			}
+			return chapterCache;
 		case CHOICE:
-			return ChoiceManager.getInstance(context);
+			if (choiceCache == null) {
+				choiceCache = new CachingManager(
+						ChoiceManager.getInstance(context));
+			}
+			return choiceCache;
 		case MEDIA:
-			return MediaManager.getInstance(context);
+			if (mediaCache == null) {
+				mediaCache = new CachingManager(
+						MediaManager.getInstance(context));
+			}
+			return mediaCache;
 		default: // cached or created story
-			return StoryManager.getInstance(context);
+			if (storyCache == null) {
+				storyCache = new CachingManager(
+						StoryManager.getInstance(context));
+			}
+			return storyCache;
 		}
 	}
 
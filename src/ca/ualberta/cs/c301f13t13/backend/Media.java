@@ -16,6 +16,9 @@
 
 package ca.ualberta.cs.c301f13t13.backend;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.UUID;
@@ -29,6 +32,10 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.MediaTable;
  * Role: A container to hold media information. The media can be a photo, an
  * illustration, audio, or video.
  * 
+ * The contents of the media are not held in the object. Once the media is
+ * saved, they are kept in the BlobStore and the media only holds their hash,
+ * so they are only read when they are shown.
+ * 
  * @author Stephanie Gil
  * @author Ashley Brown
  * 
@@ -38,7 +45,7 @@ public class Media implements Serializable{
 	private UUID chapterId;
 	private String path;
 	private String type;
-	private String bitmapString;
+	private String blobHash;
 
 	// CONSTANTS
 	public static final String PHOTO = "photo";
@@ -59,11 +66,8 @@ public class Media implements Serializable{
 		this.type = type;
 		if (path != null) {
 			this.path = path;
-//			Bitmap bitmap = BitmapFactory.decodeFile(path);
-//			bitmapString = Utilities.getStringFromBitmap(bitmap);
 		} else {
 			this.path = new String();
-			bitmapString = new String();
 		}
 	}
 
@@ -83,11 +87,8 @@ public class Media implements Serializable{
 		this.type = type;
 		if (path != null) {
 			this.path = path;
-//			Bitmap bitmap = BitmapFactory.decodeFile(path);
-//			bitmapString = Utilities.getStringFromBitmap(bitmap);			
 		} else {
 			this.path = new String();
-			bitmapString = new String();
 		}
 	}
 
@@ -130,22 +131,64 @@ public class Media implements Serializable{
 	}
 
 	/**
-	 * Returns the media's bitmap.
+	 * Returns the media's bitmap, decoded from the file at its path.
 	 * 
 	 * @return bitmap
 	 */
 	public Bitmap getBitmap() {
 		return BitmapFactory.decodeFile(path);
 	}
-	
+
+	/**
+	 * Returns the hash the contents of the media are kept under in the
+	 * BlobStore, or null if they haven't been stored yet.
+	 * 
+	 * @return blobHash
+	 */
+	public String getBlobHash() {
+		return blobHash;
+	}
+
+	/**
+	 * Opens the contents of the media for reading, from the blob store if
+	 * they were stored there, otherwise from the file at its path. The caller
+	 * has to close the stream.
+	 * 
+	 * @param blobs
+	 * 
+	 * @return Stream of the contents.
+	 */
+	public InputStream openContent(BlobStore blobs) throws IOException {
+		if (blobHash != null && blobs.contains(blobHash)) {
+			return blobs.open(blobHash);
+		}
+		return new FileInputStream(path);
+	}
+
 	/**
-	 * Returns the media's bitmap as an encoded String
+	 * Returns the media's bitmap, decoded from its contents.
 	 * 
-	 * @return bitmap string
+	 * @param blobs
+	 * 
+	 * @return bitmap, or null if the contents couldn't be read.
 	 */
-	public String getBitmapString() {
-		return bitmapString;
-	}	
+	public Bitmap getBitmap(BlobStore blobs) {
+		InputStream in = null;
+		try {
+			in = openContent(blobs);
+			return BitmapFactory.decodeStream(in);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
 
 	// SETTERS
 
@@ -168,34 +211,27 @@ public class Media implements Serializable{
 	}
 
 	/**
-	 * Sets the path of the media. Also updates the bitmap.
+	 * Sets the path of the media. If it is a different file, the stored
+	 * contents of the old one are forgotten, so the new file gets stored the
+	 * next time the media is saved.
 	 * 
 	 * @param path
 	 */
 	public void setPath(String path) {
-		this.path = path;
-		if (path != null) {
-			Bitmap bitmap = BitmapFactory.decodeFile(path);
-			bitmapString = Utilities.getStringFromBitmap(bitmap);
+		if (path == null ? this.path != null : !path.equals(this.path)) {
+			blobHash = null;
 		}
+		this.path = path;
 	}
 
 	/**
-	 * Sets the media's bitmap.
-	 * 
-	 * @param bitmap
-	 */
-	public void setBitmap(Bitmap bitmap) {
-		bitmapString = Utilities.getStringFromBitmap(bitmap);
-	}
-
-	/**
-	 * Sets the media's bitmapString.
+	 * Sets the hash the contents of the media are kept under in the
+	 * BlobStore.
 	 * 
-	 * @param bitmap
+	 * @param blobHash
 	 */
-	public void setBitmapString(String bitmapString) {
-		this.bitmapString = bitmapString;
+	public void setBlobHash(String blobHash) {
+		this.blobHash = blobHash;
 	}
 	
 	/**
@@ -237,6 +273,6 @@ public class Media implements Serializable{
 	@Override
 	public String toString() {
 		return "Media [id=" + id + ", chapter_id=" + chapterId + ", uri="
-				+ path + ", type=" + type + "]";
+				+ path + ", type=" + type + ", blob=" + blobHash + "]";
 	}
 }
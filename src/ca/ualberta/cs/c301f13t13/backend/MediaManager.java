@@ -15,6 +15,7 @@
  */
 package ca.ualberta.cs.c301f13t13.backend;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
@@ -43,12 +44,14 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.MediaTable;
 public class MediaManager implements StoringManager{
 	private static DBHelper helper = null;
 	private static MediaManager self = null;
+	private BlobStore blobs = null;
 	
 	/**
 	 * Initializes a new MediaManager object.
 	 */
 	protected MediaManager(Context context) {
 		helper = DBHelper.getInstance(context);
+		blobs = BlobStore.getInstance(context);
 	}
 	
 	/**
@@ -59,7 +62,7 @@ public class MediaManager implements StoringManager{
 	 * 
 	 * @return MediaManager
 	 */
-	public static MediaManager getInstance(Context context) {
+	public static synchronized MediaManager getInstance(Context context) {
 		if (self == null) {
 			self = new MediaManager(context);
 		}
@@ -67,7 +70,9 @@ public class MediaManager implements StoringManager{
 	}
 	
 	/**
-	 * Inserts a new media object into the database.
+	 * Inserts a new media object into the database. The contents of the file
+	 * at its path are copied into the blob store first, and the media is
+	 * given their hash.
 	 * 
 	 * @param object
 	 * 			Media object to be inserted.
@@ -75,6 +80,7 @@ public class MediaManager implements StoringManager{
 	@Override
 	public void insert(Object object) {
 		Media media = (Media) object;
+		storeContent(media);
 		SQLiteDatabase db = helper.getWritableDatabase();
 
 		// Insert Media
@@ -84,9 +90,11 @@ public class MediaManager implements StoringManager{
 		if (media.getPath() != null) {
 			values.put(MediaTable.COLUMN_NAME_MEDIA_URI, (media.getPath()));
 		}
-		values.put(MediaTable.COLUMN_NAME_TYPE, media.getType());;
+		values.put(MediaTable.COLUMN_NAME_TYPE, media.getType());
+		values.put(MediaTable.COLUMN_NAME_BLOB, media.getBlobHash());
 
-		db.insert(MediaTable.TABLE_NAME, null, values);	
+		db.insert(MediaTable.TABLE_NAME, null, values);
+		ChapterManager.touch(db, media.getChapterId());
 	}
 
 	/**
@@ -105,7 +113,8 @@ public class MediaManager implements StoringManager{
 				MediaTable.COLUMN_NAME_MEDIA_ID,
 				MediaTable.COLUMN_NAME_CHAPTER_ID,
 				MediaTable.COLUMN_NAME_MEDIA_URI,
-				MediaTable.COLUMN_NAME_TYPE
+				MediaTable.COLUMN_NAME_TYPE,
+				MediaTable.COLUMN_NAME_BLOB
 		};
 
 		// Setting search criteria
@@ -132,6 +141,7 @@ public class MediaManager implements StoringManager{
 					cursor.getString(2), // path
 					cursor.getString(3) // type
 					);
+			newMedia.setBlobHash(cursor.getString(4));
 			results.add(newMedia);
 			cursor.moveToNext();
 		}
@@ -150,6 +160,7 @@ public class MediaManager implements StoringManager{
 	@Override
 	public void update(Object newObject) {
 		Media newM = (Media) newObject;
+		storeContent(newM);
 		SQLiteDatabase db = helper.getReadableDatabase();
 
 		ContentValues values = new ContentValues();
@@ -157,14 +168,37 @@ public class MediaManager implements StoringManager{
 		values.put(MediaTable.COLUMN_NAME_CHAPTER_ID, (newM.getChapterId()).toString());
 		values.put(MediaTable.COLUMN_NAME_MEDIA_URI, (newM.getPath()).toString());
 		values.put(MediaTable.COLUMN_NAME_TYPE, newM.getType());
+		values.put(MediaTable.COLUMN_NAME_BLOB, newM.getBlobHash());
 
-		String selection = MediaTable.COLUMN_NAME_MEDIA_ID + " LIKE ?";
+		String selection = MediaTable.COLUMN_NAME_MEDIA_ID + " = ?";
 		String[] sArgs = { newM.getId().toString()};	
 
 		db.update(MediaTable.TABLE_NAME, values, selection, sArgs);
+		ChapterManager.touch(db, newM.getChapterId());
 		
 	}
 
+	/**
+	 * Copies the contents of the file at the media's path into the blob
+	 * store, unless they are already there. If the file can't be read, the
+	 * media is left without a blob and keeps using its path.
+	 * 
+	 * @param media
+	 */
+	void storeContent(Media media) {
+		if (media.getBlobHash() != null && blobs.contains(media.getBlobHash())) {
+			return;
+		}
+		if (media.getPath() == null || media.getPath().length() == 0) {
+			return;
+		}
+		try {
+			media.setBlobHash(blobs.put(media.getPath()));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Creates the selection string (a prepared statement) to be used 
 	 * in the database query. Also creates an array holding the items
@@ -188,7 +222,7 @@ public class MediaManager implements StoringManager{
 		int counter = 0;
 		for (String key: medCrit.keySet()) {
 			String value = medCrit.get(key);
-			selection += key + " LIKE ? ";
+			selection += key + " = ? ";
 			sArgs.add(value);
 			
 			counter++;
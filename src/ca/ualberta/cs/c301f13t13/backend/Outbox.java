@@ -0,0 +1,411 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.OutboxTable;
+
+import com.google.gson.Gson;
+
+/**
+ * Role: Keeps the publishes and deletes of stories that haven't been sent to
+ * the server yet in the database, so they are not lost when the phone is
+ * offline or the app is closed before they are sent. The OutboxWorker sends
+ * them.
+ *
+ * A publish keeps the json of the story as it was when it was published.
+ * Publishing a story again while its last entry is still a publish waiting
+ * to be sent replaces the json of that entry instead of adding another one,
+ * since only the newest version needs to be sent. The same goes for deleting
+ * a story twice. The entries of a story are always sent in the order they
+ * were added, and an entry is only sent once all the earlier entries of its
+ * story are gone.
+ *
+ * Every entry has a revision that goes up when it is replaced, so an entry
+ * replaced while it was being sent is kept to be sent again.
+ *
+ * The json of a publish can be megabytes long, more than a cursor can hold
+ * in one row, so it is kept in a file named after the entry's id rather
+ * than in the database.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see OutboxWorker
+ */
+public class Outbox {
+	public static final String PUBLISH = "publish";
+	public static final String DELETE = "delete";
+
+	private static final String UTF_8 = "UTF-8";
+
+	private static DBHelper helper = null;
+	private static Outbox self = null;
+	private Gson gson = null;
+	private File folder = null;
+
+	private static final String[] PROJECTION = { OutboxTable._ID,
+			OutboxTable.COLUMN_NAME_STORY_ID, OutboxTable.COLUMN_NAME_ACTION,
+			OutboxTable.COLUMN_NAME_REVISION,
+			OutboxTable.COLUMN_NAME_ATTEMPTS,
+			OutboxTable.COLUMN_NAME_NEXT_ATTEMPT };
+
+	/**
+	 * Selects the first entry of every story, which are the only ones that
+	 * can be sent.
+	 */
+	private static final String SQL_IS_FIRST = "o." + OutboxTable._ID
+			+ " = (SELECT MIN(" + OutboxTable._ID + ") FROM "
+			+ OutboxTable.TABLE_NAME + " i WHERE i."
+			+ OutboxTable.COLUMN_NAME_STORY_ID + " = o."
+			+ OutboxTable.COLUMN_NAME_STORY_ID + ")";
+
+	static final String SQL_NEXT = "SELECT " + columns("o.") + " FROM "
+			+ OutboxTable.TABLE_NAME + " o WHERE " + SQL_IS_FIRST + " AND o."
+			+ OutboxTable.COLUMN_NAME_NEXT_ATTEMPT + " <= ? ORDER BY o."
+			+ OutboxTable.COLUMN_NAME_NEXT_ATTEMPT + ", o." + OutboxTable._ID
+			+ " LIMIT 1";
+
+	static final String SQL_NEXT_ATTEMPT = "SELECT MIN(o."
+			+ OutboxTable.COLUMN_NAME_NEXT_ATTEMPT + ") FROM "
+			+ OutboxTable.TABLE_NAME + " o WHERE " + SQL_IS_FIRST;
+
+	/**
+	 * An entry of the outbox.
+	 */
+	public static class Entry {
+		private long id;
+		private UUID storyId;
+		private String action;
+		private String payload;
+		private int revision;
+		private int attempts;
+		private long nextAttempt;
+
+		public long getId() {
+			return id;
+		}
+
+		public UUID getStoryId() {
+			return storyId;
+		}
+
+		/**
+		 * Returns either PUBLISH or DELETE.
+		 */
+		public String getAction() {
+			return action;
+		}
+
+		/**
+		 * Returns the json of the story to publish, or null for a delete or
+		 * a publish whose json could not be read.
+		 */
+		public String getPayload() {
+			return payload;
+		}
+
+		public int getRevision() {
+			return revision;
+		}
+
+		/**
+		 * Returns how many times sending the entry failed.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * Returns the time (in milliseconds) before which the entry is not
+		 * sent again.
+		 */
+		public long getNextAttempt() {
+			return nextAttempt;
+		}
+	}
+
+	/**
+	 * Initializes a new Outbox.
+	 *
+	 * @param context
+	 */
+	protected Outbox(Context context) {
+		helper = DBHelper.getInstance(context);
+		gson = StoryGson.getDocumentInstance();
+		folder = new File(context.getFilesDir(), "outbox");
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return Outbox
+	 */
+	public static synchronized Outbox getInstance(Context context) {
+		if (self == null) {
+			self = new Outbox(context);
+		}
+		return self;
+	}
+
+	/**
+	 * Adds publishing the story as it is now.
+	 *
+	 * @param story
+	 *            Complete story to publish.
+	 *
+	 * @throws IOException
+	 *             If the json of the story could not be written.
+	 */
+	public void addPublish(Story story) throws IOException {
+		String payload = gson.toJson(story);
+		synchronized (this) {
+			SQLiteDatabase db = helper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				// Written before the row is committed, so there is never a
+				// row without its json
+				writePayload(add(db, story.getId(), PUBLISH), payload);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Adds deleting the story from the server.
+	 *
+	 * @param storyId
+	 */
+	public synchronized void addDelete(UUID storyId) {
+		SQLiteDatabase db = helper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			add(db, storyId, DELETE);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Adds an entry, or replaces the last entry of the story if it is the
+	 * same action.
+	 *
+	 * @return The id of the entry.
+	 */
+	private long add(SQLiteDatabase db, UUID storyId, String action) {
+		String[] sArgs = { storyId.toString() };
+		Cursor cursor = db.query(OutboxTable.TABLE_NAME, new String[] {
+				OutboxTable._ID, OutboxTable.COLUMN_NAME_ACTION },
+				OutboxTable.COLUMN_NAME_STORY_ID + " = ?", sArgs, null, null,
+				OutboxTable._ID + " DESC", "1");
+		long last = -1;
+		if (cursor.moveToFirst() && cursor.getString(1).equals(action)) {
+			last = cursor.getLong(0);
+		}
+		cursor.close();
+
+		if (last >= 0) {
+			// Only the newest version of the same action is sent
+			db.execSQL("UPDATE " + OutboxTable.TABLE_NAME + " SET "
+					+ OutboxTable.COLUMN_NAME_REVISION + " = "
+					+ OutboxTable.COLUMN_NAME_REVISION + " + 1 WHERE "
+					+ OutboxTable._ID + " = ?", new Object[] { last });
+			return last;
+		}
+		ContentValues values = new ContentValues();
+		values.put(OutboxTable.COLUMN_NAME_STORY_ID, storyId.toString());
+		values.put(OutboxTable.COLUMN_NAME_ACTION, action);
+		return db.insert(OutboxTable.TABLE_NAME, null, values);
+	}
+
+	/**
+	 * Returns the entry to send next, which is the first entry of its story
+	 * that is due the soonest, or null if no entry can be sent yet.
+	 *
+	 * @param now
+	 *            Current time in milliseconds.
+	 */
+	public synchronized Entry next(long now) {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		Cursor cursor = db.rawQuery(SQL_NEXT,
+				new String[] { Long.toString(now) });
+		try {
+			if (!cursor.moveToFirst()) {
+				return null;
+			}
+			Entry entry = new Entry();
+			entry.id = cursor.getLong(0);
+			entry.storyId = UUID.fromString(cursor.getString(1));
+			entry.action = cursor.getString(2);
+			entry.revision = cursor.getInt(3);
+			entry.attempts = cursor.getInt(4);
+			entry.nextAttempt = cursor.getLong(5);
+			if (entry.action.equals(PUBLISH)) {
+				entry.payload = readPayload(entry.id);
+			}
+			return entry;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Returns the earliest time an entry can be sent, or -1 if the outbox
+	 * is empty.
+	 */
+	public synchronized long getNextAttempt() {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		Cursor cursor = db.rawQuery(SQL_NEXT_ATTEMPT, null);
+		try {
+			if (!cursor.moveToFirst() || cursor.isNull(0)) {
+				return -1;
+			}
+			return cursor.getLong(0);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Removes an entry that was sent, unless it was replaced since it was
+	 * read.
+	 *
+	 * @param entry
+	 *
+	 * @return Whether it was removed.
+	 */
+	public synchronized boolean remove(Entry entry) {
+		SQLiteDatabase db = helper.getWritableDatabase();
+		String selection = OutboxTable._ID + " = ? AND "
+				+ OutboxTable.COLUMN_NAME_REVISION + " = ?";
+		String[] sArgs = { Long.toString(entry.id),
+				Integer.toString(entry.revision) };
+		if (db.delete(OutboxTable.TABLE_NAME, selection, sArgs) == 0) {
+			return false;
+		}
+		getFile(entry.id).delete();
+		return true;
+	}
+
+	/**
+	 * Records that sending an entry failed, and when to try it again.
+	 *
+	 * @param entry
+	 * @param nextAttempt
+	 *            Time in milliseconds.
+	 */
+	public synchronized void retryLater(Entry entry, long nextAttempt) {
+		SQLiteDatabase db = helper.getWritableDatabase();
+		ContentValues values = new ContentValues();
+		values.put(OutboxTable.COLUMN_NAME_ATTEMPTS, entry.attempts + 1);
+		values.put(OutboxTable.COLUMN_NAME_NEXT_ATTEMPT, nextAttempt);
+		String[] sArgs = { Long.toString(entry.id) };
+		db.update(OutboxTable.TABLE_NAME, values, OutboxTable._ID + " = ?",
+				sArgs);
+	}
+
+	/**
+	 * Returns the number of entries waiting to be sent.
+	 */
+	public synchronized long size() {
+		return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(),
+				OutboxTable.TABLE_NAME);
+	}
+
+	/**
+	 * Returns the file the json of an entry is kept in.
+	 */
+	private File getFile(long id) {
+		return new File(folder, id + ".json");
+	}
+
+	/**
+	 * Writes the json of an entry to a new file first, so a reader never
+	 * sees half of it.
+	 */
+	private void writePayload(long id, String payload) throws IOException {
+		folder.mkdirs();
+		File temp = File.createTempFile("entry", ".tmp", folder);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(payload.getBytes(UTF_8));
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(getFile(id))) {
+			temp.delete();
+			throw new IOException("Could not keep the json of entry " + id);
+		}
+	}
+
+	private String readPayload(long id) {
+		File file = getFile(id);
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			int read = 0;
+			while (read < bytes.length) {
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0) {
+					return null;
+				}
+				read += n;
+			}
+			return new String(bytes, UTF_8);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+
+	private static String columns(String prefix) {
+		StringBuilder columns = new StringBuilder();
+		for (String column : PROJECTION) {
+			if (columns.length() > 0) {
+				columns.append(", ");
+			}
+			columns.append(prefix).append(column);
+		}
+		return columns.toString();
+	}
+}
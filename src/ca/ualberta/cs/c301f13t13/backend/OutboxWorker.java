@@ -0,0 +1,268 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Role: Sends the entries of the Outbox to the server on a background
+ * thread. Publishing or deleting a story through the worker only writes to
+ * the outbox, so it returns right away whether or not the phone is online.
+ *
+ * The outbox is drained whenever something is added to it, and once when
+ * the worker starts, so entries left over from before the app was closed
+ * are sent too. An entry that could not be sent is tried again after a delay
+ * that doubles with every failed attempt, up to MAX_DELAY. Entries the server
+ * turned down because they were wrong (a 4xx other than a timeout or too
+ * many requests) would never go through, so they are dropped.
+ *
+ * An entry that fails in any other way is put off like one the server
+ * couldn't take, and the next drain is scheduled even when draining fails,
+ * so one bad entry can't stop the outbox.
+ *
+ * A story is only indexed once the server has the contents of all its
+ * media, so a phone that downloads it can always show them.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see Outbox
+ * @see ServerManager
+ */
+public class OutboxWorker {
+	public static final long BASE_DELAY = 2000; // ms
+	public static final long MAX_DELAY = 10 * 60 * 1000; // ms
+	private static final String TAG = "OutboxWorker";
+
+	private static OutboxWorker self = null;
+	private Outbox outbox = null;
+	private ServerManager server = null;
+	private BlobStore blobs = null;
+	private ScheduledThreadPoolExecutor executor = null;
+	private ScheduledFuture<?> scheduled = null;
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (OutboxWorker.this) {
+				scheduled = null;
+			}
+			drain();
+		}
+	};
+
+	/**
+	 * Initializes a new OutboxWorker.
+	 *
+	 * @param outbox
+	 *            Entries to send.
+	 * @param server
+	 *            Server to send them to.
+	 * @param blobs
+	 *            Contents of the published stories' media.
+	 */
+	protected OutboxWorker(Outbox outbox, ServerManager server, 
+				BlobStore blobs) {
+		this.outbox = outbox;
+		this.server = server;
+		this.blobs = blobs;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "OutboxWorker");
+			}
+		});
+	}
+
+	/**
+	 * Returns an instance of itself, which has started draining the outbox.
+	 * Used to accomplish the singleton design pattern.
+	 *
+	 * @param context
+	 * @return OutboxWorker
+	 */
+	public static synchronized OutboxWorker getInstance(Context context) {
+		if (self == null) {
+			self = new OutboxWorker(Outbox.getInstance(context),
+					ServerManager.getInstance(),
+					BlobStore.getInstance(context));
+			self.kick();
+		}
+		return self;
+	}
+
+	/**
+	 * Publishes the story as it is now, in the background.
+	 *
+	 * @param story
+	 *            Complete story to publish.
+	 *
+	 * @throws IOException
+	 *             If the story could not be put in the outbox.
+	 */
+	public void publish(Story story) throws IOException {
+		outbox.addPublish(story);
+		kick();
+	}
+
+	/**
+	 * Deletes the story from the server, in the background.
+	 *
+	 * @param storyId
+	 */
+	public void delete(UUID storyId) {
+		outbox.addDelete(storyId);
+		kick();
+	}
+
+	/**
+	 * Drains the outbox in the background as soon as possible.
+	 */
+	public void kick() {
+		schedule(0);
+	}
+
+	/**
+	 * Makes sure the outbox is drained after at most the delay.
+	 */
+	private synchronized void schedule(long delay) {
+		if (scheduled != null) {
+			if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+				return;
+			}
+			scheduled.cancel(false);
+		}
+		scheduled = executor.schedule(drainTask, delay,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends every entry of the outbox that is due, then schedules the next
+	 * drain for when the next entry that failed is due again.
+	 *
+	 * @return The number of entries the server took.
+	 */
+	public int drain() {
+		int sent = 0;
+		// Unless the outbox can be read, try again once MAX_DELAY is up
+		long next = System.currentTimeMillis() + MAX_DELAY;
+		try {
+			Outbox.Entry entry;
+			while ((entry = outbox.next(System.currentTimeMillis())) != null) {
+				if (send(entry)) {
+					sent++;
+				}
+			}
+			next = outbox.getNextAttempt();
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Could not drain the outbox", e);
+		} finally {
+			if (next >= 0) {
+				schedule(Math.max(0, next - System.currentTimeMillis()));
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * Sends one entry, removing it if it is done with, and otherwise putting
+	 * it off.
+	 *
+	 * @return Whether the server took it.
+	 */
+	private boolean send(Outbox.Entry entry) {
+		if (entry.getAction().equals(Outbox.PUBLISH)
+				&& entry.getPayload() == null) {
+			Log.w(TAG, "Dropping publish of story " + entry.getStoryId()
+					+ ": its json could not be read");
+			outbox.remove(entry);
+			return false;
+		}
+
+		int status;
+		try {
+			if (entry.getAction().equals(Outbox.DELETE)) {
+				status = server.deleteDocument(entry.getStoryId());
+				if (status == 404) {
+					// Already gone
+					status = 200;
+				}
+			} else {
+				Story story = StoryGson.getDocumentInstance().fromJson(
+						entry.getPayload(), Story.class);
+				status = server.putBlobs(story.getChapters().values(), blobs);
+				if (status < 300) {
+					status = server.indexDocument(entry.getStoryId(),
+							entry.getPayload());
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			status = -1;
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Could not send " + entry.getAction() + " of story "
+					+ entry.getStoryId(), e);
+			status = -1;
+		}
+
+		if (status >= 200 && status < 300) {
+			outbox.remove(entry);
+			return true;
+		}
+		if (status >= 400 && status < 500 && status != 408 && status != 429) {
+			Log.w(TAG, "Dropping " + entry.getAction() + " of story "
+					+ entry.getStoryId() + ": status " + status);
+			outbox.remove(entry);
+			return false;
+		}
+		outbox.retryLater(entry, System.currentTimeMillis()
+				+ getDelay(entry.getAttempts()));
+		return false;
+	}
+
+	/**
+	 * Returns how long to wait before trying an entry again after it failed
+	 * the given number of times before.
+	 *
+	 * @param attempts
+	 */
+	public static long getDelay(int attempts) {
+		// No more doubling once MAX_DELAY is reached, so the shift can't
+		// overflow
+		if (attempts >= 20) {
+			return MAX_DELAY;
+		}
+		return Math.min(MAX_DELAY, BASE_DELAY << attempts);
+	}
+}
@@ -16,11 +16,30 @@
 
 package ca.ualberta.cs.c301f13t13.backend;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 
 /**
  * Role: Is called by the views of the application to then interact with the
@@ -28,6 +47,19 @@ import android.content.Context;
  * This class does not directly interact with the database or server, only the
  * managers.
  * 
+ * The methods ending in Async do the same work as their synchronous versions
+ * on a small pool of background threads, and give the result to a Callback on
+ * the main thread. They return a Future that can be used to cancel the work,
+ * in which case the callback is never called.
+ * 
+ * While a chapter is read, the chapters its choices lead to are prefetched
+ * by a ChapterPrefetcher. Writes made through the controller drop the
+ * prefetched copies they could change.
+ * 
+ * Stories can also be read straight out of a story archive opened with
+ * openArchive, without importing them. Until the archive is closed, its
+ * story and chapters are found the same way as the ones on the phone.
+ * 
  * Design Pattern: Singleton
  * 
  * @author Stephanie Gil
@@ -39,10 +71,72 @@ public class SHController {
 	private Context context = null;
 	private static SHController self = null; // SELF
 	private static ManagerFactory sf = null;
+	private static final int IO_THREADS = 3;
+	private ThreadPoolExecutor executor = null;
+	private Handler mainHandler = null;
+	private ChapterPrefetcher prefetcher = null;
+	private Story.ChapterLoader chapterLoader = null;
+	private HashMap<UUID, ArchiveManager> archives = 
+			new HashMap<UUID, ArchiveManager>();
+
+	/**
+	 * Gets the result of an asynchronous call, on the main thread.
+	 */
+	public interface Callback<T> {
+		void onResult(T result);
+
+		void onError(Exception e);
+	}
 
 	protected SHController(Context context) {
 		sf = new ManagerFactory(context);
 		this.context = context;
+		mainHandler = new Handler(Looper.getMainLooper());
+		executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						return new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(
+										Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "SHController #" + count.incrementAndGet());
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		prefetcher = new ChapterPrefetcher(
+				new ChapterPrefetcher.ChapterSource() {
+					@Override
+					public Chapter load(UUID chapterId) {
+						return getCompleteChapter(chapterId);
+					}
+				});
+
+		chapterLoader = new Story.ChapterLoader() {
+			@Override
+			public Chapter loadChapter(UUID chapterId) {
+				return getCompleteChapter(chapterId);
+			}
+
+			@Override
+			public HashMap<UUID, Chapter> loadChapters(UUID storyId) {
+				ArchiveManager archive = getArchive(storyId);
+				if (archive != null) {
+					return getArchivedChapters(archive, storyId);
+				}
+				return StoryGraphLoader.getInstance(context).loadChapters(
+						storyId);
+			}
+		};
+
+		// Sends whatever was left in the outbox when the app last closed
+		OutboxWorker.getInstance(context);
 	}
 
 	/**
@@ -50,7 +144,7 @@ public class SHController {
 	 * 
 	 * @return SHController
 	 */
-	public static SHController getInstance(Context context) {
+	public static synchronized SHController getInstance(Context context) {
 		if (self == null) {
 			self = new SHController(context);
 		}
@@ -63,7 +157,9 @@ public class SHController {
 	 * 
 	 * @param type
 	 *            Will either be PUBLISHED_STORY, CACHED_STORY, or
-	 *            CREATED_STORY.
+	 *            CREATED_STORY. Only the first ServerManager.MAX_RETRIEVED
+	 *            published stories are gotten; scrollPublishedStories goes
+	 *            through all of them.
 	 * @return Array list of all the stories the application asked for.
 	 */
 	public ArrayList<Story> getAllStories(ObjectType type) {
@@ -93,6 +189,53 @@ public class SHController {
 		return stories;
 	}
 
+	/**
+	 * Goes through all the published stories a batch at a time, without
+	 * holding them all.
+	 * 
+	 * @param handler
+	 *            Told about every batch. Can stop going through them early.
+	 * 
+	 * @see ServerManager#scrollAllStories(ServerManager.BatchHandler)
+	 */
+	public void scrollPublishedStories(ServerManager.BatchHandler<Story> handler)
+			throws IOException {
+		ServerManager.getInstance().scrollAllStories(handler);
+	}
+
+	/**
+	 * Gets one page of the stories that are either cached, created by the
+	 * author, or published, in browsing order. Only a page of stories is
+	 * loaded at a time, so browsing many stories doesn't need them all in
+	 * memory.
+	 * 
+	 * @param type
+	 *            Will either be PUBLISHED_STORY, CACHED_STORY, or
+	 *            CREATED_STORY.
+	 * @param previous
+	 *            Page before the one wanted, or null for the first page.
+	 * @param size
+	 *            Most stories on the page.
+	 * @return The page of stories.
+	 */
+	public StoryPage getStoryPage(ObjectType type, StoryPage previous,
+			int size) throws IOException {
+		if (type == ObjectType.PUBLISHED_STORY) {
+			return ServerManager.getInstance().retrievePage(previous, size);
+		}
+
+		Story criteria;
+		if (type == ObjectType.CACHED_STORY) {
+			criteria = new Story(null, null, null, null, "NOT"
+					+ Utilities.getPhoneId(context));
+		} else {
+			criteria = new Story(null, null, null, null,
+					Utilities.getPhoneId(context));
+		}
+		StoryManager sm = StoryManager.getInstance(context);
+		return sm.retrievePage(criteria, previous, size);
+	}
+
 	/**
 	 * Retrieves all the chapters that are in a given story.
 	 * 
@@ -205,17 +348,40 @@ public class SHController {
 	 *            Choice, or Media object).
 	 * @param type
 	 *            Will either be CHAPTER, CHOICE, MEDIA, PUBLISHED_STORY,
-	 *            CACHED_STORY, CREATED_STORY
+	 *            CACHED_STORY, CREATED_STORY. A PUBLISHED_STORY is put in the
+	 *            outbox and sent to the server in the background, so this
+	 *            returns right away even when the phone is offline.
 	 */
 	public void addObject(Object object, ObjectType type) {
+		if (type == ObjectType.PUBLISHED_STORY) {
+			try {
+				OutboxWorker.getInstance(context).publish((Story) object);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
 		StoringManager sm = sf.getStoringManager(type);
 		sm.insert(object);
+		invalidatePrefetched(object, type);
+	}
+
+	/**
+	 * Removes a published story from the server. Like publishing, the delete
+	 * is put in the outbox and sent in the background.
+	 * 
+	 * @param storyId
+	 *            Id of the published story.
+	 */
+	public void unpublishStory(UUID storyId) {
+		OutboxWorker.getInstance(context).delete(storyId);
 	}
 
 	/**
 	 * Used to search for stories matching the given search criteria. Users can
-	 * either search by specifying the title or author of the story. All stories
-	 * that match will be retrieved.
+	 * search with keywords from the title, author, description or chapters of
+	 * the story. All stories containing every keyword will be retrieved, with
+	 * the best matches first.
 	 * 
 	 * @param title
 	 *            Title of the story user is looking for.
@@ -236,6 +402,8 @@ public class SHController {
 					Utilities.getPhoneId(context));
 		} else if (type.equals(ObjectType.CACHED_STORY)) {
 			criteria = new Story(null, title, null, null, "none");
+		} else {
+			criteria = new Story(null, title, null, null, null);
 		}
 
 		objects = sm.retrieve(criteria);
@@ -245,20 +413,28 @@ public class SHController {
 
 	/**
 	 * Retrieves a complete chapter (including any photos, illustrations, and
-	 * choices).
+	 * choices). Chapters in an open story archive are read from it.
 	 * 
 	 * @param id
 	 *            Id of the chapter wanted.
 	 * 
-	 * @return The complete chapter.
+	 * @return The complete chapter, or null if there is no such chapter.
 	 */
 	public Chapter getCompleteChapter(UUID id) {
+		Chapter archived = getArchivedChapter(id);
+		if (archived != null) {
+			return archived;
+		}
+
 		// Search criteria gets set
 		Chapter criteria = new Chapter(id, null, null);
 		StoringManager sm = sf.getStoringManager(ObjectType.CHAPTER);
 
 		// Get chapter
 		ArrayList<Object> objects = sm.retrieve(criteria);
+		if (objects.isEmpty()) {
+			return null;
+		}
 		Chapter chapter = (Chapter) objects.get(0);
 
 		// Get chapter choices
@@ -270,41 +446,337 @@ public class SHController {
 		// Get illustrations
 		chapter.setIllustrations(getAllIllustrations(id));
 
+		// Nothing was changed, only loaded
+		chapter.clearChanges();
+
 		return chapter;
 	}
 
 	/**
 	 * Retrieves a complete story (including chapters, and any photos,
-	 * illustrations, and choices belonging to the chapters).
+	 * illustrations, and choices belonging to the chapters). The whole story
+	 * is loaded with a fixed number of queries, however many chapters it has.
+	 * Stories that aren't on the phone are downloaded whole from the server,
+	 * since searching and browsing published stories only gets their
+	 * summaries. Stories in an open story archive are read from it, one
+	 * chapter at a time as they are asked for.
 	 * 
 	 * @param id
 	 *            Story id of the story wanted.
 	 * 
-	 * @return The complete story.
+	 * @return The complete story, or null if there is no such story.
 	 */
 	public Story getCompleteStory(UUID id) {
-		// Search criteria gets set
+		ArchiveManager archive = getArchive(id);
+		if (archive != null) {
+			return getArchivedStory(archive);
+		}
+		StoryGraphLoader loader = StoryGraphLoader.getInstance(context);
+		Story story = loader.loadStory(id);
+		if (story == null) {
+			story = ServerManager.getInstance().searchById(id.toString());
+		}
+		return story;
+	}
+
+	/**
+	 * Retrieves a story without loading its chapters, which are loaded from
+	 * the database the first time they are asked for. Only the story itself
+	 * is read, so showing a story's details doesn't load the whole story.
+	 * Stories that aren't on the phone are downloaded whole from the server,
+	 * and stories in an open story archive are read from it.
+	 * 
+	 * @param id
+	 *            Story id of the story wanted.
+	 * 
+	 * @return The story, or null if there is no such story.
+	 * 
+	 * @see Story#setChapterLoader(Story.ChapterLoader)
+	 */
+	public Story getStory(UUID id) {
+		ArchiveManager archive = getArchive(id);
+		if (archive != null) {
+			return getArchivedStory(archive);
+		}
 		Story criteria = new Story(id, null, null, null, null);
-		StoringManager sm = sf.getStoringManager(ObjectType.CACHED_STORY);
+		StoringManager sm = sf.getStoringManager(ObjectType.CREATED_STORY);
 		ArrayList<Object> objects = sm.retrieve(criteria);
+		if (objects.isEmpty()) {
+			return ServerManager.getInstance().searchById(id.toString());
+		}
 		Story story = (Story) objects.get(0);
+		story.setChapterLoader(chapterLoader);
 
-		// Get all chapters
-		ArrayList<Chapter> chapters = getAllChapters(id);
-		HashMap<UUID, Chapter> chaptersHash = new HashMap<UUID, Chapter>();
+		// Nothing was changed, only loaded
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Saves a complete story (including chapters, and any photos,
+	 * illustrations, and choices belonging to the chapters) to the database
+	 * in one transaction. Parts of the story already saved are updated. If
+	 * anything can't be saved, none of the story is.
+	 * 
+	 * @param story
+	 *            The complete story.
+	 */
+	public void saveCompleteStory(Story story) {
+		StoryGraphWriter writer = StoryGraphWriter.getInstance(context);
+		writer.saveStory(story);
+		prefetcher.clear();
+	}
 
-		// Get all choices
-		for (Chapter chap : chapters) {
-			Chapter fullChap = getCompleteChapter(chap.getId());
-			chaptersHash.put(chap.getId(), fullChap);
+	/**
+	 * Writes a story on the phone, with the contents of its media, to the
+	 * stream as a story archive, so it can be backed up or put on another
+	 * phone. The media are streamed, so big stories don't need more memory.
+	 * The stream is not closed.
+	 * 
+	 * @param id
+	 *            Id of the story wanted.
+	 * @param out
+	 * 
+	 * @return Whether the story was found.
+	 * 
+	 * @see StoryArchive
+	 */
+	public boolean exportStory(UUID id, OutputStream out) throws IOException {
+		Story story = StoryGraphLoader.getInstance(context).loadStory(id);
+		if (story == null) {
+			return false;
 		}
+		StoryArchive.write(story, BlobStore.getInstance(context), out);
+		return true;
+	}
 
-		// add chapters to story
-		story.setChapters(chaptersHash);
+	/**
+	 * Writes a loaded story to a new file as a story archive.
+	 */
+	private void exportStory(Story story, File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			StoryArchive.write(story, BlobStore.getInstance(context), out);
+		} finally {
+			out.close();
+		}
+	}
 
+	/**
+	 * Reads a story archive from the stream and saves the story on the
+	 * phone, along with the contents of its media. A story already on the
+	 * phone with the same id is updated. The stream is not closed.
+	 * 
+	 * @param in
+	 * 
+	 * @return The complete story saved.
+	 * 
+	 * @see StoryArchive
+	 */
+	public Story importStory(InputStream in) throws IOException {
+		Story story = StoryArchive.read(in, BlobStore.getInstance(context));
+		saveCompleteStory(story);
 		return story;
 	}
 
+	/**
+	 * Returns the structure of a story on the phone: which chapters its
+	 * choices lead to, which can be reached, its dead ends and its orphan
+	 * chapters. The graph is kept up to date as the story is edited.
+	 * 
+	 * @param storyId
+	 *            Id of the story wanted.
+	 * 
+	 * @return The story's graph, or null if there is no such story.
+	 */
+	public StoryGraph getStoryGraph(UUID storyId) {
+		return StoryGraphIndex.getInstance(context).getGraph(storyId);
+	}
+
+	/**
+	 * Opens a story archive so its story can be read without importing it.
+	 * The story and its chapters are then found by getStory,
+	 * getCompleteStory and getCompleteChapter, until the archive is closed.
+	 * The contents of a chapter's media are copied into the blob store as
+	 * the chapter is read, so they can be shown like any other media.
+	 * 
+	 * The returned manager is read only: its insert and update throw an
+	 * UnsupportedOperationException. Stories to be changed have to be
+	 * imported with importStory instead.
+	 * 
+	 * @param file
+	 * 
+	 * @return The manager reading the archive.
+	 * 
+	 * @throws IOException
+	 *             If the file isn't a story archive this version can read.
+	 * 
+	 * @see ArchiveManager
+	 */
+	public StoringManager openArchive(File file) throws IOException {
+		ArchiveManager archive = new ArchiveManager(file);
+		synchronized (archives) {
+			archives.put(archive.getStory().getId(), archive);
+		}
+		prefetcher.clear();
+		return archive;
+	}
+
+	/**
+	 * Stops reading a story from the archive it was opened from.
+	 * 
+	 * @param storyId
+	 *            Id of the story in the archive.
+	 */
+	public void closeArchive(UUID storyId) {
+		synchronized (archives) {
+			archives.remove(storyId);
+		}
+		prefetcher.clear();
+	}
+
+	/**
+	 * Returns the open archive holding the story, or null if there is none.
+	 */
+	private ArchiveManager getArchive(UUID storyId) {
+		synchronized (archives) {
+			return archives.get(storyId);
+		}
+	}
+
+	/**
+	 * Returns a new copy of an archive's story, which loads its chapters
+	 * from the archive as they are asked for.
+	 */
+	private Story getArchivedStory(ArchiveManager archive) {
+		Story archived = archive.getStory();
+		Story story = new Story(archived.getId(), archived.getTitle(),
+				archived.getAuthor(), archived.getDescription(),
+				archived.getPhoneId());
+		story.setFirstChapterId(archived.getFirstChapterId());
+		story.setUpdatedAt(archived.getUpdatedAt());
+		story.setChapterLoader(chapterLoader);
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Reads a chapter out of whichever open archive has it.
+	 * 
+	 * @return The chapter, or null if no open archive has it.
+	 */
+	private Chapter getArchivedChapter(UUID id) {
+		ArrayList<ArchiveManager> open;
+		synchronized (archives) {
+			if (archives.isEmpty()) {
+				return null;
+			}
+			open = new ArrayList<ArchiveManager>(archives.values());
+		}
+		for (ArchiveManager archive : open) {
+			try {
+				Chapter chapter = archive.getChapter(id);
+				if (chapter != null) {
+					storeMedia(archive, chapter);
+					return chapter;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads all the chapters of a story out of its archive.
+	 */
+	private HashMap<UUID, Chapter> getArchivedChapters(
+			ArchiveManager archive, UUID storyId) {
+		HashMap<UUID, Chapter> chapters = new HashMap<UUID, Chapter>();
+		for (Object object : archive.retrieve(new Chapter(null, storyId,
+				null))) {
+			Chapter chapter = (Chapter) object;
+			storeMedia(archive, chapter);
+			chapters.put(chapter.getId(), chapter);
+		}
+		return chapters;
+	}
+
+	/**
+	 * Copies the contents of the chapter's media out of the archive into the
+	 * blob store, unless they are there already. Media whose contents can't
+	 * be copied are left without an image.
+	 */
+	private void storeMedia(ArchiveManager archive, Chapter chapter) {
+		BlobStore blobs = BlobStore.getInstance(context);
+		ArrayList<Media> media = new ArrayList<Media>(chapter.getPhotos());
+		media.addAll(chapter.getIllustrations());
+		for (Media m : media) {
+			if (m.getBlobHash() == null || blobs.contains(m.getBlobHash())) {
+				continue;
+			}
+			try {
+				InputStream in = archive.openContent(m);
+				if (in == null) {
+					continue;
+				}
+				try {
+					blobs.put(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Returns the chapter if it was prefetched, so it can be shown without
+	 * loading it. The chapter is no longer kept by the prefetcher.
+	 * 
+	 * @param id
+	 *            Id of the chapter wanted.
+	 * 
+	 * @return The complete chapter, or null if it wasn't prefetched.
+	 */
+	public Chapter getPrefetchedChapter(UUID id) {
+		return prefetcher.get(id);
+	}
+
+	/**
+	 * Starts prefetching the chapters the choices of the chapter lead to,
+	 * in the background.
+	 * 
+	 * @param chapter
+	 *            The complete chapter being shown.
+	 */
+	public void prefetchChoices(Chapter chapter) {
+		prefetcher.prefetch(chapter);
+	}
+
+	/**
+	 * Returns the prefetcher, to set how far ahead and how much it reads.
+	 */
+	public ChapterPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Brings the stories on the phone and their published copies on the
+	 * server up to date with each other, only moving what changed since the
+	 * last sync.
+	 * 
+	 * @return What the sync did.
+	 */
+	public SyncEngine.Result syncStories() throws IOException {
+		try {
+			return SyncEngine.getInstance(context).sync();
+		} finally {
+			prefetcher.clear();
+		}
+	}
+
 	/**
 	 * Updates either a story, chapter, or choice object. Must specify what type
 	 * of object it getting updated. Also, updates are happening to the database
@@ -319,5 +791,301 @@ public class SHController {
 	public void updateObject(Object object, ObjectType type) {
 		StoringManager sm = sf.getStoringManager(type);
 		sm.update(object);
+		invalidatePrefetched(object, type);
+	}
+
+	/**
+	 * Drops the prefetched chapter the written object belongs to, or all of
+	 * them when a story was written.
+	 */
+	private void invalidatePrefetched(Object object, ObjectType type) {
+		switch (type) {
+		case CHAPTER:
+			prefetcher.invalidate(((Chapter) object).getId());
+			break;
+		case CHOICE:
+			prefetcher.invalidate(((Choice) object).getCurrentChapter());
+			break;
+		case MEDIA:
+			prefetcher.invalidate(((Media) object).getChapterId());
+			break;
+		default:
+			prefetcher.clear();
+			break;
+		}
+	}
+
+	/**
+	 * Runs the task on a background thread, then hands its result (or the
+	 * exception it threw) to the callback on the main thread, unless the
+	 * task was cancelled first.
+	 * 
+	 * @param task
+	 * @param callback
+	 *            May be null if the caller only wants the future.
+	 * 
+	 * @return Future of the task, used to wait for or cancel it.
+	 */
+	private <T> Future<T> runAsync(Callable<T> task, final Callback<T> callback) {
+		FutureTask<T> future = new FutureTask<T>(task) {
+			@Override
+			protected void done() {
+				if (callback == null || isCancelled()) {
+					return;
+				}
+				final FutureTask<T> self = this;
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						// Could have been cancelled while waiting to be run
+						if (self.isCancelled()) {
+							return;
+						}
+						try {
+							callback.onResult(self.get());
+						} catch (ExecutionException e) {
+							Throwable cause = e.getCause();
+							callback.onError((cause instanceof Exception) 
+									? (Exception) cause : e);
+						} catch (InterruptedException e) {
+							callback.onError(e);
+						}
+					}
+				});
+			}
+		};
+		executor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Inserts an object in the background. Media should always be added this
+	 * way, since their image is copied into the blob store as they are
+	 * inserted. The result given to the callback is the inserted object.
+	 * 
+	 * @see #addObject(Object, ObjectType)
+	 */
+	public Future<Object> addObjectAsync(final Object object,
+			final ObjectType type, Callback<Object> callback) {
+		return runAsync(new Callable<Object>() {
+			@Override
+			public Object call() {
+				addObject(object, type);
+				return object;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Updates an object in the background. The result given to the callback
+	 * is the updated object.
+	 * 
+	 * @see #updateObject(Object, ObjectType)
+	 */
+	public Future<Object> updateObjectAsync(final Object object,
+			final ObjectType type, Callback<Object> callback) {
+		return runAsync(new Callable<Object>() {
+			@Override
+			public Object call() {
+				updateObject(object, type);
+				return object;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Gets all the stories of the given type in the background.
+	 * 
+	 * @see #getAllStories(ObjectType)
+	 */
+	public Future<ArrayList<Story>> getAllStoriesAsync(final ObjectType type,
+			Callback<ArrayList<Story>> callback) {
+		return runAsync(new Callable<ArrayList<Story>>() {
+			@Override
+			public ArrayList<Story> call() {
+				return getAllStories(type);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Gets all the chapters of a story in the background.
+	 * 
+	 * @see #getAllChapters(UUID)
+	 */
+	public Future<ArrayList<Chapter>> getAllChaptersAsync(final UUID storyId,
+			Callback<ArrayList<Chapter>> callback) {
+		return runAsync(new Callable<ArrayList<Chapter>>() {
+			@Override
+			public ArrayList<Chapter> call() {
+				return getAllChapters(storyId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Searches for stories in the background.
+	 * 
+	 * @see #searchStory(String, ObjectType)
+	 */
+	public Future<ArrayList<Story>> searchStoryAsync(final String title,
+			final ObjectType type, Callback<ArrayList<Story>> callback) {
+		return runAsync(new Callable<ArrayList<Story>>() {
+			@Override
+			public ArrayList<Story> call() {
+				return searchStory(title, type);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Retrieves a complete chapter in the background.
+	 * 
+	 * @see #getCompleteChapter(UUID)
+	 */
+	public Future<Chapter> getCompleteChapterAsync(final UUID id,
+			Callback<Chapter> callback) {
+		return runAsync(new Callable<Chapter>() {
+			@Override
+			public Chapter call() {
+				return getCompleteChapter(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Retrieves a complete story in the background.
+	 * 
+	 * @see #getCompleteStory(UUID)
+	 */
+	public Future<Story> getCompleteStoryAsync(final UUID id,
+			Callback<Story> callback) {
+		return runAsync(new Callable<Story>() {
+			@Override
+			public Story call() {
+				return getCompleteStory(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Retrieves a story, without its chapters, in the background.
+	 * 
+	 * @see #getStory(UUID)
+	 */
+	public Future<Story> getStoryAsync(final UUID id,
+			Callback<Story> callback) {
+		return runAsync(new Callable<Story>() {
+			@Override
+			public Story call() {
+				return getStory(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Saves a complete story in the background. The result given to the
+	 * callback is the story that was saved.
+	 * 
+	 * @see #saveCompleteStory(Story)
+	 */
+	public Future<Story> saveCompleteStoryAsync(final Story story,
+			Callback<Story> callback) {
+		return runAsync(new Callable<Story>() {
+			@Override
+			public Story call() {
+				saveCompleteStory(story);
+				return story;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Gets a page of stories in the background.
+	 * 
+	 * @see #getStoryPage(ObjectType, StoryPage, int)
+	 */
+	public Future<StoryPage> getStoryPageAsync(final ObjectType type,
+			final StoryPage previous, final int size,
+			Callback<StoryPage> callback) {
+		return runAsync(new Callable<StoryPage>() {
+			@Override
+			public StoryPage call() throws IOException {
+				return getStoryPage(type, previous, size);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Syncs the stories with the server in the background.
+	 * 
+	 * @see #syncStories()
+	 */
+	public Future<SyncEngine.Result> syncStoriesAsync(
+			Callback<SyncEngine.Result> callback) {
+		return runAsync(new Callable<SyncEngine.Result>() {
+			@Override
+			public SyncEngine.Result call() throws IOException {
+				return syncStories();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Exports a story to a file in the background. The result given to the
+	 * callback is whether the story was found. The file is only made if it
+	 * was.
+	 * 
+	 * @see #exportStory(UUID, OutputStream)
+	 */
+	public Future<Boolean> exportStoryAsync(final UUID id, final File file,
+			Callback<Boolean> callback) {
+		return runAsync(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws IOException {
+				Story story = StoryGraphLoader.getInstance(context)
+						.loadStory(id);
+				if (story == null) {
+					return false;
+				}
+				exportStory(story, file);
+				return true;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Opens a story archive in the background.
+	 * 
+	 * @see #openArchive(File)
+	 */
+	public Future<StoringManager> openArchiveAsync(final File file,
+			Callback<StoringManager> callback) {
+		return runAsync(new Callable<StoringManager>() {
+			@Override
+			public StoringManager call() throws IOException {
+				return openArchive(file);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Imports a story from a file in the background.
+	 * 
+	 * @see #importStory(InputStream)
+	 */
+	public Future<Story> importStoryAsync(final File file,
+			Callback<Story> callback) {
+		return runAsync(new Callable<Story>() {
+			@Override
+			public Story call() throws IOException {
+				InputStream in = new FileInputStream(file);
+				try {
+					return importStory(in);
+				} finally {
+					in.close();
+				}
+			}
+		}, callback);
 	}
 }
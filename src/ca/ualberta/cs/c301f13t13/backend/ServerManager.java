@@ -15,34 +15,87 @@
  * 
  */
 package ca.ualberta.cs.c301f13t13.backend;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import android.util.Base64;
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader.HitHandler;
 
 /**
  * 
  * Role: Interacts with the server by inserting, retrieving, updating, and
  * deleting story objects.
  * 
+ * Responses are asked for gzipped, and the documents sent are gzipped 
+ * while they are being sent, which shrinks the json of a story several 
+ * times over.
+ * 
+ * The contents of a story's media aren't in the story's json, only their
+ * blob hash. Each one is kept on the server as its own document, of another
+ * type next to the stories, under its hash. Publishing sends the contents
+ * the server doesn't have yet, and a phone that downloaded the story gets
+ * them when it first shows the media.
+ * 
  * CODE REUSE: This code was taken directly from 
  * URL: https://github.com/rayzhangcl/ESDemo/blob/master/ESDemo/src/ca/ualberta/cs/CMPUT301/chenlei/ESClient.java
  * Date: Nov. 4th, 2013 
@@ -54,17 +107,138 @@ import com.google.gson.reflect.TypeToken;
  * @author Stephanie Gil
  */
 public class ServerManager implements StoringManager{
-	private static HttpClient httpclient = null;		// Http Connector
-	private static Gson gson = null;					// JSON Utilities
+	private HttpClient httpclient = null;		// Http Connector
+	private Gson gson = null;					// JSON Utilities
+	private String server = null;
+	private String scrollUrl = null;
+	private String blobUrl = null;
+	private ESResponseReader<Story> storyReader = null;
+	private volatile boolean compressRequests = true;
 	private static ServerManager self = null;
-	private static final String server = "http://cmput301.softwareprocess.es:8080/cmput301f13t13/";
+	private static final String SERVER = "http://cmput301.softwareprocess.es:8080/cmput301f13t13/stories/";
+
+	// CONNECTION POOL SETTINGS
+	public static final int MAX_CONNECTIONS = 8;
+	public static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	public static final int CONNECT_TIMEOUT = 10000;		// ms
+	public static final int READ_TIMEOUT = 30000;			// ms
+	public static final long KEEP_ALIVE = 30000;			// ms
+
+	// SCROLL SETTINGS
+	public static final int SCROLL_BATCH_SIZE = 50;		// per shard
+	public static final String SCROLL_KEEP_ALIVE = "1m";
+	public static final int MAX_RETRIEVED = 500;		// stories
+
+	/**
+	 * Fields of a story sent back when listing stories, which is everything 
+	 * but its chapters.
+	 */
+	static final String SUMMARY_SOURCE = "{\"include\" : [\"id\", "
+			+ "\"title\", \"author\", \"description\", \"firstChapterId\", "
+			+ "\"phoneId\"]}";
+
+	/**
+	 * Gets told about every batch of stories of a scroll, in order.
+	 */
+	public interface BatchHandler<T> {
+		/**
+		 * @return false to stop scrolling.
+		 */
+		boolean onBatch(ArrayList<T> batch);
+	}
 	
 	protected ServerManager() {
-		httpclient = new DefaultHttpClient();
-		gson = new Gson();
+		this(SERVER);
+	}
+
+	/**
+	 * Initializes a ServerManager talking to the given server. All requests
+	 * share one pool of persistent connections, so the ServerManager can be
+	 * used from several threads at once.
+	 * 
+	 * @param server
+	 *            Url of the index and type the stories are kept in (so a 
+	 *            story's url is this followed by its id), ending in a slash.
+	 */
+	protected ServerManager(String server) {
+		this.server = server;
+		// Scrolls are continued at the root of the server, not the index
+		scrollUrl = URI.create(server).resolve("/_search/scroll").toString();
+		blobUrl = getBlobUrl(server);
+		gson = StoryGson.getDocumentInstance();
+		storyReader = new ESResponseReader<Story>(gson, 
+				new TypeToken<SimpleESResponse<Story>>(){}.getType());
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+		HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT);
+		ConnManagerParams.setTimeout(params, CONNECT_TIMEOUT);
+		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+		ConnManagerParams.setMaxConnectionsPerRoute(params,
+				new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", 
+				PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", 
+				SSLSocketFactory.getSocketFactory(), 443));
+
+		DefaultHttpClient client = new DefaultHttpClient(
+				new ThreadSafeClientConnManager(params, registry), params);
+		client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response,
+					HttpContext context) {
+				// Use the server's keep alive timeout if it sent one
+				HeaderElementIterator it = new BasicHeaderElementIterator(
+						response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+				while (it.hasNext()) {
+					HeaderElement he = it.nextElement();
+					if (he.getName().equalsIgnoreCase("timeout")
+							&& he.getValue() != null) {
+						try {
+							return Long.parseLong(he.getValue()) * 1000;
+						} catch (NumberFormatException e) {
+							break;
+						}
+					}
+				}
+				return KEEP_ALIVE;
+			}
+		});
+		// Ask for compressed responses, and uncompress them as they are read
+		client.addRequestInterceptor(new HttpRequestInterceptor() {
+			@Override
+			public void process(HttpRequest request, HttpContext context)
+					throws HttpException, IOException {
+				if (!request.containsHeader("Accept-Encoding")) {
+					request.addHeader("Accept-Encoding", "gzip");
+				}
+			}
+		});
+		client.addResponseInterceptor(new HttpResponseInterceptor() {
+			@Override
+			public void process(HttpResponse response, HttpContext context)
+					throws HttpException, IOException {
+				HttpEntity entity = response.getEntity();
+				if (entity == null || entity.getContentEncoding() == null) {
+					return;
+				}
+				for (HeaderElement encoding : entity.getContentEncoding()
+						.getElements()) {
+					if (encoding.getName().equalsIgnoreCase("gzip")) {
+						response.setEntity(new GunzipEntity(entity));
+						return;
+					}
+				}
+			}
+		});
+		httpclient = client;
 	}
 	
-	public static ServerManager getInstance() {
+	public static synchronized ServerManager getInstance() {
 		if (self == null) {
 			self = new ServerManager();
 		}
@@ -77,55 +251,189 @@ public class ServerManager implements StoringManager{
 	@Override
 	public void insert(Object object){
 		Story story = (Story) object;
-		HttpPost httpPost = new HttpPost(server + story.getId().toString());
-
-		StringEntity stringentity = null;
 		try {
-			stringentity = new StringEntity(gson.toJson(story));
-		} catch (UnsupportedEncodingException e) {
+			int status = indexDocument(story.getId(), 
+					getDocumentEntity(story, Story.class));
+			
+			// The whole story was sent, so the server is up to date
+			if (status < 300) {
+				story.clearChanges();
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
+	}
+
+	/**
+	 * Puts the json of a story on the server under the story's id, 
+	 * replacing whatever was there.
+	 * 
+	 * @return The http status the server answered with.
+	 */
+	int indexDocument(UUID id, String json) throws IOException {
+		return indexDocument(id, getDocumentEntity(json));
+	}
+
+	private int indexDocument(UUID id, HttpEntity entity) throws IOException {
+		HttpPost httpPost = new HttpPost(server + id.toString());
 		httpPost.setHeader("Accept","application/json");
+		httpPost.setEntity(entity);
 
-		httpPost.setEntity(stringentity);
 		HttpResponse response = null;
 		try {
 			response = httpclient.execute(httpPost);
-		} catch (ClientProtocolException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			System.out.println(response.getStatusLine().toString());
+			return response.getStatusLine().getStatusCode();
+		} finally {
+			release(httpPost, response);
 		}
+	}
+	
+	/**
+	 * Returns the url the media contents are kept under, which is the url of
+	 * the stories with the type changed to blobs.
+	 */
+	private static String getBlobUrl(String server) {
+		URI uri = URI.create(server);
+		String path = uri.getPath();
+		String index = "/";
+		if (path.length() > 1) {
+			index = path.substring(0, path.lastIndexOf('/', 
+					path.length() - 2) + 1);
+		}
+		return uri.resolve(index + "blobs/").toString();
+	}
 
-		String status = response.getStatusLine().toString();
-		System.out.println(status);
-		
-		HttpEntity entity = response.getEntity();
-		InputStreamReader is = null;
+	/**
+	 * Puts the contents of the chapters' media on the server, each under its
+	 * blob hash. Contents the server already has aren't sent again, and
+	 * neither are media whose contents aren't in the blob store.
+	 * 
+	 * @param chapters
+	 * @param blobs
+	 *            Where the contents are kept on the phone.
+	 * 
+	 * @return The http status of the first contents the server didn't take,
+	 *         or 200 if it took them all.
+	 */
+	int putBlobs(Collection<Chapter> chapters, BlobStore blobs) 
+				throws IOException {
+		HashSet<String> seen = new HashSet<String>();
+		for (Chapter chapter : chapters) {
+			ArrayList<Media> media = new ArrayList<Media>(chapter.getPhotos());
+			media.addAll(chapter.getIllustrations());
+			for (Media m : media) {
+				String hash = m.getBlobHash();
+				if (hash == null || !seen.add(hash) || !blobs.contains(hash)
+						|| hasBlob(hash)) {
+					continue;
+				}
+				int status = putBlob(hash, blobs);
+				if (status >= 300) {
+					return status;
+				}
+			}
+		}
+		return 200;
+	}
+
+	/**
+	 * Returns whether the server has the contents with the hash.
+	 */
+	private boolean hasBlob(String hash) throws IOException {
+		HttpHead headRequest = new HttpHead(blobUrl + hash);
+		HttpResponse response = null;
 		try {
-			is = new InputStreamReader(entity.getContent());
-		} catch (IllegalStateException e1) {
-			e1.printStackTrace();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+			response = httpclient.execute(headRequest);
+			return response.getStatusLine().getStatusCode() == 200;
+		} finally {
+			release(headRequest, response);
 		}
-		BufferedReader br = new BufferedReader(is);
-		
-		String output;
-		System.err.println("Output from Server -> ");
+	}
+
+	/**
+	 * Puts the contents with the hash on the server, Base64 encoded as they
+	 * are sent.
+	 * 
+	 * @return The http status the server answered with.
+	 */
+	private int putBlob(String hash, BlobStore blobs) throws IOException {
+		HttpPost httpPost = new HttpPost(blobUrl + hash);
+		httpPost.setHeader("Accept","application/json");
+		httpPost.setEntity(compress(new BlobEntity(hash, blobs)));
+
+		HttpResponse response = null;
+		try {
+			response = httpclient.execute(httpPost);
+			return response.getStatusLine().getStatusCode();
+		} finally {
+			release(httpPost, response);
+		}
+	}
+
+	/**
+	 * Gets the contents with the hash from the server and puts them in the
+	 * blob store, so a media of a downloaded story can be shown.
+	 * 
+	 * @param hash
+	 *            Blob hash of the media.
+	 * @param blobs
+	 * 
+	 * @return Whether the server had the contents.
+	 */
+	public boolean fetchBlob(String hash, BlobStore blobs) throws IOException {
+		HttpGet getRequest = new HttpGet(blobUrl + hash);
+		getRequest.addHeader("Accept","application/json");
+		HttpResponse response = null;
 		try {
-			while ((output = br.readLine()) != null) {
-				System.err.println(output);
+			response = httpclient.execute(getRequest);
+			if (response.getStatusLine().getStatusCode() != 200) {
+				return false;
 			}
-			entity.consumeContent();
-			is.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			String data = readBlobData(new JsonReader(
+					getEntityReader(response)));
+			if (data == null) {
+				return false;
+			}
+			byte[] contents = Base64.decode(data, Base64.DEFAULT);
+			data = null;
+			// Contents that don't match their hash are kept under their own
+			return hash.equals(blobs.put(new ByteArrayInputStream(contents)));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Media contents are damaged");
+		} finally {
+			release(getRequest, response);
 		}
 	}
-	
+
 	/**
-	 * Consumes the Get operation of the service
+	 * Reads the Base64 contents out of the server's answer for a blob.
+	 * 
+	 * @return The contents, or null if there were none.
+	 */
+	private static String readBlobData(JsonReader reader) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("_source")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("data")) {
+					return reader.nextString();
+				}
+				reader.skipValue();
+			}
+			reader.endObject();
+		}
+		return null;
+	}
+
+	/**
+	 * Consumes the Get operation of the service. Getting all the stories
+	 * only gets the first MAX_RETRIEVED, since they are all held at once;
+	 * use scrollAllStories to go through all of them.
 	 */
 	@Override
 	public ArrayList<Object> retrieve(Object criteria) {
@@ -133,7 +441,21 @@ public class ServerManager implements StoringManager{
 		ArrayList<Object> stories = new ArrayList<Object>();
 		
 		if (crit.getId() == null && crit.getTitle() == null) {
-			// get all stories
+			// get all stories, a batch at a time
+			final ArrayList<Object> all = stories;
+			try {
+				scrollAllStories(new BatchHandler<Story>() {
+					@Override
+					public boolean onBatch(ArrayList<Story> batch) {
+						int room = MAX_RETRIEVED - all.size();
+						all.addAll(batch.subList(0, 
+								Math.min(room, batch.size())));
+						return all.size() < MAX_RETRIEVED;
+					}
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		} else if (crit.getId() != null){
 			// search by id
 			stories.add(searchById(crit.getId().toString()));		
@@ -154,37 +476,21 @@ public class ServerManager implements StoringManager{
 	}
 
 	/**
-	 * search by story id
+	 * search by story id. Gets the whole story, with all its chapters.
 	 */
 	public Story searchById(String id) {
 		Story story = null;
-		try{
-			HttpGet getRequest = new HttpGet(server + id + "?pretty=1");
-
-			getRequest.addHeader("Accept","application/json");
+		HttpGet getRequest = new HttpGet(server + id);
+		getRequest.addHeader("Accept","application/json");
+		HttpResponse response = null;
 
-			HttpResponse response = httpclient.execute(getRequest);
+		try{
+			response = httpclient.execute(getRequest);
 
 			String status = response.getStatusLine().toString();
 			System.out.println(status);
 
-			String json = getEntityContent(response);
-
-			// We have to tell GSON what type we expect
-			Type simpleESResponseType = 
-					new TypeToken<SimpleESResponse<Story>>(){}.getType();
-			// Now we expect to get a Story response
-			SimpleESResponse<Story> esResponse = 
-					gson.fromJson(json, simpleESResponseType);
-			// We get the recipe from it!
-			story = esResponse.getSource();
-			System.out.println(story.toString());
-			
-			// NOT SURE THIS IS RIGHT OR NEEDED
-			HttpEntity entity = response.getEntity();
-			InputStreamReader is = new InputStreamReader(entity.getContent());
-			is.close();
-
+			story = storyReader.readDocument(getEntityReader(response));
 		} catch (ClientProtocolException e) {
 
 			e.printStackTrace();
@@ -192,18 +498,38 @@ public class ServerManager implements StoringManager{
 		} catch (IOException e) {
 
 			e.printStackTrace();
-		}		
+		} finally {
+			release(getRequest, response);
+		}
 		return story;
 	}
 	
 	/**
-	 * searches by keywords
+	 * searches by keywords. The stories found only have their summary
+	 * fields (no chapters), use searchById to get a whole story.
 	 * @throws IOException 
 	 * @throws ClientProtocolException 
 	 */ 
 	public ArrayList<Object> searchByKeywords(Story criteria) 
 				throws ClientProtocolException, IOException {
-		ArrayList<Object> stories = new ArrayList<Object>();
+		final ArrayList<Object> stories = new ArrayList<Object>();
+		searchByKeywords(criteria, new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				stories.add(story);
+			}
+		});
+		return stories;
+	}	
+
+	/**
+	 * searches by keywords, handing the summary of every story found to the
+	 * handler as soon as it has been read from the server's response.
+	 * @throws IOException 
+	 * @throws ClientProtocolException 
+	 */ 
+	public void searchByKeywords(Story criteria, HitHandler<Story> handler) 
+				throws ClientProtocolException, IOException {
 		HashMap<String, String> storyData = criteria.getSearchCriteria();
 		ArrayList<String> sargs = new ArrayList<String>();
 		
@@ -213,161 +539,612 @@ public class ServerManager implements StoringManager{
 		}
 		String selection = setSearchCriteria(criteria, sargs);
 		
-		HttpGet searchRequest = null;
-		searchRequest = new HttpGet(server + "_search?pretty=1&q=" + java.net.URLEncoder.encode(selection,"UTF-8"));
-		searchRequest.setHeader("Accept","application/json");
-		HttpResponse response = null;
-		
-		response = httpclient.execute(searchRequest);
-
-		String status = response.getStatusLine().toString();
-		System.out.println(status);
-
-		String json = null;
-		json = getEntityContent(response);
+		String query = "{\"query_string\" : {\"query\" : " 
+				+ gson.toJson(selection) + "}}";
+		searchSummaries(query, -1, -1, handler);
+	}	
 
-		Type elasticSearchResponseType = 
-				new TypeToken<ElasticSearchResponse<Story>>(){}.getType();
-		ElasticSearchResponse<Story> esResponse = 
-				gson.fromJson(json, elasticSearchResponseType);
-		System.err.println(esResponse);
-		for (SimpleESResponse<Story> r : esResponse.getHits()) {
-			Story story = r.getSource();
-			stories.add(story);
-		}
-		
-		// NOT SURE THIS IS RIGHT OR NEEDED
-		HttpEntity entity = response.getEntity();
-		InputStreamReader is;
-		try {
-			is = new InputStreamReader(entity.getContent());
-			is.close();
-		} catch (IllegalStateException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * advanced search (logical operators). The stories found only have their
+	 * summary fields (no chapters), use searchById to get a whole story.
+	 */
+	public ArrayList<Object> searchStories(Story criteria) 
+				throws ClientProtocolException, IOException {
+		final ArrayList<Object> stories = new ArrayList<Object>();
+		searchStories(criteria, new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				stories.add(story);
+			}
+		});
 		return stories;
 	}	
 
 	/**
-	 * advanced search (logical operators)
+	 * advanced search (logical operators), handing the summary of every
+	 * story found to the handler as soon as it has been read from the
+	 * server's response.
 	 */
-	public ArrayList<Object> searchStories(Story criteria) 
+	public void searchStories(Story criteria, HitHandler<Story> handler) 
 				throws ClientProtocolException, IOException {
-		ArrayList<Object> stories = new ArrayList<Object>();
-		
 		String selection = setSearchCriteria(criteria, null);
 		
-		HttpPost searchRequest = new HttpPost(server + "_search?pretty=1");
-		String query = 	"{\"query\" : {\"query_string\" : {\"default_field\"" 
-				+ " : \"title\",\"query\" : \"" + selection + "\"}}}";
-		StringEntity stringentity = new StringEntity(query);
+		String query = "{\"query_string\" : {\"default_field\" : "
+				+ "\"title\", \"query\" : " + gson.toJson(selection) + "}}";
+		searchSummaries(query, -1, -1, handler);
+	}	
 
+	/**
+	 * Gets one page of all the published stories. Pages are asked for by 
+	 * how many stories came before them (from/size), one more story than 
+	 * fits on the page being asked for to know if there is another page.
+	 * 
+	 * @param previous
+	 *            Page before the one wanted, or null for the first page.
+	 * @param size
+	 *            Most stories on the page.
+	 */
+	public StoryPage retrievePage(StoryPage previous, int size) 
+				throws ClientProtocolException, IOException {
+		int from = (previous == null) ? 0 : previous.getEnd();
+		final ArrayList<Story> stories = new ArrayList<Story>();
+		
+		searchSummaries("{\"match_all\" : {}}", from, size + 1, 
+				new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				stories.add(story);
+			}
+		});
+
+		boolean hasMore = stories.size() > size;
+		if (hasMore) {
+			stories.remove(size);
+		}
+		return new StoryPage(stories, hasMore, from + stories.size());
+	}
+
+	/**
+	 * Goes through all the published stories with a scan and scroll search, 
+	 * handing them to the handler a batch at a time. Only one batch is read
+	 * at a time, and only the summary fields of the stories (no chapters)
+	 * are sent by the server, so going through many stories doesn't need 
+	 * more memory than going through a few.
+	 * 
+	 * @param handler
+	 *            Told about every batch. Can stop the scroll early.
+	 */
+	public void scrollAllStories(BatchHandler<Story> handler) 
+				throws IOException {
+		final ArrayList<Story> batch = new ArrayList<Story>();
+		HitHandler<Story> collect = new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				batch.add(asSummary(story));
+			}
+		};
+		
+		HttpPost searchRequest = new HttpPost(server 
+				+ "_search?search_type=scan&scroll=" + SCROLL_KEEP_ALIVE);
+		String query = "{\"size\" : " + SCROLL_BATCH_SIZE 
+				+ ", \"_source\" : " + SUMMARY_SOURCE 
+				+ ", \"query\" : {\"match_all\" : {}}}";
 		searchRequest.setHeader("Accept","application/json");
-		searchRequest.setEntity(stringentity);
+		searchRequest.setEntity(new StringEntity(query));
+		
+		// A scan search has no hits in its first response, only the id to
+		// scroll with
+		String scrollId = scroll(searchRequest, collect);
+		while (scrollId != null) {
+			HttpPost scrollRequest = new HttpPost(scrollUrl + "?scroll=" 
+					+ SCROLL_KEEP_ALIVE);
+			scrollRequest.setHeader("Accept","application/json");
+			scrollRequest.setEntity(new StringEntity(scrollId));
+			scrollId = scroll(scrollRequest, collect);
+			
+			if (batch.isEmpty()) {
+				// The server has nothing left, and has already let go of 
+				// the scroll
+				return;
+			}
+			boolean more = handler.onBatch(new ArrayList<Story>(batch));
+			batch.clear();
+			if (!more) {
+				clearScroll(scrollId);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs one request of a scroll, handing its hits to the handler, and
+	 * returns the scroll id to continue with.
+	 */
+	private String scroll(HttpUriRequest request, HitHandler<Story> handler) 
+				throws IOException {
+		HttpResponse response = null;
+		try {
+			response = httpclient.execute(request);
+			int status = response.getStatusLine().getStatusCode();
+			if (status >= 300) {
+				throw new IOException("Scroll failed: " 
+						+ response.getStatusLine());
+			}
+			return storyReader.readScroll(getEntityReader(response), handler);
+		} finally {
+			release(request, response);
+		}
+	}
+
+	/**
+	 * Tells the server it can let go of a scroll that won't be finished. 
+	 * The server lets go of it anyway once it times out, so failing to
+	 * tell it is not an error.
+	 */
+	private void clearScroll(String scrollId) {
+		if (scrollId == null) {
+			return;
+		}
+		HttpDelete deleteRequest = null;
+		HttpResponse response = null;
+		try {
+			deleteRequest = new HttpDelete(scrollUrl + "/" 
+					+ URLEncoder.encode(scrollId, HTTP.UTF_8));
+			response = httpclient.execute(deleteRequest);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (deleteRequest != null) {
+				release(deleteRequest, response);
+			}
+		}
+	}
 
-		HttpResponse response = httpclient.execute(searchRequest);
-		String status = response.getStatusLine().toString();
-		System.out.println(status);
+	/**
+	 * Makes a story decoded from its summary fields usable as a story with
+	 * no chapters loaded.
+	 */
+	private static Story asSummary(Story story) {
+		if (story.getChapters() == null) {
+			story.setChapters(new HashMap<UUID, Chapter>());
+			story.clearChanges();
+		}
+		return story;
+	}
 
-		String json = getEntityContent(response);
+	/**
+	 * Runs a search for the stories matching the query, asking the server 
+	 * to only send back their summary fields, and streams the stories in 
+	 * the response to the handler.
+	 * 
+	 * @param query
+	 *            Json of the query part of the search.
+	 * @param from
+	 *            Number of stories to skip, or -1 for the server's default.
+	 * @param size
+	 *            Most stories to get, or -1 for the server's default.
+	 * @param handler
+	 */
+	private void searchSummaries(String query, int from, int size, 
+			final HitHandler<Story> handler) throws IOException {
+		String body = "{\"_source\" : " + SUMMARY_SOURCE;
+		if (from >= 0) {
+			body += ", \"from\" : " + from;
+		}
+		if (size >= 0) {
+			body += ", \"size\" : " + size;
+		}
+		body += ", \"query\" : " + query + "}";
+		search(body, new HitHandler<Story>() {
+			@Override
+			public void onHit(Story story) {
+				handler.onHit(asSummary(story));
+			}
+		});
+	}
 
-		Type elasticSearchSearchResponseType 
-				= new TypeToken<ElasticSearchResponse<Story>>(){}.getType();
-		ElasticSearchResponse<Story> esResponse = gson.fromJson(json, 
-				elasticSearchSearchResponseType);
-		System.err.println(esResponse);
-		for (SimpleESResponse<Story> r : esResponse.getHits()) {
-			Story story = r.getSource();
-			stories.add(story);
+	/**
+	 * Gets the whole stories, out of the ones with the given ids, that were
+	 * changed after the given time, handing them to the handler as they are
+	 * read. A story was changed when it or any of its chapters was, which
+	 * its document keeps in StoryGson.CHANGED_AT. Documents written before
+	 * that was kept are found by the story's own time, and stories published
+	 * before either was kept have no time, and are never found.
+	 * 
+	 * @param ids
+	 *            Ids of the stories to look at.
+	 * @param since
+	 *            Time in milliseconds.
+	 * @param handler
+	 */
+	public void searchChangedSince(List<UUID> ids, long since, 
+			HitHandler<Story> handler) throws IOException {
+		if (ids.isEmpty()) {
+			return;
 		}
+		String body = "{\"size\" : " + ids.size() + ", \"query\" : "
+				+ "{\"filtered\" : {\"query\" : {\"ids\" : {\"values\" : "
+				+ gson.toJson(ids) + "}}, \"filter\" : {\"or\" : [" 
+				+ "{\"range\" : {\"" + StoryGson.CHANGED_AT + "\" : {\"gt\" : "
+				+ since + "}}}, {\"range\" : {\"updatedAt\" : {\"gt\" : " 
+				+ since + "}}}]}}}}";
+		search(body, handler);
+	}
+
+	/**
+	 * Runs a search with the given body, and streams the stories in the 
+	 * response to the handler.
+	 */
+	private void search(String body, HitHandler<Story> handler) 
+				throws IOException {
+		HttpPost searchRequest = new HttpPost(server + "_search");
+		searchRequest.setHeader("Accept","application/json");
+		searchRequest.setEntity(new StringEntity(body, HTTP.UTF_8));
 		
-		return stories;
-	}	
+		HttpResponse response = null;
+		try {
+			response = httpclient.execute(searchRequest);
+			String status = response.getStatusLine().toString();
+			System.out.println(status);
+
+			storyReader.readHits(getEntityReader(response), handler);
+		} finally {
+			release(searchRequest, response);
+		}
+	}
 
 	/**
-	 * update a field in a recipe
+	 * Saves the changes made to a published story since it was last saved,
+	 * with the server's partial update. Only the story fields that were 
+	 * changed, the chapters that were added, and the changed fields of the
+	 * other chapters are sent, which the server merges into the story it 
+	 * has. Nothing is sent if nothing was changed.
 	 */
 	@Override
 	public void update(Object object) { 
-		// retrieve current story with id
-		// delete
-		// re insert
+		Story story = (Story) object;
+		JsonObject doc = getChangesDocument(story);
+		if (doc.entrySet().isEmpty()) {
+			return;
+		}
+		JsonObject body = new JsonObject();
+		body.add("doc", doc);
 		
-//		Story story = (Story) object;
-//		
-//		HttpPost updateRequest = new HttpPost(server + "/1/_update");
-//
-//		ArrayList<Object> stories = new ArrayList<Object>();
-//		HashMap<String, String> storyData = story.getSearchCriteria();
-//		ArrayList<String> sargs = new ArrayList<String>();
-//		
-//		// setting selection string
-//		for (String key: storyData.keySet()) {
-//			sargs.add(storyData.get(key));
-//		}
-//		String selection = setSearchCriteria(story, sargs);
-//		
-//		String query = 	"{\"script\" : \"ctx._source." + str + "}";
-//		StringEntity stringentity = new StringEntity(query);
-//		
-//		updateRequest.setHeader("Accept","application/json");
-//		updateRequest.setEntity(stringentity);
-//
-//		HttpResponse response = httpclient.execute(updateRequest);
-//		String status = response.getStatusLine().toString();
-//		System.out.println(status);
-//
-//		String json = getEntityContent(response);
-//		
-//		// NOT SURE THIS IS RIGHT OR NEEDED
-//		HttpEntity entity = response.getEntity();
-//		InputStreamReader is = new InputStreamReader(entity.getContent());
-//		is.close();
+		HttpPost updateRequest = new HttpPost(server + story.getId() 
+				+ "/_update");
+		updateRequest.setHeader("Accept","application/json");
+		HttpResponse response = null;
+		try {
+			updateRequest.setEntity(getDocumentEntity(body, JsonObject.class));
+			response = httpclient.execute(updateRequest);
+			String status = response.getStatusLine().toString();
+			System.out.println(status);
+			
+			// Changes that failed to save are kept to be sent again
+			if (response.getStatusLine().getStatusCode() < 300) {
+				story.clearChanges();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			release(updateRequest, response);
+		}
 	}	
 
+	/**
+	 * Makes the partial document of the changes made to a story. Chapters 
+	 * are kept in a json object keyed by their ids, so a chapter's changes 
+	 * are merged into that chapter alone.
+	 */
+	JsonObject getChangesDocument(Story story) {
+		JsonObject doc = new JsonObject();
+		for (Map.Entry<String, Object> change : story.getChanges().entrySet()) {
+			doc.add(change.getKey(), gson.toJsonTree(change.getValue()));
+		}
+		// Unless all the chapters were replaced, and are all in the document
+		if (!doc.has("chapters")) {
+			JsonObject chapters = new JsonObject();
+			for (Chapter chapter : story.getChapters().values()) {
+				String id = chapter.getId().toString();
+				if (story.isAddedChapter(chapter.getId())) {
+					chapters.add(id, gson.toJsonTree(chapter));
+					continue;
+				}
+				HashMap<String, Object> changes = chapter.getChanges();
+				if (changes.isEmpty()) {
+					continue;
+				}
+				JsonObject chapterDoc = new JsonObject();
+				for (Map.Entry<String, Object> change : changes.entrySet()) {
+					chapterDoc.add(change.getKey(), 
+							gson.toJsonTree(change.getValue()));
+				}
+				chapters.add(id, chapterDoc);
+			}
+			if (!chapters.entrySet().isEmpty()) {
+				doc.add("chapters", chapters);
+			}
+		}
+		// Syncing phones find the story by its latest change
+		if (!doc.entrySet().isEmpty()) {
+			doc.addProperty(StoryGson.CHANGED_AT, 
+					SyncEngine.getLatestChange(story));
+		}
+		return doc;
+	}
+
+	/**
+	 * Publishes all the stories with as few requests as possible, through a
+	 * BulkPublisher.
+	 * 
+	 * @return The stories the server turned down.
+	 */
+	public ArrayList<BulkPublisher.Failure> insertAll(List<Story> stories) 
+				throws IOException {
+		BulkPublisher publisher = new BulkPublisher(this);
+		for (Story story : stories) {
+			publisher.index(story);
+		}
+		return publisher.flush();
+	}
+
 	/**
 	 * delete an entry specified by the id
 	 */
 	public void deleteStory(Object object) throws IOException {
 		Story story = (Story) object;
-		HttpDelete httpDelete = new HttpDelete(server 
-				+ story.getId().toString());
+		deleteDocument(story.getId());
+	}
+
+	/**
+	 * Deletes the story with the id from the server.
+	 * 
+	 * @return The http status the server answered with, which is 404 if 
+	 *         there was no such story.
+	 */
+	int deleteDocument(UUID id) throws IOException {
+		HttpDelete httpDelete = new HttpDelete(server + id.toString());
 		httpDelete.addHeader("Accept","application/json");
 
-		HttpResponse response = httpclient.execute(httpDelete);
+		HttpResponse response = null;
+		try {
+			response = httpclient.execute(httpDelete);
+			System.out.println(response.getStatusLine().toString());
+			return response.getStatusLine().getStatusCode();
+		} finally {
+			release(httpDelete, response);
+		}
+	}
 
-		String status = response.getStatusLine().toString();
-		System.out.println(status);
+	/**
+	 * Sets whether the documents sent to the server (published stories,
+	 * updates and bulk requests) are gzipped. They are unless turned off,
+	 * for servers that don't take compressed requests.
+	 * 
+	 * @param compress
+	 */
+	public void setCompressRequests(boolean compress) {
+		compressRequests = compress;
+	}
 
-		HttpEntity entity = response.getEntity();
-		InputStreamReader is = new InputStreamReader(entity.getContent());
-		BufferedReader br = new BufferedReader(is);
-		String output;
-		System.err.println("Output from Server -> ");
-		while ((output = br.readLine()) != null) {
-			System.err.println(output);
+	/**
+	 * Returns whether the documents sent to the server are gzipped.
+	 */
+	public boolean getCompressRequests() {
+		return compressRequests;
+	}
+
+	/**
+	 * Makes the body of a request sending a json document, gzipped unless
+	 * compressing requests was turned off. Requests that aren't documents,
+	 * like searches, are small enough to be sent as they are.
+	 */
+	HttpEntity getDocumentEntity(String json) throws IOException {
+		StringEntity entity = new StringEntity(json, HTTP.UTF_8);
+		entity.setContentType("application/json; charset=UTF-8");
+		return compress(entity);
+	}
+
+	/**
+	 * Makes the body of a request sending an object as a json document. The
+	 * json is written straight into the request as it is sent (through the
+	 * gzip stream, if requests are compressed), instead of being made into a
+	 * string first.
+	 */
+	HttpEntity getDocumentEntity(Object document, Type type) {
+		return compress(new JsonEntity(document, type));
+	}
+
+	/**
+	 * Returns the entity gzipped as it is sent, unless compressing requests
+	 * was turned off.
+	 */
+	HttpEntity compress(HttpEntity entity) {
+		return compressRequests ? new GzipEntity(entity) : entity;
+	}
+
+	HttpClient getHttpClient() {
+		return httpclient;
+	}
+	
+	Gson getGson() {
+		return gson;
+	}
+	
+	String getServerUrl() {
+		return server;
+	}
+
+	/**
+	 * get a reader over the body of the http response
+	 */
+	Reader getEntityReader(HttpResponse response) throws IOException {
+		return new InputStreamReader(response.getEntity().getContent(), 
+				HTTP.UTF_8);
+	}
+
+	/**
+	 * Hands the connection of a finished request back to the pool. Whatever
+	 * is left of the response is read so the connection can be kept alive
+	 * and reused. If that fails, the request is aborted and its connection
+	 * closed instead.
+	 * 
+	 * @param request
+	 * @param response
+	 *            May be null if the request failed before getting one.
+	 */
+	void release(HttpUriRequest request, HttpResponse response) {
+		if (response == null || response.getEntity() == null) {
+			request.abort();
+			return;
+		}
+		try {
+			response.getEntity().consumeContent();
+		} catch (IOException e) {
+			request.abort();
+		}
+	}
+
+	/**
+	 * Writes an object as json while the request is being sent.
+	 */
+	private class JsonEntity extends AbstractHttpEntity {
+		private Object document;
+		private Type type;
+
+		JsonEntity(Object document, Type type) {
+			this.document = document;
+			this.type = type;
+			setContentType("application/json; charset=UTF-8");
+			setChunked(true);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			Writer writer = new OutputStreamWriter(out, HTTP.UTF_8);
+			gson.toJson(document, type, writer);
+			writer.flush();
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public InputStream getContent() {
+			throw new UnsupportedOperationException(
+					"The body is only ever written");
 		}
-		
-		entity.consumeContent();
-		
-		is.close();
 	}
 
 	/**
-	 * get the http response and return json string
+	 * Writes the contents of a blob as a json document, Base64 encoding them
+	 * a piece at a time while the request is being sent.
 	 */
-	String getEntityContent(HttpResponse response) throws IOException {
-		BufferedReader br = new BufferedReader(
-				new InputStreamReader(response.getEntity().getContent()));
-		String output;
-		System.err.println("Output from Server -> ");
-		String json = "";
-		while ((output = br.readLine()) != null) {
-			System.err.println(output);
-			json += output;
+	private static class BlobEntity extends AbstractHttpEntity {
+		// A multiple of 3, so the pieces encode without padding in between
+		private static final int PIECE = 3 * 4096;
+		private String hash;
+		private BlobStore blobs;
+
+		BlobEntity(String hash, BlobStore blobs) {
+			this.hash = hash;
+			this.blobs = blobs;
+			setContentType("application/json; charset=UTF-8");
+			setChunked(true);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			InputStream in = blobs.open(hash);
+			try {
+				out.write("{\"data\":\"".getBytes(HTTP.UTF_8));
+				byte[] piece = new byte[PIECE];
+				int length;
+				while ((length = readPiece(in, piece)) > 0) {
+					out.write(Base64.encode(piece, 0, length, 
+							Base64.NO_WRAP));
+				}
+				out.write("\"}".getBytes(HTTP.UTF_8));
+				out.flush();
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Fills the piece unless the contents end first.
+		 * 
+		 * @return How much of the piece was filled.
+		 */
+		private static int readPiece(InputStream in, byte[] piece) 
+					throws IOException {
+			int length = 0;
+			int read;
+			while (length < piece.length 
+					&& (read = in.read(piece, length, 
+							piece.length - length)) > 0) {
+				length += read;
+			}
+			return length;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+
+		@Override
+		public InputStream getContent() {
+			throw new UnsupportedOperationException(
+					"The body is only ever written");
+		}
+	}
+
+	/**
+	 * Uncompresses a gzipped response as it is read.
+	 */
+	private static class GunzipEntity extends HttpEntityWrapper {
+		GunzipEntity(HttpEntity entity) {
+			super(entity);
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new GZIPInputStream(wrappedEntity.getContent());
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			// Already taken care of
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return -1;
 		}
-		System.err.println("JSON:"+json);
-		return json;
 	}
 
 	@Override
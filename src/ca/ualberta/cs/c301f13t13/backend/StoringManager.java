@@ -21,6 +21,10 @@ import java.util.ArrayList;
 /**
  * Interface for storing objects locally (to the database).
  * 
+ * Some managers can only be read from, like the ArchiveManager reading a
+ * story archive. Their insert and update throw an
+ * UnsupportedOperationException.
+ * 
  * @author Stephanie Gil
  * @author Ashley Brown
  * 
@@ -29,6 +33,7 @@ import java.util.ArrayList;
  * @see ChoiceManager
  * @see MediaManager
  * @see ServerManager
+ * @see ArchiveManager
  */
 public interface StoringManager {
 
@@ -36,6 +41,9 @@ public interface StoringManager {
 	 * Inserts an object into a storage place.
 	 * 
 	 * @param object
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             If the storage place is read only.
 	 */
 	public void insert(Object object);
 
@@ -52,6 +60,9 @@ public interface StoringManager {
 	 * Updates an object in the storage place.
 	 * 
 	 * @param newObject
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             If the storage place is read only.
 	 */
 	public void update(Object newObject);
 
@@ -15,10 +15,17 @@
  */
 package ca.ualberta.cs.c301f13t13.backend;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Locale;
 import java.util.UUID;
 
 import android.graphics.Bitmap;
@@ -29,10 +36,41 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
  * title, description, the id of the first chapter, a collection of
  * chapters belonging to it, the id of the phone it was created on.
  * 
+ * The story remembers which of its fields were changed and which chapters
+ * were added since it was last saved, so saving it to the server only has
+ * to send those. It also keeps the time it was last changed on a phone,
+ * which is used to tell which copy of a story is newer when syncing.
+ * 
+ * A story can also be given a ChapterLoader instead of all its chapters.
+ * Chapters are then loaded the first time they are asked for, and only the
+ * MAX_LOADED_CHAPTERS most recently used are kept, so opening a story only
+ * has to load the story itself. Once all the chapters are asked for, they
+ * are all kept and the loader is dropped.
+ * 
  * @author Stephanie Gil
  * @author Ashley Brown
  */
 public class Story implements Serializable {
+	/**
+	 * Most chapters kept by a story that loads its chapters when needed.
+	 * Chapters with changes that weren't saved are always kept.
+	 */
+	public static final int MAX_LOADED_CHAPTERS = 16;
+
+	/**
+	 * Loads the chapters of a story when they are asked for.
+	 */
+	public interface ChapterLoader {
+		/**
+		 * Returns a complete chapter, or null if there is no such chapter.
+		 */
+		Chapter loadChapter(UUID chapterId);
+
+		/**
+		 * Returns all the complete chapters of a story, keyed by chapter id.
+		 */
+		HashMap<UUID, Chapter> loadChapters(UUID storyId);
+	}
 
 	private UUID id;
 	private String author;
@@ -41,6 +79,18 @@ public class Story implements Serializable {
 	private UUID firstChapterId;
 	private HashMap<UUID, Chapter> chapters;
 	private String phoneId;
+	private long updatedAt;
+
+	// Names of the fields changed since the story was last saved, and the 
+	// ids of the chapters added. Made when first needed, and never saved.
+	private transient HashSet<String> changedFields;
+	private transient HashSet<UUID> addedChapters;
+
+	// Set when the chapters are loaded as needed. The chapters then only
+	// holds the ones added, and the ones loaded are kept, most recently
+	// used last, separately.
+	private transient ChapterLoader loader;
+	private transient LinkedHashMap<UUID, Chapter> loaded;
 
 	/**
 	 * Initializes a new story object without need an id as an argument.
@@ -165,11 +215,18 @@ public class Story implements Serializable {
 //	}
 
 	/**
-	 * Returns the chapters of the story.
+	 * Returns the chapters of the story. If the story loads its chapters
+	 * when needed, they are all loaded the first time, and from then on the
+	 * story holds them all like any other story.
 	 * 
 	 * @return chapters
 	 */
 	public HashMap<UUID, Chapter> getChapters() {
+		if (loader != null) {
+			chapters = loadAll();
+			loader = null;
+			loaded = null;
+		}
 		return this.chapters;
 	}
 
@@ -189,6 +246,17 @@ public class Story implements Serializable {
 	 */
 	public Chapter getChapter(UUID id) {
 		Chapter chap = chapters.get(id);
+		if (chap == null && loader != null && id != null) {
+			chap = loaded.get(id);
+			if (chap == null) {
+				chap = loader.loadChapter(id);
+				if (chap != null && this.id.equals(chap.getStoryId())) {
+					keepLoaded(chap);
+				} else {
+					chap = null;
+				}
+			}
+		}
 		return chap;
 	}
 
@@ -201,6 +269,16 @@ public class Story implements Serializable {
 		return this.phoneId;
 	}
 
+	/**
+	 * Returns the time (in milliseconds) the story itself was last changed
+	 * on a phone, or 0 if it never was since this was kept.
+	 * 
+	 * @return updatedAt
+	 */
+	public long getUpdatedAt() {
+		return this.updatedAt;
+	}
+
 	// SETTERS
 
 	/**
@@ -219,6 +297,7 @@ public class Story implements Serializable {
 	 */
 	public void setTitle(String title) {
 		this.title = title;
+		markChanged("title");
 	}
 
 	/**
@@ -228,6 +307,7 @@ public class Story implements Serializable {
 	 */
 	public void setAuthor(String author) {
 		this.author = author;
+		markChanged("author");
 	}
 
 	/**
@@ -237,6 +317,7 @@ public class Story implements Serializable {
 	 */
 	public void setDescription(String description) {
 		this.description = description;
+		markChanged("description");
 	}
 
 	/**
@@ -246,6 +327,7 @@ public class Story implements Serializable {
 	 */
 	public void setFirstChapterId(UUID chapterId) {
 		firstChapterId = chapterId;
+		markChanged("firstChapterId");
 	}
 
 	/**
@@ -255,6 +337,27 @@ public class Story implements Serializable {
 	 */
 	public void setChapters(HashMap<UUID, Chapter> chapters) {
 		this.chapters = chapters;
+		loader = null;
+		loaded = null;
+		markChanged("chapters");
+	}
+
+	/**
+	 * Makes the story load its chapters when they are asked for, instead of
+	 * holding them all. Chapters already added are kept.
+	 * 
+	 * @param loader
+	 */
+	public void setChapterLoader(ChapterLoader loader) {
+		this.loader = loader;
+		loaded = new LinkedHashMap<UUID, Chapter>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns whether the story loads its chapters when they are asked for.
+	 */
+	public boolean hasChapterLoader() {
+		return loader != null;
 	}
 
 	/**
@@ -264,6 +367,16 @@ public class Story implements Serializable {
 	 */
 	public void setPhoneId(String phoneId) {
 		this.phoneId = phoneId;
+		markChanged("phoneId");
+	}
+
+	/**
+	 * Sets the time (in milliseconds) the story was last changed.
+	 * 
+	 * @param updatedAt
+	 */
+	public void setUpdatedAt(long updatedAt) {
+		this.updatedAt = updatedAt;
 	}
 
 	// Other methods
@@ -272,11 +385,165 @@ public class Story implements Serializable {
 	 * Adds a chapter onto the story object.
 	 */
 	public void addChapter(Chapter chapter) {
-		if (chapters.isEmpty()) {
+		if (loader == null ? chapters.isEmpty() : firstChapterId == null) {
 			// set first chapter id
 			firstChapterId = chapter.getId();
+			markChanged("firstChapterId");
 		}
 		chapters.put(chapter.getId(), chapter);
+		if (addedChapters == null) {
+			addedChapters = new HashSet<UUID>();
+		}
+		addedChapters.add(chapter.getId());
+	}
+
+	/**
+	 * Returns the fields of the story changed since it was last saved, as a
+	 * HashMap from the name of each field to its new value. Changes to the
+	 * chapters themselves are kept by the chapters. The time the story was
+	 * changed goes along with any change.
+	 * 
+	 * @return HashMap
+	 */
+	public HashMap<String, Object> getChanges() {
+		HashMap<String, Object> changes = new HashMap<String, Object>();
+		if (changedFields == null) {
+			return changes;
+		}
+		changes.put("updatedAt", updatedAt);
+		for (String field : changedFields) {
+			if (field.equals("title")) {
+				changes.put(field, title);
+			} else if (field.equals("author")) {
+				changes.put(field, author);
+			} else if (field.equals("description")) {
+				changes.put(field, description);
+			} else if (field.equals("firstChapterId")) {
+				changes.put(field, firstChapterId);
+			} else if (field.equals("chapters")) {
+				changes.put(field, chapters);
+			} else if (field.equals("phoneId")) {
+				changes.put(field, phoneId);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Returns whether the chapter was added to the story since the story was
+	 * last saved.
+	 * 
+	 * @param chapterId
+	 */
+	public boolean isAddedChapter(UUID chapterId) {
+		return addedChapters != null && addedChapters.contains(chapterId);
+	}
+
+	/**
+	 * Forgets all the changes made to the story and its chapters, once they
+	 * have been saved.
+	 */
+	public void clearChanges() {
+		changedFields = null;
+		addedChapters = null;
+		for (Chapter chapter : chapters.values()) {
+			chapter.clearChanges();
+		}
+		if (loaded != null) {
+			for (Chapter chapter : loaded.values()) {
+				chapter.clearChanges();
+			}
+			trimLoaded();
+		}
+	}
+
+	/**
+	 * Forgets the change made to one field of the story, once it has been
+	 * saved.
+	 * 
+	 * @param field
+	 */
+	void clearChange(String field) {
+		if (changedFields != null && changedFields.remove(field)
+				&& changedFields.isEmpty()) {
+			changedFields = null;
+		}
+	}
+
+	/**
+	 * Forgets that a chapter was added, and the changes made to it, once it
+	 * has been saved.
+	 * 
+	 * @param chapterId
+	 */
+	void clearAddedChapter(UUID chapterId) {
+		if (addedChapters != null && addedChapters.remove(chapterId)
+				&& addedChapters.isEmpty()) {
+			addedChapters = null;
+		}
+		Chapter chapter = getChapter(chapterId);
+		if (chapter != null) {
+			chapter.clearChanges();
+		}
+	}
+
+	/**
+	 * Loads all the chapters of a story that loads them when needed, along
+	 * with the ones added and the ones already loaded, which may have been
+	 * changed since.
+	 */
+	private HashMap<UUID, Chapter> loadAll() {
+		HashMap<UUID, Chapter> all = loader.loadChapters(id);
+		for (Map.Entry<UUID, Chapter> entry : all.entrySet()) {
+			Chapter kept = loaded.get(entry.getKey());
+			if (kept != null) {
+				entry.setValue(kept);
+			}
+		}
+		all.putAll(chapters);
+		return all;
+	}
+
+	/**
+	 * Keeps a chapter that was loaded, dropping the least recently used
+	 * ones past MAX_LOADED_CHAPTERS.
+	 */
+	private void keepLoaded(Chapter chapter) {
+		loaded.put(chapter.getId(), chapter);
+		trimLoaded();
+	}
+
+	private void trimLoaded() {
+		Iterator<Chapter> eldest = loaded.values().iterator();
+		while (loaded.size() > MAX_LOADED_CHAPTERS && eldest.hasNext()) {
+			if (eldest.next().getChanges().isEmpty()) {
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * A story loading its chapters when needed is written with all of them.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		if (loader == null) {
+			out.defaultWriteObject();
+			return;
+		}
+		HashMap<UUID, Chapter> held = chapters;
+		chapters = loadAll();
+		try {
+			out.defaultWriteObject();
+		} finally {
+			chapters = held;
+		}
+	}
+
+	private void markChanged(String field) {
+		if (changedFields == null) {
+			changedFields = new HashSet<String>();
+		}
+		changedFields.add(field);
 	}
 
 	/**
@@ -307,19 +574,26 @@ public class Story implements Serializable {
 
 	/**
 	 * Splits up the string for the title into keywords so a search
-	 * to find stories with titles containing the keywords will
-	 * be possible.
+	 * to find stories containing all the keywords will be possible. The
+	 * keywords are put together into one full text query, where each keyword
+	 * also matches any word starting with it.
 	 * 
 	 * @param info
 	 */
 	private void multiWord(HashMap<String, String> info) {
 		List<String> words;
+		String query = "";
+
+		// Anything but letters and digits is syntax to the full text index
+		words = Arrays.asList(title.replaceAll("[^\\p{L}\\p{N}]+", " ")
+				.trim().toLowerCase(Locale.US).split("\\s+"));
 
-		words = Arrays.asList(title.split("\\s+"));
-		
 		for (String keyword : words) {
-			info.put(StoryTable.COLUMN_NAME_TITLE, "%" + keyword + "%");
+			if (keyword.length() > 0) {
+				query += keyword + "* ";
+			}
 		}
+		info.put(StoryTable.COLUMN_NAME_TITLE, query.trim());
 	}
 	
 	/**
@@ -0,0 +1,606 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+/**
+ * Role: Writes a complete story, with the contents of its media, to a single
+ * file that can be backed up, shared, or copied onto another phone, and
+ * reads it back. Everything is streamed, so only one chapter or a buffer of
+ * media is held in memory at a time, however big the story's media are.
+ *
+ * The archive starts with MAGIC and VERSION, followed by chunks. Each chunk
+ * is a four letter type, the length of what follows, and then that many
+ * bytes. Chunks of types that aren't known are skipped, so later versions
+ * can add to the format. The chunks are, in order:
+ *
+ * META: the story's id, title, author, description, first chapter, phone id
+ * and when it was last changed.
+ *
+ * CHAP: one for each chapter, the first chapter first, with its text, when
+ * it was last changed, and the id, type and blob hash of each of its media.
+ *
+ * EDGE: every choice, grouped by the chapter it is in, in the same order as
+ * the chapters. Each is its id, the chapters it goes from and to, and its
+ * text.
+ *
+ * BLOB: one for each media content, stored once however many media use it.
+ * The blob hash, then the raw contents.
+ *
+ * TABL: where each chapter and its choices are in the archive, sorted by
+ * chapter id, so a chapter can be found without reading the rest (see
+ * ArchiveManager).
+ *
+ * END: where the TABL chunk starts. It is always the last TRAILER bytes of
+ * the archive, so the table can be found from the end of the file.
+ *
+ * Numbers are big endian. Strings are their length in UTF-8 bytes (-1 for
+ * null) followed by the bytes. UUIDs are their two halves, with 0 and 0
+ * standing for null.
+ *
+ * @author Stephanie Gil
+ *
+ * @see SHController#exportStory(UUID, OutputStream)
+ * @see SHController#importStory(InputStream)
+ * @see ArchiveManager
+ */
+public class StoryArchive {
+	public static final int MAGIC = 0x53485241;		// "SHRA"
+	public static final int VERSION = 1;
+
+	static final int META = type("META");
+	static final int CHAP = type("CHAP");
+	static final int EDGE = type("EDGE");
+	static final int BLOB = type("BLOB");
+	static final int TABL = type("TABL");
+	static final int END = type("END ");
+
+	/**
+	 * Bytes before every chunk's contents: its type and length.
+	 */
+	static final int CHUNK_HEADER = 4 + 8;
+
+	/**
+	 * Bytes of each chapter in the TABL chunk: the chapter id, where its
+	 * CHAP chunk starts, where its first choice starts in the EDGE chunk,
+	 * and how many choices it has.
+	 */
+	static final int TABLE_ENTRY = 16 + 8 + 8 + 4;
+
+	/**
+	 * Bytes of the END chunk.
+	 */
+	static final int TRAILER = CHUNK_HEADER + 8;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String UTF_8 = "UTF-8";
+
+	/**
+	 * Writes the story and the contents of its media to the stream, which is
+	 * flushed but not closed. Media whose contents aren't in the blob store
+	 * are written without them.
+	 *
+	 * @param story
+	 *            Complete story.
+	 * @param blobs
+	 *            Where the contents of the media are kept.
+	 * @param out
+	 */
+	public static void write(Story story, BlobStore blobs, OutputStream out)
+			throws IOException {
+		CountingOutputStream counting = new CountingOutputStream(
+				new BufferedOutputStream(out, BUFFER_SIZE));
+		DataOutputStream data = new DataOutputStream(counting);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		writeUuid(payload, story.getId());
+		writeString(payload, story.getTitle());
+		writeString(payload, story.getAuthor());
+		writeString(payload, story.getDescription());
+		writeUuid(payload, story.getFirstChapterId());
+		writeString(payload, story.getPhoneId());
+		payload.writeLong(story.getUpdatedAt());
+		writeChunk(data, META, bytes);
+
+		// The first chapter first, so it can be shown while the rest loads
+		ArrayList<Chapter> chapters = new ArrayList<Chapter>(story
+				.getChapters().values());
+		Chapter first = story.getChapter(story.getFirstChapterId());
+		if (first != null) {
+			chapters.remove(first);
+			chapters.add(0, first);
+		}
+
+		int count = chapters.size();
+		long[] chapterOffsets = new long[count];
+		LinkedHashSet<String> hashes = new LinkedHashSet<String>();
+		for (int i = 0; i < count; i++) {
+			Chapter chapter = chapters.get(i);
+			bytes.reset();
+			writeChapter(payload, chapter, hashes);
+			chapterOffsets[i] = counting.getCount();
+			writeChunk(data, CHAP, bytes);
+		}
+
+		long[] edgeOffsets = new long[count];
+		int[] edgeCounts = new int[count];
+		long edgeStart = counting.getCount() + CHUNK_HEADER;
+		bytes.reset();
+		for (int i = 0; i < count; i++) {
+			ArrayList<Choice> choices = chapters.get(i).getChoices();
+			edgeOffsets[i] = edgeStart + bytes.size();
+			edgeCounts[i] = choices.size();
+			for (Choice choice : choices) {
+				writeChoice(payload, choice);
+			}
+		}
+		writeChunk(data, EDGE, bytes);
+
+		for (String hash : hashes) {
+			if (blobs.contains(hash)) {
+				writeBlob(data, hash, blobs.getFile(hash));
+			}
+		}
+
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		final ArrayList<Chapter> byPosition = chapters;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				UUID left = byPosition.get(lhs).getId();
+				UUID right = byPosition.get(rhs).getId();
+				return compareIds(left.getMostSignificantBits(),
+						left.getLeastSignificantBits(),
+						right.getMostSignificantBits(),
+						right.getLeastSignificantBits());
+			}
+		});
+		long tableOffset = counting.getCount();
+		bytes.reset();
+		payload.writeInt(count);
+		for (int i : order) {
+			UUID id = chapters.get(i).getId();
+			payload.writeLong(id.getMostSignificantBits());
+			payload.writeLong(id.getLeastSignificantBits());
+			payload.writeLong(chapterOffsets[i]);
+			payload.writeLong(edgeOffsets[i]);
+			payload.writeInt(edgeCounts[i]);
+		}
+		writeChunk(data, TABL, bytes);
+
+		bytes.reset();
+		payload.writeLong(tableOffset);
+		writeChunk(data, END, bytes);
+		data.flush();
+	}
+
+	/**
+	 * Reads a story from the stream, putting the contents of its media in
+	 * the blob store. The stream is read up to the end of the archive, and
+	 * not closed.
+	 *
+	 * @param in
+	 * @param blobs
+	 *            Where the contents of the media are put.
+	 *
+	 * @return The complete story.
+	 *
+	 * @throws IOException
+	 *             If the stream isn't a story archive this version can read,
+	 *             or is cut short or damaged.
+	 */
+	public static Story read(InputStream in, BlobStore blobs)
+			throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(
+				in, BUFFER_SIZE));
+		readHeader(data);
+
+		Story story = null;
+		HashMap<UUID, Chapter> chapters = new HashMap<UUID, Chapter>();
+		while (true) {
+			int type;
+			long length;
+			try {
+				type = data.readInt();
+				length = data.readLong();
+			} catch (EOFException e) {
+				throw new IOException("Story archive ends early");
+			}
+			ChunkInputStream chunk = new ChunkInputStream(data, length);
+			DataInputStream payload = new DataInputStream(chunk);
+
+			if (type == END) {
+				chunk.skipRest();
+				break;
+			} else if (type == META) {
+				story = readStory(payload);
+			} else if (type == CHAP) {
+				if (story == null) {
+					throw new IOException("Chapter before the story");
+				}
+				Chapter chapter = readChapter(payload, story.getId());
+				chapters.put(chapter.getId(), chapter);
+			} else if (type == EDGE) {
+				while (chunk.getRemaining() > 0) {
+					Choice choice = readChoice(payload);
+					Chapter chapter = chapters.get(choice.getCurrentChapter());
+					if (chapter != null) {
+						chapter.getChoices().add(choice);
+					}
+				}
+			} else if (type == BLOB) {
+				readBlob(payload, chunk, blobs);
+			}
+			chunk.skipRest();
+		}
+
+		if (story == null) {
+			throw new IOException("Story archive has no story");
+		}
+		story.setChapters(chapters);
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Checks that the archive starts like one this version can read.
+	 */
+	static void readHeader(DataInput in) throws IOException {
+		int magic;
+		int version;
+		try {
+			magic = in.readInt();
+			version = in.readInt();
+		} catch (EOFException e) {
+			throw new IOException("Not a story archive");
+		}
+		if (magic != MAGIC) {
+			throw new IOException("Not a story archive");
+		}
+		if (version > VERSION) {
+			throw new IOException("Story archive version " + version
+					+ " is newer than this app can read");
+		}
+	}
+
+	/**
+	 * Reads the story in a META chunk, without its chapters.
+	 */
+	static Story readStory(DataInputStream in) throws IOException {
+		UUID id = readUuid(in);
+		String title = readString(in);
+		String author = readString(in);
+		String description = readString(in);
+		UUID firstChapterId = readUuid(in);
+		String phoneId = readString(in);
+		long updatedAt = in.readLong();
+
+		Story story = new Story(id, title, author, description, phoneId);
+		story.setFirstChapterId(firstChapterId);
+		story.setUpdatedAt(updatedAt);
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Reads the chapter in a CHAP chunk, without its choices.
+	 */
+	static Chapter readChapter(DataInputStream in, UUID storyId)
+			throws IOException {
+		Chapter chapter = new Chapter(readUuid(in), storyId, readString(in));
+		chapter.setUpdatedAt(in.readLong());
+		int media = in.readInt();
+		for (int i = 0; i < media; i++) {
+			UUID id = readUuid(in);
+			String type = readString(in);
+			Media item = new Media(id, chapter.getId(), null, type);
+			item.setBlobHash(readString(in));
+			if (Media.PHOTO.equals(type)) {
+				chapter.getPhotos().add(item);
+			} else {
+				chapter.getIllustrations().add(item);
+			}
+		}
+		chapter.clearChanges();
+		return chapter;
+	}
+
+	/**
+	 * Reads one choice of an EDGE chunk.
+	 */
+	static Choice readChoice(DataInputStream in) throws IOException {
+		UUID id = readUuid(in);
+		UUID from = readUuid(in);
+		UUID to = readUuid(in);
+		return new Choice(id, from, to, readString(in));
+	}
+
+	/**
+	 * Orders chapter ids the way the TABL chunk is sorted: by the first half,
+	 * then the second, both as signed numbers.
+	 */
+	static int compareIds(long most, long least, long otherMost,
+			long otherLeast) {
+		if (most != otherMost) {
+			return (most < otherMost) ? -1 : 1;
+		}
+		if (least != otherLeast) {
+			return (least < otherLeast) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads a string written by writeString. The stream has to be one of a
+	 * single chunk, whose available bytes are what is left of the chunk, so
+	 * a damaged length is caught before anything is allocated for it.
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > in.available()) {
+			throw new IOException("Story archive is damaged");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	static UUID readUuid(DataInput in) throws IOException {
+		long most = in.readLong();
+		long least = in.readLong();
+		return (most == 0 && least == 0) ? null : new UUID(most, least);
+	}
+
+	private static void writeChapter(DataOutput out, Chapter chapter,
+			LinkedHashSet<String> hashes) throws IOException {
+		writeUuid(out, chapter.getId());
+		writeString(out, chapter.getText());
+		out.writeLong(chapter.getUpdatedAt());
+		ArrayList<Media> media = new ArrayList<Media>(chapter.getPhotos());
+		media.addAll(chapter.getIllustrations());
+		out.writeInt(media.size());
+		for (Media item : media) {
+			writeUuid(out, item.getId());
+			writeString(out, item.getType());
+			writeString(out, item.getBlobHash());
+			if (item.getBlobHash() != null) {
+				hashes.add(item.getBlobHash());
+			}
+		}
+	}
+
+	private static void writeChoice(DataOutput out, Choice choice)
+			throws IOException {
+		writeUuid(out, choice.getId());
+		writeUuid(out, choice.getCurrentChapter());
+		writeUuid(out, choice.getNextChapter());
+		writeString(out, choice.getText());
+	}
+
+	/**
+	 * Copies the contents of a blob into a BLOB chunk.
+	 */
+	private static void writeBlob(DataOutputStream out, String hash,
+			File file) throws IOException {
+		byte[] name = hash.getBytes(UTF_8);
+		long length = file.length();
+		out.writeInt(BLOB);
+		out.writeLong(4 + name.length + length);
+		out.writeInt(name.length);
+		out.write(name);
+
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long copied = 0;
+			int read;
+			while (copied < length && (read = in.read(buffer, 0,
+					(int) Math.min(buffer.length, length - copied))) != -1) {
+				out.write(buffer, 0, read);
+				copied += read;
+			}
+			if (copied != length) {
+				throw new IOException("Media " + hash + " changed while "
+						+ "being written");
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Puts the contents of a BLOB chunk in the blob store, unless they are
+	 * there already.
+	 */
+	private static void readBlob(DataInputStream payload, ChunkInputStream chunk,
+			BlobStore blobs) throws IOException {
+		String hash = readString(payload);
+		if (hash == null || blobs.contains(hash)) {
+			return;
+		}
+		String stored = blobs.put(chunk);
+		if (!stored.equals(hash)) {
+			throw new IOException("Media " + hash + " in the story archive "
+					+ "is damaged");
+		}
+	}
+
+	private static void writeChunk(DataOutputStream out, int type,
+			ByteArrayOutputStream payload) throws IOException {
+		out.writeInt(type);
+		out.writeLong(payload.size());
+		payload.writeTo(out);
+	}
+
+	private static void writeString(DataOutput out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeUuid(DataOutput out, UUID value)
+			throws IOException {
+		out.writeLong((value == null) ? 0 : value.getMostSignificantBits());
+		out.writeLong((value == null) ? 0 : value.getLeastSignificantBits());
+	}
+
+	private static int type(String name) {
+		return (name.charAt(0) << 24) | (name.charAt(1) << 16)
+				| (name.charAt(2) << 8) | name.charAt(3);
+	}
+
+	/**
+	 * Counts the bytes written through it, so chunks know where they start.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Reads the contents of one chunk, and then ends, leaving the stream
+	 * open at the next chunk once the rest is skipped.
+	 */
+	private static class ChunkInputStream extends FilterInputStream {
+		private long remaining;
+
+		ChunkInputStream(InputStream in, long length) {
+			super(in);
+			remaining = length;
+		}
+
+		long getRemaining() {
+			return remaining;
+		}
+
+		/**
+		 * Returns what is left of the chunk, all of which can be read unless
+		 * the archive was cut short.
+		 */
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException("Story archive ends early");
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read == -1) {
+				throw new EOFException("Story archive ends early");
+			}
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() {
+			// The archive goes on after the chunk
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		void skipRest() throws IOException {
+			while (remaining > 0) {
+				if (skip(remaining) == 0) {
+					if (read() == -1) {
+						break;
+					}
+				}
+			}
+		}
+	}
+}
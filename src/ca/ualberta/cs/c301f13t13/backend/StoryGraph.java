@@ -0,0 +1,308 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.UUID;
+
+/**
+ * Role: Holds the structure of a story: its chapters, and the choices
+ * leading from one chapter to another, as lists of the choices leaving each
+ * chapter. Answers questions about how the story can be read without going
+ * to the database: which chapters can be reached from the first chapter,
+ * which chapters have no choices (dead ends), which can't be reached at all
+ * (orphans), and the shortest way to a chapter.
+ *
+ * What can be reached, and how far away it is, is worked out with one
+ * breadth first search from the first chapter, and kept. A choice added
+ * from a reachable chapter to one that wasn't only searches on from where
+ * it leads. Anything else that could make chapters unreachable or shorten
+ * the way to them (moving or removing a choice, a choice between chapters
+ * already reached, changing the first chapter) has the search done again
+ * the next time it's needed.
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraphIndex
+ */
+public class StoryGraph {
+	private UUID firstChapterId;
+	// Chapter id to the choices leaving it, in the order they were added
+	private HashMap<UUID, ArrayList<Edge>> adjacency =
+			new HashMap<UUID, ArrayList<Edge>>();
+	private HashMap<UUID, Edge> choices = new HashMap<UUID, Edge>();
+
+	// Reachable chapter id to the chapter it is reached from on the
+	// shortest way to it. Null when it has to be searched again.
+	private LinkedHashMap<UUID, UUID> parents = null;
+
+	/**
+	 * A choice, going from one chapter to another.
+	 */
+	private static class Edge {
+		final UUID choiceId;
+		final UUID from;
+		final UUID to;
+
+		Edge(UUID choiceId, UUID from, UUID to) {
+			this.choiceId = choiceId;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * Initializes an empty StoryGraph.
+	 *
+	 * @param firstChapterId
+	 *            Chapter the story starts at, may be null.
+	 */
+	public StoryGraph(UUID firstChapterId) {
+		this.firstChapterId = firstChapterId;
+	}
+
+	public synchronized UUID getFirstChapterId() {
+		return firstChapterId;
+	}
+
+	/**
+	 * Sets the chapter the story starts at.
+	 *
+	 * @param firstChapterId
+	 */
+	public synchronized void setFirstChapterId(UUID firstChapterId) {
+		if (firstChapterId == null ? this.firstChapterId != null
+				: !firstChapterId.equals(this.firstChapterId)) {
+			this.firstChapterId = firstChapterId;
+			parents = null;
+		}
+	}
+
+	/**
+	 * Adds a chapter, if it isn't in the graph yet.
+	 *
+	 * @param chapterId
+	 */
+	public synchronized void addChapter(UUID chapterId) {
+		if (!adjacency.containsKey(chapterId)) {
+			adjacency.put(chapterId, new ArrayList<Edge>(2));
+		}
+	}
+
+	/**
+	 * Adds a choice, or moves it if it is in the graph already. Chapters it
+	 * goes from or to that aren't in the graph are added.
+	 *
+	 * @param choiceId
+	 * @param from
+	 *            Chapter the choice is in.
+	 * @param to
+	 *            Chapter the choice leads to.
+	 */
+	public synchronized void putChoice(UUID choiceId, UUID from, UUID to) {
+		Edge old = choices.get(choiceId);
+		if (old != null) {
+			if (old.from.equals(from) && old.to.equals(to)) {
+				return;
+			}
+			removeEdge(old);
+		}
+		addChapter(from);
+		addChapter(to);
+		Edge edge = new Edge(choiceId, from, to);
+		adjacency.get(from).add(edge);
+		choices.put(choiceId, edge);
+
+		if (parents == null || !parents.containsKey(from)) {
+			// Nothing new can be reached
+			return;
+		}
+		if (parents.containsKey(to)) {
+			// Could be a shorter way to chapters already reached
+			parents = null;
+		} else {
+			// Chapters only reached through the new choice are, at best,
+			// one choice further than where it's from
+			parents.put(to, from);
+			search(to);
+		}
+	}
+
+	/**
+	 * Takes a choice out of the graph.
+	 *
+	 * @param choiceId
+	 */
+	public synchronized void removeChoice(UUID choiceId) {
+		Edge edge = choices.get(choiceId);
+		if (edge != null) {
+			removeEdge(edge);
+		}
+	}
+
+	private void removeEdge(Edge edge) {
+		adjacency.get(edge.from).remove(edge);
+		choices.remove(edge.choiceId);
+		parents = null;
+	}
+
+	/**
+	 * Returns whether the chapter is in the graph.
+	 *
+	 * @param chapterId
+	 */
+	public synchronized boolean hasChapter(UUID chapterId) {
+		return adjacency.containsKey(chapterId);
+	}
+
+	/**
+	 * Returns the number of chapters in the graph.
+	 */
+	public synchronized int getChapterCount() {
+		return adjacency.size();
+	}
+
+	/**
+	 * Returns the number of choices in the graph.
+	 */
+	public synchronized int getChoiceCount() {
+		return choices.size();
+	}
+
+	/**
+	 * Returns the ids of the chapters the choices of a chapter lead to, in
+	 * the order the choices were added.
+	 *
+	 * @param chapterId
+	 */
+	public synchronized ArrayList<UUID> getNextChapters(UUID chapterId) {
+		ArrayList<UUID> next = new ArrayList<UUID>();
+		ArrayList<Edge> edges = adjacency.get(chapterId);
+		if (edges != null) {
+			for (Edge edge : edges) {
+				next.add(edge.to);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Returns the ids of the chapters that can be reached from the first
+	 * chapter, starting with the first chapter itself.
+	 */
+	public synchronized ArrayList<UUID> getReachable() {
+		return new ArrayList<UUID>(getParents().keySet());
+	}
+
+	/**
+	 * Returns whether the chapter can be reached from the first chapter.
+	 *
+	 * @param chapterId
+	 */
+	public synchronized boolean isReachable(UUID chapterId) {
+		return getParents().containsKey(chapterId);
+	}
+
+	/**
+	 * Returns the ids of the chapters that have no choices, so reading ends
+	 * there.
+	 */
+	public synchronized ArrayList<UUID> getDeadEnds() {
+		ArrayList<UUID> deadEnds = new ArrayList<UUID>();
+		for (UUID chapterId : adjacency.keySet()) {
+			if (adjacency.get(chapterId).isEmpty()) {
+				deadEnds.add(chapterId);
+			}
+		}
+		return deadEnds;
+	}
+
+	/**
+	 * Returns the ids of the chapters that can't be reached from the first
+	 * chapter.
+	 */
+	public synchronized ArrayList<UUID> getOrphans() {
+		LinkedHashMap<UUID, UUID> reachable = getParents();
+		ArrayList<UUID> orphans = new ArrayList<UUID>();
+		for (UUID chapterId : adjacency.keySet()) {
+			if (!reachable.containsKey(chapterId)) {
+				orphans.add(chapterId);
+			}
+		}
+		return orphans;
+	}
+
+	/**
+	 * Returns the shortest way from the first chapter to a chapter, as the
+	 * ids of the chapters read along the way, starting with the first
+	 * chapter and ending with the chapter.
+	 *
+	 * @param chapterId
+	 *
+	 * @return The chapters on the way, or null if the chapter can't be
+	 *         reached.
+	 */
+	public synchronized ArrayList<UUID> getPath(UUID chapterId) {
+		LinkedHashMap<UUID, UUID> reachable = getParents();
+		if (!reachable.containsKey(chapterId)) {
+			return null;
+		}
+		ArrayList<UUID> path = new ArrayList<UUID>();
+		for (UUID at = chapterId; at != null; at = reachable.get(at)) {
+			path.add(at);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	private LinkedHashMap<UUID, UUID> getParents() {
+		if (parents == null) {
+			parents = new LinkedHashMap<UUID, UUID>();
+			if (firstChapterId != null) {
+				parents.put(firstChapterId, null);
+				search(firstChapterId);
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * Searches breadth first from a chapter already reached, adding every
+	 * chapter not reached yet.
+	 */
+	private void search(UUID start) {
+		LinkedList<UUID> queue = new LinkedList<UUID>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			UUID at = queue.removeFirst();
+			ArrayList<Edge> edges = adjacency.get(at);
+			if (edges == null) {
+				continue;
+			}
+			for (Edge edge : edges) {
+				if (!parents.containsKey(edge.to)) {
+					parents.put(edge.to, at);
+					queue.add(edge.to);
+				}
+			}
+		}
+	}
+}
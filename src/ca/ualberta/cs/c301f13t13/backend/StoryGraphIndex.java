@@ -0,0 +1,218 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChoiceTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
+
+/**
+ * Role: Keeps the StoryGraph of the stories on the phone that were recently
+ * asked about. A story's graph is built the first time it is needed, from
+ * one query over its chapters and their choices, and is then kept up to
+ * date as chapters, choices and stories are saved, instead of being built
+ * again.
+ *
+ * Saving a whole story with the StoryGraphWriter drops its graph, since any
+ * of it could have changed.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraph
+ */
+public class StoryGraphIndex {
+	/**
+	 * Most story graphs kept, dropping the least recently used ones.
+	 */
+	public static final int MAX_STORIES = 20;
+
+	/**
+	 * Selects every chapter of a story, along with the id of each of its
+	 * choices and the chapter the choice leads to (or nulls if it has no
+	 * choices).
+	 */
+	static final String SQL_GRAPH_BY_STORY = "SELECT ch."
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + ", c."
+			+ ChoiceTable.COLUMN_NAME_CHOICE_ID + ", c."
+			+ ChoiceTable.COLUMN_NAME_NEXT_CHAPTER + " FROM "
+			+ ChapterTable.TABLE_NAME + " ch LEFT JOIN "
+			+ ChoiceTable.TABLE_NAME + " c ON c."
+			+ ChoiceTable.COLUMN_NAME_CURR_CHAPTER + " = ch."
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " WHERE ch."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = ?";
+
+	private static StoryGraphIndex self = null;
+	private DBHelper helper = null;
+	private int buildCount = 0;
+	private LinkedHashMap<UUID, StoryGraph> graphs =
+			new LinkedHashMap<UUID, StoryGraph>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<UUID, StoryGraph> eldest) {
+			return size() > MAX_STORIES;
+		}
+	};
+
+	/**
+	 * Initializes a new StoryGraphIndex.
+	 *
+	 * @param context
+	 */
+	protected StoryGraphIndex(Context context) {
+		helper = DBHelper.getInstance(context);
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return StoryGraphIndex
+	 */
+	public static synchronized StoryGraphIndex getInstance(Context context) {
+		if (self == null) {
+			self = new StoryGraphIndex(context);
+		}
+		return self;
+	}
+
+	/**
+	 * Returns the graph of a story on the phone, building it if it isn't
+	 * kept.
+	 *
+	 * @param storyId
+	 *
+	 * @return The graph, or null if there is no such story.
+	 */
+	public synchronized StoryGraph getGraph(UUID storyId) {
+		StoryGraph graph = graphs.get(storyId);
+		if (graph == null) {
+			graph = build(storyId);
+			if (graph != null) {
+				graphs.put(storyId, graph);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Returns the number of graphs built from the database so far.
+	 */
+	public synchronized int getBuildCount() {
+		return buildCount;
+	}
+
+	/**
+	 * Adds or moves a choice that was saved in the graph of its story, if
+	 * that graph is kept.
+	 *
+	 * @param choice
+	 */
+	public synchronized void onChoiceSaved(Choice choice) {
+		for (StoryGraph graph : graphs.values()) {
+			if (graph.hasChapter(choice.getCurrentChapter())) {
+				graph.putChoice(choice.getId(), choice.getCurrentChapter(),
+						choice.getNextChapter());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds a chapter that was saved to the graph of its story, if that graph
+	 * is kept.
+	 *
+	 * @param chapter
+	 */
+	public synchronized void onChapterSaved(Chapter chapter) {
+		StoryGraph graph = graphs.get(chapter.getStoryId());
+		if (graph != null) {
+			graph.addChapter(chapter.getId());
+		}
+	}
+
+	/**
+	 * Takes the first chapter of a story that was saved into its graph, if
+	 * that graph is kept.
+	 *
+	 * @param story
+	 */
+	public synchronized void onStorySaved(Story story) {
+		StoryGraph graph = graphs.get(story.getId());
+		if (graph != null) {
+			graph.setFirstChapterId(story.getFirstChapterId());
+		}
+	}
+
+	/**
+	 * Drops the graph of a story, so it is built again when next needed.
+	 *
+	 * @param storyId
+	 */
+	public synchronized void invalidate(UUID storyId) {
+		graphs.remove(storyId);
+	}
+
+	private StoryGraph build(UUID storyId) {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		String[] sArgs = { storyId.toString() };
+
+		Cursor cursor = db.query(StoryTable.TABLE_NAME,
+				new String[] { StoryTable.COLUMN_NAME_FIRST_CHAPTER },
+				StoryTable.COLUMN_NAME_STORY_ID + " = ?", sArgs, null, null,
+				null);
+		StoryGraph graph = null;
+		try {
+			if (!cursor.moveToFirst()) {
+				return null;
+			}
+			String first = cursor.getString(0);
+			graph = new StoryGraph((first == null) ? null
+					: UUID.fromString(first));
+		} finally {
+			cursor.close();
+		}
+
+		cursor = db.rawQuery(SQL_GRAPH_BY_STORY, sArgs);
+		try {
+			cursor.moveToFirst();
+			while (!cursor.isAfterLast()) {
+				UUID chapterId = UUID.fromString(cursor.getString(0));
+				if (cursor.isNull(1)) {
+					graph.addChapter(chapterId);
+				} else {
+					graph.putChoice(UUID.fromString(cursor.getString(1)),
+							chapterId, UUID.fromString(cursor.getString(2)));
+				}
+				cursor.moveToNext();
+			}
+		} finally {
+			cursor.close();
+		}
+		buildCount++;
+		return graph;
+	}
+}
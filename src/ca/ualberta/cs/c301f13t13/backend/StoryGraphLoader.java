@@ -0,0 +1,257 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChoiceTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.MediaTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
+
+/**
+ * Role: Loads a complete story (the story, all of its chapters, and all of
+ * the choices and media belonging to those chapters) from the database using
+ * a fixed number of queries, no matter how many chapters the story has. The
+ * choice and media rows are joined to the chapter table on the story id, and
+ * the story graph is then put together in memory.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see SHController
+ */
+public class StoryGraphLoader {
+	private static StoryGraphLoader self = null;
+	private DBHelper helper = null;
+
+	/**
+	 * Selects all the choices whose current chapter belongs to a story.
+	 */
+	static final String SQL_CHOICES_BY_STORY = "SELECT c."
+			+ ChoiceTable.COLUMN_NAME_CHOICE_ID + ", c."
+			+ ChoiceTable.COLUMN_NAME_CURR_CHAPTER + ", c."
+			+ ChoiceTable.COLUMN_NAME_NEXT_CHAPTER + ", c."
+			+ ChoiceTable.COLUMN_NAME_TEXT + " FROM "
+			+ ChoiceTable.TABLE_NAME + " c JOIN " + ChapterTable.TABLE_NAME
+			+ " ch ON c." + ChoiceTable.COLUMN_NAME_CURR_CHAPTER + " = ch."
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " WHERE ch."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = ?";
+
+	/**
+	 * Selects all the media whose chapter belongs to a story.
+	 */
+	static final String SQL_MEDIA_BY_STORY = "SELECT m."
+			+ MediaTable.COLUMN_NAME_MEDIA_ID + ", m."
+			+ MediaTable.COLUMN_NAME_CHAPTER_ID + ", m."
+			+ MediaTable.COLUMN_NAME_MEDIA_URI + ", m."
+			+ MediaTable.COLUMN_NAME_TYPE + ", m."
+			+ MediaTable.COLUMN_NAME_BLOB + " FROM " + MediaTable.TABLE_NAME
+			+ " m JOIN " + ChapterTable.TABLE_NAME + " ch ON m."
+			+ MediaTable.COLUMN_NAME_CHAPTER_ID + " = ch."
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " WHERE ch."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = ?";
+
+	/**
+	 * Initializes a new StoryGraphLoader object.
+	 *
+	 * @param context
+	 */
+	protected StoryGraphLoader(Context context) {
+		this(DBHelper.getInstance(context));
+	}
+
+	/**
+	 * Initializes a new StoryGraphLoader object reading from the given
+	 * database.
+	 *
+	 * @param helper
+	 */
+	protected StoryGraphLoader(DBHelper helper) {
+		this.helper = helper;
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return StoryGraphLoader
+	 */
+	public static synchronized StoryGraphLoader getInstance(Context context) {
+		if (self == null) {
+			self = new StoryGraphLoader(context);
+		}
+		return self;
+	}
+
+	/**
+	 * Loads the story with the given id along with all its chapters, and the
+	 * choices, photos and illustrations of every chapter. Always runs exactly
+	 * four queries. Returns null if there is no story with that id.
+	 *
+	 * @param storyId
+	 *            Id of the story to be loaded.
+	 *
+	 * @return The complete story.
+	 */
+	public Story loadStory(UUID storyId) {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		String[] sArgs = { storyId.toString() };
+
+		Story story = loadStoryRow(db, sArgs);
+		if (story == null) {
+			return null;
+		}
+		story.setChapters(loadChapters(db, sArgs));
+
+		// Nothing was changed, only loaded
+		story.clearChanges();
+		return story;
+	}
+
+	/**
+	 * Loads all the chapters of a story, each one complete with its choices,
+	 * photos and illustrations. Always runs exactly three queries.
+	 *
+	 * @param storyId
+	 *            Id of the story the chapters belong to.
+	 *
+	 * @return The chapters, keyed by chapter id.
+	 */
+	public HashMap<UUID, Chapter> loadChapters(UUID storyId) {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		String[] sArgs = { storyId.toString() };
+		HashMap<UUID, Chapter> chapters = loadChapters(db, sArgs);
+
+		// Nothing was changed, only loaded
+		for (Chapter chapter : chapters.values()) {
+			chapter.clearChanges();
+		}
+		return chapters;
+	}
+
+	/**
+	 * Gets the story row itself.
+	 */
+	private Story loadStoryRow(SQLiteDatabase db, String[] sArgs) {
+		String[] projection = {
+				StoryTable.COLUMN_NAME_STORY_ID,
+				StoryTable.COLUMN_NAME_TITLE,
+				StoryTable.COLUMN_NAME_AUTHOR,
+				StoryTable.COLUMN_NAME_DESCRIPTION,
+				StoryTable.COLUMN_NAME_FIRST_CHAPTER,
+				StoryTable.COLUMN_NAME_PHONE_ID,
+				StoryTable.COLUMN_NAME_UPDATED_AT };
+		String selection = StoryTable.COLUMN_NAME_STORY_ID + " = ?";
+		Story story = null;
+
+		Cursor cursor = db.query(StoryTable.TABLE_NAME, projection, selection,
+				sArgs, null, null, null);
+		if (cursor.moveToFirst()) {
+			story = new Story(
+					cursor.getString(0), cursor.getString(1), // title
+					cursor.getString(2), // author
+					cursor.getString(3), // description
+					cursor.getString(4), // first chapter id
+					cursor.getString(5) // phoneId
+					);
+			story.setUpdatedAt(cursor.getLong(6));
+		}
+		cursor.close();
+		return story;
+	}
+
+	/**
+	 * Gets the chapters of the story, then attaches the choices and media of
+	 * the whole story to them.
+	 */
+	private HashMap<UUID, Chapter> loadChapters(SQLiteDatabase db,
+			String[] sArgs) {
+		HashMap<UUID, Chapter> chapters = new HashMap<UUID, Chapter>();
+		String[] projection = { ChapterTable.COLUMN_NAME_CHAPTER_ID,
+				ChapterTable.COLUMN_NAME_STORY_ID,
+				ChapterTable.COLUMN_NAME_TEXT,
+				ChapterTable.COLUMN_NAME_UPDATED_AT };
+		String selection = ChapterTable.COLUMN_NAME_STORY_ID + " = ?";
+
+		// Chapters
+		Cursor cursor = db.query(ChapterTable.TABLE_NAME, projection,
+				selection, sArgs, null, null, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			Chapter chapter = new Chapter(
+					UUID.fromString(cursor.getString(0)), // chapter id
+					UUID.fromString(cursor.getString(1)), // story id
+					cursor.getString(2) // text
+			);
+			chapter.setUpdatedAt(cursor.getLong(3));
+			chapters.put(chapter.getId(), chapter);
+			cursor.moveToNext();
+		}
+		cursor.close();
+
+		// Choices
+		cursor = db.rawQuery(SQL_CHOICES_BY_STORY, sArgs);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			Choice choice = new Choice(
+					UUID.fromString(cursor.getString(0)),
+					UUID.fromString(cursor.getString(1)), 	// current chapter
+					UUID.fromString(cursor.getString(2)), 	// next chapter
+					cursor.getString(3) 	// text
+					);
+			Chapter chapter = chapters.get(choice.getCurrentChapter());
+			if (chapter != null) {
+				chapter.addChoice(choice);
+			}
+			cursor.moveToNext();
+		}
+		cursor.close();
+
+		// Photos and illustrations
+		cursor = db.rawQuery(SQL_MEDIA_BY_STORY, sArgs);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			Media media = new Media(
+					UUID.fromString(cursor.getString(0)), // media id
+					UUID.fromString(cursor.getString(1)), // chapter id
+					cursor.getString(2), // path
+					cursor.getString(3) // type
+					);
+			media.setBlobHash(cursor.getString(4));
+			Chapter chapter = chapters.get(media.getChapterId());
+			if (chapter != null) {
+				if (Media.PHOTO.equals(media.getType())) {
+					chapter.addPhoto(media);
+				} else if (Media.ILLUSTRATION.equals(media.getType())) {
+					chapter.addIllustration(media);
+				}
+			}
+			cursor.moveToNext();
+		}
+		cursor.close();
+
+		return chapters;
+	}
+}
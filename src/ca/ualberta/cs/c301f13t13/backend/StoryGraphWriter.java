@@ -0,0 +1,339 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChoiceTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.MediaTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
+
+/**
+ * Role: Saves a complete story (the story, all of its chapters, and all of
+ * the choices and media belonging to those chapters) to the database in a
+ * single transaction, so a whole story is written with one commit instead of
+ * one per row. Either all of the story is saved or, if anything goes wrong,
+ * none of it is.
+ *
+ * Every row is written with one of a few statements compiled once per save.
+ * A row that is already in the database is updated, otherwise it is
+ * inserted, so saving the same story again (for example refreshing a cached
+ * story) does not make duplicates. Chapters, choices and media of the story
+ * that are in the database but no longer in the story are deleted in the
+ * same transaction. The times the story and its chapters were
+ * last changed are saved as they are, so a story downloaded from the server
+ * keeps the times it was changed there.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see StoryGraphLoader
+ * @see SHController
+ */
+public class StoryGraphWriter {
+	private static DBHelper helper = null;
+	private static StoryGraphWriter self = null;
+	private MediaManager mediaManager = null;
+	private StoryGraphIndex index = null;
+
+	static final String SQL_UPDATE_STORY = "UPDATE " + StoryTable.TABLE_NAME
+			+ " SET " + StoryTable.COLUMN_NAME_TITLE + " = ?, "
+			+ StoryTable.COLUMN_NAME_AUTHOR + " = ?, "
+			+ StoryTable.COLUMN_NAME_DESCRIPTION + " = ?, "
+			+ StoryTable.COLUMN_NAME_FIRST_CHAPTER + " = ?, "
+			+ StoryTable.COLUMN_NAME_PHONE_ID + " = ?, "
+			+ StoryTable.COLUMN_NAME_UPDATED_AT + " = ? WHERE "
+			+ StoryTable.COLUMN_NAME_STORY_ID + " = ?";
+
+	static final String SQL_INSERT_STORY = "INSERT INTO "
+			+ StoryTable.TABLE_NAME + " (" + StoryTable.COLUMN_NAME_TITLE
+			+ ", " + StoryTable.COLUMN_NAME_AUTHOR + ", "
+			+ StoryTable.COLUMN_NAME_DESCRIPTION + ", "
+			+ StoryTable.COLUMN_NAME_FIRST_CHAPTER + ", "
+			+ StoryTable.COLUMN_NAME_PHONE_ID + ", "
+			+ StoryTable.COLUMN_NAME_UPDATED_AT + ", "
+			+ StoryTable.COLUMN_NAME_STORY_ID
+			+ ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	static final String SQL_UPDATE_CHAPTER = "UPDATE "
+			+ ChapterTable.TABLE_NAME + " SET "
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = ?, "
+			+ ChapterTable.COLUMN_NAME_TEXT + " = ?, "
+			+ ChapterTable.COLUMN_NAME_UPDATED_AT + " = ? WHERE "
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " = ?";
+
+	static final String SQL_INSERT_CHAPTER = "INSERT INTO "
+			+ ChapterTable.TABLE_NAME + " ("
+			+ ChapterTable.COLUMN_NAME_STORY_ID + ", "
+			+ ChapterTable.COLUMN_NAME_TEXT + ", "
+			+ ChapterTable.COLUMN_NAME_UPDATED_AT + ", "
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + ") VALUES (?, ?, ?, ?)";
+
+	static final String SQL_UPDATE_CHOICE = "UPDATE " + ChoiceTable.TABLE_NAME
+			+ " SET " + ChoiceTable.COLUMN_NAME_CURR_CHAPTER + " = ?, "
+			+ ChoiceTable.COLUMN_NAME_NEXT_CHAPTER + " = ?, "
+			+ ChoiceTable.COLUMN_NAME_TEXT + " = ? WHERE "
+			+ ChoiceTable.COLUMN_NAME_CHOICE_ID + " = ?";
+
+	static final String SQL_INSERT_CHOICE = "INSERT INTO "
+			+ ChoiceTable.TABLE_NAME + " ("
+			+ ChoiceTable.COLUMN_NAME_CURR_CHAPTER + ", "
+			+ ChoiceTable.COLUMN_NAME_NEXT_CHAPTER + ", "
+			+ ChoiceTable.COLUMN_NAME_TEXT + ", "
+			+ ChoiceTable.COLUMN_NAME_CHOICE_ID + ") VALUES (?, ?, ?, ?)";
+
+	static final String SQL_UPDATE_MEDIA = "UPDATE " + MediaTable.TABLE_NAME
+			+ " SET " + MediaTable.COLUMN_NAME_CHAPTER_ID + " = ?, "
+			+ MediaTable.COLUMN_NAME_MEDIA_URI + " = ?, "
+			+ MediaTable.COLUMN_NAME_TYPE + " = ?, "
+			+ MediaTable.COLUMN_NAME_BLOB + " = ? WHERE "
+			+ MediaTable.COLUMN_NAME_MEDIA_ID + " = ?";
+
+	static final String SQL_INSERT_MEDIA = "INSERT INTO "
+			+ MediaTable.TABLE_NAME + " ("
+			+ MediaTable.COLUMN_NAME_CHAPTER_ID + ", "
+			+ MediaTable.COLUMN_NAME_MEDIA_URI + ", "
+			+ MediaTable.COLUMN_NAME_TYPE + ", "
+			+ MediaTable.COLUMN_NAME_BLOB + ", "
+			+ MediaTable.COLUMN_NAME_MEDIA_ID + ") VALUES (?, ?, ?, ?, ?)";
+
+	static final String SQL_IN_STORY = " IN (SELECT "
+			+ ChapterTable.COLUMN_NAME_CHAPTER_ID + " FROM "
+			+ ChapterTable.TABLE_NAME + " WHERE "
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = ?)";
+
+	/**
+	 * Initializes a new StoryGraphWriter object.
+	 *
+	 * @param context
+	 */
+	protected StoryGraphWriter(Context context) {
+		helper = DBHelper.getInstance(context);
+		index = StoryGraphIndex.getInstance(context);
+		mediaManager = MediaManager.getInstance(context);
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return StoryGraphWriter
+	 */
+	public static synchronized StoryGraphWriter getInstance(Context context) {
+		if (self == null) {
+			self = new StoryGraphWriter(context);
+		}
+		return self;
+	}
+
+	/**
+	 * Saves the story along with all its chapters, and the choices, photos
+	 * and illustrations of every chapter, in one transaction. If any row
+	 * can't be written, nothing is saved and the exception is thrown on.
+	 *
+	 * @param story
+	 *            Complete story to be saved.
+	 */
+	public void saveStory(Story story) {
+		// Copying media into the blob store is file work, so it is done
+		// before the transaction starts
+		for (Chapter chapter : story.getChapters().values()) {
+			for (Media media : chapter.getPhotos()) {
+				mediaManager.storeContent(media);
+			}
+			for (Media media : chapter.getIllustrations()) {
+				mediaManager.storeContent(media);
+			}
+		}
+
+		SQLiteDatabase db = helper.getWritableDatabase();
+		Statements statements = new Statements(db);
+		db.beginTransaction();
+		try {
+			deleteRemoved(db, story);
+			for (Chapter chapter : story.getChapters().values()) {
+				writeChapter(statements, chapter);
+			}
+			writeStory(statements, story);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			statements.close();
+			CachingManager.invalidateAll();
+			index.invalidate(story.getId());
+		}
+	}
+
+	/**
+	 * Deletes the chapters, choices and media the database has for the
+	 * story that are no longer in it.
+	 */
+	private void deleteRemoved(SQLiteDatabase db, Story story) {
+		HashSet<String> chapters = new HashSet<String>();
+		HashSet<String> choices = new HashSet<String>();
+		HashSet<String> media = new HashSet<String>();
+		for (Chapter chapter : story.getChapters().values()) {
+			chapters.add(chapter.getId().toString());
+			for (Choice choice : chapter.getChoices()) {
+				choices.add(choice.getId().toString());
+			}
+			for (Media m : chapter.getPhotos()) {
+				media.add(m.getId().toString());
+			}
+			for (Media m : chapter.getIllustrations()) {
+				media.add(m.getId().toString());
+			}
+		}
+
+		// The choices and media first, while the chapters they belong to
+		// are still there to find them by
+		String[] sArgs = { story.getId().toString() };
+		deleteMissing(db, ChoiceTable.TABLE_NAME,
+				ChoiceTable.COLUMN_NAME_CHOICE_ID,
+				ChoiceTable.COLUMN_NAME_CURR_CHAPTER + SQL_IN_STORY, sArgs,
+				choices);
+		deleteMissing(db, MediaTable.TABLE_NAME,
+				MediaTable.COLUMN_NAME_MEDIA_ID,
+				MediaTable.COLUMN_NAME_CHAPTER_ID + SQL_IN_STORY, sArgs, media);
+		deleteMissing(db, ChapterTable.TABLE_NAME,
+				ChapterTable.COLUMN_NAME_CHAPTER_ID,
+				ChapterTable.COLUMN_NAME_STORY_ID + " = ?", sArgs, chapters);
+	}
+
+	/**
+	 * Deletes the rows matching the selection whose id isn't kept.
+	 */
+	private static void deleteMissing(SQLiteDatabase db, String table,
+			String idColumn, String selection, String[] sArgs,
+			HashSet<String> kept) {
+		ArrayList<String> removed = new ArrayList<String>();
+		Cursor cursor = db.query(table, new String[] { idColumn }, selection,
+				sArgs, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				if (!kept.contains(cursor.getString(0))) {
+					removed.add(cursor.getString(0));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		for (String id : removed) {
+			db.delete(table, idColumn + " = ?", new String[] { id });
+		}
+	}
+
+	private void writeStory(Statements s, Story story) {
+		String firstChapter = (story.getFirstChapterId() == null) ? null
+				: story.getFirstChapterId().toString();
+		upsert(s.updateStory, s.insertStory, story.getTitle(),
+				story.getAuthor(), story.getDescription(), firstChapter,
+				story.getPhoneId(), Long.toString(story.getUpdatedAt()),
+				story.getId().toString());
+	}
+
+	private void writeChapter(Statements s, Chapter chapter) {
+		upsert(s.updateChapter, s.insertChapter, chapter.getStoryId()
+				.toString(), chapter.getText(), Long.toString(chapter
+				.getUpdatedAt()), chapter.getId().toString());
+
+		for (Choice choice : chapter.getChoices()) {
+			upsert(s.updateChoice, s.insertChoice, choice.getCurrentChapter()
+					.toString(), choice.getNextChapter().toString(),
+					choice.getText(), choice.getId().toString());
+		}
+
+		ArrayList<Media> media = new ArrayList<Media>(chapter.getPhotos());
+		media.addAll(chapter.getIllustrations());
+		for (Media m : media) {
+			upsert(s.updateMedia, s.insertMedia, m.getChapterId().toString(),
+					m.getPath(), m.getType(), m.getBlobHash(), m.getId()
+							.toString());
+		}
+	}
+
+	/**
+	 * Updates the row if it is already there, otherwise inserts it. Both
+	 * statements take the same arguments in the same order, with the id last.
+	 * Updating in place (instead of replacing the row) keeps the row's rowid,
+	 * which the full text index is keyed on.
+	 */
+	private static void upsert(SQLiteStatement update, SQLiteStatement insert,
+			String... args) {
+		bindAll(update, args);
+		if (update.executeUpdateDelete() == 0) {
+			bindAll(insert, args);
+			insert.executeInsert();
+		}
+	}
+
+	private static void bindAll(SQLiteStatement statement, String[] args) {
+		statement.clearBindings();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null) {
+				statement.bindNull(i + 1);
+			} else {
+				statement.bindString(i + 1, args[i]);
+			}
+		}
+	}
+
+	/**
+	 * The statements used by one save, compiled once and reused for every
+	 * row.
+	 */
+	private static class Statements {
+		final SQLiteStatement updateStory;
+		final SQLiteStatement insertStory;
+		final SQLiteStatement updateChapter;
+		final SQLiteStatement insertChapter;
+		final SQLiteStatement updateChoice;
+		final SQLiteStatement insertChoice;
+		final SQLiteStatement updateMedia;
+		final SQLiteStatement insertMedia;
+
+		Statements(SQLiteDatabase db) {
+			updateStory = db.compileStatement(SQL_UPDATE_STORY);
+			insertStory = db.compileStatement(SQL_INSERT_STORY);
+			updateChapter = db.compileStatement(SQL_UPDATE_CHAPTER);
+			insertChapter = db.compileStatement(SQL_INSERT_CHAPTER);
+			updateChoice = db.compileStatement(SQL_UPDATE_CHOICE);
+			insertChoice = db.compileStatement(SQL_INSERT_CHOICE);
+			updateMedia = db.compileStatement(SQL_UPDATE_MEDIA);
+			insertMedia = db.compileStatement(SQL_INSERT_MEDIA);
+		}
+
+		void close() {
+			updateStory.close();
+			insertStory.close();
+			updateChapter.close();
+			insertChapter.close();
+			updateChoice.close();
+			insertChoice.close();
+			updateMedia.close();
+			insertMedia.close();
+		}
+	}
+}
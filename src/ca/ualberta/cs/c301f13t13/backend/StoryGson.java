@@ -0,0 +1,496 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Role: Holds the Gson that stories are turned into JSON and back with, for
+ * the server and the outbox. Stories, chapters, choices and media are
+ * written and read by hand, field by field, instead of Gson finding their
+ * fields by reflection.
+ *
+ * The JSON is the same as Gson would make by reflection, so stories already
+ * on the server can still be read: UUIDs are strings, and the chapters of a
+ * story are an object keyed by chapter id, which lets the server update one
+ * chapter of a story without sending the others. Chapters written as an
+ * array are read as well. The path and blob hash of a media are only
+ * written when it has them.
+ *
+ * Stories and chapters that are read have no changes to save.
+ *
+ * The documents kept on the server also have CHANGED_AT, the latest time
+ * the story or one of its chapters was changed, since changing a chapter
+ * doesn't change the story's own time. Syncing searches on it to find the
+ * stories changed since it last ran.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see ServerManager
+ */
+public class StoryGson {
+	/**
+	 * Name of the field with the latest change of a story in its document
+	 * on the server.
+	 */
+	public static final String CHANGED_AT = "changedAt";
+
+	private static Gson gson = null;
+	private static Gson documentGson = null;
+
+	/**
+	 * Returns the Gson shared by everything sending stories. Gson can be
+	 * used by many threads at once.
+	 *
+	 * @return Gson
+	 */
+	public static synchronized Gson getInstance() {
+		if (gson == null) {
+			gson = newBuilder().create();
+		}
+		return gson;
+	}
+
+	/**
+	 * Returns the Gson stories are sent to the server with, which writes
+	 * CHANGED_AT along with each story. It reads the same as getInstance().
+	 *
+	 * @return Gson
+	 */
+	public static synchronized Gson getDocumentInstance() {
+		if (documentGson == null) {
+			documentGson = newBuilder(true).create();
+		}
+		return documentGson;
+	}
+
+	/**
+	 * Returns a GsonBuilder with the adapters for stories and their parts
+	 * registered, for when a Gson set up differently is needed.
+	 *
+	 * @return GsonBuilder
+	 */
+	public static GsonBuilder newBuilder() {
+		return newBuilder(false);
+	}
+
+	private static GsonBuilder newBuilder(boolean documents) {
+		MediaAdapter media = new MediaAdapter();
+		ChoiceAdapter choice = new ChoiceAdapter();
+		ChapterAdapter chapter = new ChapterAdapter(choice, media);
+		return new GsonBuilder()
+				.registerTypeAdapter(Story.class,
+						new StoryAdapter(chapter, documents))
+				.registerTypeAdapter(Chapter.class, chapter)
+				.registerTypeAdapter(Choice.class, choice)
+				.registerTypeAdapter(Media.class, media);
+	}
+
+	/**
+	 * Writes and reads a story along with all of its chapters, and writes
+	 * CHANGED_AT too if it writes documents for the server.
+	 */
+	static class StoryAdapter extends TypeAdapter<Story> {
+		private ChapterAdapter chapterAdapter;
+		private boolean documents;
+
+		StoryAdapter(ChapterAdapter chapterAdapter, boolean documents) {
+			this.chapterAdapter = chapterAdapter;
+			this.documents = documents;
+		}
+
+		@Override
+		public void write(JsonWriter out, Story story) throws IOException {
+			if (story == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			writeUuid(out, "id", story.getId());
+			writeString(out, "author", story.getAuthor());
+			writeString(out, "title", story.getTitle());
+			writeString(out, "description", story.getDescription());
+			writeUuid(out, "firstChapterId", story.getFirstChapterId());
+			if (story.getChapters() != null) {
+				out.name("chapters").beginObject();
+				for (Map.Entry<UUID, Chapter> chapter : story.getChapters()
+						.entrySet()) {
+					out.name(chapter.getKey().toString());
+					chapterAdapter.write(out, chapter.getValue());
+				}
+				out.endObject();
+			}
+			writeString(out, "phoneId", story.getPhoneId());
+			out.name("updatedAt").value(story.getUpdatedAt());
+			if (documents) {
+				out.name(CHANGED_AT).value(SyncEngine.getLatestChange(story));
+			}
+			out.endObject();
+		}
+
+		@Override
+		public Story read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			UUID id = null;
+			String author = null;
+			String title = null;
+			String description = null;
+			UUID firstChapterId = null;
+			HashMap<UUID, Chapter> chapters = new HashMap<UUID, Chapter>();
+			String phoneId = null;
+			long updatedAt = 0;
+
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (name.equals("id")) {
+					id = readUuid(in);
+				} else if (name.equals("author")) {
+					author = readString(in);
+				} else if (name.equals("title")) {
+					title = readString(in);
+				} else if (name.equals("description")) {
+					description = readString(in);
+				} else if (name.equals("firstChapterId")) {
+					firstChapterId = readUuid(in);
+				} else if (name.equals("chapters")) {
+					readChapters(in, chapters);
+				} else if (name.equals("phoneId")) {
+					phoneId = readString(in);
+				} else if (name.equals("updatedAt")) {
+					updatedAt = readLong(in);
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+
+			Story story = new Story(id, title, author, description, phoneId);
+			story.setChapters(chapters);
+			story.setFirstChapterId(firstChapterId);
+			story.setUpdatedAt(updatedAt);
+			story.clearChanges();
+			return story;
+		}
+
+		/**
+		 * Reads chapters kept by id, or in an array.
+		 */
+		private void readChapters(JsonReader in,
+				HashMap<UUID, Chapter> chapters) throws IOException {
+			JsonToken token = in.peek();
+			if (token == JsonToken.BEGIN_OBJECT) {
+				in.beginObject();
+				while (in.hasNext()) {
+					String key = in.nextName();
+					Chapter chapter = chapterAdapter.read(in);
+					if (chapter != null) {
+						if (chapter.getId() == null) {
+							chapter.setId(UUID.fromString(key));
+						}
+						chapters.put(chapter.getId(), chapter);
+					}
+				}
+				in.endObject();
+			} else if (token == JsonToken.BEGIN_ARRAY) {
+				in.beginArray();
+				while (in.hasNext()) {
+					Chapter chapter = chapterAdapter.read(in);
+					if (chapter != null) {
+						chapters.put(chapter.getId(), chapter);
+					}
+				}
+				in.endArray();
+			} else {
+				in.skipValue();
+			}
+		}
+	}
+
+	/**
+	 * Writes and reads a chapter along with its choices and media.
+	 */
+	static class ChapterAdapter extends TypeAdapter<Chapter> {
+		private ChoiceAdapter choiceAdapter;
+		private MediaAdapter mediaAdapter;
+
+		ChapterAdapter(ChoiceAdapter choiceAdapter, MediaAdapter mediaAdapter) {
+			this.choiceAdapter = choiceAdapter;
+			this.mediaAdapter = mediaAdapter;
+		}
+
+		@Override
+		public void write(JsonWriter out, Chapter chapter) throws IOException {
+			if (chapter == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			writeUuid(out, "id", chapter.getId());
+			writeUuid(out, "storyId", chapter.getStoryId());
+			writeString(out, "text", chapter.getText());
+			if (chapter.getChoices() != null) {
+				out.name("choices").beginArray();
+				for (Choice choice : chapter.getChoices()) {
+					choiceAdapter.write(out, choice);
+				}
+				out.endArray();
+			}
+			writeMedia(out, "illustrations", chapter.getIllustrations());
+			writeMedia(out, "photos", chapter.getPhotos());
+			out.name("updatedAt").value(chapter.getUpdatedAt());
+			out.endObject();
+		}
+
+		@Override
+		public Chapter read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			Chapter chapter = new Chapter(null, null, null);
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (name.equals("id")) {
+					chapter.setId(readUuid(in));
+				} else if (name.equals("storyId")) {
+					chapter.setStoryId(readUuid(in));
+				} else if (name.equals("text")) {
+					chapter.setText(readString(in));
+				} else if (name.equals("choices")) {
+					chapter.setChoices(readChoices(in));
+				} else if (name.equals("illustrations")) {
+					chapter.setIllustrations(readMedia(in));
+				} else if (name.equals("photos")) {
+					chapter.setPhotos(readMedia(in));
+				} else if (name.equals("updatedAt")) {
+					chapter.setUpdatedAt(readLong(in));
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			chapter.clearChanges();
+			return chapter;
+		}
+
+		private void writeMedia(JsonWriter out, String name,
+				ArrayList<Media> media) throws IOException {
+			if (media != null) {
+				out.name(name).beginArray();
+				for (Media item : media) {
+					mediaAdapter.write(out, item);
+				}
+				out.endArray();
+			}
+		}
+
+		private ArrayList<Choice> readChoices(JsonReader in)
+				throws IOException {
+			ArrayList<Choice> choices = new ArrayList<Choice>();
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return choices;
+			}
+			in.beginArray();
+			while (in.hasNext()) {
+				Choice choice = choiceAdapter.read(in);
+				if (choice != null) {
+					choices.add(choice);
+				}
+			}
+			in.endArray();
+			return choices;
+		}
+
+		private ArrayList<Media> readMedia(JsonReader in) throws IOException {
+			ArrayList<Media> media = new ArrayList<Media>();
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return media;
+			}
+			in.beginArray();
+			while (in.hasNext()) {
+				Media item = mediaAdapter.read(in);
+				if (item != null) {
+					media.add(item);
+				}
+			}
+			in.endArray();
+			return media;
+		}
+	}
+
+	/**
+	 * Writes and reads a choice.
+	 */
+	static class ChoiceAdapter extends TypeAdapter<Choice> {
+		@Override
+		public void write(JsonWriter out, Choice choice) throws IOException {
+			if (choice == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			writeUuid(out, "id", choice.getId());
+			writeUuid(out, "currentChapter", choice.getCurrentChapter());
+			writeUuid(out, "nextChapter", choice.getNextChapter());
+			writeString(out, "text", choice.getText());
+			out.endObject();
+		}
+
+		@Override
+		public Choice read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			UUID id = null;
+			UUID currentChapter = null;
+			UUID nextChapter = null;
+			String text = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (name.equals("id")) {
+					id = readUuid(in);
+				} else if (name.equals("currentChapter")) {
+					currentChapter = readUuid(in);
+				} else if (name.equals("nextChapter")) {
+					nextChapter = readUuid(in);
+				} else if (name.equals("text")) {
+					text = readString(in);
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new Choice(id, currentChapter, nextChapter, text);
+		}
+	}
+
+	/**
+	 * Writes and reads a media. Its contents are not part of it.
+	 */
+	static class MediaAdapter extends TypeAdapter<Media> {
+		@Override
+		public void write(JsonWriter out, Media media) throws IOException {
+			if (media == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			writeUuid(out, "id", media.getId());
+			writeUuid(out, "chapterId", media.getChapterId());
+			if (media.getPath() != null && media.getPath().length() > 0) {
+				out.name("path").value(media.getPath());
+			}
+			writeString(out, "type", media.getType());
+			writeString(out, "blobHash", media.getBlobHash());
+			out.endObject();
+		}
+
+		@Override
+		public Media read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			UUID id = null;
+			UUID chapterId = null;
+			String path = null;
+			String type = null;
+			String blobHash = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (name.equals("id")) {
+					id = readUuid(in);
+				} else if (name.equals("chapterId")) {
+					chapterId = readUuid(in);
+				} else if (name.equals("path")) {
+					path = readString(in);
+				} else if (name.equals("type")) {
+					type = readString(in);
+				} else if (name.equals("blobHash")) {
+					blobHash = readString(in);
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			Media media = new Media(id, chapterId, path, type);
+			media.setBlobHash(blobHash);
+			return media;
+		}
+	}
+
+	/**
+	 * Writes a field, unless it is null (the way Gson leaves out nulls).
+	 */
+	private static void writeString(JsonWriter out, String name, String value)
+			throws IOException {
+		if (value != null) {
+			out.name(name).value(value);
+		}
+	}
+
+	private static void writeUuid(JsonWriter out, String name, UUID value)
+			throws IOException {
+		if (value != null) {
+			out.name(name).value(value.toString());
+		}
+	}
+
+	private static String readString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	private static UUID readUuid(JsonReader in) throws IOException {
+		String value = readString(in);
+		return (value == null) ? null : UUID.fromString(value);
+	}
+
+	private static long readLong(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return 0;
+		}
+		return in.nextLong();
+	}
+}
@@ -16,7 +16,12 @@
 
 package ca.ualberta.cs.c301f13t13.backend;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -24,6 +29,9 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterFtsTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryFtsTable;
 import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
 
 /**
@@ -43,13 +51,50 @@ import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
 public class StoryManager implements StoringManager {
 	private static DBHelper helper = null;
 	private static StoryManager self = null;
+	private static StoryGraphIndex index = null;
 	private Context context = null;
 
+	/**
+	 * Selects the stories with a keyword in their title, author or
+	 * description, or in the text of one of their chapters.
+	 */
+	private static final String SQL_HAS_KEYWORD = "(rowid IN (SELECT docid "
+			+ "FROM " + StoryFtsTable.TABLE_NAME + " WHERE "
+			+ StoryFtsTable.TABLE_NAME + " MATCH ?) OR "
+			+ StoryTable.COLUMN_NAME_STORY_ID + " IN (SELECT c."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " FROM "
+			+ ChapterFtsTable.TABLE_NAME + " JOIN " + ChapterTable.TABLE_NAME
+			+ " c ON c.rowid = " + ChapterFtsTable.TABLE_NAME
+			+ ".docid WHERE " + ChapterFtsTable.TABLE_NAME + " MATCH ?))";
+
+	/**
+	 * Selects how well the stories matched the keywords in their title,
+	 * author and description.
+	 */
+	private static final String SQL_RANK_STORIES = "SELECT s."
+			+ StoryTable.COLUMN_NAME_STORY_ID + ", matchinfo("
+			+ StoryFtsTable.TABLE_NAME + ", 'pcx') FROM "
+			+ StoryFtsTable.TABLE_NAME + " JOIN " + StoryTable.TABLE_NAME
+			+ " s ON s.rowid = " + StoryFtsTable.TABLE_NAME + ".docid WHERE "
+			+ StoryFtsTable.TABLE_NAME + " MATCH ?";
+
+	/**
+	 * Selects how well each chapter matched the keywords, along with the
+	 * story it belongs to.
+	 */
+	private static final String SQL_RANK_CHAPTERS = "SELECT c."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + ", matchinfo("
+			+ ChapterFtsTable.TABLE_NAME + ", 'pcx') FROM "
+			+ ChapterFtsTable.TABLE_NAME + " JOIN " + ChapterTable.TABLE_NAME
+			+ " c ON c.rowid = " + ChapterFtsTable.TABLE_NAME
+			+ ".docid WHERE " + ChapterFtsTable.TABLE_NAME + " MATCH ?";
+
 	/**
 	 * Initializes a new StoryManager object.
 	 */
 	protected StoryManager(Context context) {
 		helper = DBHelper.getInstance(context);
+		index = StoryGraphIndex.getInstance(context);
 		this.context = context;
 	}
 
@@ -60,7 +105,7 @@ public class StoryManager implements StoringManager {
 	 * @param context
 	 * @return StoryManager
 	 */
-	public static StoryManager getInstance(Context context) {
+	public static synchronized StoryManager getInstance(Context context) {
 		if (self == null) {
 			self = new StoryManager(context);
 		}
@@ -94,8 +139,11 @@ public class StoryManager implements StoringManager {
 					chapterId.toString());
 		}
 		values.put(StoryTable.COLUMN_NAME_PHONE_ID, story.getPhoneId());
+		story.setUpdatedAt(System.currentTimeMillis());
+		values.put(StoryTable.COLUMN_NAME_UPDATED_AT, story.getUpdatedAt());
 
 		db.insert(StoryTable.TABLE_NAME, null, values);
+		index.onStorySaved(story);
 	}
 
 	/**
@@ -117,16 +165,21 @@ public class StoryManager implements StoringManager {
 		values.put(StoryTable.COLUMN_NAME_FIRST_CHAPTER, 
 				newS.getFirstChapterId().toString());
 		values.put(StoryTable.COLUMN_NAME_PHONE_ID, newS.getPhoneId());
+		newS.setUpdatedAt(System.currentTimeMillis());
+		values.put(StoryTable.COLUMN_NAME_UPDATED_AT, newS.getUpdatedAt());
 
 		// Setting search criteria
-		String selection = StoryTable.COLUMN_NAME_STORY_ID + " LIKE ?";
+		String selection = StoryTable.COLUMN_NAME_STORY_ID + " = ?";
 		String[] sArgs = { newS.getId().toString() };
 
 		db.update(StoryTable.TABLE_NAME, values, selection, sArgs);
+		index.onStorySaved(newS);
 	}
 
 	/**
-	 * Retrieves a story /stories from the database.
+	 * Retrieves a story /stories from the database. If the criteria has title
+	 * keywords, they are looked up in the full text index and the stories
+	 * come back best match first.
 	 * 
 	 * @param criteria
 	 *            Holds the search criteria.
@@ -142,7 +195,8 @@ public class StoryManager implements StoringManager {
 				StoryTable.COLUMN_NAME_AUTHOR,
 				StoryTable.COLUMN_NAME_DESCRIPTION,
 				StoryTable.COLUMN_NAME_FIRST_CHAPTER,
-				StoryTable.COLUMN_NAME_PHONE_ID };
+				StoryTable.COLUMN_NAME_PHONE_ID,
+				StoryTable.COLUMN_NAME_UPDATED_AT };
 
 		// Setting search criteria
 		ArrayList<String> selectionArgs = new ArrayList<String>();
@@ -170,14 +224,123 @@ public class StoryManager implements StoringManager {
 					cursor.getString(4), // first chapter id
 					cursor.getString(5) // phoneId
 					);
+			story.setUpdatedAt(cursor.getLong(6));
 			results.add(story);
 			cursor.moveToNext();
 		}
 		cursor.close();
 
+		// Best matches first
+		String keywords = ((Story) criteria).getSearchCriteria().get(
+				StoryTable.COLUMN_NAME_TITLE);
+		if (keywords != null && results.size() > 1) {
+			final HashMap<String, Double> scores = rank(db, keywords);
+			Collections.sort(results, new Comparator<Object>() {
+				@Override
+				public int compare(Object lhs, Object rhs) {
+					return score(scores, rhs).compareTo(score(scores, lhs));
+				}
+			});
+		}
+
 		return results;
 	}
 	
+	/**
+	 * Retrieves one page of the stories matching the criteria, in browsing
+	 * order (by title, then id, with stories without a title first, even
+	 * before empty titles). The page after another one is found by
+	 * where that page's last story is in the browsing order, so it is
+	 * looked up in the title index instead of skipping over all the stories
+	 * before it.
+	 * 
+	 * @param criteria
+	 *            Holds the search criteria. Can't have title keywords, since
+	 *            keyword searches are ordered by how well stories match.
+	 * @param previous
+	 *            Page before the one wanted, or null for the first page.
+	 * @param size
+	 *            Most stories on the page.
+	 * 
+	 * @return StoryPage
+	 */
+	public StoryPage retrievePage(Story criteria, StoryPage previous, int size) {
+		if (criteria.getTitle() != null) {
+			throw new IllegalArgumentException(
+					"Keyword searches can't be paged");
+		}
+		SQLiteDatabase db = helper.getReadableDatabase();
+		ArrayList<String> selectionArgs = new ArrayList<String>();
+		String selection = setSearchCriteria(criteria, selectionArgs);
+
+		Story last = (previous == null) ? null : previous.getLastStory();
+		if (last != null) {
+			if (selection.length() > 0) {
+				selection += " AND ";
+			}
+			// Stories without a title sort first but never compare greater
+			// than anything, so after one of them come the others without a
+			// title, by id, then all the ones with a title. Leaving the
+			// title as it is (not IFNULL) keeps the title index usable.
+			if (last.getTitle() == null) {
+				selection += "((" + StoryTable.COLUMN_NAME_TITLE 
+						+ " IS NULL AND " + StoryTable.COLUMN_NAME_STORY_ID 
+						+ " > ?) OR " + StoryTable.COLUMN_NAME_TITLE 
+						+ " IS NOT NULL)";
+			} else {
+				selection += "(" + StoryTable.COLUMN_NAME_TITLE
+						+ " COLLATE NOCASE > ? OR ("
+						+ StoryTable.COLUMN_NAME_TITLE 
+						+ " COLLATE NOCASE = ? AND "
+						+ StoryTable.COLUMN_NAME_STORY_ID + " > ?))";
+				selectionArgs.add(last.getTitle());
+				selectionArgs.add(last.getTitle());
+			}
+			selectionArgs.add(last.getId().toString());
+		}
+
+		String[] sArgs = null;
+		if (selectionArgs.size() > 0) {
+			sArgs = selectionArgs.toArray(new String[selectionArgs.size()]);
+		} else {
+			selection = null;
+		}
+		String[] projection = { 
+				StoryTable.COLUMN_NAME_STORY_ID,
+				StoryTable.COLUMN_NAME_TITLE, 
+				StoryTable.COLUMN_NAME_AUTHOR,
+				StoryTable.COLUMN_NAME_DESCRIPTION,
+				StoryTable.COLUMN_NAME_FIRST_CHAPTER,
+				StoryTable.COLUMN_NAME_PHONE_ID,
+				StoryTable.COLUMN_NAME_UPDATED_AT };
+
+		// One extra story is asked for to know if there is another page
+		Cursor cursor = db.query(StoryTable.TABLE_NAME, projection, selection,
+				sArgs, null, null, StoryTable.SQL_BROWSE_ORDER,
+				String.valueOf(size + 1));
+
+		ArrayList<Story> stories = new ArrayList<Story>();
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast() && stories.size() < size) {
+			Story story = new Story(
+					cursor.getString(0), // id
+					cursor.getString(1), // title
+					cursor.getString(2), // author
+					cursor.getString(3), // description
+					cursor.getString(4), // first chapter id
+					cursor.getString(5) // phoneId
+					);
+			story.setUpdatedAt(cursor.getLong(6));
+			stories.add(story);
+			cursor.moveToNext();
+		}
+		boolean hasMore = !cursor.isAfterLast();
+		cursor.close();
+
+		int start = (previous == null) ? 0 : previous.getEnd();
+		return new StoryPage(stories, hasMore, start + stories.size());
+	}
+
 	/**
 	 * Creates the selection string (a prepared statement) to be used in the
 	 * database query. Also creates an array holding the items to be placed in
@@ -189,7 +352,8 @@ public class StoryManager implements StoringManager {
 	 * @param sArgs
 	 *            Holds the arguments to be passed into the selection string.
 	 * @return String The selection string, i.e. the where clause that will be
-	 *         used in the sql query.
+	 *         used in the sql query. Every title keyword has to be in the
+	 *         title, author, description or a chapter of the story.
 	 */
 	@Override
 	public String setSearchCriteria(Object object, ArrayList<String> sArgs) {
@@ -206,13 +370,19 @@ public class StoryManager implements StoringManager {
 			String value = storyCrit.get(key);
 			if (key.equals(StoryTable.COLUMN_NAME_PHONE_ID) && 
 					(!value.equals(Utilities.getPhoneId(context)))) {
-					selection += key + " NOT LIKE ?";
+					selection += key + " != ?";
 					sArgs.add(Utilities.getPhoneId(context));
 			} else if (key.equals(StoryTable.COLUMN_NAME_TITLE)){
-				selection += key + " LIKE ?";
-				sArgs.add(value);
+				// Keywords can be in different chapters, so each one is
+				// looked up on its own
+				String[] keywords = value.split(" ");
+				for (int i = 0; i < keywords.length; i++) {
+					selection += ((i > 0) ? " AND " : "") + SQL_HAS_KEYWORD;
+					sArgs.add(keywords[i]);
+					sArgs.add(keywords[i]);
+				}
 			} else {
-				selection += key + " LIKE ?";
+				selection += key + " = ?";
 				sArgs.add(value);
 			}
 			
@@ -223,4 +393,79 @@ public class StoryManager implements StoringManager {
 		}
 		return selection;
 	}
+
+	/**
+	 * Scores how well every story matched any of the keywords of a search,
+	 * from the matchinfo of its full text index row and of the rows of its
+	 * chapters. Each keyword hit in a column is worth that column's weight,
+	 * divided by how common the keyword is over all the rows, so rare
+	 * keywords and title hits count the most.
+	 * 
+	 * @param db
+	 * @param keywords
+	 *            Full text query of the keywords, separated by spaces.
+	 * @return HashMap The score of each story, by story id.
+	 */
+	private HashMap<String, Double> rank(SQLiteDatabase db, String keywords) {
+		HashMap<String, Double> scores = new HashMap<String, Double>();
+		String[] sArgs = { keywords.replace(" ", " OR ") };
+		addScores(db.rawQuery(SQL_RANK_STORIES, sArgs), scores,
+				StoryFtsTable.COLUMN_WEIGHTS);
+		addScores(db.rawQuery(SQL_RANK_CHAPTERS, sArgs), scores,
+				ChapterFtsTable.COLUMN_WEIGHTS);
+		return scores;
+	}
+
+	/**
+	 * Adds the score of each row of the cursor, which holds a story id and
+	 * the result of matchinfo(..., 'pcx') for the row, to its story's score.
+	 */
+	private static void addScores(Cursor cursor, HashMap<String, Double> scores,
+			double[] weights) {
+		try {
+			while (cursor.moveToNext()) {
+				String storyId = cursor.getString(0);
+				scores.put(storyId, score(scores, storyId)
+						+ rank(cursor.getBlob(1), weights));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static Double score(HashMap<String, Double> scores, Object story) {
+		String storyId = (story instanceof Story) ? ((Story) story).getId()
+				.toString() : (String) story;
+		Double score = scores.get(storyId);
+		return (score == null) ? 0.0 : score;
+	}
+
+	/**
+	 * Scores one row of a full text index from its matchinfo.
+	 * 
+	 * @param matchInfo
+	 *            Result of matchinfo(..., 'pcx') for the row.
+	 * @param weights
+	 *            Weight of each column of the index.
+	 * @return double The row's score.
+	 */
+	private static double rank(byte[] matchInfo, double[] weights) {
+		IntBuffer info = ByteBuffer.wrap(matchInfo)
+				.order(ByteOrder.nativeOrder()).asIntBuffer();
+		int phrases = info.get(0);
+		int columns = info.get(1);
+		double score = 0;
+
+		for (int p = 0; p < phrases; p++) {
+			for (int c = 0; c < columns; c++) {
+				int hit = 2 + 3 * (p * columns + c);
+				int hitsInRow = info.get(hit);
+				int hitsInAllRows = info.get(hit + 1);
+				if (hitsInRow > 0) {
+					score += weights[c] * hitsInRow / hitsInAllRows;
+				}
+			}
+		}
+		return score;
+	}
 }
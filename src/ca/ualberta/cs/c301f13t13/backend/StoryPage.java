@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.util.ArrayList;
+
+/**
+ * Role: Holds one page of the stories being browsed, and remembers where the
+ * page ended so the next page can be asked for by handing this one back to
+ * SHController.getStoryPage.
+ *
+ * Stories in the database are paged by where the last story of the page is
+ * in the browsing order (by title, then id), so getting a later page costs
+ * the same as getting the first one. Stories on the server are paged by how
+ * many stories came before.
+ *
+ * @author Stephanie Gil
+ *
+ * @see SHController
+ */
+public class StoryPage {
+	/**
+	 * Number of stories on a page unless asked otherwise.
+	 */
+	public static final int DEFAULT_SIZE = 30;
+
+	private ArrayList<Story> stories;
+	private boolean hasMore;
+	private int end;
+
+	/**
+	 * Initializes a new page.
+	 *
+	 * @param stories
+	 *            Stories on the page, in browsing order.
+	 * @param hasMore
+	 *            Whether there are stories after this page.
+	 * @param end
+	 *            Number of stories on this page and all the ones before it.
+	 */
+	public StoryPage(ArrayList<Story> stories, boolean hasMore, int end) {
+		this.stories = stories;
+		this.hasMore = hasMore;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the stories on the page.
+	 *
+	 * @return stories
+	 */
+	public ArrayList<Story> getStories() {
+		return stories;
+	}
+
+	/**
+	 * Returns whether there are stories after this page.
+	 *
+	 * @return hasMore
+	 */
+	public boolean hasMore() {
+		return hasMore;
+	}
+
+	/**
+	 * Returns the number of stories on this page and all the ones before it,
+	 * which is where the next page starts.
+	 *
+	 * @return end
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the last story on the page, or null if the page is empty.
+	 *
+	 * @return Story
+	 */
+	public Story getLastStory() {
+		if (stories.isEmpty()) {
+			return null;
+		}
+		return stories.get(stories.size() - 1);
+	}
+}
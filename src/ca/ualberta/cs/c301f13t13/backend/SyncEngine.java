@@ -0,0 +1,383 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.ChapterTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.StoryTable;
+import ca.ualberta.cs.c301f13t13.backend.DBContract.SyncTable;
+import ca.ualberta.cs.c301f13t13.backend.ESResponseReader.HitHandler;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Role: Brings the stories on the phone (cached and created) and their
+ * published copies on the server up to date with each other, only moving
+ * what changed since the last sync.
+ *
+ * Every story and chapter keeps the time it was last changed on a phone. The
+ * engine remembers two checkpoints in the database: the newest change it has
+ * pulled from the server, and the time it last pushed to the server.
+ *
+ * A sync first pulls the stories on the phone whose server copy changed
+ * after the pull checkpoint, a few ids per request. Then it pushes the
+ * stories changed on the phone since the push checkpoint as partial updates
+ * in bulk requests, holding the story's own fields, the latest time it or
+ * one of its chapters was changed, and only the chapters changed since
+ * then. Stories that were never published are left alone. The contents of
+ * the media in the pushed chapters are sent before the stories.
+ *
+ * A story changed both on the phone and on the server since the last sync is
+ * a conflict. The copy with the latest change wins, and the server's copy
+ * wins a tie, so every phone settles on the same copy.
+ *
+ * Design Pattern: Singleton
+ *
+ * @author Stephanie Gil
+ *
+ * @see ServerManager
+ * @see BulkPublisher
+ */
+public class SyncEngine {
+	public static final int IDS_PER_REQUEST = 50;
+
+	static final String LAST_PULL = "last_pull";
+	static final String LAST_PUSH = "last_push";
+
+	/**
+	 * Selects the id of every story on the phone, and the latest time it or
+	 * one of its chapters was changed.
+	 */
+	static final String SQL_LOCAL_CHANGES = "SELECT s."
+			+ StoryTable.COLUMN_NAME_STORY_ID + ", MAX(s."
+			+ StoryTable.COLUMN_NAME_UPDATED_AT + ", IFNULL((SELECT MAX(c."
+			+ ChapterTable.COLUMN_NAME_UPDATED_AT + ") FROM "
+			+ ChapterTable.TABLE_NAME + " c WHERE c."
+			+ ChapterTable.COLUMN_NAME_STORY_ID + " = s."
+			+ StoryTable.COLUMN_NAME_STORY_ID + "), 0)) FROM "
+			+ StoryTable.TABLE_NAME + " s";
+
+	private static SyncEngine self = null;
+	private DBHelper helper = null;
+	private StoryGraphLoader loader = null;
+	private StoryGraphWriter writer = null;
+	private ServerManager server = null;
+	private BlobStore blobs = null;
+	private Gson gson = null;
+
+	/**
+	 * What a sync did.
+	 */
+	public static class Result {
+		private int pulled;
+		private int pushed;
+		private int conflicts;
+		private ArrayList<BulkPublisher.Failure> failures = 
+				new ArrayList<BulkPublisher.Failure>();
+
+		/**
+		 * Returns the number of stories updated from the server.
+		 */
+		public int getPulled() {
+			return pulled;
+		}
+
+		/**
+		 * Returns the number of stories the server was updated with.
+		 */
+		public int getPushed() {
+			return pushed;
+		}
+
+		/**
+		 * Returns the number of stories changed on both sides.
+		 */
+		public int getConflicts() {
+			return conflicts;
+		}
+
+		/**
+		 * Returns the stories the server turned down when they were pushed.
+		 * They are pushed again on the next sync.
+		 */
+		public ArrayList<BulkPublisher.Failure> getFailures() {
+			return failures;
+		}
+	}
+
+	/**
+	 * Initializes a new SyncEngine.
+	 *
+	 * @param context
+	 * @param server
+	 *            Server the stories are published on.
+	 */
+	protected SyncEngine(Context context, ServerManager server) {
+		helper = DBHelper.getInstance(context);
+		loader = StoryGraphLoader.getInstance(context);
+		writer = StoryGraphWriter.getInstance(context);
+		this.server = server;
+		blobs = BlobStore.getInstance(context);
+		gson = StoryGson.getInstance();
+	}
+
+	/**
+	 * Returns an instance of itself. Used to accomplish the singleton design
+	 * pattern.
+	 *
+	 * @param context
+	 * @return SyncEngine
+	 */
+	public static synchronized SyncEngine getInstance(Context context) {
+		if (self == null) {
+			self = new SyncEngine(context, ServerManager.getInstance());
+		}
+		return self;
+	}
+
+	/**
+	 * Pulls the changes made on the server, then pushes the changes made on
+	 * the phone. The checkpoints only move forward once their part of the
+	 * sync went through, so a failed sync is picked up again by the next one.
+	 *
+	 * @return What the sync did.
+	 */
+	public synchronized Result sync() throws IOException {
+		Result result = new Result();
+		long lastPull = getCheckpoint(LAST_PULL);
+		long lastPush = getCheckpoint(LAST_PUSH);
+		// Changes made while syncing are after this, so the next sync
+		// pushes them
+		long pushStarted = System.currentTimeMillis();
+
+		HashMap<UUID, Long> local = getLocalChanges();
+		HashSet<UUID> changed = new HashSet<UUID>();
+		for (UUID id : local.keySet()) {
+			if (local.get(id) > lastPush) {
+				changed.add(id);
+			}
+		}
+
+		long newestPulled = pull(new ArrayList<UUID>(local.keySet()),
+				lastPull, local, changed, result);
+		setCheckpoint(LAST_PULL, Math.max(lastPull, newestPulled));
+
+		if (push(changed, lastPush, result)) {
+			setCheckpoint(LAST_PUSH, pushStarted);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the server copies of the stories changed after lastPull, and saves
+	 * the ones that win over the phone's copy. Stories the phone's copy won
+	 * stay in changed to be pushed, the others are taken out of it.
+	 *
+	 * @return The latest change of any story pulled, or 0 if none were.
+	 */
+	private long pull(ArrayList<UUID> ids, long lastPull,
+			HashMap<UUID, Long> local, HashSet<UUID> changed, Result result)
+			throws IOException {
+		long newest = 0;
+		for (int start = 0; start < ids.size(); start += IDS_PER_REQUEST) {
+			final ArrayList<Story> remotes = new ArrayList<Story>();
+			server.searchChangedSince(ids.subList(start,
+					Math.min(ids.size(), start + IDS_PER_REQUEST)), lastPull,
+					new HitHandler<Story>() {
+						@Override
+						public void onHit(Story story) {
+							remotes.add(story);
+						}
+					});
+
+			for (Story remote : remotes) {
+				long remoteChange = getLatestChange(remote);
+				newest = Math.max(newest, remoteChange);
+				UUID id = remote.getId();
+				if (changed.contains(id)) {
+					result.conflicts++;
+					if (!remoteWins(local.get(id), remoteChange)) {
+						continue;
+					}
+				}
+				if (remote.getChapters() == null) {
+					remote.setChapters(new HashMap<UUID, Chapter>());
+				}
+				remote.clearChanges();
+				writer.saveStory(remote);
+				changed.remove(id);
+				result.pulled++;
+			}
+		}
+		return newest;
+	}
+
+	/**
+	 * Sends the changes of the stories to the server.
+	 *
+	 * @return Whether every published story was updated.
+	 */
+	private boolean push(HashSet<UUID> changed, long lastPush, Result result)
+			throws IOException {
+		BulkPublisher publisher = new BulkPublisher(server);
+		int count = 0;
+		for (UUID id : changed) {
+			Story story = loader.loadStory(id);
+			if (story != null) {
+				ArrayList<Chapter> chapters = new ArrayList<Chapter>();
+				for (Chapter chapter : story.getChapters().values()) {
+					if (chapter.getUpdatedAt() > lastPush) {
+						chapters.add(chapter);
+					}
+				}
+				int status = server.putBlobs(chapters, blobs);
+				if (status >= 300) {
+					throw new IOException("Could not send the media of story "
+							+ id + ": " + status);
+				}
+				publisher.update(story, getPushDocument(story, lastPush));
+				count++;
+			}
+		}
+
+		int failed = 0;
+		for (BulkPublisher.Failure failure : publisher.flush()) {
+			if (failure.getStatus() == 404) {
+				// Never published, so there is nothing to update
+				count--;
+			} else {
+				result.failures.add(failure);
+				failed++;
+			}
+		}
+		result.pushed = count - failed;
+		boolean allDone = (failed == 0);
+		return allDone;
+	}
+
+	/**
+	 * Makes the partial document pushed for a story: its own fields, and the
+	 * chapters changed after the given time, keyed by id.
+	 */
+	JsonObject getPushDocument(Story story, long since) {
+		JsonObject doc = new JsonObject();
+		doc.addProperty("title", story.getTitle());
+		doc.addProperty("author", story.getAuthor());
+		doc.addProperty("description", story.getDescription());
+		if (story.getFirstChapterId() != null) {
+			doc.addProperty("firstChapterId", story.getFirstChapterId()
+					.toString());
+		}
+		doc.addProperty("phoneId", story.getPhoneId());
+		doc.addProperty("updatedAt", story.getUpdatedAt());
+		// What other phones find the story by when they pull
+		doc.addProperty(StoryGson.CHANGED_AT, getLatestChange(story));
+
+		JsonObject chapters = new JsonObject();
+		for (Chapter chapter : story.getChapters().values()) {
+			if (chapter.getUpdatedAt() > since) {
+				chapters.add(chapter.getId().toString(),
+						gson.toJsonTree(chapter));
+			}
+		}
+		if (!chapters.entrySet().isEmpty()) {
+			doc.add("chapters", chapters);
+		}
+		return doc;
+	}
+
+	/**
+	 * Returns the latest time the story or one of its chapters was changed.
+	 *
+	 * @param story
+	 */
+	public static long getLatestChange(Story story) {
+		long latest = story.getUpdatedAt();
+		if (story.getChapters() != null) {
+			for (Chapter chapter : story.getChapters().values()) {
+				latest = Math.max(latest, chapter.getUpdatedAt());
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Decides a conflict between the phone's and the server's copy of a
+	 * story: the latest change wins, and the server wins a tie.
+	 *
+	 * @param localChange
+	 *            Latest change of the phone's copy.
+	 * @param remoteChange
+	 *            Latest change of the server's copy.
+	 *
+	 * @return Whether the server's copy is kept.
+	 */
+	public static boolean remoteWins(long localChange, long remoteChange) {
+		return remoteChange >= localChange;
+	}
+
+	private HashMap<UUID, Long> getLocalChanges() {
+		HashMap<UUID, Long> changes = new HashMap<UUID, Long>();
+		SQLiteDatabase db = helper.getReadableDatabase();
+		Cursor cursor = db.rawQuery(SQL_LOCAL_CHANGES, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			changes.put(UUID.fromString(cursor.getString(0)),
+					cursor.getLong(1));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return changes;
+	}
+
+	/**
+	 * Returns the value of a checkpoint, or 0 if it was never set.
+	 *
+	 * @param name
+	 */
+	long getCheckpoint(String name) {
+		SQLiteDatabase db = helper.getReadableDatabase();
+		Cursor cursor = db.query(SyncTable.TABLE_NAME,
+				new String[] { SyncTable.COLUMN_NAME_VALUE },
+				SyncTable.COLUMN_NAME_NAME + " = ?", new String[] { name },
+				null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private void setCheckpoint(String name, long value) {
+		SQLiteDatabase db = helper.getWritableDatabase();
+		ContentValues values = new ContentValues();
+		values.put(SyncTable.COLUMN_NAME_NAME, name);
+		values.put(SyncTable.COLUMN_NAME_VALUE, value);
+		db.insertWithOnConflict(SyncTable.TABLE_NAME, null, values,
+				SQLiteDatabase.CONFLICT_REPLACE);
+	}
+}
@@ -16,6 +16,7 @@
 package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.content.Context;
@@ -24,23 +25,42 @@ import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
+import ca.ualberta.cs.c301f13t13.backend.ObjectType;
+import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.StoryPage;
 
 /**
- * Class which handles adapting the Story object to a displayable view type
+ * Class which handles adapting the Story object to a displayable view type.
+ * 
+ * The stories are loaded a page at a time. Set as the grid's scroll listener,
+ * the adapter loads the next page in the background once the grid is
+ * scrolled near the end of the stories it has.
  * 
  * @author alexanderwong
  * 
  */
-public class AdapterStories extends ArrayAdapter<Story> {
+public class AdapterStories extends ArrayAdapter<Story> implements
+		OnScrollListener {
+	/**
+	 * How many stories from the end the next page starts loading.
+	 */
+	private static final int LOAD_AHEAD = 6;
 
 	Context context;
 	int layoutResourceId;
 	ArrayList<Story> data = new ArrayList<Story>();
+	private ObjectType type = null;
+	private StoryPage lastPage = null;
+	private Future<StoryPage> loading = null;
 
 	public AdapterStories(Context context, int layoutResourceId,
 			ArrayList<Story> data) {
@@ -81,6 +101,75 @@ public class AdapterStories extends ArrayAdapter<Story> {
 
 	}
 
+	/**
+	 * Throws away the stories shown, then starts loading the first page of
+	 * stories of the given type.
+	 * 
+	 * @param type
+	 *            Will either be PUBLISHED_STORY, CACHED_STORY, or
+	 *            CREATED_STORY.
+	 */
+	public void showStories(ObjectType type) {
+		cancelLoading();
+		this.type = type;
+		lastPage = null;
+		loadNextPage();
+	}
+
+	/**
+	 * Stops loading a page, if one is being loaded.
+	 */
+	public void cancelLoading() {
+		if (loading != null) {
+			loading.cancel(true);
+			loading = null;
+		}
+	}
+
+	/**
+	 * Starts loading the page after the last one loaded, unless one is
+	 * already being loaded or there are no more.
+	 */
+	private void loadNextPage() {
+		if (loading != null || (lastPage != null && !lastPage.hasMore())) {
+			return;
+		}
+		SHController gc = SHController.getInstance(context);
+		loading = gc.getStoryPageAsync(type, lastPage, StoryPage.DEFAULT_SIZE,
+				new Callback<StoryPage>() {
+					@Override
+					public void onResult(StoryPage page) {
+						loading = null;
+						if (lastPage == null) {
+							data.clear();
+						}
+						lastPage = page;
+						data.addAll(page.getStories());
+						notifyDataSetChanged();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						loading = null;
+						Toast.makeText(context, "Could not load stories",
+								Toast.LENGTH_SHORT).show();
+					}
+				});
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		int lastVisibleItem = firstVisibleItem + visibleItemCount;
+		if (lastPage != null && lastVisibleItem + LOAD_AHEAD >= totalItemCount) {
+			loadNextPage();
+		}
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+	}
+
 	static class StoryHolder {
 		TextView txtTitle;
 		ImageView imageItem;
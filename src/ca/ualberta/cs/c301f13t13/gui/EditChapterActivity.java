@@ -19,6 +19,7 @@ package ca.ualberta.cs.c301f13t13.gui;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -40,6 +41,7 @@ import ca.ualberta.cs.c301f13t13.backend.Choice;
 import ca.ualberta.cs.c301f13t13.backend.Media;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 
 //import android.view.Menu; *Not sure if needed
@@ -61,7 +63,10 @@ public class EditChapterActivity extends Activity {
 	private boolean isEditing;
 	private boolean newStory;
 	private Story story;
+	private UUID storyID;
+	private UUID chapterID;
 	private Chapter chapter;
+	private Future<Chapter> loading;
 	private ArrayList<Choice> choices = new ArrayList<Choice>();
 	private Button saveButton;
 	private Button addIllust;
@@ -95,18 +100,62 @@ public class EditChapterActivity extends Activity {
 		updateData();
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (loading != null) {
+			loading.cancel(true);
+		}
+	}
+
 	/**
-	 * Updates the view components depending on the chapter data.
+	 * Loads the chapter being edited in the background, then updates the
+	 * view components with it. A new chapter has nothing to load.
 	 */
 	private void updateData() {
+		if (!isEditing) {
+			showChapter();
+			return;
+		}
+		if (loading != null) {
+			loading.cancel(true);
+		}
+		// Can't save until the chapter is loaded
+		saveButton.setEnabled(false);
+		loading = gc.getCompleteChapterAsync(chapterID,
+				new Callback<Chapter>() {
+					@Override
+					public void onResult(Chapter result) {
+						if (result == null) {
+							onError(null);
+							return;
+						}
+						chapter = result;
+						saveButton.setEnabled(true);
+						showChapter();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						Toast.makeText(getBaseContext(),
+								"Could not load chapter", Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
+
+	/**
+	 * Updates the view components depending on the chapter data.
+	 */
+	private void showChapter() {
 		// Set the chapter text, if new Chapter will simply be blank
 		chapterContent.setText(chapter.getText());
 		choices.clear();
-		choices.addAll(gc.getAllChoices(chapter.getId()));
+		choices.addAll(chapter.getChoices());
 		choiceAdapter.notifyDataSetChanged();
 
 		// Getting illustrations
-		illList = gc.getAllIllustrations(chapter.getId());
+		illList = chapter.getIllustrations();
 
 		// Clean up illustrations layout
 		illustrations.removeAllViews();
@@ -134,7 +183,7 @@ public class EditChapterActivity extends Activity {
 		// Get the story that chapter is being added to
 		Bundle bundle = this.getIntent().getExtras();
 		isEditing = bundle.getBoolean("isEditing");
-		UUID storyID = (UUID) bundle.get("storyID");
+		storyID = (UUID) bundle.get("storyID");
 		try {
 			newStory = bundle.getBoolean("newStory");
 		} finally {
@@ -144,14 +193,12 @@ public class EditChapterActivity extends Activity {
 		}
 		if (newStory) {
 			story = (Story) bundle.get("story");
-		} else {
-			story = gc.getCompleteStory(storyID);
 		}
 		if (isEditing) {
-			UUID chapterID = (UUID) bundle.get("chapterID");
-			chapter = story.getChapter(chapterID);
+			chapterID = (UUID) bundle.get("chapterID");
 		} else {
 			chapter = new Chapter(storyID, "");
+			chapterID = chapter.getId();
 		}
 
 
@@ -170,20 +217,47 @@ public class EditChapterActivity extends Activity {
 			@Override
 			public void onClick(View v) {
 				chapter.setText(chapterContent.getText().toString());
-				if (isEditing) {
-					gc.updateObject(chapter, ObjectType.CHAPTER);
-				} else {
-					story.addChapter(chapter);
-					if (newStory) {
-						gc.addObject(story, ObjectType.CREATED_STORY);
-					}
-					gc.addObject(chapter, ObjectType.CHAPTER);
-				}
-				finish();
+				saveChapter();
 			}
 		});
 	}
 
+	/**
+	 * Saves the chapter in the background, along with its story if the story
+	 * is new, then goes back once it is saved.
+	 */
+	private void saveChapter() {
+		saveButton.setEnabled(false);
+		if (isEditing) {
+			gc.updateObjectAsync(chapter, ObjectType.CHAPTER,
+					new SavedCallback<Object>());
+		} else if (newStory) {
+			story.addChapter(chapter);
+			gc.saveCompleteStoryAsync(story, new SavedCallback<Story>());
+		} else {
+			gc.addObjectAsync(chapter, ObjectType.CHAPTER,
+					new SavedCallback<Object>());
+		}
+	}
+
+	/**
+	 * Goes back once the chapter is saved, or lets it be saved again if it
+	 * couldn't be.
+	 */
+	private class SavedCallback<T> implements Callback<T> {
+		@Override
+		public void onResult(T result) {
+			finish();
+		}
+
+		@Override
+		public void onError(Exception e) {
+			saveButton.setEnabled(true);
+			Toast.makeText(getBaseContext(), "Could not save chapter",
+					Toast.LENGTH_SHORT).show();
+		}
+	}
+
 	/**
 	 * Sets the onClick Listener for adding a choice.
 	 */
@@ -195,8 +269,8 @@ public class EditChapterActivity extends Activity {
 				if (isEditing) {
 					Intent intent = new Intent(getBaseContext(),
 							EditChoiceActivity.class);
-					intent.putExtra("chapterID", chapter.getId());
-					intent.putExtra("storyID", story.getId());
+					intent.putExtra("chapterID", chapterID);
+					intent.putExtra("storyID", storyID);
 					startActivity(intent);
 				} else {
 					Toast.makeText(getBaseContext(),
@@ -287,6 +361,25 @@ public class EditChapterActivity extends Activity {
 		this.sendBroadcast(mediaScanIntent);
 	}
 
+	/**
+	 * Adds the illustration in the background, since its image is copied as
+	 * it is added, then shows the chapter again with it.
+	 */
+	private void addIllustration(Media ill) {
+		gc.addObjectAsync(ill, ObjectType.MEDIA, new Callback<Object>() {
+			@Override
+			public void onResult(Object result) {
+				updateData();
+			}
+
+			@Override
+			public void onError(Exception e) {
+				Toast.makeText(getBaseContext(), "Could not add illustration",
+						Toast.LENGTH_SHORT).show();
+			}
+		});
+	}
+
 	/**
 	 * Activity results for taking photos and browsing gallery.
 	 * 
@@ -297,9 +390,9 @@ public class EditChapterActivity extends Activity {
 			Intent intent) {
 		if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
 			if (resultCode == RESULT_OK) {
-				Media ill = new Media(chapter.getId(), imageFileUri.getPath(),
+				Media ill = new Media(chapterID, imageFileUri.getPath(),
 						Media.ILLUSTRATION);
-				gc.addObject(ill, ObjectType.MEDIA);
+				addIllustration(ill);
 				insertIntoGallery(ill);
 			} else if (resultCode == RESULT_CANCELED) {
 				System.out.println("cancelled taking a photo");
@@ -311,8 +404,8 @@ public class EditChapterActivity extends Activity {
 			if (resultCode == RESULT_OK) {
 				imageFileUri = intent.getData();
 				String path = util.getRealPathFromURI(imageFileUri, this);
-				Media ill = new Media(chapter.getId(), path, Media.ILLUSTRATION);
-				gc.addObject(ill, ObjectType.MEDIA);
+				Media ill = new Media(chapterID, path, Media.ILLUSTRATION);
+				addIllustration(ill);
 			} else if (resultCode == RESULT_CANCELED) {
 				System.out.println("cancelled taking a photo");
 			} else {
@@ -18,6 +18,7 @@ package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.os.Bundle;
@@ -26,12 +27,13 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.Chapter;
 import ca.ualberta.cs.c301f13t13.backend.Choice;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
-import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 //import android.util.Log;
 
 /**
@@ -48,10 +50,9 @@ public class EditChoiceActivity extends Activity {
 	private ArrayList<Chapter> data = new ArrayList<Chapter>();
 	private UUID storyID;
 	private UUID fromChapterID;
-	private Story story;
-	private Chapter fromChapter;
 	private Chapter toChapter;
 	private SHController gc;
+	private Future<ArrayList<Chapter>> loading;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -64,22 +65,41 @@ public class EditChoiceActivity extends Activity {
 		super.onResume();
 		setUpFields();
 		setAddChoiceListener();
-		data.clear();
-		data.addAll(gc.getAllChapters(story.getId()));
-		chapterAdapter.notifyDataSetChanged();
+		loading = gc.getAllChaptersAsync(storyID,
+				new Callback<ArrayList<Chapter>>() {
+					@Override
+					public void onResult(ArrayList<Chapter> result) {
+						data.clear();
+						data.addAll(result);
+						chapterAdapter.notifyDataSetChanged();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						Toast.makeText(getBaseContext(),
+								"Could not load chapters", Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (loading != null) {
+			loading.cancel(true);
+		}
 	}
 
 	/**
 	 * Initializes the private fields needed
 	 */
 	public void setUpFields() {
-		// Grab GC and necessary story and chapter info
+		// Grab GC and the ids of the story and chapter
 		Bundle bundle = this.getIntent().getExtras();
 		storyID = (UUID) bundle.get("storyID");
 		fromChapterID = (UUID) bundle.get("chapterID");
 		gc = SHController.getInstance(this);
-		story = gc.getCompleteStory(storyID);
-		fromChapter = gc.getCompleteChapter(fromChapterID);
 
 		// Set up activity fields
 		choiceText = (EditText) findViewById(R.id.choiceText);
@@ -102,10 +122,25 @@ public class EditChoiceActivity extends Activity {
 					long arg3) {
 				toChapter = data.get(arg2);
 				String text = choiceText.getText().toString();
-				Choice addedChoice = new Choice(fromChapter.getId(), toChapter
+				Choice addedChoice = new Choice(fromChapterID, toChapter
 						.getId(), text);
-				gc.addObject(addedChoice, ObjectType.CHOICE);
-				finish();
+				// Only add the choice once while it is being saved
+				chapters.setEnabled(false);
+				gc.addObjectAsync(addedChoice, ObjectType.CHOICE,
+						new Callback<Object>() {
+							@Override
+							public void onResult(Object result) {
+								finish();
+							}
+
+							@Override
+							public void onError(Exception e) {
+								chapters.setEnabled(true);
+								Toast.makeText(getBaseContext(),
+										"Could not add choice",
+										Toast.LENGTH_SHORT).show();
+							}
+						});
 			}
 		});
 	}
@@ -16,6 +16,7 @@
 package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.ActionBar;
 import android.app.Activity;
@@ -30,6 +31,7 @@ import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 import ca.ualberta.cs.c301f13t13.backend.Utilities;
 
@@ -50,6 +52,7 @@ public class EditStoryActivity extends Activity {
 	private SHController gc;
 	private boolean isEditing;
 	private AlertDialog imageDialog;
+	private Future<Story> loading;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -72,11 +75,31 @@ public class EditStoryActivity extends Activity {
 		Bundle bundle = this.getIntent().getExtras();
 		isEditing = bundle.getBoolean("isEditing", false);
 		if (isEditing) {
-			newStory = gc.getCompleteStory((UUID) bundle.get("storyID"));
-			newTitle.setText(newStory.getTitle());
-			newAuthor.setText(newStory.getAuthor());
-			newDescription.setText(newStory.getDescription());
 			addfirstChapter.setText("Save Metadata");
+			// Can't save until the story is loaded
+			addfirstChapter.setEnabled(false);
+			loading = gc.getStoryAsync((UUID) bundle.get("storyID"),
+					new Callback<Story>() {
+						@Override
+						public void onResult(Story result) {
+							if (result == null) {
+								onError(null);
+								return;
+							}
+							newStory = result;
+							newTitle.setText(newStory.getTitle());
+							newAuthor.setText(newStory.getAuthor());
+							newDescription.setText(newStory.getDescription());
+							addfirstChapter.setEnabled(true);
+						}
+
+						@Override
+						public void onError(Exception e) {
+							Toast.makeText(getBaseContext(),
+									"Could not load story", Toast.LENGTH_SHORT)
+									.show();
+						}
+					});
 		}
 
 		addfirstChapter.setOnClickListener(new OnClickListener() {
@@ -93,7 +116,7 @@ public class EditStoryActivity extends Activity {
 					newStory.setAuthor(author);
 					newStory.setTitle(title);
 					newStory.setDescription(description);
-					gc.updateObject(newStory, ObjectType.CREATED_STORY);
+					saveStory();
 				} else {
 					newStory = new Story(title, author, description, 
 							Utilities.getPhoneId(getBaseContext()));
@@ -104,8 +127,8 @@ public class EditStoryActivity extends Activity {
 					intent.putExtra("storyID", newStory.getId());
 					intent.putExtra("story", newStory);
 					startActivity(intent);
+					finish();
 				}
-				finish();
 			}
 		});
 
@@ -145,4 +168,35 @@ public class EditStoryActivity extends Activity {
 			}
 		});
 	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (loading != null) {
+			loading.cancel(true);
+		}
+	}
+
+	/**
+	 * Saves the edited story in the background, then goes back once it is
+	 * saved.
+	 */
+	private void saveStory() {
+		addfirstChapter.setEnabled(false);
+		gc.updateObjectAsync(newStory, ObjectType.CREATED_STORY,
+				new Callback<Object>() {
+					@Override
+					public void onResult(Object result) {
+						finish();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						addfirstChapter.setEnabled(true);
+						Toast.makeText(getBaseContext(),
+								"Could not save story", Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
 }
@@ -10,7 +10,6 @@ import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
@@ -23,7 +22,6 @@ import ca.ualberta.cs.c301f13t13.backend.Chapter;
 import ca.ualberta.cs.c301f13t13.backend.Media;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
-import ca.ualberta.cs.c301f13t13.backend.Utilities;
 
 /**
  * @author Owner
@@ -60,10 +58,11 @@ public class GUIMediaUtilities {
 	 * CODE REUSE URL:
 	 * http://android-er.blogspot.ca/2012/07/implement-gallery-like.html Date:
 	 * Nov. 7, 2013 Author: Andr.oid Eric
+	 * 
+	 * The thumbnail comes from the ThumbnailCache, and is decoded in the
+	 * background the first time it is shown.
 	 */
 	public View insertImage(Media ill, Context context) {
-		Bitmap bm = Utilities.decodeSampledBitmapFromUri(Uri.parse(ill.getPath()), 
-				220, 220);
 		LinearLayout layout = new LinearLayout(context);
 
 		layout.setLayoutParams(new LayoutParams(250, 250));
@@ -72,7 +71,7 @@ public class GUIMediaUtilities {
 		ImageView imageView = new ImageView(context);
 		imageView.setLayoutParams(new LayoutParams(220, 220));
 		imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
-		imageView.setImageBitmap(bm);
+		ThumbnailCache.getInstance(context).loadThumbnail(ill, imageView);
 
 		layout.addView(imageView);
 		return layout;
@@ -17,6 +17,7 @@
 package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -27,9 +28,11 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.GridView;
 import android.widget.AdapterView.OnItemClickListener;
+import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 
 /**
@@ -47,6 +50,7 @@ public class SearchResultsActivity extends Activity {
 	private ArrayList<Story> gridArray = new ArrayList<Story>();
 	private AdapterStories customGridAdapter;
 	private SHController gc;
+	private Future<ArrayList<Story>> searching;
 	ObjectType viewType = ObjectType.CREATED_STORY;
 
 
@@ -65,14 +69,8 @@ public class SearchResultsActivity extends Activity {
 		titleName = bundle.getString("Input_title");
 		viewType = ObjectType.CREATED_STORY;
 		
-			ArrayList<Story> newStories = new ArrayList<Story>();
-			gridArray.clear();
-			gc = SHController.getInstance(this);
-			newStories = gc.searchStory(titleName, viewType);
-			
-			if (newStories.size() !=0 ) {
-				gridArray.addAll(newStories);
-			}
+		gridArray.clear();
+		gc = SHController.getInstance(this);
 			
 		// Setup the grid view for the stories
 		gridView = (GridView) findViewById(R.id.gridStoriesView);
@@ -91,7 +89,32 @@ public class SearchResultsActivity extends Activity {
 				startActivity(intent);
 			}
 		});	
-		customGridAdapter.notifyDataSetChanged();			
+		customGridAdapter.notifyDataSetChanged();
+
+		// Search in the background, showing the results when done
+		searching = gc.searchStoryAsync(titleName, viewType,
+				new Callback<ArrayList<Story>>() {
+					@Override
+					public void onResult(ArrayList<Story> newStories) {
+						gridArray.clear();
+						gridArray.addAll(newStories);
+						customGridAdapter.notifyDataSetChanged();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						Toast.makeText(getBaseContext(), "Search failed",
+								Toast.LENGTH_SHORT).show();
+					}
+				});
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		if (searching != null) {
+			searching.cancel(true);
+		}
 	}
 
 	// MENU INFORMATION
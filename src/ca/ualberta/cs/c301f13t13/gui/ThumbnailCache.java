@@ -0,0 +1,230 @@
+/**
+ * Copyright 2013 Alex Wong, Ashley Brown, Josh Tate, Kim Wu, Stephanie Gil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ca.ualberta.cs.c301f13t13.gui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.LruCache;
+import android.widget.ImageView;
+import ca.ualberta.cs.c301f13t13.backend.BlobStore;
+import ca.ualberta.cs.c301f13t13.backend.ChapterPrefetcher;
+import ca.ualberta.cs.c301f13t13.backend.Media;
+import ca.ualberta.cs.c301f13t13.backend.ServerManager;
+import ca.ualberta.cs.c301f13t13.backend.Utilities;
+
+/**
+ * Keeps the thumbnails shown for the photos and illustrations of chapters, so
+ * an image only has to be decoded from its full size file once. Decoded
+ * thumbnails are kept in memory (up to an eighth of the app's memory), and
+ * also saved already scaled down in the app's cache folder so they are quick
+ * to load again after being dropped from memory. Both are keyed by the hash
+ * the image is stored under, so a media given a new image gets a new
+ * thumbnail, and the same image used twice only has one.
+ *
+ * Thumbnails that aren't in memory are loaded in the background. The
+ * ChapterPrefetcher also has it get the thumbnails of the chapters it reads
+ * ahead ready. The contents of a downloaded story's images are only got
+ * from the server when their thumbnails are first made, in the background.
+ *
+ * @author Alexander Wong
+ */
+public class ThumbnailCache implements ChapterPrefetcher.MediaWarmer {
+	public static final int THUMBNAIL_SIZE = 220;
+	private static ThumbnailCache self = null;
+	private LruCache<String, Bitmap> memory;
+	private File folder;
+	private BlobStore blobs;
+
+	protected ThumbnailCache(Context context) {
+		// Size in kilobytes
+		int maxSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+		memory = new LruCache<String, Bitmap>(maxSize) {
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap) {
+				return bitmap.getByteCount() / 1024;
+			}
+		};
+		folder = new File(context.getCacheDir(), "thumbs");
+		folder.mkdirs();
+		blobs = BlobStore.getInstance(context);
+	}
+
+	public static synchronized ThumbnailCache getInstance(Context context) {
+		if (self == null) {
+			self = new ThumbnailCache(context.getApplicationContext());
+		}
+		return self;
+	}
+
+	/**
+	 * Shows the thumbnail of the media in the image view. If the thumbnail
+	 * isn't in memory, it is loaded in the background and shown when ready,
+	 * as long as the view wasn't given another image in the meantime.
+	 *
+	 * @param media
+	 * @param imageView
+	 */
+	public void loadThumbnail(Media media, ImageView imageView) {
+		String key = getKey(media);
+		Bitmap bitmap = memory.get(key);
+		imageView.setTag(key);
+		if (bitmap != null) {
+			imageView.setImageBitmap(bitmap);
+			return;
+		}
+		imageView.setImageBitmap(null);
+		new ThumbnailTask(media, imageView).executeOnExecutor(
+				AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+
+	/**
+	 * Loads the thumbnail of the media into memory if it isn't there, on the
+	 * calling thread.
+	 *
+	 * @return Bytes the loaded thumbnail takes, or 0 if it was there already
+	 *         or couldn't be loaded.
+	 */
+	@Override
+	public long warm(Media media) {
+		String key = getKey(media);
+		if (memory.get(key) != null) {
+			return 0;
+		}
+		Bitmap bitmap = getThumbnail(media);
+		if (bitmap == null) {
+			return 0;
+		}
+		memory.put(key, bitmap);
+		return bitmap.getByteCount();
+	}
+
+	/**
+	 * Returns the key of the media's thumbnail. Media whose image couldn't be
+	 * stored are keyed by their id and the path of their image instead.
+	 */
+	private static String getKey(Media media) {
+		if (media.getBlobHash() != null) {
+			return media.getBlobHash();
+		}
+		String path = String.valueOf(media.getPath());
+		return media.getId() + "-" + Integer.toHexString(path.hashCode());
+	}
+
+	/**
+	 * Gets the thumbnail from the disk cache, or makes it from the full image
+	 * and saves it there. Runs in the background.
+	 */
+	private Bitmap getThumbnail(Media media) {
+		File file = new File(folder, getKey(media));
+		if (file.exists()) {
+			Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+
+		// The stored copy of the image outlives the file it was taken from
+		String path = media.getPath();
+		String hash = media.getBlobHash();
+		if (hash != null && !blobs.contains(hash)) {
+			// A downloaded story's media come without their contents
+			try {
+				ServerManager.getInstance().fetchBlob(hash, blobs);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (hash != null && blobs.contains(hash)) {
+			path = blobs.getFile(hash).getPath();
+		}
+		Bitmap full = Utilities.decodeSampledBitmapFromUri(
+				Uri.parse(path), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+		if (full == null) {
+			return null;
+		}
+		Bitmap thumbnail = ThumbnailUtils.extractThumbnail(full,
+				THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+		if (thumbnail != full) {
+			full.recycle();
+		}
+		save(thumbnail, file);
+		return thumbnail;
+	}
+
+	/**
+	 * Saves the thumbnail to a temporary file first, so a half written file
+	 * is never read as a thumbnail.
+	 */
+	private void save(Bitmap thumbnail, File file) {
+		File temp = new File(folder, file.getName() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			thumbnail.compress(Bitmap.CompressFormat.JPEG, 85, out);
+			out.close();
+			out = null;
+			temp.renameTo(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+			temp.delete();
+		}
+	}
+
+	private class ThumbnailTask extends AsyncTask<Void, Void, Bitmap> {
+		private Media media;
+		private ImageView imageView;
+
+		public ThumbnailTask(Media media, ImageView imageView) {
+			this.media = media;
+			this.imageView = imageView;
+		}
+
+		@Override
+		protected Bitmap doInBackground(Void... params) {
+			return getThumbnail(media);
+		}
+
+		@Override
+		protected void onPostExecute(Bitmap bitmap) {
+			if (bitmap == null) {
+				return;
+			}
+			String key = getKey(media);
+			memory.put(key, bitmap);
+			// The view could have been reused for another image
+			if (key.equals(imageView.getTag())) {
+				imageView.setImageBitmap(bitmap);
+			}
+		}
+	}
+}
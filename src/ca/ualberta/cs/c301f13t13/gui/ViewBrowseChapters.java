@@ -17,6 +17,7 @@ package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -27,10 +28,11 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ListView;
+import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.Chapter;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
-import ca.ualberta.cs.c301f13t13.backend.Story;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 
 /**
  * Takes a storyID bundle, displays all the chapters related to that story. Used
@@ -43,7 +45,7 @@ public class ViewBrowseChapters extends Activity {
 
 	private SHController gc;
 	private UUID storyID;
-	private Story story;
+	private Future<ArrayList<Chapter>> loading;
 	private ListView storyChapters;
 	private AdapterChapters chapterAdapter;
 	private ArrayList<Chapter> data = new ArrayList<Chapter>();
@@ -68,7 +70,7 @@ public class ViewBrowseChapters extends Activity {
 			Intent intent = new Intent(getBaseContext(),
 					EditChapterActivity.class);
 			intent.putExtra("isEditing", false);
-			intent.putExtra("storyID", story.getId());
+			intent.putExtra("storyID", storyID);
 			startActivity(intent);
 			return true;
 		}
@@ -80,20 +82,40 @@ public class ViewBrowseChapters extends Activity {
 		super.onResume();
 		setUpFields();
 		setOnItemClickListener();
-		data.clear();
-		data.addAll(gc.getAllChapters(storyID));
-		chapterAdapter.notifyDataSetChanged();
+		loading = gc.getAllChaptersAsync(storyID,
+				new Callback<ArrayList<Chapter>>() {
+					@Override
+					public void onResult(ArrayList<Chapter> result) {
+						data.clear();
+						data.addAll(result);
+						chapterAdapter.notifyDataSetChanged();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						Toast.makeText(getBaseContext(),
+								"Could not load chapters", Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (loading != null) {
+			loading.cancel(true);
+		}
 	}
 
 	/**
 	 * Initialize private fields needed
 	 */
 	public void setUpFields() {
-		// Grab GC and pull all chapters from story
+		// Grab GC and the story the chapters are from
 		gc = SHController.getInstance(this);
 		Bundle bundle = this.getIntent().getExtras();
 		storyID = (UUID) bundle.get("storyID");
-		story = gc.getCompleteStory(storyID);
 
 		// Set up activity field
 		storyChapters = (ListView) findViewById(R.id.storyChapters);
@@ -117,7 +139,7 @@ public class ViewBrowseChapters extends Activity {
 				Intent intent = new Intent(getBaseContext(),
 						EditChapterActivity.class);
 				intent.putExtra("isEditing", true);
-				intent.putExtra("storyID", story.getId());
+				intent.putExtra("storyID", storyID);
 				intent.putExtra("chapterID", chapter.getId());
 				startActivity(intent);
 			}
@@ -29,10 +29,8 @@ import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.GridView;
-import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
-import ca.ualberta.cs.c301f13t13.backend.SHController;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 
 /**
@@ -46,7 +44,6 @@ public class ViewBrowseStories extends Activity {
 	private GridView gridView;
 	private ArrayList<Story> gridArray = new ArrayList<Story>();
 	private AdapterStories customGridAdapter;
-	private SHController gc;
 	ObjectType viewType = ObjectType.CREATED_STORY;
 
 	/**
@@ -96,6 +93,7 @@ public class ViewBrowseStories extends Activity {
 		customGridAdapter = new AdapterStories(this,
 				R.layout.browse_story_item, gridArray);
 		gridView.setAdapter(customGridAdapter);
+		gridView.setOnScrollListener(customGridAdapter);
 
 		// Setup the grid view click listener
 		gridView.setOnItemClickListener(new OnItemClickListener() {
@@ -148,18 +146,19 @@ public class ViewBrowseStories extends Activity {
 		refreshStories();
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();
+		customGridAdapter.cancelLoading();
+	}
+
 	/**
-	 * Called whenever the spinner is updated. Will story array based on
-	 * whatever the general controller returns.
+	 * Called whenever the spinner is updated. Shows the first page of the
+	 * stories of the type selected, and the adapter loads the rest as the
+	 * grid is scrolled. Any load still running for the old spinner selection
+	 * is cancelled.
 	 */
 	private void refreshStories() {
-		ArrayList<Story> newStories;
-		gridArray.clear();
-		gc = SHController.getInstance(this);
-		newStories = gc.getAllStories(viewType);
-		if (newStories != null) {
-			gridArray.addAll(newStories);
-		}
-		customGridAdapter.notifyDataSetChanged();
+		customGridAdapter.showStories(viewType);
 	}
 }
@@ -18,6 +18,7 @@ package ca.ualberta.cs.c301f13t13.gui;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -48,6 +49,7 @@ import ca.ualberta.cs.c301f13t13.backend.Choice;
 import ca.ualberta.cs.c301f13t13.backend.Media;
 import ca.ualberta.cs.c301f13t13.backend.ObjectType;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Utilities;
 
 /**
@@ -63,6 +65,7 @@ public class ViewChapter extends Activity {
 	private SHController gc;
 	private GUIMediaUtilities util;
 	private Chapter chapter;
+	private Future<Chapter> loading;
 	private ArrayList<Choice> choices = new ArrayList<Choice>();
 	private ArrayList<Media> photoList;
 	private ArrayList<Media> illList;
@@ -95,6 +98,14 @@ public class ViewChapter extends Activity {
 		updateData();
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (loading != null) {
+			loading.cancel(true);
+		}
+	}
+
 	/**
 	 * Initializes the private fields needed.
 	 */
@@ -104,6 +115,7 @@ public class ViewChapter extends Activity {
 		storyID = (UUID) bundle.get("storyID");
 		chapterID = (UUID) bundle.get("chapterID");
 		gc = SHController.getInstance(this);
+		gc.getPrefetcher().setMediaWarmer(ThumbnailCache.getInstance(this));
 		util = new GUIMediaUtilities();
 
 		// Setup the activity fields
@@ -120,10 +132,45 @@ public class ViewChapter extends Activity {
 	}
 
 	/**
-	 * Gets the new chapter and updates the view's components.
+	 * Loads the chapter in the background, then updates the view's
+	 * components with it.
 	 */
 	public void updateData() {
-		chapter = gc.getCompleteChapter(chapterID);
+		if (loading != null) {
+			loading.cancel(true);
+		}
+		// Following a choice usually finds the chapter already read ahead
+		Chapter prefetched = gc.getPrefetchedChapter(chapterID);
+		if (prefetched != null) {
+			chapter = prefetched;
+			showChapter();
+			return;
+		}
+		loading = gc.getCompleteChapterAsync(chapterID,
+				new Callback<Chapter>() {
+					@Override
+					public void onResult(Chapter result) {
+						if (result == null) {
+							onError(null);
+							return;
+						}
+						chapter = result;
+						showChapter();
+					}
+
+					@Override
+					public void onError(Exception e) {
+						Toast.makeText(getBaseContext(),
+								"Could not load chapter", Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
+
+	/**
+	 * Updates the view's components with the loaded chapter.
+	 */
+	private void showChapter() {
 		choices.clear();
 		// Check for no chapter text
 		if (chapter.getText().equals("")) {
@@ -155,6 +202,9 @@ public class ViewChapter extends Activity {
 		for (Media ill : illList) {
 			illustrations.addView(util.insertImage(ill, this));
 		}
+
+		// Read ahead the chapters the choices lead to
+		gc.prefetchChoices(chapter);
 	}
 
 	/**
@@ -249,13 +299,32 @@ public class ViewChapter extends Activity {
 		this.sendBroadcast(mediaScanIntent);
 	}
 
+	/**
+	 * Adds the photo in the background, since its image is copied as it is
+	 * added, then shows the chapter again with it.
+	 */
+	private void addPhoto(Media photo) {
+		gc.addObjectAsync(photo, ObjectType.MEDIA, new Callback<Object>() {
+			@Override
+			public void onResult(Object result) {
+				updateData();
+			}
+
+			@Override
+			public void onError(Exception e) {
+				Toast.makeText(getBaseContext(), "Could not add photo",
+						Toast.LENGTH_SHORT).show();
+			}
+		});
+	}
+
 	protected void onActivityResult(int requestCode, int resultCode,
 			Intent intent) {
 		if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
 			if (resultCode == RESULT_OK) {
-				Media photo = new Media(chapter.getId(),
+				Media photo = new Media(chapterID,
 						imageFileUri.getPath(), Media.PHOTO);
-				gc.addObject(photo, ObjectType.MEDIA);
+				addPhoto(photo);
 				insertIntoGallery(photo);
 			} else if (resultCode == RESULT_CANCELED) {
 				System.out.println("cancelled taking a photo");
@@ -267,8 +336,8 @@ public class ViewChapter extends Activity {
 			if (resultCode == RESULT_OK) {
 				imageFileUri = intent.getData();
 				String path = util.getRealPathFromURI(imageFileUri, this);
-				Media photo = new Media(chapter.getId(), path, Media.PHOTO);
-				gc.addObject(photo, ObjectType.MEDIA);
+				Media photo = new Media(chapterID, path, Media.PHOTO);
+				addPhoto(photo);
 			} else if (resultCode == RESULT_CANCELED) {
 				System.out.println("cancelled taking a photo");
 			} else {
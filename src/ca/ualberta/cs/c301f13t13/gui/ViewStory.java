@@ -16,6 +16,7 @@
 package ca.ualberta.cs.c301f13t13.gui;
 
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.ActionBar;
 import android.app.Activity;
@@ -28,8 +29,10 @@ import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import ca.ualberta.cmput301f13t13.storyhoard.R;
 import ca.ualberta.cs.c301f13t13.backend.SHController;
+import ca.ualberta.cs.c301f13t13.backend.SHController.Callback;
 import ca.ualberta.cs.c301f13t13.backend.Story;
 
 /**
@@ -41,6 +44,7 @@ import ca.ualberta.cs.c301f13t13.backend.Story;
 public class ViewStory extends Activity {
 	Story focusedStory;
 	SHController gc;
+	private Future<Story> loading;
 
 	private ImageView storyCover;
 	private TextView storyTitle;
@@ -60,7 +64,35 @@ public class ViewStory extends Activity {
 		super.onResume();
 		setUpFields();
 		setBeginReading();
-		focusedStory = gc.getCompleteStory(storyID);
+		loading = gc.getStoryAsync(storyID, new Callback<Story>() {
+			@Override
+			public void onResult(Story result) {
+				focusedStory = result;
+				if (focusedStory != null) {
+					showStory();
+				}
+			}
+
+			@Override
+			public void onError(Exception e) {
+				Toast.makeText(getBaseContext(), "Could not load story",
+						Toast.LENGTH_SHORT).show();
+			}
+		});
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		if (loading != null) {
+			loading.cancel(true);
+		}
+	}
+
+	/**
+	 * Fills in the views with the loaded story.
+	 */
+	private void showStory() {
 		//storyCover.setImageBitmap(focusedStory.getImage());
 		// Check no title
 		if (focusedStory.getTitle().equals("")) {
@@ -102,7 +134,7 @@ public class ViewStory extends Activity {
 		case R.id.editStoryMetaData:
 			intent = new Intent(this, EditStoryActivity.class);
 			intent.putExtra("isEditing", true);
-			intent.putExtra("storyID", focusedStory.getId());
+			intent.putExtra("storyID", storyID);
 			startActivity(intent);
 			return true;
 		default:
@@ -118,7 +150,6 @@ public class ViewStory extends Activity {
 		gc = SHController.getInstance(this);
 		Bundle bundle = this.getIntent().getExtras();
 		storyID = (UUID) bundle.getSerializable("storyID");
-		focusedStory = gc.getCompleteStory(storyID);
 
 		// Initialize the activity fields
 		storyCover = (ImageView) findViewById(R.id.storyImage);
@@ -140,6 +171,10 @@ public class ViewStory extends Activity {
 		beginReading.setOnClickListener(new OnClickListener() {
 			@Override
 			public void onClick(View v) {
+				// Story still loading
+				if (focusedStory == null) {
+					return;
+				}
 				// Begin reading, go to first chapter
 				Intent intent = new Intent(getBaseContext(), ViewChapter.class);
 				intent.putExtra("storyID", storyID);